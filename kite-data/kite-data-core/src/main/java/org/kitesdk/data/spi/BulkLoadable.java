@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Cloudera.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.spi;
+
+import org.apache.hadoop.fs.Path;
+import org.kitesdk.data.DatasetWriter;
+
+/**
+ * This interface is for views that can stage entities in files and later load
+ * those files into the underlying storage, rather than writing each entity to
+ * the storage directly.
+ *
+ * @param <E> the type of entities
+ */
+public interface BulkLoadable<E> {
+  /**
+   * Returns a {@link DatasetWriter} that stages entities as files in the given
+   * directory. Entities are not visible until the directory is loaded with
+   * {@link #bulkLoad(Path)}.
+   *
+   * @param directory a directory where files will be written
+   * @return a DatasetWriter for staging entities
+   */
+  public DatasetWriter<E> newBulkWriter(Path directory);
+
+  /**
+   * Loads all of the files staged in the given directory. Writers for the
+   * directory must be closed before it is loaded.
+   *
+   * @param directory a directory of files written by bulk writers
+   */
+  public void bulkLoad(Path directory);
+}
@@ -346,6 +346,41 @@ public class Constraints {
     return provided; // Immutable, okay to return without copying
   }
 
+  /**
+   * Returns the predicates in this constraint set, keyed by the name of the
+   * source field or partition they constrain.
+   *
+   * @return an immutable Map of field or partition name to Predicate
+   */
+  public Map<String, Predicate> getPredicates() {
+    return constraints; // Immutable, okay to return without copying
+  }
+
+  /**
+   * Returns the names of the entity fields that must be read to test entities
+   * with this constraint set. Constraints on partition names are translated
+   * to the partition's source field.
+   *
+   * @return a Set of source field names
+   */
+  public Set<String> getSourceFields() {
+    Set<String> fields = Sets.newHashSet();
+    for (String name : constraints.keySet()) {
+      if (schema.getField(name) != null) {
+        fields.add(name);
+      }
+    }
+    if (strategy != null) {
+      for (FieldPartitioner fp : Accessor.getDefault().getFieldPartitioners(strategy)) {
+        if (!(fp instanceof ProvidedFieldPartitioner) &&
+            constraints.containsKey(fp.getName())) {
+          fields.add(fp.getSourceName());
+        }
+      }
+    }
+    return fields;
+  }
+
   @SuppressWarnings("unchecked")
   public Constraints with(String name, Object... values) {
     SchemaUtil.checkTypeConsistency(schema, strategy, name, values);
@@ -16,10 +16,17 @@
 
 package org.kitesdk.data.spi;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
 import org.kitesdk.data.DatasetDescriptor;
 
 public class DescriptorUtil {
 
+  private static final Splitter LIST_SPLITTER = Splitter.on(',')
+      .trimResults()
+      .omitEmptyStrings();
+
   /**
    * Returns whether the value of the descriptor property is {@code true}.
    *
@@ -94,4 +101,22 @@ public class DescriptorUtil {
       return (int) asLong;
     }
   }
+
+  /**
+   * Returns the value of the property parsed as a comma-separated list.
+   * <p>
+   * Values are trimmed and empty values are ignored. If the property is not
+   * present, this will return an empty list.
+   *
+   * @param prop a String property name
+   * @param descriptor a {@link DatasetDescriptor}
+   * @return the values in the property, or an empty list
+   */
+  public static List<String> getList(String prop, DatasetDescriptor descriptor) {
+    if (descriptor.hasProperty(prop)) {
+      return ImmutableList.copyOf(
+          LIST_SPLITTER.split(descriptor.getProperty(prop)));
+    }
+    return ImmutableList.of();
+  }
 }
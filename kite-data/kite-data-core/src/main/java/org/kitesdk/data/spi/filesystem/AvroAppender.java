@@ -69,7 +69,13 @@ class AvroAppender<E> implements FileSystemWriter.FileAppender<E> {
   @Override
   public void append(E entity) throws IOException {
     try {
-      dataFileWriter.append(entity);
+      if (entity instanceof EncodedAvroRecord) {
+        // the record was already encoded with the dataset's schema
+        dataFileWriter.appendEncoded(
+            ((EncodedAvroRecord) entity).getEncoded().duplicate());
+      } else {
+        dataFileWriter.append(entity);
+      }
     } catch (DataFileWriter.AppendWriteException e) {
       throw new DatasetRecordException("Failed to append record", e);
     }
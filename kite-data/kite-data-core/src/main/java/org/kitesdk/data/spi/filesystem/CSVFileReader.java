@@ -18,6 +18,8 @@ package org.kitesdk.data.spi.filesystem;
 
 import au.com.bytecode.opencsv.CSVReader;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import com.google.common.collect.Lists;
 import java.util.List;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -56,6 +58,7 @@ public class CSVFileReader<E> extends AbstractDatasetReader<E> {
   private final Class<E> recordClass;
 
   private CSVReader reader = null;
+  private CSVTokenizer tokenizer = null;
   private CSVRecordBuilder<E> builder;
 
   // progress reporting
@@ -117,12 +120,18 @@ public class CSVFileReader<E> extends AbstractDatasetReader<E> {
       }
     }
 
-    this.reader = CSVUtil.newReader(incoming, props);
+    if (CSVTokenizer.supports(props)) {
+      this.tokenizer = new CSVTokenizer(new InputStreamReader(
+          incoming, Charset.forName(props.charset)), props);
+    } else {
+      // opencsv handles dialects that the tokenizer does not
+      this.reader = CSVUtil.newReader(incoming, props);
+    }
 
     List<String> header = null;
     if (props.useHeader) {
       this.hasNext = advance();
-      header = Lists.newArrayList(next);
+      header = Lists.newArrayList(tokenizer != null ? tokenizer.toArray() : next);
     } else if (props.header != null) {
       try {
         header = Lists.newArrayList(
@@ -158,12 +167,13 @@ public class CSVFileReader<E> extends AbstractDatasetReader<E> {
     }
 
     try {
-      if (reuseRecords) {
-        this.record = builder.makeRecord(next, record);
-        return record;
+      E reuse = reuseRecords ? record : null;
+      if (tokenizer != null) {
+        this.record = builder.makeRecord(tokenizer, reuse);
       } else {
-        return builder.makeRecord(next, null);
+        this.record = builder.makeRecord(next, reuse);
       }
+      return record;
     } finally {
       this.hasNext = advance();
     }
@@ -171,6 +181,9 @@ public class CSVFileReader<E> extends AbstractDatasetReader<E> {
 
   private boolean advance() {
     try {
+      if (tokenizer != null) {
+        return tokenizer.next();
+      }
       next = reader.readNext();
     } catch (IOException ex) {
       throw new DatasetIOException("Could not read record", ex);
@@ -187,7 +200,11 @@ public class CSVFileReader<E> extends AbstractDatasetReader<E> {
     LOG.debug("Closing reader on path:{}", path);
 
     try {
-      reader.close();
+      if (tokenizer != null) {
+        tokenizer.close();
+      } else {
+        reader.close();
+      }
     } catch (IOException e) {
       throw new DatasetIOException("Unable to close reader path:" + path, e);
     }
@@ -27,11 +27,13 @@ import org.kitesdk.data.DatasetOperationException;
 import org.kitesdk.data.DatasetRecordException;
 import org.kitesdk.data.spi.SchemaUtil;
 
-class CSVRecordBuilder<E> {
+public class CSVRecordBuilder<E> {
   private final Schema schema;
   private final Class<E> recordClass;
   private final Schema.Field[] fields;
   private final int[] indexes; // Record position to CSV field position
+  private final CSVValueConverter[] converters;
+  private final boolean[] nullOk;
 
   public CSVRecordBuilder(Schema schema, Class<E> recordClass,
                           @Nullable List<String> header) {
@@ -63,6 +65,13 @@ class CSVRecordBuilder<E> {
         indexes[i] = i;
       }
     }
+
+    converters = new CSVValueConverter[fields.length];
+    nullOk = new boolean[fields.length];
+    for (int i = 0; i < fields.length; i += 1) {
+      converters[i] = CSVValueConverter.forSchema(fields[i].schema());
+      nullOk[i] = SchemaUtil.nullOk(fields[i].schema());
+    }
   }
 
   public E makeRecord(String[] fields, @Nullable E reuse) {
@@ -80,6 +89,62 @@ class CSVRecordBuilder<E> {
     return record;
   }
 
+  /**
+   * Makes a record from the current record of a {@link CSVTokenizer}, without
+   * creating a String for each field.
+   */
+  E makeRecord(CSVTokenizer tokens, @Nullable E reuse) {
+    E record = reuse;
+    if (record == null) {
+      record = newRecordInstance();
+    }
+
+    if (record instanceof IndexedRecord) {
+      IndexedRecord indexed = (IndexedRecord) record;
+      for (int i = 0; i < indexes.length; i += 1) {
+        indexed.put(i, makeValue(tokens, i));
+      }
+    } else {
+      for (int i = 0; i < indexes.length; i += 1) {
+        ReflectData.get().setField(
+            record, fields[i].name(), i, makeValue(tokens, i));
+      }
+    }
+
+    return record;
+  }
+
+  private Object makeValue(CSVTokenizer tokens, int pos) {
+    int index = indexes[pos];
+    if (index >= tokens.getFieldCount()) {
+      return makeValue(null, fields[pos]);
+    }
+
+    Schema.Field field = fields[pos];
+    try {
+      Object value = converters[pos].convert(tokens.getBuffer(index),
+          tokens.getStart(index), tokens.getLength(index));
+      if (value != null || nullOk[pos]) {
+        return value;
+      } else {
+        // this will fail if there is no default value
+        return ReflectData.get().getDefaultValue(field);
+      }
+    } catch (DatasetRecordException e) {
+      // add the field name to the error message
+      throw new DatasetRecordException(String.format(
+          "Cannot convert field %s", field.name()), e);
+    } catch (NumberFormatException e) {
+      throw new DatasetRecordException(String.format(
+          "Field %s: value not a %s: '%s'",
+          field.name(), field.schema(), tokens.getString(index)), e);
+    } catch (AvroRuntimeException e) {
+      throw new DatasetRecordException(String.format(
+          "Field %s: cannot make %s value: '%s'",
+          field.name(), field.schema(), tokens.getString(index)), e);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private E newRecordInstance() {
     if (recordClass != GenericData.Record.class && !recordClass.isInterface()) {
@@ -142,7 +207,7 @@ class CSVRecordBuilder<E> {
    * @param schema a Schema
    * @return the string coerced to the correct type from the schema or null
    */
-  private static Object makeValue(@Nullable String string, Schema schema) {
+  static Object makeValue(@Nullable String string, Schema schema) {
     if (string == null) {
       return null;
     }
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.spi.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A CSV tokenizer that scans a char buffer in place.
+ * <p>
+ * This produces the same fields as opencsv's {@code CSVReader} with the
+ * settings used by {@link CSVUtil#newReader}, including how quotes in the
+ * middle of a field, escapes, and quoted line breaks are handled. Unlike
+ * opencsv, fields are not copied into Strings: a field that contains no
+ * quote or escape characters is a range of the read buffer, and other fields
+ * are copied into a scratch buffer. Field ranges are valid until the next call
+ * to {@link #next()}.
+ * <p>
+ * Dialects where the delimiter, quote, and escape characters are not
+ * distinct, or where one is a line terminator, are not supported; see
+ * {@link #supports(CSVProperties)}.
+ */
+class CSVTokenizer implements Closeable {
+
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  private static final int DEFAULT_NUM_FIELDS = 16;
+
+  private final Reader reader;
+  private final char separator;
+  private final char quote;
+  private final char escape;
+  private int linesToSkip;
+
+  // read buffer
+  private char[] buffer;
+  private int pos = 0;
+  private int limit = 0;
+  private boolean eof = false;
+
+  // fields of the current record
+  private int numFields = 0;
+  private int[] starts = new int[DEFAULT_NUM_FIELDS];
+  private int[] lengths = new int[DEFAULT_NUM_FIELDS];
+  private boolean[] copied = new boolean[DEFAULT_NUM_FIELDS];
+  private char[] scratch = new char[1024];
+  private int scratchLength = 0;
+
+  // the current field, either a range of the buffer or a range of scratch
+  private int runStart = 0;
+  private int runEnd = 0;
+  private boolean copying = false;
+  private int copyStart = 0;
+
+  // like opencsv, this is not reset between records
+  private boolean inField = false;
+
+  // buffer positions that must be kept when more data is read
+  private int recordStart = 0;
+  private int lineStart = 0;
+
+  CSVTokenizer(Reader reader, CSVProperties props) {
+    this(reader, props, DEFAULT_BUFFER_SIZE);
+  }
+
+  CSVTokenizer(Reader reader, CSVProperties props, int bufferSize) {
+    this.reader = reader;
+    this.separator = props.delimiter.charAt(0);
+    this.quote = props.quote.charAt(0);
+    this.escape = props.escape.charAt(0);
+    this.linesToSkip = props.linesToSkip;
+    this.buffer = new char[bufferSize];
+  }
+
+  /**
+   * Returns whether this tokenizer can parse the dialect in {@code props}.
+   */
+  static boolean supports(CSVProperties props) {
+    char separator = props.delimiter.charAt(0);
+    char quote = props.quote.charAt(0);
+    char escape = props.escape.charAt(0);
+    return separator != quote && separator != escape && quote != escape &&
+        !isLineTerminator(separator) && !isLineTerminator(quote) &&
+        !isLineTerminator(escape);
+  }
+
+  /**
+   * Reads the next record.
+   *
+   * @return true if a record was read, false at the end of the input
+   * @throws IOException if the underlying reader fails
+   */
+  boolean next() throws IOException {
+    while (linesToSkip > 0) {
+      skipLine();
+      linesToSkip -= 1;
+    }
+
+    this.numFields = 0;
+    this.scratchLength = 0;
+    this.recordStart = pos;
+    this.lineStart = pos;
+
+    if (!ensure(0)) {
+      return false;
+    }
+
+    boolean inQuotes = false;
+    resetField();
+
+    while (true) {
+      if (!ensure(0)) {
+        if (inQuotes) {
+          // opencsv drops an unterminated quoted field at the end of input
+          return numFields > 0;
+        }
+        endField();
+        return true;
+      }
+
+      char c = buffer[pos];
+
+      if (isLineTerminator(c)) {
+        int terminatorLength = 1;
+        if (c == '\r' && ensure(1) && buffer[pos + 1] == '\n') {
+          terminatorLength = 2;
+        }
+
+        if (inQuotes) {
+          // continue the quoted field on the next line, with a '\n'
+          if (c == '\n') {
+            append(pos);
+          } else {
+            appendChar('\n');
+          }
+          pos += terminatorLength;
+          lineStart = pos;
+          continue;
+        }
+
+        endField();
+        pos += terminatorLength;
+        return true;
+      }
+
+      if (c == escape) {
+        int next = peekInLine();
+        if ((inQuotes || inField) && (next == quote || next == escape)) {
+          append(pos + 1);
+          pos += 2;
+        } else {
+          pos += 1;
+        }
+
+      } else if (c == quote) {
+        int next = peekInLine();
+        if ((inQuotes || inField) && next == quote) {
+          append(pos + 1);
+          pos += 2;
+        } else {
+          // a quote in the middle of a field, like a,b"c"d,e, is kept
+          int i = pos - lineStart;
+          if (i > 2 && buffer[pos - 1] != separator &&
+              next >= 0 && next != separator) {
+            if (fieldLength() > 0 && isAllWhitespace()) {
+              resetField(); // discard white space leading up to the quote
+            } else {
+              append(pos);
+            }
+          }
+          inQuotes = !inQuotes;
+          pos += 1;
+        }
+        inField = !inField;
+
+      } else if (c == separator && !inQuotes) {
+        endField();
+        resetField();
+        inField = false;
+        pos += 1;
+
+      } else {
+        append(pos);
+        inField = true;
+        pos += 1;
+      }
+    }
+  }
+
+  int getFieldCount() {
+    return numFields;
+  }
+
+  /**
+   * Returns the buffer that holds field {@code i}, from
+   * {@link #getStart(int)} for {@link #getLength(int)} chars.
+   */
+  char[] getBuffer(int i) {
+    return copied[i] ? scratch : buffer;
+  }
+
+  int getStart(int i) {
+    return starts[i];
+  }
+
+  int getLength(int i) {
+    return lengths[i];
+  }
+
+  String getString(int i) {
+    return new String(getBuffer(i), starts[i], lengths[i]);
+  }
+
+  String[] toArray() {
+    String[] fields = new String[numFields];
+    for (int i = 0; i < numFields; i += 1) {
+      fields[i] = getString(i);
+    }
+    return fields;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private void skipLine() throws IOException {
+    while (ensure(0)) {
+      char c = buffer[pos];
+      pos += 1;
+      if (c == '\n') {
+        return;
+      } else if (c == '\r') {
+        if (ensure(0) && buffer[pos] == '\n') {
+          pos += 1;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the char after the current position if it is in the same line,
+   * or -1.
+   */
+  private int peekInLine() throws IOException {
+    if (!ensure(1)) {
+      return -1;
+    }
+    char next = buffer[pos + 1];
+    return isLineTerminator(next) ? -1 : next;
+  }
+
+  private void resetField() {
+    if (copying) {
+      scratchLength = copyStart;
+    }
+    this.copying = false;
+    this.runStart = 0;
+    this.runEnd = 0;
+  }
+
+  private void endField() {
+    if (numFields == starts.length) {
+      int size = numFields * 2;
+      this.starts = Arrays.copyOf(starts, size);
+      this.lengths = Arrays.copyOf(lengths, size);
+      this.copied = Arrays.copyOf(copied, size);
+    }
+    if (copying) {
+      starts[numFields] = copyStart;
+      lengths[numFields] = scratchLength - copyStart;
+      copied[numFields] = true;
+    } else {
+      starts[numFields] = runStart;
+      lengths[numFields] = runEnd - runStart;
+      copied[numFields] = false;
+    }
+    numFields += 1;
+  }
+
+  private int fieldLength() {
+    return copying ? scratchLength - copyStart : runEnd - runStart;
+  }
+
+  private boolean isAllWhitespace() {
+    char[] chars = copying ? scratch : buffer;
+    int start = copying ? copyStart : runStart;
+    int end = copying ? scratchLength : runEnd;
+    for (int i = start; i < end; i += 1) {
+      if (!Character.isWhitespace(chars[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Appends the char at position {@code p} of the buffer to the current field.
+   * While the field's chars are contiguous in the buffer, this only extends
+   * the field's range.
+   */
+  private void append(int p) {
+    if (copying) {
+      appendScratch(buffer[p]);
+    } else if (runStart == runEnd) {
+      this.runStart = p;
+      this.runEnd = p + 1;
+    } else if (runEnd == p) {
+      this.runEnd += 1;
+    } else {
+      startCopying();
+      appendScratch(buffer[p]);
+    }
+  }
+
+  private void appendChar(char c) {
+    if (!copying) {
+      startCopying();
+    }
+    appendScratch(c);
+  }
+
+  private void startCopying() {
+    this.copyStart = scratchLength;
+    this.copying = true;
+    for (int i = runStart; i < runEnd; i += 1) {
+      appendScratch(buffer[i]);
+    }
+  }
+
+  private void appendScratch(char c) {
+    if (scratchLength == scratch.length) {
+      this.scratch = Arrays.copyOf(scratch, scratch.length * 2);
+    }
+    scratch[scratchLength] = c;
+    scratchLength += 1;
+  }
+
+  /**
+   * Ensures that the char at {@code pos + offset} is in the buffer, reading
+   * more input if necessary. This may move the current record to the start of
+   * the buffer.
+   *
+   * @return false if the input ends before {@code pos + offset}
+   */
+  private boolean ensure(int offset) throws IOException {
+    while (pos + offset >= limit) {
+      if (eof) {
+        return false;
+      }
+      fill();
+    }
+    return true;
+  }
+
+  private void fill() throws IOException {
+    if (limit == buffer.length) {
+      int keep = recordStart;
+      if (keep == 0) {
+        // the current record fills the buffer
+        this.buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      } else {
+        System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+        this.limit -= keep;
+        this.pos -= keep;
+        this.recordStart -= keep;
+        this.lineStart -= keep;
+        if (!copying) {
+          this.runStart = Math.max(0, runStart - keep);
+          this.runEnd = Math.max(0, runEnd - keep);
+        }
+        for (int i = 0; i < numFields; i += 1) {
+          if (!copied[i]) {
+            // empty fields may start before the record
+            starts[i] = Math.max(0, starts[i] - keep);
+          }
+        }
+      }
+    }
+
+    int read = reader.read(buffer, limit, buffer.length - limit);
+    if (read < 0) {
+      this.eof = true;
+    } else {
+      this.limit += read;
+    }
+  }
+
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r';
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.spi.filesystem;
+
+import java.util.List;
+import org.apache.avro.Schema;
+
+/**
+ * Converts a CSV field, given as a range of chars, to a value for a schema.
+ * <p>
+ * Converters produce the same values and exceptions as
+ * {@link CSVRecordBuilder#makeValue(String, Schema)}, but numbers, booleans,
+ * and short strings are handled without creating a String for each field.
+ * Converters are created once per schema and are thread-safe.
+ */
+abstract class CSVValueConverter {
+
+  /**
+   * Returns the value of the chars in {@code chars} from {@code start} for
+   * {@code length} chars, or null.
+   *
+   * @throws NumberFormatException if the chars are not a valid number
+   */
+  abstract Object convert(char[] chars, int start, int length);
+
+  static CSVValueConverter forSchema(Schema schema) {
+    switch (schema.getType()) {
+      case BOOLEAN:
+        return new BooleanConverter();
+      case STRING:
+        return new StringConverter();
+      case INT:
+        return new IntConverter();
+      case LONG:
+        return new LongConverter();
+      case UNION:
+        return new UnionConverter(schema.getTypes());
+      default:
+        // FLOAT, DOUBLE, ENUM, NULL, and unsupported types
+        return new FallbackConverter(schema);
+    }
+  }
+
+  private static class BooleanConverter extends CSVValueConverter {
+    private static final char[] TRUE = "true".toCharArray();
+
+    @Override
+    Object convert(char[] chars, int start, int length) {
+      // matches Boolean.valueOf
+      if (length != TRUE.length) {
+        return Boolean.FALSE;
+      }
+      for (int i = 0; i < length; i += 1) {
+        if (Character.toLowerCase(chars[start + i]) != TRUE[i]) {
+          return Boolean.FALSE;
+        }
+      }
+      return Boolean.TRUE;
+    }
+  }
+
+  /**
+   * Converts to String, reusing recent instances of short strings. Columns
+   * often repeat a small set of values, like states or status codes.
+   */
+  private static class StringConverter extends CSVValueConverter {
+    private static final int CACHE_SIZE = 256; // must be a power of 2
+    private static final int MAX_CACHED_LENGTH = 16;
+
+    // updated without locks: a thread may miss a cached string, but Strings
+    // are immutable, so a thread cannot see a partially created one
+    private final String[] cache = new String[CACHE_SIZE];
+
+    @Override
+    Object convert(char[] chars, int start, int length) {
+      if (length > MAX_CACHED_LENGTH) {
+        return new String(chars, start, length);
+      }
+
+      int hash = 0;
+      for (int i = start, end = start + length; i < end; i += 1) {
+        hash = 31 * hash + chars[i];
+      }
+      int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+
+      String cached = cache[slot];
+      if (cached != null && matches(cached, chars, start, length)) {
+        return cached;
+      }
+
+      String value = new String(chars, start, length);
+      cache[slot] = value;
+      return value;
+    }
+
+    private static boolean matches(String str, char[] chars, int start,
+                                   int length) {
+      if (str.length() != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i += 1) {
+        if (str.charAt(i) != chars[start + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static class IntConverter extends CSVValueConverter {
+    // any 9 digit number fits in an int
+    private static final int MAX_FAST_DIGITS = 9;
+
+    @Override
+    Object convert(char[] chars, int start, int length) {
+      if (length == 0) {
+        return null; // empty string is considered null for numeric types
+      }
+      long value = parseSmall(chars, start, length, MAX_FAST_DIGITS);
+      if (value != NOT_PARSED) {
+        return (int) value;
+      }
+      return Integer.valueOf(new String(chars, start, length));
+    }
+  }
+
+  private static class LongConverter extends CSVValueConverter {
+    // any 18 digit number fits in a long
+    private static final int MAX_FAST_DIGITS = 18;
+
+    @Override
+    Object convert(char[] chars, int start, int length) {
+      if (length == 0) {
+        return null; // empty string is considered null for numeric types
+      }
+      long value = parseSmall(chars, start, length, MAX_FAST_DIGITS);
+      if (value != NOT_PARSED) {
+        return value;
+      }
+      return Long.valueOf(new String(chars, start, length));
+    }
+  }
+
+  private static final long NOT_PARSED = Long.MIN_VALUE;
+
+  /**
+   * Parses an optional minus sign followed by up to {@code maxDigits} ASCII
+   * digits.
+   * Anything else, including values that are not valid numbers, returns
+   * {@link #NOT_PARSED} so that the caller can fall back to the JDK parser
+   * and its exceptions.
+   */
+  private static long parseSmall(char[] chars, int start, int length,
+                                 int maxDigits) {
+    int i = start;
+    int end = start + length;
+    boolean negative = false;
+    if (chars[i] == '-') {
+      // '+' is left to the JDK, which rejects it before Java 7
+      negative = true;
+      i += 1;
+    }
+
+    int digits = end - i;
+    if (digits < 1 || digits > maxDigits) {
+      return NOT_PARSED;
+    }
+
+    long value = 0;
+    for (; i < end; i += 1) {
+      int digit = chars[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return NOT_PARSED;
+      }
+      value = value * 10 + digit;
+    }
+
+    return negative ? -value : value;
+  }
+
+  private static class UnionConverter extends CSVValueConverter {
+    private final CSVValueConverter[] types;
+
+    private UnionConverter(List<Schema> types) {
+      this.types = new CSVValueConverter[types.size()];
+      for (int i = 0; i < this.types.length; i += 1) {
+        this.types[i] = forSchema(types.get(i));
+      }
+    }
+
+    @Override
+    Object convert(char[] chars, int start, int length) {
+      // returns the value for the first type that is not null
+      for (CSVValueConverter type : types) {
+        Object value = type.convert(chars, start, length);
+        if (value != null) {
+          return value;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class FallbackConverter extends CSVValueConverter {
+    private final Schema schema;
+
+    private FallbackConverter(Schema schema) {
+      this.schema = schema;
+    }
+
+    @Override
+    Object convert(char[] chars, int start, int length) {
+      if (schema.getType() == Schema.Type.NULL) {
+        return null;
+      }
+      return CSVRecordBuilder.makeValue(new String(chars, start, length), schema);
+    }
+  }
+}
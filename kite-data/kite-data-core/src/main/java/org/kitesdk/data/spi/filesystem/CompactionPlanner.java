@@ -0,0 +1,303 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.spi.filesystem;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.kitesdk.data.DatasetIOException;
+import org.kitesdk.data.PartitionView;
+import org.kitesdk.data.View;
+import org.kitesdk.data.spi.DescriptorUtil;
+
+import static org.kitesdk.data.spi.filesystem.FileSystemProperties.TARGET_FILE_SIZE_PROP;
+
+/**
+ * Finds the partitions of a {@link FileSystemDataset} that are worth
+ * compacting.
+ * <p>
+ * Each leaf partition in the view is scored using the stats of its data
+ * files:
+ * <ul>
+ *   <li>The number of small files, those under half of the target file
+ *   size.</li>
+ *   <li>The number of files more than the partition's total bytes require at
+ *   the target file size.</li>
+ *   <li>The age of the partition's newest file. Older partitions are weighted
+ *   higher because they are no longer receiving data, so compacting them is
+ *   only done once.</li>
+ * </ul>
+ * Partitions that already have no more files than needed are not included
+ * in the plan. Partitions modified more recently than the minimum age are
+ * also skipped because they may still be written to. The remaining
+ * partitions are planned in order of descending score until the byte or
+ * partition budget is used.
+ * <p>
+ * The target file size is set by
+ * {@link FileSystemProperties#TARGET_FILE_SIZE_PROP} when it is present in
+ * the dataset's descriptor.
+ */
+public class CompactionPlanner<E> {
+
+  private static final long DEFAULT_TARGET_FILE_SIZE = 128L * 1024 * 1024;
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  private final FileSystemView<E> view;
+  private final FileSystem fs;
+  private long targetFileSize;
+  private int minFiles = 2;
+  private long minAgeMillis = 0;
+  private long maxBytes = Long.MAX_VALUE;
+  private int maxPartitions = Integer.MAX_VALUE;
+  private long now = -1;
+
+  @SuppressWarnings("unchecked")
+  public CompactionPlanner(View<E> view) {
+    if (view instanceof FileSystemDataset) {
+      this.view = ((FileSystemDataset<E>) view).unbounded;
+    } else if (view instanceof FileSystemView) {
+      this.view = (FileSystemView<E>) view;
+    } else {
+      throw new IllegalArgumentException(
+          "Cannot plan compaction for non-filesystem view: " + view);
+    }
+    this.fs = this.view.fs;
+    long target = DescriptorUtil.getLong(TARGET_FILE_SIZE_PROP,
+        view.getDataset().getDescriptor(), -1);
+    this.targetFileSize = (target > 0 ? target : DEFAULT_TARGET_FILE_SIZE);
+  }
+
+  /**
+   * Sets the target size, in bytes, of compacted files.
+   */
+  public CompactionPlanner<E> setTargetFileSize(long targetFileSize) {
+    Preconditions.checkArgument(targetFileSize > 0,
+        "Invalid target file size: " + targetFileSize);
+    this.targetFileSize = targetFileSize;
+    return this;
+  }
+
+  /**
+   * Sets the minimum number of files a partition must have to be compacted.
+   */
+  public CompactionPlanner<E> setMinFiles(int minFiles) {
+    Preconditions.checkArgument(minFiles > 1,
+        "Invalid minimum number of files: " + minFiles);
+    this.minFiles = minFiles;
+    return this;
+  }
+
+  /**
+   * Sets how long ago, in milliseconds, a partition must have last been
+   * modified to be compacted.
+   */
+  public CompactionPlanner<E> setMinAgeMillis(long minAgeMillis) {
+    Preconditions.checkArgument(minAgeMillis >= 0,
+        "Invalid minimum age: " + minAgeMillis);
+    this.minAgeMillis = minAgeMillis;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of bytes that a plan will rewrite.
+   */
+  public CompactionPlanner<E> setMaxBytes(long maxBytes) {
+    Preconditions.checkArgument(maxBytes > 0,
+        "Invalid maximum bytes: " + maxBytes);
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of partitions that a plan will rewrite.
+   */
+  public CompactionPlanner<E> setMaxPartitions(int maxPartitions) {
+    Preconditions.checkArgument(maxPartitions > 0,
+        "Invalid maximum partitions: " + maxPartitions);
+    this.maxPartitions = maxPartitions;
+    return this;
+  }
+
+  CompactionPlanner<E> setCurrentTime(long now) {
+    this.now = now;
+    return this;
+  }
+
+  /**
+   * Scans the view's partitions and returns those that should be compacted,
+   * highest score first.
+   *
+   * @return a List of {@link Candidate} partitions within the budget
+   * @throws DatasetIOException if the partition files cannot be listed
+   */
+  public List<Candidate<E>> plan() {
+    long currentTime = (now < 0 ? System.currentTimeMillis() : now);
+
+    List<Candidate<E>> candidates = Lists.newArrayList();
+    for (PartitionView<E> partition : view.getCoveringPartitions()) {
+      Candidate<E> candidate = score(
+          (FileSystemPartitionView<E>) partition, currentTime);
+      if (candidate != null) {
+        candidates.add(candidate);
+      }
+    }
+
+    Collections.sort(candidates, new Comparator<Candidate<E>>() {
+      @Override
+      public int compare(Candidate<E> left, Candidate<E> right) {
+        return Double.compare(right.score, left.score);
+      }
+    });
+
+    List<Candidate<E>> plan = Lists.newArrayList();
+    long bytes = 0;
+    for (Candidate<E> candidate : candidates) {
+      if (plan.size() >= maxPartitions) {
+        break;
+      }
+      // skip partitions that don't fit because smaller ones may still fit
+      if (candidate.bytes > maxBytes - bytes) {
+        continue;
+      }
+      plan.add(candidate);
+      bytes += candidate.bytes;
+    }
+
+    return plan;
+  }
+
+  private Candidate<E> score(FileSystemPartitionView<E> partition,
+                             long currentTime) {
+    Path location = new Path(partition.getLocation().toString());
+
+    FileStatus[] stats;
+    try {
+      stats = fs.listStatus(location, PathFilters.notHidden());
+    } catch (IOException e) {
+      throw new DatasetIOException(
+          "Cannot list files in partition: " + location, e);
+    }
+
+    int numFiles = 0;
+    int numSmallFiles = 0;
+    long bytes = 0;
+    long lastModified = 0;
+    for (FileStatus stat : stats) {
+      if (stat.isDir()) {
+        continue;
+      }
+      numFiles += 1;
+      bytes += stat.getLen();
+      lastModified = Math.max(lastModified, stat.getModificationTime());
+      if (stat.getLen() < targetFileSize / 2) {
+        numSmallFiles += 1;
+      }
+    }
+
+    if (numFiles < minFiles || currentTime - lastModified < minAgeMillis) {
+      return null;
+    }
+
+    long neededFiles = Math.max(1, (bytes + targetFileSize - 1) / targetFileSize);
+    long extraFiles = numFiles - neededFiles;
+    if (extraFiles <= 0) {
+      return null;
+    }
+
+    double ageDays = Math.max(0, currentTime - lastModified) /
+        (double) MILLIS_PER_DAY;
+    double score = (numSmallFiles + extraFiles) * (1.0 + Math.log1p(ageDays));
+
+    return new Candidate<E>(partition.toConstraintsView(),
+        partition.getLocation(), numFiles, numSmallFiles, bytes, lastModified,
+        score);
+  }
+
+  /**
+   * A partition that should be compacted.
+   */
+  public static class Candidate<E> {
+    private final View<E> view;
+    private final URI location;
+    private final int numFiles;
+    private final int numSmallFiles;
+    private final long bytes;
+    private final long lastModified;
+    private final double score;
+
+    private Candidate(View<E> view, URI location, int numFiles,
+                      int numSmallFiles, long bytes, long lastModified,
+                      double score) {
+      this.view = view;
+      this.location = location;
+      this.numFiles = numFiles;
+      this.numSmallFiles = numSmallFiles;
+      this.bytes = bytes;
+      this.lastModified = lastModified;
+      this.score = score;
+    }
+
+    /**
+     * @return a View of the partition's data that can be replaced
+     */
+    public View<E> getView() {
+      return view;
+    }
+
+    public URI getLocation() {
+      return location;
+    }
+
+    public int getNumFiles() {
+      return numFiles;
+    }
+
+    public int getNumSmallFiles() {
+      return numSmallFiles;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public double getScore() {
+      return score;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+          .add("location", location)
+          .add("files", numFiles)
+          .add("smallFiles", numSmallFiles)
+          .add("bytes", bytes)
+          .add("score", score)
+          .toString();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.spi.filesystem;
+
+import java.nio.ByteBuffer;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+
+/**
+ * A record that carries its Avro binary encoding so that it can be appended to
+ * Avro data files without being encoded again.
+ * <p>
+ * Only the fields needed to partition the record need to be set. Writers for
+ * Avro-format datasets in a file system append the encoded bytes instead of
+ * the field values, so the encoding must match the dataset's schema exactly.
+ * Other formats do not use the encoding and should not be given these records.
+ */
+public class EncodedAvroRecord extends GenericData.Record {
+
+  private final ByteBuffer encoded;
+
+  public EncodedAvroRecord(Schema schema, ByteBuffer encoded) {
+    super(schema);
+    this.encoded = encoded;
+  }
+
+  /**
+   * @return the binary encoding of this record
+   */
+  public ByteBuffer getEncoded() {
+    return encoded;
+  }
+}
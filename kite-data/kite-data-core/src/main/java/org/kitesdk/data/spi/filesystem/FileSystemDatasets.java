@@ -19,6 +19,7 @@ package org.kitesdk.data.spi.filesystem;
 import java.net.URI;
 import org.apache.hadoop.fs.Path;
 import org.kitesdk.data.Dataset;
+import org.kitesdk.data.DatasetReader;
 import org.kitesdk.data.View;
 
 /**
@@ -67,4 +68,33 @@ public class FileSystemDatasets {
     throw new IllegalArgumentException("Not a file system dataset: " + dataset);
   }
 
+  /**
+   * Returns the data files in a filesystem dataset or view, so that each file
+   * can be read separately with {@link #newReader(View, Path)}.
+   * @param view a filesystem dataset or view
+   * @return the data files in the view
+   */
+  public static <E> Iterable<Path> dataFiles(View<E> view) {
+    return fsView(view).pathIterator();
+  }
+
+  /**
+   * Returns a reader for one data file in a filesystem dataset or view. The
+   * reader returns only entities that match the view.
+   * @param view a filesystem dataset or view
+   * @param file a data file returned by {@link #dataFiles(View)}
+   * @return a reader for the entities in the file
+   */
+  public static <E> DatasetReader<E> newReader(View<E> view, Path file) {
+    return fsView(view).newReader(file);
+  }
+
+  private static <E> FileSystemView<E> fsView(View<E> view) {
+    if (view instanceof FileSystemDataset) {
+      return ((FileSystemDataset<E>) view).unbounded;
+    } else if (view instanceof FileSystemView) {
+      return (FileSystemView<E>) view;
+    }
+    throw new IllegalArgumentException("Not a file system view: " + view);
+  }
 }
@@ -60,4 +60,23 @@ public class FileSystemProperties {
    * be closed and finalized once they reach this age.
    */
   public static final String ROLL_INTERVAL_S_PROP = "kite.writer.roll-interval-seconds";
+
+  /**
+   * Used to set the fields that records are sorted by within each data file.
+   * Jobs that partition data for a dataset sort records by these fields in the
+   * shuffle, and writers record the min and max of each field for every file.
+   *
+   * The value should be a comma-separated list of field names.
+   */
+  public static final String SORT_FIELDS_PROP = "kite.writer.sort-fields";
+
+  /**
+   * Used to defer notifying the metadata provider of new partitions until the
+   * writer is flushed or closed, rather than when each partition's writer is
+   * opened. Deferred partitions are registered together, which is cheaper for
+   * providers like Hive that make a remote call per registration.
+   *
+   * The value should be a boolean.
+   */
+  public static final String DEFER_PARTITION_REGISTRATION_PROP = "kite.writer.defer-partition-registration";
 }
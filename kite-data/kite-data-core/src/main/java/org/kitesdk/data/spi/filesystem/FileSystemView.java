@@ -17,7 +17,9 @@
 package org.kitesdk.data.spi.filesystem;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
+import java.util.Collections;
 import java.util.Iterator;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.kitesdk.data.DatasetDescriptor;
@@ -110,6 +112,18 @@ class FileSystemView<E> extends AbstractRefinableView<E> implements InputFormatA
     return reader;
   }
 
+  /**
+   * Returns a reader for a single data file in this view.
+   */
+  DatasetReader<E> newReader(Path file) {
+    checkSchemaForRead();
+    AbstractDatasetReader<E> reader = new MultiFileDatasetReader<E>(fs,
+        Collections.singletonList(file), dataset.getDescriptor(), constraints,
+        getAccessor());
+    reader.initialize();
+    return reader;
+  }
+
   @Override
   public DatasetWriter<E> newWriter() {
     checkSchemaForWrite();
@@ -169,11 +183,17 @@ class FileSystemView<E> extends AbstractRefinableView<E> implements InputFormatA
     return new FileSystemViewKeyInputFormat<E>(this, conf);
   }
 
+  /**
+   * Returns an iterator over the data files in this view. Files whose sort
+   * field stats show that they can't satisfy the constraints are skipped.
+   */
   PathIterator pathIterator() {
+    Predicate<Path> fileFilter = SortFieldStats.fileFilter(
+        fs, dataset.getDescriptor(), constraints);
     if (dataset.getDescriptor().isPartitioned()) {
-      return new PathIterator(fs, root, partitionIterator());
+      return new PathIterator(fs, root, partitionIterator(), fileFilter);
     } else {
-      return new PathIterator(fs, root, null);
+      return new PathIterator(fs, root, null, fileFilter);
     }
   }
 
@@ -226,7 +246,10 @@ class FileSystemView<E> extends AbstractRefinableView<E> implements InputFormatA
       }
     }
     else {
-      for (Path path : pathIterator()) {
+      // delete every file, even those that stats would skip when reading
+      for (Path path : new PathIterator(fs, root, null)) {
+        // hidden stats files are not listed, so remove each with its data
+        FileSystemUtil.cleanlyDelete(fs, root, SortFieldStats.statsPath(path));
         deleted = FileSystemUtil.cleanlyDelete(fs, root, path) || deleted;
       }
     }
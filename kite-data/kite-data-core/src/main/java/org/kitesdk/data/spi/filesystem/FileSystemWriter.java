@@ -22,6 +22,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import org.apache.hadoop.conf.Configuration;
@@ -85,6 +86,8 @@ class FileSystemWriter<E> extends AbstractDatasetWriter<E> implements RollingWri
   private long count = 0;
   private long nextRollCheck = MIN_RECORDS_BEFORE_ROLL_CHECK;
   private long nextRollTime = Long.MAX_VALUE; // do not roll by default
+  private final List<String> sortFields;
+  private SortFieldStats stats = null;
 
   protected final FileSystem fs;
   protected FileAppender<E> appender;
@@ -109,6 +112,8 @@ class FileSystemWriter<E> extends AbstractDatasetWriter<E> implements RollingWri
     this.descriptor = descriptor;
     this.conf = new Configuration(fs.getConf());
     this.state = ReaderWriterState.NEW;
+    this.sortFields = DescriptorUtil.getList(
+        FileSystemProperties.SORT_FIELDS_PROP, descriptor);
 
     // copy file format settings from custom properties to the Configuration
     for (String prop : descriptor.listProperties()) {
@@ -160,6 +165,9 @@ class FileSystemWriter<E> extends AbstractDatasetWriter<E> implements RollingWri
 
     this.count = 0;
     this.nextRollCheck = MIN_RECORDS_BEFORE_ROLL_CHECK;
+    if (!sortFields.isEmpty()) {
+      this.stats = new SortFieldStats(descriptor.getSchema(), sortFields);
+    }
     if (rollIntervalMillis > 0) {
       this.nextRollTime = System.currentTimeMillis() + rollIntervalMillis;
     }
@@ -177,6 +185,9 @@ class FileSystemWriter<E> extends AbstractDatasetWriter<E> implements RollingWri
     try {
       appender.append(entity);
       count += 1;
+      if (stats != null) {
+        stats.update(entity);
+      }
       checkSizeBasedFileRoll();
     } catch (RuntimeException e) {
       Throwables.propagateIfInstanceOf(e, DatasetRecordException.class);
@@ -231,6 +242,16 @@ class FileSystemWriter<E> extends AbstractDatasetWriter<E> implements RollingWri
         LOG.debug("Committed {} for appender {} ({} entities)",
             new Object[]{finalPath, appender, count});
 
+        if (stats != null) {
+          // stats are only used to skip files, so the data file is still
+          // valid if they cannot be written
+          try {
+            stats.write(fs, finalPath);
+          } catch (IOException e) {
+            LOG.warn("Failed to write sort field stats for " + finalPath, e);
+          }
+        }
+
       } else {
         // discard the temp file
         try {
@@ -16,7 +16,14 @@
 package org.kitesdk.data.spi.filesystem;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
 import org.kitesdk.data.DatasetDescriptor;
 import org.kitesdk.data.DatasetWriter;
 import org.kitesdk.data.Format;
@@ -25,6 +32,7 @@ import org.kitesdk.data.PartitionStrategy;
 import org.kitesdk.data.Syncable;
 import org.kitesdk.data.ValidationException;
 import org.kitesdk.data.spi.AbstractDatasetWriter;
+import org.kitesdk.data.spi.BatchPartitionListener;
 import org.kitesdk.data.spi.DescriptorUtil;
 import org.kitesdk.data.spi.EntityAccessor;
 import org.kitesdk.data.spi.PartitionListener;
@@ -44,6 +52,7 @@ import org.kitesdk.data.spi.ClockReady;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static org.kitesdk.data.spi.filesystem.FileSystemProperties.DEFER_PARTITION_REGISTRATION_PROP;
 import static org.kitesdk.data.spi.filesystem.FileSystemProperties.ROLL_INTERVAL_S_PROP;
 import static org.kitesdk.data.spi.filesystem.FileSystemProperties.TARGET_FILE_SIZE_PROP;
 import static org.kitesdk.data.spi.filesystem.FileSystemProperties.WRITER_CACHE_SIZE_PROP;
@@ -66,6 +75,13 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
   private final EntityAccessor<E> accessor;
   private final Map<String, Object> provided;
 
+  /**
+   * Partitions opened since the last flush or close that have not been passed
+   * to the dataset's PartitionListener, or null if partitions are registered
+   * as soon as they are opened.
+   */
+  protected final Set<String> deferredPartitions;
+
   protected ReaderWriterState state;
   protected long targetFileSize;
   protected long rollIntervalMillis;
@@ -117,6 +133,13 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
     this.accessor = view.getAccessor();
     this.provided = view.getProvidedValues();
 
+    if (DescriptorUtil.isEnabled(DEFER_PARTITION_REGISTRATION_PROP, descriptor)) {
+      this.deferredPartitions = Collections.synchronizedSet(
+          Sets.<String>newLinkedHashSet());
+    } else {
+      this.deferredPartitions = null;
+    }
+
     // get file rolling properties
     if (!Formats.PARQUET.equals(descriptor.getFormat())) {
       this.targetFileSize = DescriptorUtil.getLong(
@@ -187,10 +210,45 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
         writer.close();
       }
 
+      registerDeferredPartitions();
+
       state = ReaderWriterState.CLOSED;
     }
   }
 
+  /**
+   * Passes partitions that were opened since the last call to the dataset's
+   * PartitionListener, all at once if it is a {@link BatchPartitionListener}.
+   */
+  protected void registerDeferredPartitions() {
+    if (deferredPartitions == null) {
+      return;
+    }
+
+    List<String> partitions;
+    synchronized (deferredPartitions) {
+      if (deferredPartitions.isEmpty()) {
+        return;
+      }
+      partitions = Lists.newArrayList(deferredPartitions);
+      deferredPartitions.clear();
+    }
+
+    FileSystemDataset dataset = (FileSystemDataset) view.getDataset();
+    PartitionListener listener = dataset.getPartitionListener();
+    if (listener instanceof BatchPartitionListener) {
+      LOG.debug("Registering {} partitions for view:{}",
+          partitions.size(), view);
+      ((BatchPartitionListener) listener).partitionsAdded(
+          dataset.getNamespace(), dataset.getName(), partitions);
+    } else if (listener != null) {
+      for (String partition : partitions) {
+        listener.partitionAdded(
+            dataset.getNamespace(), dataset.getName(), partition);
+      }
+    }
+  }
+
   @Override
   public void setRollIntervalMillis(long rollIntervalMillis) {
     this.rollIntervalMillis = rollIntervalMillis;
@@ -248,12 +306,19 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
     private final FileSystemView<E> view;
     private final PathConversion convert;
     private final ConfAccessor conf;
+    private final Collection<String> deferredPartitions;
 
     public DatasetWriterCacheLoader(FileSystemView<E> view, ConfAccessor conf) {
+      this(view, conf, null);
+    }
+
+    public DatasetWriterCacheLoader(FileSystemView<E> view, ConfAccessor conf,
+                                    @Nullable Collection<String> deferredPartitions) {
       this.view = view;
       this.convert = new PathConversion(
           view.getDataset().getDescriptor().getSchema());
       this.conf = conf;
+      this.deferredPartitions = deferredPartitions;
     }
 
     @Override
@@ -271,8 +336,13 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
 
       PartitionListener listener = dataset.getPartitionListener();
       if (listener != null) {
-        listener.partitionAdded(
-            dataset.getNamespace(), dataset.getName(), partition.toString());
+        if (deferredPartitions != null) {
+          // registered by the partitioned writer when it is flushed or closed
+          deferredPartitions.add(partition.toString());
+        } else {
+          listener.partitionAdded(
+              dataset.getNamespace(), dataset.getName(), partition.toString());
+        }
       }
 
       // initialize the writer after calling the listener
@@ -292,13 +362,21 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
     private final FileSystemView<E> view;
     private final PathConversion convert;
     private final ConfAccessor conf;
+    private final Collection<String> deferredPartitions;
 
     public IncrementalDatasetWriterCacheLoader(FileSystemView<E> view,
                                                ConfAccessor conf) {
+      this(view, conf, null);
+    }
+
+    public IncrementalDatasetWriterCacheLoader(FileSystemView<E> view,
+                                               ConfAccessor conf,
+                                               @Nullable Collection<String> deferredPartitions) {
       this.view = view;
       this.convert = new PathConversion(
           view.getDataset().getDescriptor().getSchema());
       this.conf = conf;
+      this.deferredPartitions = deferredPartitions;
     }
 
     @Override
@@ -319,8 +397,13 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
 
       PartitionListener listener = dataset.getPartitionListener();
       if (listener != null) {
-        listener.partitionAdded(
-            dataset.getNamespace(), dataset.getName(), partition.toString());
+        if (deferredPartitions != null) {
+          // registered by the partitioned writer when it is flushed or closed
+          deferredPartitions.add(partition.toString());
+        } else {
+          listener.partitionAdded(
+              dataset.getNamespace(), dataset.getName(), partition.toString());
+        }
       }
 
       // initialize the writer after calling the listener
@@ -369,7 +452,7 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
         public long getRollIntervalMillis() {
           return NonDurablePartitionedDatasetWriter.this.rollIntervalMillis;
         }
-      });
+      }, deferredPartitions);
     }
   }
 
@@ -395,7 +478,7 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
         public long getRollIntervalMillis() {
           return IncrementalPartitionedDatasetWriter.this.rollIntervalMillis;
         }
-      });
+      }, deferredPartitions);
     }
 
     @Override
@@ -416,6 +499,8 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
         LOG.debug("Flushing partition writer:{}", writer);
         writer.flush();
       }
+
+      registerDeferredPartitions();
     }
 
     @Override
@@ -429,6 +514,8 @@ abstract class PartitionedDatasetWriter<E, W extends FileSystemWriter<E>>
         LOG.debug("Syncing partition writer:{}", writer);
         writer.sync();
       }
+
+      registerDeferredPartitions();
     }
   }
 }
@@ -16,6 +16,7 @@
 
 package org.kitesdk.data.spi.filesystem;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.util.Iterator;
@@ -32,14 +33,25 @@ public class PathIterator implements Iterator<Path>, Iterable<Path> {
   private final FileSystem fs;
   private final Path root;
   private final Iterator<StorageKey> partitions;
+  private final Predicate<Path> fileFilter;
   private StorageKey key = null;
   private Iterator<Path> files = null;
 
   public PathIterator(FileSystem fs, Path root,
                       @Nullable Iterator<StorageKey> partitions) {
+    this(fs, root, partitions, null);
+  }
+
+  /**
+   * @param fileFilter if not null, only files it accepts are returned
+   */
+  public PathIterator(FileSystem fs, Path root,
+                      @Nullable Iterator<StorageKey> partitions,
+                      @Nullable Predicate<Path> fileFilter) {
     this.fs = fs;
     this.root = root;
     this.partitions = partitions;
+    this.fileFilter = fileFilter;
   }
 
   @Override
@@ -108,15 +120,16 @@ public class PathIterator implements Iterator<Path>, Iterable<Path> {
 
       List<Path> nextFileSet = Lists.newArrayListWithCapacity(stats.length);
       for (FileStatus stat : stats) {
-        if (!stat.isDir()) {
+        if (!stat.isDir() &&
+            (fileFilter == null || fileFilter.apply(stat.getPath()))) {
           nextFileSet.add(stat.getPath());
         }
       }
-      if (nextFileSet.size() > 0) {
-        this.files = nextFileSet.iterator();
+      this.files = nextFileSet.iterator();
+      if (files.hasNext()) {
         return true;
       }
-      return false;
+      // no files to return in this directory, move on to the next one
     }
   }
 
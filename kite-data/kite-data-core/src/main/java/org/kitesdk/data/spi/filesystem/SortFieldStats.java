@@ -0,0 +1,355 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.spi.filesystem;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.reflect.ReflectData;
+import org.apache.avro.reflect.ReflectDatumWriter;
+import org.apache.avro.util.ByteBufferInputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetIOException;
+import org.kitesdk.data.spi.Constraints;
+import org.kitesdk.data.spi.DataModelUtil;
+import org.kitesdk.data.spi.DescriptorUtil;
+import org.kitesdk.data.spi.EntityAccessor;
+import org.kitesdk.data.spi.SchemaUtil;
+import org.kitesdk.data.spi.predicates.In;
+import org.kitesdk.data.spi.predicates.Range;
+import org.kitesdk.data.spi.predicates.Ranges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the minimum and maximum values of the sort fields, set by
+ * {@link FileSystemProperties#SORT_FIELDS_PROP}, for a data file.
+ * <p>
+ * Stats are stored next to the data file in a hidden Avro file with one
+ * record. For each sort field, the record has a {@code <field>_min} and
+ * {@code <field>_max} value, where dots in nested field names are replaced
+ * with underscores. Null values are not counted, so both values are null if
+ * the field was null in every record.
+ * <p>
+ * Readers use the stats to skip data files that cannot contain a record that
+ * satisfies a view's constraints on the sort fields.
+ */
+public class SortFieldStats {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SortFieldStats.class);
+
+  private static final String STATS_EXTENSION = ".stats";
+
+  private final Schema schema;
+  private final List<String> fields;
+  private final Schema[] fieldSchemas;
+  private final Schema statsSchema;
+  private final Object[] mins;
+  private final Object[] maxes;
+  private EntityAccessor<Object> accessor = null;
+  private GenericDatumReader<GenericData.Record> reader = null;
+  private BinaryDecoder decoder = null;
+  private GenericData.Record decoded = null;
+  private long count = 0;
+
+  public SortFieldStats(Schema schema, List<String> fields) {
+    this.schema = schema;
+    this.fields = ImmutableList.copyOf(fields);
+    this.fieldSchemas = new Schema[fields.size()];
+    List<Schema.Field> statsFields = Lists.newArrayList();
+    for (int i = 0; i < fieldSchemas.length; i += 1) {
+      String name = fields.get(i);
+      // validates that the field exists
+      fieldSchemas[i] = SchemaUtil.fieldSchema(schema, name);
+      Schema nullable = Schema.createUnion(Arrays.asList(
+          Schema.create(Schema.Type.NULL), fieldSchemas[i]));
+      statsFields.add(new Schema.Field(minName(name), nullable, null, null));
+      statsFields.add(new Schema.Field(maxName(name), nullable, null, null));
+    }
+    this.statsSchema = Schema.createRecord(
+        "SortFieldStats", null, "org.kitesdk.data", false);
+    statsSchema.setFields(statsFields);
+    this.mins = new Object[fieldSchemas.length];
+    this.maxes = new Object[fieldSchemas.length];
+  }
+
+  /**
+   * Updates the stats with the sort field values of an entity.
+   *
+   * @param entity an entity that was written to the data file
+   */
+  @SuppressWarnings("unchecked")
+  public void update(Object entity) {
+    if (entity instanceof EncodedAvroRecord) {
+      // encoded records only carry the fields needed to partition them
+      entity = decode((EncodedAvroRecord) entity);
+    }
+    if (accessor == null) {
+      this.accessor = DataModelUtil.accessor(
+          (Class<Object>) entity.getClass(), schema);
+    }
+    ReflectData model = ReflectData.get();
+    for (int i = 0; i < fieldSchemas.length; i += 1) {
+      Object value = accessor.get(entity, fields.get(i));
+      if (value == null) {
+        continue;
+      }
+      // values are copied because entities and their fields may be reused
+      if (mins[i] == null || model.compare(value, mins[i], fieldSchemas[i]) < 0) {
+        mins[i] = model.deepCopy(fieldSchemas[i], value);
+      }
+      if (maxes[i] == null || model.compare(value, maxes[i], fieldSchemas[i]) > 0) {
+        maxes[i] = model.deepCopy(fieldSchemas[i], value);
+      }
+    }
+    count += 1;
+  }
+
+  private GenericData.Record decode(EncodedAvroRecord record) {
+    if (reader == null) {
+      this.reader = new GenericDatumReader<GenericData.Record>(schema);
+    }
+    this.decoder = DecoderFactory.get().binaryDecoder(
+        new ByteBufferInputStream(Collections.singletonList(
+            record.getEncoded().duplicate())), decoder);
+    try {
+      // values are copied by update, so the decoded record can be reused
+      this.decoded = reader.read(decoded, decoder);
+    } catch (IOException e) {
+      throw new DatasetIOException("Cannot decode record for stats", e);
+    }
+    return decoded;
+  }
+
+  public List<String> getFields() {
+    return fields;
+  }
+
+  public Object getMin(String field) {
+    return mins[fields.indexOf(field)];
+  }
+
+  public Object getMax(String field) {
+    return maxes[fields.indexOf(field)];
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Writes these stats for the given data file.
+   *
+   * @param fs the FileSystem of the data file
+   * @param dataFile the Path of the data file
+   * @throws IOException if the stats file cannot be written
+   */
+  void write(FileSystem fs, Path dataFile) throws IOException {
+    GenericData.Record record = new GenericData.Record(statsSchema);
+    for (int i = 0; i < fieldSchemas.length; i += 1) {
+      record.put(minName(fields.get(i)), mins[i]);
+      record.put(maxName(fields.get(i)), maxes[i]);
+    }
+
+    DataFileWriter<GenericData.Record> writer =
+        new DataFileWriter<GenericData.Record>(
+            new ReflectDatumWriter<GenericData.Record>(statsSchema));
+    try {
+      writer.create(statsSchema, fs.create(statsPath(dataFile), true));
+      writer.append(record);
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Reads the stats for a data file.
+   *
+   * @param fs the FileSystem of the data file
+   * @param dataFile the Path of the data file
+   * @return a record with the min and max of each sort field, or null if the
+   *         file has no stats
+   * @throws IOException if the stats file cannot be read
+   */
+  public static GenericRecord read(FileSystem fs, Path dataFile)
+      throws IOException {
+    Path statsPath = statsPath(dataFile);
+    if (!fs.exists(statsPath)) {
+      return null;
+    }
+    FSDataInputStream in = fs.open(statsPath);
+    DataFileStream<GenericRecord> stream = new DataFileStream<GenericRecord>(
+        in, new GenericDatumReader<GenericRecord>());
+    try {
+      return stream.hasNext() ? stream.next() : null;
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Returns a {@link Predicate} that rejects data files whose stats show that
+   * no record in the file satisfies the given constraints. Files without stats
+   * are always accepted.
+   *
+   * @param fs the FileSystem of the data files
+   * @param descriptor the descriptor of the dataset
+   * @param constraints a view's constraints
+   * @return a Predicate for data file paths, or null if the constraints don't
+   *         restrict any sort field
+   */
+  @Nullable
+  static Predicate<Path> fileFilter(FileSystem fs, DatasetDescriptor descriptor,
+                                    Constraints constraints) {
+    Map<String, Predicate> predicates = constraints.getPredicates();
+    ImmutableMap.Builder<String, Predicate> builder = ImmutableMap.builder();
+    for (String field : DescriptorUtil.getList(
+        FileSystemProperties.SORT_FIELDS_PROP, descriptor)) {
+      Predicate predicate = predicates.get(field);
+      if (predicate != null && isComparable(
+          SchemaUtil.fieldSchema(descriptor.getSchema(), field))) {
+        builder.put(field, predicate);
+      }
+    }
+    Map<String, Predicate> sortFieldPredicates = builder.build();
+    return sortFieldPredicates.isEmpty() ?
+        null : new StatsFilter(fs, sortFieldPredicates);
+  }
+
+  /**
+   * Whether values of the schema can be compared with constraint values.
+   */
+  private static boolean isComparable(Schema schema) {
+    switch (schema.getType()) {
+      case STRING:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static class StatsFilter implements Predicate<Path> {
+    private final FileSystem fs;
+    private final Map<String, Predicate> predicates;
+
+    private StatsFilter(FileSystem fs,
+                        Map<String, Predicate> predicates) {
+      this.fs = fs;
+      this.predicates = predicates;
+    }
+
+    @Override
+    public boolean apply(@Nullable Path dataFile) {
+      GenericRecord stats;
+      try {
+        stats = read(fs, dataFile);
+      } catch (IOException e) {
+        LOG.warn("Failed to read sort field stats for " + dataFile, e);
+        return true;
+      }
+      if (stats == null) {
+        return true;
+      }
+
+      for (Map.Entry<String, Predicate> entry :
+          predicates.entrySet()) {
+        String minName = minName(entry.getKey());
+        if (stats.getSchema().getField(minName) == null) {
+          // the file was written with different sort fields
+          continue;
+        }
+        Object min = stats.get(minName);
+        Object max = stats.get(maxName(entry.getKey()));
+        if (min == null || max == null) {
+          // the field is null in every record, which no constraint accepts
+          return false;
+        }
+        try {
+          if (!overlaps(entry.getValue(), min, max)) {
+            return false;
+          }
+        } catch (ClassCastException e) {
+          // the stats and the constraint have different types, don't skip
+          LOG.debug("Cannot compare stats for " + entry.getKey(), e);
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Whether the predicate may accept a value between min and max, inclusive.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean overlaps(Predicate predicate,
+                                    Object min, Object max) {
+      Range<Object> stats = Ranges.closed(min, max);
+      if (predicate instanceof In) {
+        for (Object value : ((In<Object>) predicate).getSet()) {
+          if (value != null && stats.contains(value)) {
+            return true;
+          }
+        }
+        return false;
+      } else if (predicate instanceof Range) {
+        // two ranges overlap only if one contains an endpoint of the other
+        Range<Object> range = (Range<Object>) predicate;
+        return range.contains(min) || range.contains(max) ||
+            (range.hasLowerBound() && stats.contains(range.lowerEndpoint())) ||
+            (range.hasUpperBound() && stats.contains(range.upperEndpoint()));
+      }
+      // other predicates, like exists, accept any non-null value
+      return true;
+    }
+  }
+
+  /**
+   * Returns the hidden {@link Path} where stats are stored for a data file.
+   */
+  public static Path statsPath(Path dataFile) {
+    return new Path(dataFile.getParent(),
+        "." + dataFile.getName() + STATS_EXTENSION);
+  }
+
+  public static String minName(String field) {
+    return field.replace('.', '_') + "_min";
+  }
+
+  public static String maxName(String field) {
+    return field.replace('.', '_') + "_max";
+  }
+}
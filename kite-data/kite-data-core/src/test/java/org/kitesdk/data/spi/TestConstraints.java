@@ -785,4 +785,15 @@ public class TestConstraints {
       Assert.assertEquals(with, Constraints.fromQueryMap(schema, strategy,
           queryMap));
   }
+
+  @Test
+  public void testSourceFields() {
+    Assert.assertEquals(Sets.newHashSet(), emptyConstraints.getSourceFields());
+    Assert.assertEquals(Sets.newHashSet("color"),
+        emptyConstraints.with("color", "orange").getSourceFields());
+    // partition constraints are translated to the source field
+    Assert.assertEquals(Sets.newHashSet("id", "color"),
+        emptyConstraints.with("color", "orange").with("id_hash", 5)
+            .getSourceFields());
+  }
 }
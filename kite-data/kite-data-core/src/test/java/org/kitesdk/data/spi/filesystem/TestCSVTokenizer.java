@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kitesdk.data.spi.filesystem;
+
+import au.com.bytecode.opencsv.CSVReader;
+import com.google.common.collect.Lists;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitesdk.data.DatasetRecordException;
+import org.kitesdk.data.TestHelpers;
+
+public class TestCSVTokenizer {
+
+  private static final CSVProperties DEFAULT = new CSVProperties.Builder()
+      .build();
+
+  private static final CSVProperties TABS = new CSVProperties.Builder()
+      .delimiter("\t")
+      .quote("'")
+      .escape("|")
+      .build();
+
+  private static final CSVProperties SKIP_LINES = new CSVProperties.Builder()
+      .linesToSkip(2)
+      .build();
+
+  @Test
+  public void testSimpleFields() throws IOException {
+    assertSameAsOpenCSV(DEFAULT, "a,b,c\n1,2,3\n");
+    assertSameAsOpenCSV(DEFAULT, "a,b,c\r\n1,2,3\r\n");
+    assertSameAsOpenCSV(DEFAULT, "a,b,c\r1,2,3\r");
+    assertSameAsOpenCSV(DEFAULT, "a,b,c\n1,2,3");
+    assertSameAsOpenCSV(DEFAULT, "a,,c\n,,\n,\n");
+    assertSameAsOpenCSV(DEFAULT, "\n\na\n\n");
+    assertSameAsOpenCSV(DEFAULT, "");
+    assertSameAsOpenCSV(DEFAULT, "  leading, trailing  ,  both  \n");
+  }
+
+  @Test
+  public void testQuotedFields() throws IOException {
+    assertSameAsOpenCSV(DEFAULT, "\"a\",\"b,c\",\"\"\n");
+    assertSameAsOpenCSV(DEFAULT, "\"a \"\"quoted\"\" word\",b\n");
+    assertSameAsOpenCSV(DEFAULT, "\"multi\nline\",b\nc,d\n");
+    assertSameAsOpenCSV(DEFAULT, "\"multi\r\nline\",b\r\nc,d\r\n");
+    assertSameAsOpenCSV(DEFAULT, "\"multi\rline\",\"two\n\nlines\"\n");
+    assertSameAsOpenCSV(DEFAULT, "abc,de\"f\"g,h\n");
+    assertSameAsOpenCSV(DEFAULT, "a,   \"b\",c\n");
+    assertSameAsOpenCSV(DEFAULT, "ab\"cd,e\n");
+    assertSameAsOpenCSV(DEFAULT, "\"a\"b,c\n");
+    assertSameAsOpenCSV(DEFAULT, "a,\"unterminated\n");
+  }
+
+  @Test
+  public void testEscapes() throws IOException {
+    assertSameAsOpenCSV(DEFAULT, "\"a\\\"b\",c\n");
+    assertSameAsOpenCSV(DEFAULT, "a\\\"b,c\n");
+    assertSameAsOpenCSV(DEFAULT, "a\\\\b,\\c\n");
+    assertSameAsOpenCSV(DEFAULT, "a,b\\\n\\\"c,d\n");
+    assertSameAsOpenCSV(DEFAULT, "\"a\\\\\",b\\\n");
+  }
+
+  @Test
+  public void testOtherDialects() throws IOException {
+    assertSameAsOpenCSV(TABS, "a\tb\t'c\td'\n'e''f'\tg|'h\n");
+    assertSameAsOpenCSV(SKIP_LINES, "skip\n\"skip\nmore,x\"\na,b\n");
+  }
+
+  @Test
+  public void testRecordsSpanningBuffers() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200; i += 1) {
+      sb.append(i).append(",\"quoted ").append(i).append("\",")
+          .append("esc\\\"aped").append(",,").append("\"line\nbreak\"\n");
+    }
+    String csv = sb.toString();
+    assertSameAsOpenCSV(DEFAULT, csv, 7);
+    assertSameAsOpenCSV(DEFAULT, csv, 64);
+    assertSameAsOpenCSV(DEFAULT, csv, 1024);
+  }
+
+  @Test
+  public void testSupportedDialects() {
+    Assert.assertTrue(CSVTokenizer.supports(DEFAULT));
+    Assert.assertTrue(CSVTokenizer.supports(TABS));
+    Assert.assertFalse("Should not support quote as the escape",
+        CSVTokenizer.supports(new CSVProperties.Builder()
+            .escape("\"").build()));
+    Assert.assertFalse("Should not support a line terminator delimiter",
+        CSVTokenizer.supports(new CSVProperties.Builder()
+            .delimiter("\n").build()));
+  }
+
+  @Test
+  public void testConvertedValues() throws IOException {
+    Schema schema = SchemaBuilder.record("Values").fields()
+        .requiredInt("i")
+        .requiredLong("l")
+        .requiredBoolean("b")
+        .requiredDouble("d")
+        .optionalLong("optional")
+        .name("s").type().stringType().noDefault()
+        .endRecord();
+    CSVRecordBuilder<GenericData.Record> builder =
+        new CSVRecordBuilder<GenericData.Record>(
+            schema, GenericData.Record.class, null);
+
+    CSVTokenizer tokens = tokenizer(DEFAULT,
+        "-2147483648,9223372036854775807,TRUE,1e3,,s\n" +
+        "+7,-0,yes,-0.5,12,s\n", 64);
+
+    Assert.assertTrue(tokens.next());
+    GenericData.Record first = builder.makeRecord(tokens, null);
+    Assert.assertEquals(Integer.MIN_VALUE, first.get("i"));
+    Assert.assertEquals(Long.MAX_VALUE, first.get("l"));
+    Assert.assertEquals(true, first.get("b"));
+    Assert.assertEquals(1000.0, first.get("d"));
+    Assert.assertNull(first.get("optional"));
+    String s = (String) first.get("s");
+
+    Assert.assertTrue(tokens.next());
+    GenericData.Record second = builder.makeRecord(tokens, null);
+    Assert.assertEquals(7, second.get("i"));
+    Assert.assertEquals(0L, second.get("l"));
+    Assert.assertEquals(false, second.get("b"));
+    Assert.assertEquals(-0.5, second.get("d"));
+    Assert.assertEquals(12L, second.get("optional"));
+    Assert.assertSame("Should reuse short strings", s, second.get("s"));
+
+    Assert.assertFalse(tokens.next());
+  }
+
+  @Test
+  public void testInvalidNumber() throws IOException {
+    Schema schema = SchemaBuilder.record("Values").fields()
+        .requiredLong("l")
+        .endRecord();
+    final CSVRecordBuilder<GenericData.Record> builder =
+        new CSVRecordBuilder<GenericData.Record>(
+            schema, GenericData.Record.class, null);
+    final CSVTokenizer tokens = tokenizer(DEFAULT, "12x\n", 64);
+    Assert.assertTrue(tokens.next());
+
+    TestHelpers.assertThrows("Should reject invalid numbers",
+        DatasetRecordException.class, new Runnable() {
+          @Override
+          public void run() {
+            builder.makeRecord(tokens, null);
+          }
+        });
+  }
+
+  private static CSVTokenizer tokenizer(CSVProperties props, String csv,
+                                        int bufferSize) {
+    return new CSVTokenizer(new StringReader(csv), props, bufferSize);
+  }
+
+  private static void assertSameAsOpenCSV(CSVProperties props, String csv)
+      throws IOException {
+    assertSameAsOpenCSV(props, csv, 1024);
+  }
+
+  private static void assertSameAsOpenCSV(CSVProperties props, String csv,
+                                          int bufferSize) throws IOException {
+    CSVReader reader = CSVUtil.newReader(
+        new ByteArrayInputStream(csv.getBytes("UTF-8")), props);
+    List<List<String>> expected = Lists.newArrayList();
+    String[] fields;
+    while ((fields = reader.readNext()) != null) {
+      expected.add(Arrays.asList(fields));
+    }
+    reader.close();
+
+    CSVTokenizer tokens = tokenizer(props, csv, bufferSize);
+    List<List<String>> actual = Lists.newArrayList();
+    while (tokens.next()) {
+      actual.add(Arrays.asList(tokens.toArray()));
+    }
+    tokens.close();
+
+    Assert.assertEquals("Should match opencsv for: " + csv, expected, actual);
+  }
+}
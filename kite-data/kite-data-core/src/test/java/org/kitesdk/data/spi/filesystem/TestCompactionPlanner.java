@@ -0,0 +1,201 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.spi.filesystem;
+
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.Datasets;
+import org.kitesdk.data.PartitionStrategy;
+import org.kitesdk.data.View;
+
+public class TestCompactionPlanner {
+  public static class TestRecord {
+    private long id;
+    private String data;
+  }
+
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  private FileSystemDataset<TestRecord> unpartitioned = null;
+  private FileSystemDataset<TestRecord> partitioned = null;
+
+  @Before
+  public void createTestDatasets() {
+    Datasets.delete("dataset:file:/tmp/datasets/unpartitioned");
+    Datasets.delete("dataset:file:/tmp/datasets/partitioned");
+
+    DatasetDescriptor descriptor = new DatasetDescriptor.Builder()
+        .schema(TestRecord.class)
+        .build();
+    unpartitioned = Datasets.create("dataset:file:/tmp/datasets/unpartitioned",
+        descriptor, TestRecord.class);
+
+    descriptor = new DatasetDescriptor.Builder(descriptor)
+        .partitionStrategy(new PartitionStrategy.Builder()
+            .hash("id", 4)
+            .build())
+        .build();
+    partitioned = Datasets.create("dataset:file:/tmp/datasets/partitioned",
+        descriptor, TestRecord.class);
+  }
+
+  @After
+  public void removeTestDatasets() {
+    Datasets.delete("dataset:file:/tmp/datasets/unpartitioned");
+    Datasets.delete("dataset:file:/tmp/datasets/partitioned");
+  }
+
+  @Test
+  public void testCompactPartitionsWithSmallFiles() {
+    writeTestRecords(partitioned, 3);
+
+    List<CompactionPlanner.Candidate<TestRecord>> plan =
+        new CompactionPlanner<TestRecord>(partitioned).plan();
+
+    Assert.assertEquals("Should plan all partitions", 4, plan.size());
+    for (CompactionPlanner.Candidate<TestRecord> candidate : plan) {
+      Assert.assertEquals("Should count each file", 3, candidate.getNumFiles());
+      Assert.assertEquals("Should count small files",
+          3, candidate.getNumSmallFiles());
+      Assert.assertTrue("Should be able to replace the planned view",
+          partitioned.canReplace(candidate.getView()));
+    }
+  }
+
+  @Test
+  public void testSkipCompactedPartitions() {
+    writeTestRecords(partitioned, 1);
+
+    Assert.assertTrue("Should not plan partitions with one file",
+        new CompactionPlanner<TestRecord>(partitioned).plan().isEmpty());
+  }
+
+  @Test
+  public void testSkipPartitionsAtTargetSize() {
+    writeTestRecords(partitioned, 3);
+
+    Assert.assertTrue("Should not plan partitions that need all files",
+        new CompactionPlanner<TestRecord>(partitioned)
+            .setTargetFileSize(1)
+            .plan().isEmpty());
+  }
+
+  @Test
+  public void testMaxPartitions() {
+    writeTestRecords(partitioned, 3);
+
+    Assert.assertEquals("Should limit the number of partitions", 2,
+        new CompactionPlanner<TestRecord>(partitioned)
+            .setMaxPartitions(2)
+            .plan().size());
+  }
+
+  @Test
+  public void testMaxBytes() {
+    writeTestRecords(partitioned, 3);
+
+    List<CompactionPlanner.Candidate<TestRecord>> all =
+        new CompactionPlanner<TestRecord>(partitioned).plan();
+    long largest = 0;
+    for (CompactionPlanner.Candidate<TestRecord> candidate : all) {
+      largest = Math.max(largest, candidate.getBytes());
+    }
+
+    List<CompactionPlanner.Candidate<TestRecord>> plan =
+        new CompactionPlanner<TestRecord>(partitioned)
+            .setMaxBytes(largest)
+            .plan();
+    Assert.assertEquals("Should fit one partition in the budget",
+        1, plan.size());
+
+    Assert.assertTrue("Should not plan partitions larger than the budget",
+        new CompactionPlanner<TestRecord>(partitioned)
+            .setMaxBytes(1)
+            .plan().isEmpty());
+  }
+
+  @Test
+  public void testMinAge() {
+    writeTestRecords(partitioned, 3);
+    long now = System.currentTimeMillis();
+
+    Assert.assertTrue("Should skip recently modified partitions",
+        new CompactionPlanner<TestRecord>(partitioned)
+            .setMinAgeMillis(DAY)
+            .setCurrentTime(now)
+            .plan().isEmpty());
+
+    Assert.assertEquals("Should plan partitions older than the minimum age", 4,
+        new CompactionPlanner<TestRecord>(partitioned)
+            .setMinAgeMillis(DAY)
+            .setCurrentTime(now + 2 * DAY)
+            .plan().size());
+  }
+
+  @Test
+  public void testOlderPartitionsScoreHigher() {
+    writeTestRecords(partitioned, 3);
+    long now = System.currentTimeMillis();
+
+    CompactionPlanner.Candidate<TestRecord> recent =
+        new CompactionPlanner<TestRecord>(partitioned)
+            .setCurrentTime(now).plan().get(0);
+    CompactionPlanner.Candidate<TestRecord> old =
+        new CompactionPlanner<TestRecord>(partitioned)
+            .setCurrentTime(now + 30 * DAY).plan().get(0);
+
+    Assert.assertTrue("Should weight older partitions higher",
+        old.getScore() > recent.getScore());
+  }
+
+  @Test
+  public void testUnpartitioned() {
+    writeTestRecords(unpartitioned, 3);
+
+    List<CompactionPlanner.Candidate<TestRecord>> plan =
+        new CompactionPlanner<TestRecord>(unpartitioned).plan();
+
+    Assert.assertEquals("Should plan the dataset", 1, plan.size());
+    Assert.assertEquals("Should count each file",
+        3, plan.get(0).getNumFiles());
+    Assert.assertTrue("Should be able to replace the planned view",
+        unpartitioned.canReplace(plan.get(0).getView()));
+  }
+
+  private static void writeTestRecords(View<TestRecord> view, int numFiles) {
+    for (int file = 0; file < numFiles; file += 1) {
+      DatasetWriter<TestRecord> writer = null;
+      try {
+        writer = view.newWriter();
+        for (int i = 0; i < 10; i += 1) {
+          TestRecord record = new TestRecord();
+          record.id = i;
+          record.data = "test-" + i;
+          writer.write(record);
+        }
+      } finally {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+  }
+}
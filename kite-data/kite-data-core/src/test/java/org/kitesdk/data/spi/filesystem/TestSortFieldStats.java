@@ -0,0 +1,359 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.spi.filesystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetReader;
+import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.Datasets;
+import org.kitesdk.data.PartitionStrategy;
+import org.kitesdk.data.ValidationException;
+import com.google.common.collect.Lists;
+
+public class TestSortFieldStats {
+
+  private static final Schema SCHEMA = SchemaBuilder.record("Event").fields()
+      .requiredLong("id")
+      .optionalString("user")
+      .endRecord();
+
+  private static final String URI = "dataset:file:/tmp/datasets/sorted";
+
+  @Before
+  @After
+  public void removeTestDataset() {
+    Datasets.delete(URI);
+  }
+
+  @Test
+  public void testWriterRecordsMinAndMax() throws IOException {
+    FileSystemDataset<GenericData.Record> dataset = Datasets.create(URI,
+        new DatasetDescriptor.Builder()
+            .schema(SCHEMA)
+            .property(FileSystemProperties.SORT_FIELDS_PROP, "id, user")
+            .build(), GenericData.Record.class);
+
+    DatasetWriter<GenericData.Record> writer = dataset.newWriter();
+    try {
+      for (long id : new long[] {12, 5, 14, 9}) {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("id", id);
+        record.put("user", id == 9 ? null : "user-" + id);
+        writer.write(record);
+      }
+    } finally {
+      writer.close();
+    }
+
+    Path directory = new Path(dataset.getDescriptor().getLocation());
+    FileSystem fs = directory.getFileSystem(new Configuration());
+    FileStatus[] files = fs.listStatus(directory, PathFilters.notHidden());
+    Assert.assertEquals("Should write one data file", 1, files.length);
+
+    GenericRecord stats = SortFieldStats.read(fs, files[0].getPath());
+    Assert.assertNotNull("Should write stats for the data file", stats);
+    Assert.assertEquals(5L, stats.get(SortFieldStats.minName("id")));
+    Assert.assertEquals(14L, stats.get(SortFieldStats.maxName("id")));
+    Assert.assertEquals("Should ignore null values",
+        "user-12", stats.get(SortFieldStats.minName("user")).toString());
+    Assert.assertEquals("user-5",
+        stats.get(SortFieldStats.maxName("user")).toString());
+  }
+
+  @Test
+  public void testEncodedRecordStats() throws IOException {
+    FileSystemDataset<GenericData.Record> dataset = Datasets.create(URI,
+        new DatasetDescriptor.Builder()
+            .schema(SCHEMA)
+            .property(FileSystemProperties.SORT_FIELDS_PROP, "id, user")
+            .build(), GenericData.Record.class);
+
+    GenericDatumWriter<GenericData.Record> datumWriter =
+        new GenericDatumWriter<GenericData.Record>(SCHEMA);
+    DatasetWriter<GenericData.Record> writer = dataset.newWriter();
+    try {
+      for (long id : new long[] {12, 5, 14, 9}) {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("id", id);
+        record.put("user", id == 9 ? null : "user-" + id);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        datumWriter.write(record, encoder);
+        encoder.flush();
+        // like records passed through from Flume, no fields are set
+        writer.write(new EncodedAvroRecord(
+            SCHEMA, ByteBuffer.wrap(out.toByteArray())));
+      }
+    } finally {
+      writer.close();
+    }
+
+    Path directory = new Path(dataset.getDescriptor().getLocation());
+    FileSystem fs = directory.getFileSystem(new Configuration());
+    FileStatus[] files = fs.listStatus(directory, PathFilters.notHidden());
+    Assert.assertEquals("Should write one data file", 1, files.length);
+
+    GenericRecord stats = SortFieldStats.read(fs, files[0].getPath());
+    Assert.assertNotNull("Should write stats for the data file", stats);
+    Assert.assertEquals("Should use the encoded values",
+        5L, stats.get(SortFieldStats.minName("id")));
+    Assert.assertEquals(14L, stats.get(SortFieldStats.maxName("id")));
+    Assert.assertEquals("user-12",
+        stats.get(SortFieldStats.minName("user")).toString());
+    Assert.assertEquals("user-5",
+        stats.get(SortFieldStats.maxName("user")).toString());
+  }
+
+  @Test
+  public void testDeleteAllRemovesStats() throws IOException {
+    FileSystemDataset<GenericData.Record> dataset = createSorted(URI);
+    writeFile(dataset, 1, 2);
+    writeFile(dataset, 3, 4);
+
+    Path directory = new Path(dataset.getDescriptor().getLocation());
+    FileSystem fs = directory.getFileSystem(new Configuration());
+    Assert.assertEquals("Should write stats for both files",
+        2, statsFiles(fs, directory).length);
+
+    Assert.assertTrue(dataset.deleteAll());
+    Assert.assertEquals("Should remove stats with the data files",
+        0, statsFiles(fs, directory).length);
+  }
+
+  @Test
+  public void testReplaceMovesStats() throws IOException {
+    String replacementUri = "dataset:file:/tmp/datasets/sorted_replacement";
+    Datasets.delete(replacementUri);
+    try {
+      FileSystemDataset<GenericData.Record> dataset = createSorted(URI);
+      writeFile(dataset, 1, 2);
+      writeFile(dataset, 3, 4);
+
+      FileSystemDataset<GenericData.Record> replacement =
+          createSorted(replacementUri);
+      writeFile(replacement, 7, 8);
+
+      dataset.replace(dataset, replacement);
+
+      Path directory = new Path(dataset.getDescriptor().getLocation());
+      FileSystem fs = directory.getFileSystem(new Configuration());
+      FileStatus[] files = fs.listStatus(directory, PathFilters.notHidden());
+      Assert.assertEquals("Should have the replacement file", 1, files.length);
+      Assert.assertEquals("Should remove stats for the replaced files",
+          1, statsFiles(fs, directory).length);
+
+      GenericRecord stats = SortFieldStats.read(fs, files[0].getPath());
+      Assert.assertNotNull("Should move stats with the data file", stats);
+      Assert.assertEquals(7L, stats.get(SortFieldStats.minName("id")));
+      Assert.assertEquals(8L, stats.get(SortFieldStats.maxName("id")));
+    } finally {
+      Datasets.delete(replacementUri);
+    }
+  }
+
+  @Test
+  public void testNoStatsWithoutSortFields() throws IOException {
+    FileSystemDataset<GenericData.Record> dataset = Datasets.create(URI,
+        new DatasetDescriptor.Builder().schema(SCHEMA).build(),
+        GenericData.Record.class);
+
+    DatasetWriter<GenericData.Record> writer = dataset.newWriter();
+    try {
+      GenericData.Record record = new GenericData.Record(SCHEMA);
+      record.put("id", 1L);
+      writer.write(record);
+    } finally {
+      writer.close();
+    }
+
+    Path directory = new Path(dataset.getDescriptor().getLocation());
+    FileSystem fs = directory.getFileSystem(new Configuration());
+    FileStatus[] files = fs.listStatus(directory, PathFilters.notHidden());
+    Assert.assertNull("Should not write stats",
+        SortFieldStats.read(fs, files[0].getPath()));
+  }
+
+  @Test
+  public void testViewSkipsFilesOutsideConstraints() throws IOException {
+    FileSystemDataset<GenericData.Record> dataset = createSorted(URI);
+    writeFile(dataset, 1, 5);
+    writeFile(dataset, 10, 15);
+    writeFile(dataset, 20, 25);
+
+    Assert.assertEquals("Should read every file without constraints",
+        3, count(dataset.pathIterator()));
+
+    FileSystemView<GenericData.Record> view =
+        (FileSystemView<GenericData.Record>) dataset.from("id", 12L).to("id", 18L);
+    Assert.assertEquals("Should skip files outside the range",
+        1, count(view.pathIterator()));
+    Assert.assertEquals(Arrays.asList(15L), ids(view));
+
+    view = (FileSystemView<GenericData.Record>) dataset.toBefore("id", 10L);
+    Assert.assertEquals("Should skip files above an exclusive bound",
+        1, count(view.pathIterator()));
+    Assert.assertEquals(Arrays.asList(1L, 5L), ids(view));
+
+    view = (FileSystemView<GenericData.Record>) dataset.fromAfter("id", 25L);
+    Assert.assertEquals("Should skip every file", 0, count(view.pathIterator()));
+
+    view = (FileSystemView<GenericData.Record>) dataset.with("id", 5L, 20L);
+    Assert.assertEquals("Should skip files without any of the values",
+        2, count(view.pathIterator()));
+    Assert.assertEquals(Arrays.asList(5L, 20L), ids(view));
+
+    view = (FileSystemView<GenericData.Record>) dataset.with("id", 7L);
+    Assert.assertEquals("Should skip files when the value is between files",
+        0, count(view.pathIterator()));
+  }
+
+  @Test
+  public void testViewReadsFilesWithoutStats() throws IOException {
+    FileSystemDataset<GenericData.Record> dataset = createSorted(URI);
+    writeFile(dataset, 1, 5);
+    writeFile(dataset, 10, 15);
+
+    Path directory = new Path(dataset.getDescriptor().getLocation());
+    FileSystem fs = directory.getFileSystem(new Configuration());
+    for (FileStatus stats : statsFiles(fs, directory)) {
+      fs.delete(stats.getPath(), false);
+    }
+
+    Assert.assertEquals("Should read files without stats",
+        2, count(((FileSystemView<GenericData.Record>) dataset
+            .from("id", 12L)).pathIterator()));
+  }
+
+  @Test
+  public void testPartitionedViewSkipsFiles() throws IOException {
+    Schema schema = SchemaBuilder.record("Event").fields()
+        .requiredString("group")
+        .requiredLong("id")
+        .endRecord();
+    FileSystemDataset<GenericData.Record> dataset = Datasets.create(URI,
+        new DatasetDescriptor.Builder()
+            .schema(schema)
+            .partitionStrategy(new PartitionStrategy.Builder()
+                .identity("group", "group_part")
+                .build())
+            .property(FileSystemProperties.SORT_FIELDS_PROP, "id")
+            .build(), GenericData.Record.class);
+
+    DatasetWriter<GenericData.Record> writer = dataset.newWriter();
+    try {
+      for (Object[] values : new Object[][] {
+          {"a", 1L}, {"a", 2L}, {"b", 10L}, {"b", 11L}, {"c", 3L}}) {
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put("group", values[0]);
+        record.put("id", values[1]);
+        writer.write(record);
+      }
+    } finally {
+      writer.close();
+    }
+
+    // every file in the first partition is skipped, but later ones are read
+    FileSystemView<GenericData.Record> view =
+        (FileSystemView<GenericData.Record>) dataset.from("id", 10L);
+    Assert.assertEquals("Should skip the files in other partitions",
+        1, count(view.pathIterator()));
+    Assert.assertEquals(Arrays.asList(10L, 11L), ids(view));
+  }
+
+  @Test(expected = ValidationException.class)
+  public void testUnknownSortField() {
+    new SortFieldStats(SCHEMA, Arrays.asList("missing"));
+  }
+
+  private static FileSystemDataset<GenericData.Record> createSorted(
+      String uri) {
+    return Datasets.create(uri, new DatasetDescriptor.Builder()
+        .schema(SCHEMA)
+        .property(FileSystemProperties.SORT_FIELDS_PROP, "id")
+        .build(), GenericData.Record.class);
+  }
+
+  private static void writeFile(FileSystemDataset<GenericData.Record> dataset,
+                                long... ids) {
+    DatasetWriter<GenericData.Record> writer = dataset.newWriter();
+    try {
+      for (long id : ids) {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("id", id);
+        writer.write(record);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static int count(Iterator<Path> paths) {
+    int count = 0;
+    while (paths.hasNext()) {
+      paths.next();
+      count += 1;
+    }
+    return count;
+  }
+
+  private static List<Long> ids(FileSystemView<GenericData.Record> view) {
+    List<Long> ids = Lists.newArrayList();
+    DatasetReader<GenericData.Record> reader = view.newReader();
+    try {
+      for (GenericData.Record record : reader) {
+        ids.add((Long) record.get("id"));
+      }
+    } finally {
+      reader.close();
+    }
+    // files are read in directory listing order
+    Collections.sort(ids);
+    return ids;
+  }
+
+  private static FileStatus[] statsFiles(FileSystem fs, Path directory)
+      throws IOException {
+    return fs.listStatus(directory, new PathFilter() {
+      @Override
+      public boolean accept(Path path) {
+        return path.getName().endsWith(".stats");
+      }
+    });
+  }
+}
@@ -15,34 +15,64 @@
  */
 package org.kitesdk.data.crunch;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import javax.annotation.Nullable;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.avro.reflect.ReflectDatumWriter;
 import org.apache.crunch.DoFn;
 import org.apache.crunch.Emitter;
+import org.apache.crunch.GroupingOptions;
 import org.apache.crunch.MapFn;
 import org.apache.crunch.PCollection;
 import org.apache.crunch.PGroupedTable;
 import org.apache.crunch.PTable;
 import org.apache.crunch.Pair;
 import org.apache.crunch.Target;
+import org.apache.crunch.Tuple;
+import org.apache.crunch.Tuple3;
+import org.apache.crunch.fn.Aggregators;
 import org.apache.crunch.io.ReadableSource;
+import org.apache.crunch.lib.Sample;
+import org.apache.crunch.lib.Sort;
 import org.apache.crunch.types.PTableType;
 import org.apache.crunch.types.PType;
 import org.apache.crunch.types.avro.Avros;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.kitesdk.data.Dataset;
 import org.kitesdk.data.DatasetDescriptor;
 import org.kitesdk.data.PartitionStrategy;
+import org.kitesdk.data.DatasetIOException;
 import org.kitesdk.data.View;
+import org.kitesdk.data.mapreduce.DatasetKeyOutputFormat;
 import org.kitesdk.data.spi.AbstractRefinableView;
 import org.kitesdk.data.spi.Constraints;
 import org.kitesdk.data.spi.DataModelUtil;
+import org.kitesdk.data.spi.DescriptorUtil;
 import org.kitesdk.data.spi.EntityAccessor;
 import org.kitesdk.data.spi.PartitionStrategyParser;
 import org.kitesdk.data.spi.SchemaUtil;
 import org.kitesdk.data.spi.StorageKey;
+import org.kitesdk.data.spi.filesystem.FileSystemProperties;
+import org.kitesdk.data.spi.filesystem.PathConversion;
 
 /**
  * <p>
@@ -52,6 +82,8 @@ import org.kitesdk.data.spi.StorageKey;
  */
 public class CrunchDatasets {
 
+  private static final long DEFAULT_TARGET_FILE_SIZE = 128L * 1024 * 1024;
+
   /**
    * Expose the given {@link View} as a Crunch {@link ReadableSource}.
    *
@@ -134,6 +166,23 @@ public class CrunchDatasets {
     return new DatasetTarget<Object>(uri);
   }
 
+  /**
+   * Expose the given {@link View} as a Crunch {@link Target} that stages
+   * entities in files and bulk loads them into the view when the job that
+   * writes the target is committed.
+   * <p>
+   * The view must support bulk loading, like HBase datasets.
+   *
+   * @param view the view to write to
+   * @param <E>  the type of entity stored in the view
+   * @return a {@link Target} for the view
+   * @see DatasetKeyOutputFormat.ConfigBuilder#bulkLoad()
+   */
+  public static <E> Target asBulkLoadTarget(View<E> view) {
+    return asTarget(view)
+        .outputConf(DatasetKeyOutputFormat.KITE_BULK_LOAD, "true");
+  }
+
   /**
    * Partitions {@code collection} to be stored efficiently in {@code View}.
    * <p>
@@ -203,6 +252,13 @@ public class CrunchDatasets {
    * <p>
    * If the dataset is not partitioned, then this will structure all of the
    * entities to produce a number of files equal to {@code numWriters}.
+   * <p>
+   * If the dataset's descriptor sets
+   * {@link FileSystemProperties#SORT_FIELDS_PROP}, entities are sorted by
+   * partition and then by those fields, using a total order across writers
+   * that is sampled from the collection. Each writer receives a contiguous
+   * range, so files for the same partition cover separate ranges of the sort
+   * fields, and {@code numPartitionWriters} is not used.
    *
    * @param collection a collection of entities
    * @param view a {@link View} of a dataset to partition the collection for
@@ -219,7 +275,11 @@ public class CrunchDatasets {
                                              int numWriters, int numPartitionWriters) {
     //ensure the number of writers is honored whether it is per partition or total.
     DatasetDescriptor descriptor = view.getDataset().getDescriptor();
-    if (descriptor.isPartitioned()) {
+    List<String> sortFields = DescriptorUtil.getList(
+        FileSystemProperties.SORT_FIELDS_PROP, descriptor);
+    if (!sortFields.isEmpty()) {
+      return sort(collection, view, sortFields, numWriters);
+    } else if (descriptor.isPartitioned()) {
       GetStorageKey<E> getKey = new GetStorageKey<E>(view, numPartitionWriters);
       PTable<Pair<GenericData.Record, Integer>, E> table = collection
           .by(getKey, Avros.pairs(Avros.generics(getKey.schema()), Avros.ints()));
@@ -231,6 +291,119 @@ public class CrunchDatasets {
     }
   }
 
+  /**
+   * Estimates the number of bytes that {@code collection} will add to each
+   * partition of {@code view}.
+   * <p>
+   * This runs a job over a random sample of the collection that measures the
+   * encoded size of each sampled entity and sums the sizes by partition. The
+   * totals are scaled up by the sample rate. The result can be passed to
+   * {@link #partition(PCollection, View, int, Map)}.
+   *
+   * @param collection a collection of entities
+   * @param view a {@link View} of a partitioned dataset
+   * @param sampleRate the fraction of entities to sample, between 0 and 1
+   * @param <E> the type of entities in the collection and underlying dataset
+   * @return a Map from partition path to the estimated bytes for it
+   *
+   * @since 1.1.0
+   */
+  public static <E> Map<String, Long> estimatePartitionSizes(
+      PCollection<E> collection, View<E> view, double sampleRate) {
+    Preconditions.checkArgument(sampleRate > 0.0 && sampleRate <= 1.0,
+        "Invalid sample rate: " + sampleRate);
+    Preconditions.checkArgument(
+        view.getDataset().getDescriptor().isPartitioned(),
+        "Cannot estimate partition sizes for unpartitioned view: " + view);
+
+    PCollection<E> sample = (sampleRate < 1.0 ?
+        Sample.sample(collection, sampleRate) : collection);
+    Map<String, Long> sampled = sample
+        .parallelDo(new EstimateSize<E>(view),
+            Avros.tableOf(Avros.strings(), Avros.longs()))
+        .groupByKey()
+        .combineValues(Aggregators.SUM_LONGS())
+        .materializeToMap();
+
+    Map<String, Long> estimates = Maps.newHashMap();
+    for (Map.Entry<String, Long> entry : sampled.entrySet()) {
+      estimates.put(entry.getKey(), (long) (entry.getValue() / sampleRate));
+    }
+    return estimates;
+  }
+
+  /**
+   * Partitions {@code collection} to be stored efficiently in {@code View},
+   * using estimated partition sizes to handle skew.
+   * <p>
+   * Each partition is given enough writers to produce files near the target
+   * file size, set by {@link FileSystemProperties#TARGET_FILE_SIZE_PROP} in
+   * the dataset's descriptor, instead of the same number of writers. Writers
+   * are then assigned to reducers so that each reducer handles about the same
+   * number of bytes; a large partition is spread across several reducers
+   * while small partitions share one. Partitions that are missing from
+   * {@code partitionSizes} get a single writer.
+   * <p>
+   * Partition sizes can come from
+   * {@link #estimatePartitionSizes(PCollection, View, double)} or from the
+   * sizes written by a previous run.
+   * <p>
+   * If the dataset is not partitioned, then this will structure all of the
+   * entities to produce a number of files equal to {@code numWriters}.
+   * <p>
+   * If the dataset's descriptor sets
+   * {@link FileSystemProperties#SORT_FIELDS_PROP}, the sizes only choose the
+   * number of reducers, and entities are sorted as in
+   * {@link #partition(PCollection, View, int, int)}.
+   *
+   * @param collection a collection of entities
+   * @param view a {@link View} of a dataset to partition the collection for
+   * @param numWriters the number of writers that should be used, or -1 to
+   *                   use one reducer per writer
+   * @param partitionSizes a Map from partition path to estimated bytes
+   * @param <E> the type of entities in the collection and underlying dataset
+   * @return an equivalent collection of entities partitioned for the view
+   * @see #partition(PCollection, View, int, int)
+   *
+   * @since 1.1.0
+   */
+  public static <E> PCollection<E> partition(PCollection<E> collection,
+                                             View<E> view, int numWriters,
+                                             Map<String, Long> partitionSizes) {
+    DatasetDescriptor descriptor = view.getDataset().getDescriptor();
+    List<String> sortFields = DescriptorUtil.getList(
+        FileSystemProperties.SORT_FIELDS_PROP, descriptor);
+    if (!descriptor.isPartitioned()) {
+      return sortFields.isEmpty() ?
+          partition(collection, numWriters) :
+          sort(collection, view, sortFields, numWriters);
+    }
+
+    long targetFileSize = DescriptorUtil.getLong(
+        FileSystemProperties.TARGET_FILE_SIZE_PROP, descriptor, -1);
+    WriterAssignment assignment = WriterAssignment.assign(partitionSizes,
+        targetFileSize > 0 ? targetFileSize : DEFAULT_TARGET_FILE_SIZE,
+        numWriters);
+
+    if (!sortFields.isEmpty()) {
+      return sort(collection, view, sortFields, assignment.getNumReducers());
+    }
+
+    GetStorageKey<E> getKey = new GetStorageKey<E>(view, 1);
+    GetAssignedKey<E> getAssignedKey = new GetAssignedKey<E>(getKey, assignment);
+    GroupingOptions options = GroupingOptions.builder()
+        .numReducers(assignment.getNumReducers())
+        .partitionerClass(AssignedReducerPartitioner.class)
+        .build();
+
+    PTable<Tuple3<Integer, GenericData.Record, Integer>, E> table = collection
+        .by(getAssignedKey, Avros.triples(
+            Avros.ints(), Avros.generics(getKey.schema()), Avros.ints()));
+    PGroupedTable<Tuple3<Integer, GenericData.Record, Integer>, E> grouped =
+        table.groupByKey(options);
+    return grouped.ungroup().values();
+  }
+
   private static <E> PCollection<E> partition(PCollection<E> collection,
                                               int numReducers) {
     PType<E> type = collection.getPType();
@@ -241,6 +414,32 @@ public class CrunchDatasets {
     return grouped.ungroup().keys();
   }
 
+  /**
+   * Sorts by storage key, if the dataset is partitioned, and then by the sort
+   * fields. {@link Sort} samples the keys to choose split points for a total
+   * order partitioner, so each reducer writes a contiguous range of keys.
+   * Hash partitioning would send every reducer keys from the whole range, and
+   * the stats for each file would not help to skip any of them.
+   */
+  private static <E> PCollection<E> sort(PCollection<E> collection,
+                                         View<E> view,
+                                         List<String> sortFields,
+                                         int numReducers) {
+    GetSortKey<E> getSortKey = new GetSortKey<E>(view, sortFields);
+    if (!view.getDataset().getDescriptor().isPartitioned()) {
+      PTable<GenericData.Record, E> table = collection
+          .by(getSortKey, Avros.generics(getSortKey.schema()));
+      return Sort.sort(table, numReducers, Sort.Order.ASCENDING).values();
+    }
+
+    GetStorageKey<E> getKey = new GetStorageKey<E>(view, 1);
+    PTable<Pair<GenericData.Record, GenericData.Record>, E> table = collection
+        .by(new GetSortedStorageKey<E>(getKey, getSortKey),
+            Avros.pairs(Avros.generics(getKey.schema()),
+                Avros.generics(getSortKey.schema())));
+    return Sort.sort(table, numReducers, Sort.Order.ASCENDING).values();
+  }
+
   @edu.umd.cs.findbugs.annotations.SuppressWarnings(
       value="SE_NO_SERIALVERSIONID",
       justification="Purposely not supported across versions")
@@ -312,6 +511,314 @@ public class CrunchDatasets {
     }
   }
 
+  /**
+   * Assigns each partition a number of writers and each writer a reducer.
+   */
+  static class WriterAssignment implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // partition path -> reducer for each of the partition's writers
+    private final HashMap<String, int[]> reducers;
+    private final int numReducers;
+
+    private WriterAssignment(HashMap<String, int[]> reducers, int numReducers) {
+      this.reducers = reducers;
+      this.numReducers = numReducers;
+    }
+
+    int getNumReducers() {
+      return numReducers;
+    }
+
+    int[] getReducers(String partition) {
+      return reducers.get(partition);
+    }
+
+    /**
+     * Returns the reducer for a partition that was not in the size estimates.
+     */
+    int getDefaultReducer(String partition) {
+      return (partition.hashCode() & Integer.MAX_VALUE) % numReducers;
+    }
+
+    static WriterAssignment assign(Map<String, Long> partitionSizes,
+                                   long targetFileSize, int numWriters) {
+      // each writer should produce about one file of the target size
+      List<Slot> slots = Lists.newArrayList();
+      Map<String, Integer> numPartitionWriters = Maps.newHashMap();
+      for (Map.Entry<String, Long> entry : partitionSizes.entrySet()) {
+        long bytes = Math.max(0, entry.getValue());
+        int writers = (int) Math.max(1,
+            Math.min(Integer.MAX_VALUE, (bytes + targetFileSize - 1) / targetFileSize));
+        numPartitionWriters.put(entry.getKey(), writers);
+        for (int i = 0; i < writers; i += 1) {
+          slots.add(new Slot(entry.getKey(), i, bytes / writers));
+        }
+      }
+
+      int numReducers = numWriters > 0 ? numWriters : Math.max(1, slots.size());
+
+      // place the largest writers first, each on the least-loaded reducer
+      Collections.sort(slots, new Comparator<Slot>() {
+        @Override
+        public int compare(Slot left, Slot right) {
+          return left.bytes < right.bytes ? 1 : (left.bytes > right.bytes ? -1 : 0);
+        }
+      });
+      PriorityQueue<long[]> loads = new PriorityQueue<long[]>(numReducers,
+          new Comparator<long[]>() {
+            @Override
+            public int compare(long[] left, long[] right) {
+              // {bytes, reducer}
+              if (left[0] != right[0]) {
+                return left[0] < right[0] ? -1 : 1;
+              }
+              return left[1] < right[1] ? -1 : (left[1] > right[1] ? 1 : 0);
+            }
+          });
+      for (int i = 0; i < numReducers; i += 1) {
+        loads.add(new long[] {0, i});
+      }
+
+      HashMap<String, int[]> reducers = Maps.newHashMap();
+      for (Map.Entry<String, Integer> entry : numPartitionWriters.entrySet()) {
+        reducers.put(entry.getKey(), new int[entry.getValue()]);
+      }
+      for (Slot slot : slots) {
+        long[] least = loads.poll();
+        reducers.get(slot.partition)[slot.writer] = (int) least[1];
+        least[0] += slot.bytes;
+        loads.add(least);
+      }
+
+      return new WriterAssignment(reducers, numReducers);
+    }
+
+    private static class Slot {
+      private final String partition;
+      private final int writer;
+      private final long bytes;
+
+      private Slot(String partition, int writer, long bytes) {
+        this.partition = partition;
+        this.writer = writer;
+        this.bytes = bytes;
+      }
+    }
+  }
+
+  /**
+   * Sends each key to the reducer in its first field, which was chosen by a
+   * {@link WriterAssignment}.
+   */
+  static class AssignedReducerPartitioner extends Partitioner<Object, Object> {
+    @Override
+    public int getPartition(Object key, Object value, int numPartitions) {
+      return ((Integer) keyField(key, 0)) % numPartitions;
+    }
+  }
+
+  private static Object keyField(Object key, int pos) {
+    Object datum = key;
+    if (datum instanceof AvroWrapper) {
+      datum = ((AvroWrapper) datum).datum();
+    }
+    if (datum instanceof IndexedRecord) {
+      return ((IndexedRecord) datum).get(pos);
+    } else {
+      return ((Tuple) datum).get(pos);
+    }
+  }
+
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings(
+      value={"SE_NO_SERIALVERSIONID","SE_TRANSIENT_FIELD_NOT_RESTORED"},
+      justification="Purposely not supported across versions, fields properly initialized")
+  private static class GetSortKey<E> extends MapFn<E, GenericData.Record> {
+    private final String schemaString;
+    private final Class<E> type;
+    private final ArrayList<String> sortFields;
+    private transient EntityAccessor<E> accessor = null;
+    private transient Schema keySchema = null;
+
+    private GetSortKey(View<E> view, List<String> sortFields) {
+      this.schemaString = view.getDataset().getDescriptor().getSchema()
+          .toString(false /* no white space */);
+      this.type = view.getType();
+      this.sortFields = Lists.newArrayList(sortFields);
+    }
+
+    public Schema schema() {
+      initialize(); // make sure the key schema is not null
+      return keySchema;
+    }
+
+    @Override
+    public void initialize() {
+      if (keySchema == null) {
+        Schema schema = new Schema.Parser().parse(schemaString);
+        this.accessor = DataModelUtil.accessor(type, schema);
+        this.keySchema = sortKeySchema(schema, sortFields);
+      }
+    }
+
+    @Override
+    public GenericData.Record map(E entity) {
+      // keys are not reused because Sort holds on to sampled keys
+      GenericData.Record key = new GenericData.Record(keySchema);
+      for (int i = 0, n = sortFields.size(); i < n; i += 1) {
+        key.put(i, accessor.get(entity, sortFields.get(i)));
+      }
+      return key;
+    }
+
+    private static Schema sortKeySchema(Schema schema, List<String> fields) {
+      List<Schema.Field> keyFields = Lists.newArrayList();
+      for (String name : fields) {
+        // null values sort first
+        Schema nullable = Schema.createUnion(Arrays.asList(
+            Schema.create(Schema.Type.NULL), SchemaUtil.fieldSchema(schema, name)));
+        keyFields.add(new Schema.Field(
+            name.replace('.', '_'), nullable, null, null));
+      }
+      Schema keySchema = Schema.createRecord("SortKey", null, null, false);
+      keySchema.setFields(keyFields);
+      return keySchema;
+    }
+  }
+
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings(
+      value="SE_NO_SERIALVERSIONID",
+      justification="Purposely not supported across versions")
+  private static class GetSortedStorageKey<E>
+      extends MapFn<E, Pair<GenericData.Record, GenericData.Record>> {
+    private final GetStorageKey<E> getKey;
+    private final GetSortKey<E> getSortKey;
+
+    private GetSortedStorageKey(GetStorageKey<E> getKey, GetSortKey<E> getSortKey) {
+      this.getKey = getKey;
+      this.getSortKey = getSortKey;
+    }
+
+    @Override
+    public void initialize() {
+      getKey.initialize();
+      getSortKey.initialize();
+    }
+
+    @Override
+    public Pair<GenericData.Record, GenericData.Record> map(E entity) {
+      GenericData.Record key = getKey.map(entity).first();
+      // the storage key is reused, but Sort holds on to sampled keys
+      return Pair.of(GenericData.get().deepCopy(key.getSchema(), key),
+          getSortKey.map(entity));
+    }
+  }
+
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings(
+      value={"SE_NO_SERIALVERSIONID","SE_TRANSIENT_FIELD_NOT_RESTORED"},
+      justification="Purposely not supported across versions, fields properly initialized")
+  private static class GetAssignedKey<E>
+      extends MapFn<E, Tuple3<Integer, GenericData.Record, Integer>> {
+    private final GetStorageKey<E> getKey;
+    private final WriterAssignment assignment;
+    private transient PathConversion convert = null;
+    private transient Map<StorageKey, int[]> reducersByKey = null;
+    private transient int count;
+
+    private GetAssignedKey(GetStorageKey<E> getKey, WriterAssignment assignment) {
+      this.getKey = getKey;
+      this.assignment = assignment;
+    }
+
+    @Override
+    public void initialize() {
+      getKey.initialize();
+      this.convert = new PathConversion(
+          new Schema.Parser().parse(getKey.schemaString));
+      // cache the reducers by key to avoid building a path for every entity
+      this.reducersByKey = Maps.newHashMap();
+      this.count = 0;
+    }
+
+    @Override
+    public Tuple3<Integer, GenericData.Record, Integer> map(E entity) {
+      AvroStorageKey key = (AvroStorageKey) getKey.map(entity).first();
+      int[] reducers = reducersByKey.get(key.key);
+      if (reducers == null) {
+        String partition = convert.fromKey(key.key).toString();
+        reducers = assignment.getReducers(partition);
+        if (reducers == null) {
+          reducers = new int[] { assignment.getDefaultReducer(partition) };
+        }
+        reducersByKey.put(copy(key), reducers);
+      }
+      int writer = count % reducers.length;
+      count += 1;
+      return Tuple3.<Integer, GenericData.Record, Integer>of(
+          reducers[writer], key, writer);
+    }
+
+    private static StorageKey copy(AvroStorageKey key) {
+      // the storage key is reused, so a copy must be used as a map key
+      StorageKey copy = new StorageKey(key.key.getPartitionStrategy());
+      for (int i = 0, n = key.getSchema().getFields().size(); i < n; i += 1) {
+        copy.replace(i, key.get(i));
+      }
+      return copy;
+    }
+  }
+
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings(
+      value={"SE_NO_SERIALVERSIONID","SE_TRANSIENT_FIELD_NOT_RESTORED"},
+      justification="Purposely not supported across versions, fields properly initialized")
+  private static class EstimateSize<E> extends DoFn<E, Pair<String, Long>> {
+    private final GetStorageKey<E> getKey;
+    private transient PathConversion convert = null;
+    private transient ReflectDatumWriter<E> writer = null;
+    private transient CountingOutputStream counter = null;
+    private transient BinaryEncoder encoder = null;
+
+    private EstimateSize(View<E> view) {
+      this.getKey = new GetStorageKey<E>(view, 1);
+    }
+
+    @Override
+    public void initialize() {
+      getKey.initialize();
+      Schema schema = new Schema.Parser().parse(getKey.schemaString);
+      this.convert = new PathConversion(schema);
+      this.writer = new ReflectDatumWriter<E>(schema);
+      this.counter = new CountingOutputStream();
+      this.encoder = EncoderFactory.get().directBinaryEncoder(counter, null);
+    }
+
+    @Override
+    public void process(E entity, Emitter<Pair<String, Long>> emitter) {
+      AvroStorageKey key = (AvroStorageKey) getKey.map(entity).first();
+      counter.count = 0;
+      try {
+        writer.write(entity, encoder);
+      } catch (IOException e) {
+        throw new DatasetIOException("Cannot encode entity: " + entity, e);
+      }
+      emitter.emit(Pair.of(convert.fromKey(key.key).toString(), counter.count));
+    }
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+    private long count = 0;
+
+    @Override
+    public void write(int b) {
+      count += 1;
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) {
+      count += len;
+    }
+  }
+
   @edu.umd.cs.findbugs.annotations.SuppressWarnings(
       value="EQ_DOESNT_OVERRIDE_EQUALS",
       justification="StorageKey equals is correct, compares the values")
@@ -15,17 +15,25 @@
  */
 package org.kitesdk.data.crunch;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.avro.Schema;
 import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileStream;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
 import org.apache.crunch.CrunchRuntimeException;
 import org.apache.crunch.MapFn;
 import org.apache.crunch.PCollection;
@@ -33,8 +41,12 @@ import org.apache.crunch.Pipeline;
 import org.apache.crunch.Target;
 import org.apache.crunch.impl.mr.MRPipeline;
 import org.apache.crunch.types.avro.Avros;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.LocalJobRunner;
+import org.apache.hadoop.mapreduce.Job;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Assume;
@@ -42,6 +54,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.kitesdk.compat.DynMethods;
 import org.kitesdk.compat.Hadoop;
 import org.kitesdk.data.Dataset;
 import org.kitesdk.data.DatasetDescriptor;
@@ -58,6 +71,8 @@ import org.kitesdk.data.spi.PartitionedDataset;
 import org.kitesdk.data.View;
 import org.kitesdk.data.spi.LastModifiedAccessor;
 import org.kitesdk.data.URIBuilder;
+import org.kitesdk.data.spi.filesystem.PathFilters;
+import org.kitesdk.data.spi.filesystem.SortFieldStats;
 import org.kitesdk.data.user.NewUserRecord;
 
 import static org.kitesdk.data.spi.filesystem.DatasetTestUtilities.USER_SCHEMA;
@@ -225,6 +240,188 @@ public abstract class TestCrunchDatasets extends MiniDFSTest {
     Assert.assertEquals(5, datasetSize(outputPart0));
   }
 
+  @Test
+  public void testPartitionWithEstimatedSizes() throws IOException {
+    PartitionStrategy partitionStrategy = new PartitionStrategy.Builder().hash(
+        "username", 2).build();
+
+    Dataset<Record> inputDataset = repo.create("ns", "in", new DatasetDescriptor.Builder()
+        .schema(USER_SCHEMA).build());
+    Dataset<Record> outputDataset = repo.create("ns", "out", new DatasetDescriptor.Builder()
+        .schema(USER_SCHEMA).partitionStrategy(partitionStrategy).build());
+
+    writeTestUsers(inputDataset, 10);
+
+    Pipeline pipeline = new MRPipeline(TestCrunchDatasets.class);
+    PCollection<GenericData.Record> data = pipeline.read(
+        CrunchDatasets.asSource(inputDataset));
+    Map<String, Long> sizes = CrunchDatasets.estimatePartitionSizes(
+        data, outputDataset, 1.0);
+    Assert.assertEquals("Should estimate both partitions", 2, sizes.size());
+
+    pipeline.write(CrunchDatasets.partition(data, outputDataset, -1, sizes),
+        CrunchDatasets.asTarget(outputDataset), Target.WriteMode.APPEND);
+    Assert.assertTrue("Pipeline failed.", pipeline.run().succeeded());
+
+    checkTestUsers(outputDataset, 10);
+  }
+
+  @Test
+  public void testPartitionSortsBySortFields() throws IOException {
+    Configuration conf = new Configuration(getConfiguration());
+    Assume.assumeTrue(setLocalReducerMax(conf, 3));
+
+    PartitionStrategy partitionStrategy = new PartitionStrategy.Builder().hash(
+        "username", 2).build();
+
+    Dataset<Record> inputDataset = repo.create("ns", "in", new DatasetDescriptor.Builder()
+        .schema(USER_SCHEMA).build());
+    Dataset<Record> outputDataset = repo.create("ns", "out", new DatasetDescriptor.Builder()
+        .schema(USER_SCHEMA).partitionStrategy(partitionStrategy)
+        .property("kite.writer.sort-fields", "email")
+        .build());
+
+    // two input files in reverse sort order
+    writeReversedUsers(inputDataset, 50, 50);
+    writeReversedUsers(inputDataset, 50, 0);
+
+    Pipeline pipeline = new MRPipeline(TestCrunchDatasets.class, conf);
+    PCollection<GenericData.Record> data = pipeline.read(
+        CrunchDatasets.asSource(inputDataset));
+    pipeline.write(CrunchDatasets.partition(data, outputDataset, 3, 1),
+        CrunchDatasets.asTarget(outputDataset), Target.WriteMode.APPEND);
+    Assert.assertTrue("Pipeline failed.", pipeline.run().succeeded());
+
+    checkTestUsers(outputDataset, 100);
+    Assert.assertEquals("Should read every record from sorted files",
+        100, checkSortedFiles(
+            new Path(outputDataset.getDescriptor().getLocation())));
+  }
+
+  @Test
+  public void testUnpartitionedSortUsesRanges() throws IOException {
+    Configuration conf = new Configuration(getConfiguration());
+    Assume.assumeTrue(setLocalReducerMax(conf, 3));
+
+    Dataset<Record> inputDataset = repo.create("ns", "in", new DatasetDescriptor.Builder()
+        .schema(USER_SCHEMA).build());
+    Dataset<Record> outputDataset = repo.create("ns", "out", new DatasetDescriptor.Builder()
+        .schema(USER_SCHEMA)
+        .property("kite.writer.sort-fields", "email")
+        .build());
+
+    writeReversedUsers(inputDataset, 50, 50);
+    writeReversedUsers(inputDataset, 50, 0);
+
+    Pipeline pipeline = new MRPipeline(TestCrunchDatasets.class, conf);
+    PCollection<GenericData.Record> data = pipeline.read(
+        CrunchDatasets.asSource(inputDataset));
+    pipeline.write(CrunchDatasets.partition(data, outputDataset, 3),
+        CrunchDatasets.asTarget(outputDataset), Target.WriteMode.APPEND);
+    Assert.assertTrue("Pipeline failed.", pipeline.run().succeeded());
+
+    checkTestUsers(outputDataset, 100);
+    Assert.assertEquals("Should read every record from sorted files",
+        100, checkSortedFiles(
+            new Path(outputDataset.getDescriptor().getLocation())));
+  }
+
+  /**
+   * Checks that the records in each data file under a directory are sorted by
+   * email, that each file's stats match its first and last record, and that
+   * the files in each directory cover separate ranges.
+   *
+   * @return the number of records checked
+   */
+  private long checkSortedFiles(Path directory) throws IOException {
+    long count = 0;
+    List<String[]> ranges = Lists.newArrayList();
+    for (FileStatus stat : fileSystem.listStatus(
+        directory, PathFilters.notHidden())) {
+      Path path = stat.getPath();
+      if (stat.isDir()) {
+        count += checkSortedFiles(path);
+        continue;
+      }
+
+      DataFileStream<Record> stream = new DataFileStream<Record>(
+          fileSystem.open(path), new GenericDatumReader<Record>(USER_SCHEMA));
+      String first = null;
+      String last = null;
+      try {
+        for (Record record : stream) {
+          String email = record.get("email").toString();
+          Assert.assertTrue("Should be sorted by email: " + email,
+              last == null || last.compareTo(email) <= 0);
+          if (first == null) {
+            first = email;
+          }
+          last = email;
+          count += 1;
+        }
+      } finally {
+        stream.close();
+      }
+
+      GenericRecord stats = SortFieldStats.read(fileSystem, path);
+      Assert.assertNotNull("Should write stats for " + path, stats);
+      Assert.assertEquals(first,
+          stats.get(SortFieldStats.minName("email")).toString());
+      Assert.assertEquals(last,
+          stats.get(SortFieldStats.maxName("email")).toString());
+      ranges.add(new String[] { first, last });
+    }
+
+    // files written by different reducers must not overlap
+    Collections.sort(ranges, new Comparator<String[]>() {
+      @Override
+      public int compare(String[] left, String[] right) {
+        return left[0].compareTo(right[0]);
+      }
+    });
+    for (int i = 1; i < ranges.size(); i += 1) {
+      Assert.assertTrue("Files in " + directory + " should not overlap",
+          ranges.get(i - 1)[1].compareTo(ranges.get(i)[0]) < 0);
+    }
+
+    return count;
+  }
+
+  private static void writeReversedUsers(View<Record> view, int count,
+                                         int start) {
+    DatasetWriter<Record> writer = view.newWriter();
+    try {
+      for (int i = start + count - 1; i >= start; i -= 1) {
+        writer.write(new GenericRecordBuilder(USER_SCHEMA)
+            .set("username", "test-" + i)
+            .set("email", "email-" + i)
+            .build());
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static boolean setLocalReducerMax(Configuration conf, int max) {
+    try {
+      Job job = Hadoop.Job.newInstance.invoke(new Configuration(false));
+      DynMethods.StaticMethod setReducerMax = new DynMethods
+          .Builder("setLocalMaxRunningReduces")
+          .impl(LocalJobRunner.class,
+              org.apache.hadoop.mapreduce.JobContext.class, Integer.TYPE)
+          .buildStaticChecked();
+      setReducerMax.invoke(job, max);
+      // copy the setting into the passed configuration
+      Configuration jobConf = Hadoop.JobContext.getConfiguration.invoke(job);
+      for (Map.Entry<String, String> entry : jobConf) {
+        conf.set(entry.getKey(), entry.getValue());
+      }
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
   @Test
   public void testSourceView() throws IOException {
     PartitionStrategy partitionStrategy = new PartitionStrategy.Builder().hash(
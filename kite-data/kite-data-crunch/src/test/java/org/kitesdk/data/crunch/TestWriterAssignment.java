@@ -0,0 +1,92 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.crunch;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestWriterAssignment {
+
+  private static final long MB = 1024L * 1024;
+
+  @Test
+  public void testWritersProportionalToSize() {
+    Map<String, Long> sizes = ImmutableMap.of(
+        "day=01", 10 * MB,
+        "day=02", 1000 * MB,
+        "day=03", 5 * MB);
+
+    CrunchDatasets.WriterAssignment assignment =
+        CrunchDatasets.WriterAssignment.assign(sizes, 100 * MB, -1);
+
+    Assert.assertEquals("Small partitions should have one writer",
+        1, assignment.getReducers("day=01").length);
+    Assert.assertEquals("Large partitions should have one writer per file",
+        10, assignment.getReducers("day=02").length);
+    Assert.assertEquals("Should use one reducer per writer",
+        12, assignment.getNumReducers());
+
+    Set<Integer> reducers = Sets.newHashSet();
+    for (int reducer : assignment.getReducers("day=02")) {
+      reducers.add(reducer);
+    }
+    Assert.assertEquals("Should spread a large partition across reducers",
+        10, reducers.size());
+  }
+
+  @Test
+  public void testBalanceFixedReducers() {
+    Map<String, Long> sizes = ImmutableMap.of(
+        "day=01", 400 * MB,
+        "day=02", 100 * MB,
+        "day=03", 100 * MB,
+        "day=04", 100 * MB,
+        "day=05", 100 * MB);
+
+    CrunchDatasets.WriterAssignment assignment =
+        CrunchDatasets.WriterAssignment.assign(sizes, 100 * MB, 4);
+
+    Assert.assertEquals("Should use the requested reducers",
+        4, assignment.getNumReducers());
+
+    long[] loads = new long[4];
+    for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+      int[] reducers = assignment.getReducers(entry.getKey());
+      for (int reducer : reducers) {
+        loads[reducer] += entry.getValue() / reducers.length;
+      }
+    }
+    for (long load : loads) {
+      Assert.assertEquals("Should balance bytes across reducers",
+          200 * MB, load);
+    }
+  }
+
+  @Test
+  public void testUnknownPartitionUsesValidReducer() {
+    CrunchDatasets.WriterAssignment assignment =
+        CrunchDatasets.WriterAssignment.assign(
+            ImmutableMap.of("day=01", 10 * MB), 100 * MB, 3);
+
+    int reducer = assignment.getDefaultReducer("day=02");
+    Assert.assertTrue("Should use a valid reducer",
+        reducer >= 0 && reducer < 3);
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.Schema;
+import org.kitesdk.data.FieldMapping;
+import org.kitesdk.data.FieldMapping.MappingType;
+import org.kitesdk.data.hbase.filters.EntityFilter;
+import org.kitesdk.data.hbase.filters.ExistsEntityFilter;
+import org.kitesdk.data.hbase.filters.InEntityFilter;
+import org.kitesdk.data.hbase.impl.EntitySchema;
+import org.kitesdk.data.hbase.impl.EntitySerDe;
+import org.kitesdk.data.spi.Constraints;
+import org.kitesdk.data.spi.predicates.Exists;
+import org.kitesdk.data.spi.predicates.In;
+import org.kitesdk.data.spi.predicates.Range;
+
+/**
+ * Translates {@link Constraints} on column-mapped fields to server-side HBase
+ * filters, so rows that can't match are dropped by the region servers.
+ *
+ * The filters compare serialized cell values, so only predicates that can be
+ * tested by byte equality are translated:
+ * <ul>
+ * <li>{@link In} and {@link Exists} on string, int, long, and boolean fields,
+ * and on nullable unions of one of those types</li>
+ * <li>{@link Range} on boolean fields, or on int and long fields when the
+ * range contains at most {@link #MAX_RANGE_VALUES} values; these are
+ * translated to the equivalent {@code In}</li>
+ * </ul>
+ * Column values are not stored in an order-preserving encoding, so other
+ * ranges are not translated. The filters returned only remove rows that can't
+ * match, so the constraints must still be checked by the reader.
+ */
+class ConstraintFilters {
+
+  /**
+   * The largest number of values that a range is expanded to.
+   */
+  static final int MAX_RANGE_VALUES = 64;
+
+  private ConstraintFilters() {
+  }
+
+  @SuppressWarnings("unchecked")
+  static List<EntityFilter> filtersFor(Constraints constraints,
+      Schema schema, EntitySchema entitySchema, EntitySerDe<?> entitySerDe) {
+    List<EntityFilter> filters = Lists.newArrayList();
+    for (Map.Entry<String, Predicate> entry :
+        constraints.getPredicates().entrySet()) {
+      String name = entry.getKey();
+      Predicate predicate = entry.getValue();
+
+      Schema.Field field = schema.getField(name);
+      FieldMapping fieldMapping = entitySchema.getColumnMappingDescriptor()
+          .getFieldMapping(name);
+      if (field == null || fieldMapping == null ||
+          fieldMapping.getMappingType() != MappingType.COLUMN) {
+        continue;
+      }
+      // values are serialized with the field's schema, so a union's branch
+      // index is part of both the cell and the compared value
+      Schema fieldSchema = nonNullSchema(field.schema());
+      if (fieldSchema == null || !isComparable(fieldSchema.getType())) {
+        continue;
+      }
+
+      // missing cells are read as the default value, so they can't be
+      // filtered out unless the field has no default
+      boolean hasDefault = entitySerDe.getDefaultValue(name) != null;
+
+      if (predicate instanceof Exists) {
+        if (!hasDefault) {
+          filters.add(new ExistsEntityFilter(entitySchema, name));
+        }
+      } else if (predicate instanceof In) {
+        filters.add(new InEntityFilter(entitySchema, entitySerDe, name,
+            ((In) predicate).getSet(), !hasDefault));
+      } else if (predicate instanceof Range) {
+        Collection<Object> values = enumerate(
+            (Range) predicate, fieldSchema.getType());
+        if (values != null && !values.isEmpty()) {
+          filters.add(new InEntityFilter(entitySchema, entitySerDe, name,
+              values, !hasDefault));
+        }
+      }
+    }
+    return filters;
+  }
+
+  /**
+   * Returns the schema of a field, unwrapping a nullable union of a single
+   * type, or null if the field is a union of more than one non-null type.
+   */
+  private static Schema nonNullSchema(Schema schema) {
+    if (schema.getType() != Schema.Type.UNION) {
+      return schema;
+    }
+    Schema nonNull = null;
+    for (Schema type : schema.getTypes()) {
+      if (type.getType() != Schema.Type.NULL) {
+        if (nonNull != null) {
+          return null;
+        }
+        nonNull = type;
+      }
+    }
+    return nonNull;
+  }
+
+  private static boolean isComparable(Schema.Type type) {
+    switch (type) {
+      case STRING:
+      case INT:
+      case LONG:
+      case BOOLEAN:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns the values in a range, or null if there are too many values or
+   * the range can't be enumerated.
+   */
+  @SuppressWarnings("unchecked")
+  private static Collection<Object> enumerate(Range range, Schema.Type type) {
+    List<Object> values = Lists.newArrayList();
+    switch (type) {
+      case BOOLEAN:
+        for (Boolean value : new Boolean[] {false, true}) {
+          if (range.contains(value)) {
+            values.add(value);
+          }
+        }
+        return values;
+      case INT:
+      case LONG:
+        if (!range.hasLowerBound() || !range.hasUpperBound()) {
+          return null;
+        }
+        long lower = ((Number) range.lowerEndpoint()).longValue();
+        long upper = ((Number) range.upperEndpoint()).longValue();
+        long span = upper - lower; // negative if empty or on overflow
+        if (upper < lower || span < 0 || span >= MAX_RANGE_VALUES) {
+          return null;
+        }
+        for (long i = 0; i <= span; i += 1) {
+          long value = lower + i;
+          Object boxed = (type == Schema.Type.INT) ?
+              (Object) Integer.valueOf((int) value) : (Object) value;
+          if (range.contains(boxed)) {
+            values.add(boxed);
+          }
+        }
+        return values;
+      default:
+        return null;
+    }
+  }
+}
@@ -21,8 +21,10 @@ import java.util.List;
 
 import org.apache.avro.generic.IndexedRecord;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetWriter;
 import org.kitesdk.data.Key;
 import org.kitesdk.data.hbase.impl.BaseDao;
 import org.kitesdk.data.hbase.impl.CompositeBaseDao;
@@ -38,11 +40,12 @@ import org.kitesdk.data.RandomAccessDataset;
 import org.kitesdk.data.RefinableView;
 import org.kitesdk.data.hbase.impl.Dao;
 import org.kitesdk.data.spi.AbstractDataset;
+import org.kitesdk.data.spi.BulkLoadable;
 import org.kitesdk.data.spi.Constraints;
 import org.kitesdk.data.spi.InputFormatAccessor;
 
 class DaoDataset<E> extends AbstractDataset<E> implements RandomAccessDataset<E>,
-    InputFormatAccessor<E>, HBaseActionModifiable {
+    InputFormatAccessor<E>, HBaseActionModifiable, BulkLoadable<E> {
 
   private final String namespace;
   private final String name;
@@ -150,8 +153,18 @@ class DaoDataset<E> extends AbstractDataset<E> implements RandomAccessDataset<E>
     return new HBaseViewKeyInputFormat<E>(this);
   }
 
+  @Override
+  public DatasetWriter<E> newBulkWriter(Path directory) {
+    return unbounded.newBulkWriter(directory);
+  }
+
+  @Override
+  public void bulkLoad(Path directory) {
+    unbounded.bulkLoad(directory);
+  }
+
   @SuppressWarnings("unchecked")
-  private BaseDao<E> getBaseDao() {
+  BaseDao<E> getBaseDao() {
     Dao<E> dao = getDao();
     if(dao instanceof CompositeBaseDao) {
       dao = ((CompositeBaseDao) dao).getDao();
@@ -17,13 +17,19 @@ package org.kitesdk.data.hbase;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import java.util.Iterator;
+import java.util.Set;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.kitesdk.data.DatasetReader;
 import org.kitesdk.data.DatasetWriter;
 import org.kitesdk.data.Flushable;
+import org.kitesdk.data.hbase.filters.EntityFilter;
+import org.kitesdk.data.hbase.impl.BaseDao;
+import org.kitesdk.data.hbase.impl.Dao;
 import org.kitesdk.data.hbase.impl.EntityBatch;
 import org.kitesdk.data.hbase.impl.EntityScanner;
+import org.kitesdk.data.hbase.impl.EntityScannerBuilder;
 import org.kitesdk.data.impl.Accessor;
 import org.kitesdk.data.spi.AbstractDatasetReader;
 import org.kitesdk.data.spi.AbstractDatasetWriter;
@@ -31,6 +37,7 @@ import org.kitesdk.data.spi.FieldPartitioner;
 import org.kitesdk.data.spi.PartitionKey;
 import org.kitesdk.data.PartitionStrategy;
 import org.kitesdk.data.spi.AbstractRefinableView;
+import org.kitesdk.data.spi.BulkLoadable;
 import org.kitesdk.data.spi.Constraints;
 import org.kitesdk.data.spi.InitializeAccessor;
 import org.kitesdk.data.spi.InputFormatAccessor;
@@ -40,8 +47,10 @@ import org.kitesdk.data.spi.MarkerRange;
 import java.util.List;
 import org.apache.avro.Schema;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 
-class DaoView<E> extends AbstractRefinableView<E> implements InputFormatAccessor<E> {
+class DaoView<E> extends AbstractRefinableView<E> implements
+    InputFormatAccessor<E>, BulkLoadable<E> {
 
   private final DaoDataset<E> dataset;
 
@@ -74,9 +83,48 @@ class DaoView<E> extends AbstractRefinableView<E> implements InputFormatAccessor
     Iterable<MarkerRange> markerRanges = constraints.toKeyRanges();
     // TODO: combine all ranges into a single reader
     MarkerRange range = Iterables.getOnlyElement(markerRanges);
-    return dataset.getDao().getScanner(
-        toPartitionKey(range.getStart()), range.getStart().isInclusive(),
-        toPartitionKey(range.getEnd()), range.getEnd().isInclusive());
+    Dao<E> dao = dataset.getDao();
+    if (!(dao instanceof BaseDao)) {
+      return dao.getScanner(
+          toPartitionKey(range.getStart()), range.getStart().isInclusive(),
+          toPartitionKey(range.getEnd()), range.getEnd().isInclusive());
+    }
+    BaseDao<E> baseDao = (BaseDao<E>) dao;
+    EntityScannerBuilder<E> builder = baseDao.getScannerBuilder()
+        .setStartKey(toPartitionKey(range.getStart()))
+        .setStartInclusive(range.getStart().isInclusive())
+        .setStopKey(toPartitionKey(range.getEnd()))
+        .setStopInclusive(range.getEnd().isInclusive());
+    Set<String> projection = getProjectedFields();
+    if (projection != null) {
+      builder.setProjection(projection);
+    }
+    // drop rows that can't match on the region servers. constraints are
+    // still checked by the reader because not all of them can be pushed down
+    for (EntityFilter filter : ConstraintFilters.filtersFor(constraints,
+        dataset.getDescriptor().getSchema(), baseDao.getEntitySchema(),
+        baseDao.getEntitySerDe())) {
+      builder.addFilter(filter);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the fields that must be read to produce entities for this view, or
+   * null if all fields must be read. When this view has been projected to a
+   * schema with fewer fields than the dataset, this is the projected schema's
+   * fields plus any fields needed to test the view's constraints.
+   */
+  Set<String> getProjectedFields() {
+    Schema readSchema = getSchema();
+    if (readSchema.equals(dataset.getDescriptor().getSchema())) {
+      return null;
+    }
+    Set<String> fields = Sets.newHashSet(constraints.getSourceFields());
+    for (Schema.Field field : readSchema.getFields()) {
+      fields.add(field.name());
+    }
+    return fields;
   }
 
   @Override
@@ -134,7 +182,20 @@ class DaoView<E> extends AbstractRefinableView<E> implements InputFormatAccessor
 
   @Override
   public DatasetWriter<E> newWriter() {
-    final EntityBatch<E> wrappedWriter = dataset.getDao().newBatch();
+    return newWriter(dataset.getDao().newBatch());
+  }
+
+  @Override
+  public DatasetWriter<E> newBulkWriter(Path directory) {
+    return newWriter(dataset.getBaseDao().newBulkWriter(directory));
+  }
+
+  @Override
+  public void bulkLoad(Path directory) {
+    dataset.getBaseDao().bulkLoad(directory);
+  }
+
+  private DatasetWriter<E> newWriter(final EntityBatch<E> wrappedWriter) {
     if (constraints.isUnbounded()) {
       wrappedWriter.initialize();
       return wrappedWriter;
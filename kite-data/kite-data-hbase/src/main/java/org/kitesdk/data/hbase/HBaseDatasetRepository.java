@@ -16,6 +16,7 @@
 package org.kitesdk.data.hbase;
 
 import com.google.common.base.Preconditions;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import org.apache.hadoop.hbase.HConstants;
@@ -42,7 +43,16 @@ import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTablePool;
 import org.kitesdk.data.URIBuilder;
 
-public class HBaseDatasetRepository extends AbstractDatasetRepository {
+/**
+ * A repository of datasets stored in HBase tables.
+ *
+ * If kite.hbase.schema.refresh-interval-ms is set, the repository reloads
+ * managed schemas on a daemon thread; call {@link #close()} when the
+ * repository is no longer needed to stop it. Repositories that are not closed
+ * stop reloading once they are garbage collected.
+ */
+public class HBaseDatasetRepository extends AbstractDatasetRepository
+    implements Closeable {
 
   private static final String DEFAULT_NAMESPACE = "default";
 
@@ -53,7 +63,9 @@ public class HBaseDatasetRepository extends AbstractDatasetRepository {
 
   HBaseDatasetRepository(HBaseAdmin hBaseAdmin, HTablePool tablePool, URI repositoryUri) {
     this.tablePool = tablePool;
-    this.schemaManager = new DefaultSchemaManager(tablePool);
+    this.schemaManager = new DefaultSchemaManager(tablePool,
+        hBaseAdmin.getConfiguration().getLong(
+            HBaseProperties.SCHEMA_REFRESH_INTERVAL_PROP, 0));
     this.metadataProvider = new HBaseMetadataProvider(hBaseAdmin, schemaManager);
     this.repositoryUri = repositoryUri;
   }
@@ -124,6 +136,18 @@ public class HBaseDatasetRepository extends AbstractDatasetRepository {
     return repositoryUri;
   }
 
+  /**
+   * Stops reloading managed schemas in the background, if it was enabled.
+   * Datasets loaded from this repository can still be used, and still load
+   * new schema versions when they read or write them.
+   */
+  @Override
+  public void close() {
+    if (schemaManager instanceof DefaultSchemaManager) {
+      ((DefaultSchemaManager) schemaManager).close();
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private <E> RandomAccessDataset<E> newCompositeDataset(String namespace, String name, String tableName,
       List<DatasetDescriptor> descriptors, Class<E> type) {
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase;
+
+/**
+ * Configuration properties for HBase datasets. These are read from the HBase
+ * {@link org.apache.hadoop.conf.Configuration} used by the repository.
+ */
+public class HBaseProperties {
+  /**
+   * Used to size scanner caching automatically. The number of rows fetched by
+   * each scanner RPC is chosen so that each batch is about this many bytes.
+   * This is used by scanners that don't set a caching budget.
+   *
+   * The value should be a long, or 0 to disable.
+   */
+  public static final String SCAN_CACHING_BUDGET_PROP =
+      "kite.hbase.scan.caching-budget-bytes";
+
+  /**
+   * Used to fetch the next batch of rows on a background thread while the
+   * current batch is read. This is used by scanners that don't enable
+   * prefetching.
+   *
+   * The value should be a boolean.
+   */
+  public static final String SCAN_PREFETCH_PROP = "kite.hbase.scan.prefetch";
+
+  /**
+   * Used to size the buffer of bulk writers. Entities are buffered and sorted
+   * in memory, then written to a new set of HFiles each time the buffer is
+   * full. Larger buffers result in fewer, larger files.
+   *
+   * The value should be a long.
+   */
+  public static final String BULK_LOAD_BUFFER_SIZE_PROP =
+      "kite.hbase.bulk-load.buffer-bytes";
+
+  /**
+   * Used to reload managed schemas in the background, so that new schema
+   * versions are usually cached before entities written with them are read.
+   *
+   * The value should be a long number of milliseconds between reloads, or 0
+   * to disable.
+   */
+  public static final String SCHEMA_REFRESH_INTERVAL_PROP =
+      "kite.hbase.schema.refresh-interval-ms";
+}
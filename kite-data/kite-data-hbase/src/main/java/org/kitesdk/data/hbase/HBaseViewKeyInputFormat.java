@@ -17,6 +17,7 @@ package org.kitesdk.data.hbase;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
@@ -59,6 +60,10 @@ class HBaseViewKeyInputFormat<E> extends InputFormat<E, Void> {
   public HBaseViewKeyInputFormat(DaoView<E> view) {
     this((DaoDataset<E>) view.getDataset());
     this.view = view;
+    Set<String> projection = view.getProjectedFields();
+    if (projection != null) {
+      this.entityMapper = entityMapper.project(projection);
+    }
   }
 
   @Override
@@ -82,14 +87,22 @@ class HBaseViewKeyInputFormat<E> extends InputFormat<E, Void> {
     return unfilteredRecordReader;
   }
 
-  private TableInputFormat getDelegate(Configuration conf) throws IOException {
+  /**
+   * Returns the scan for the view, which is built the same way as the scan of
+   * the view's readers: it reads only the projected columns and carries the
+   * server-side filters for the view's constraints.
+   */
+  Scan getScan() {
+    return ((BaseEntityScanner) view.newEntityScanner()).getScan();
+  }
+
+  TableInputFormat getDelegate(Configuration conf) throws IOException {
     TableInputFormat delegate = new TableInputFormat();
     String tableName = HBaseMetadataProvider.getTableName(dataset.getName());
     conf.set(TableInputFormat.INPUT_TABLE, tableName);
     if (view != null) {
       Job tempJob = new Job();
-      Scan scan = ((BaseEntityScanner) view.newEntityScanner()).getScan();
-      TableMapReduceUtil.initTableMapperJob(tableName, scan, TableMapper.class, null,
+      TableMapReduceUtil.initTableMapperJob(tableName, getScan(), TableMapper.class, null,
           null, tempJob);
       Configuration tempConf = Hadoop.JobContext.getConfiguration.invoke(tempJob);
       conf.set(SCAN, tempConf.get(SCAN));
@@ -17,7 +17,6 @@ package org.kitesdk.data.hbase.avro;
 
 import org.kitesdk.data.DatasetException;
 import org.kitesdk.data.spi.PartitionKey;
-import org.kitesdk.data.SchemaNotFoundException;
 import org.kitesdk.data.ValidationException;
 import org.kitesdk.data.hbase.impl.BaseEntityMapper;
 import org.kitesdk.data.hbase.impl.EntityMapper;
@@ -32,6 +31,7 @@ import org.kitesdk.data.hbase.manager.generated.ManagedSchemaEntityVersion;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -75,6 +75,7 @@ public class VersionedAvroEntityMapper<ENTITY extends IndexedRecord> implements
   private final boolean specific;
   private final ConcurrentHashMap<Integer, EntityMapper<ENTITY>> entityMappers = new ConcurrentHashMap<Integer, EntityMapper<ENTITY>>();
   private final String managedSchemaEntityVersionSchema;
+  private final Collection<String> projection;
   private EntityMapper<ManagedSchemaEntityVersion> managedSchemaEntityVersionEntityMapper;
 
   /**
@@ -126,6 +127,7 @@ public class VersionedAvroEntityMapper<ENTITY extends IndexedRecord> implements
     this.entityName = builder.entityName;
     this.specific = builder.specific;
     this.managedSchemaEntityVersionSchema = getManagedSchemaEntityVersionSchema(entityName);
+    this.projection = null;
 
     if (!specific) {
       // Must be a Generic avro record. Tie the key and entity classes to
@@ -208,6 +210,26 @@ public class VersionedAvroEntityMapper<ENTITY extends IndexedRecord> implements
     initializeEntityVersionEntityMapper();
   }
 
+  /**
+   * Constructor that copies an existing entity mapper, reading only the
+   * projected fields.
+   */
+  private VersionedAvroEntityMapper(VersionedAvroEntityMapper<ENTITY> mapper,
+      Collection<String> projection) {
+    this.schemaManager = mapper.schemaManager;
+    this.tableName = mapper.tableName;
+    this.entityName = mapper.entityName;
+    this.specific = mapper.specific;
+    this.managedSchemaEntityVersionSchema = mapper.managedSchemaEntityVersionSchema;
+    this.entityClass = mapper.entityClass;
+    this.keySchema = mapper.keySchema;
+    this.entitySchema = mapper.entitySchema;
+    this.version = mapper.version;
+    this.projection = projection;
+    this.managedSchemaEntityVersionEntityMapper = mapper.managedSchemaEntityVersionEntityMapper;
+    updateEntityMappers();
+  }
+
   @Override
   public PartitionKey mapToKey(ENTITY entity) {
     return entityMappers.get(version).mapToKey(entity);
@@ -221,20 +243,16 @@ public class VersionedAvroEntityMapper<ENTITY extends IndexedRecord> implements
     if (versionRecord != null) {
       resultVersion = versionRecord.getSchemaVersion();
     }
-    if (entityMappers.containsKey(resultVersion)) {
-      return entityMappers.get(resultVersion).mapToEntity(result);
-    } else {
-      schemaManager.refreshManagedSchemaCache(tableName, entityName);
-      updateEntityMappers();
-      if (entityMappers.containsKey(resultVersion)) {
-        return entityMappers.get(resultVersion).mapToEntity(result);
-      } else {
-        String msg = "Could not find schema for " + tableName + ", "
-            + entityName + ", with version " + resultVersion;
-        LOG.error(msg);
-        throw new SchemaNotFoundException(msg);
-      }
+    EntityMapper<ENTITY> entityMapper = entityMappers.get(resultVersion);
+    if (entityMapper == null) {
+      // a version written after this mapper was built. The schema manager
+      // refreshes its cache if needed, and throws SchemaNotFoundException if
+      // the version doesn't exist.
+      EntitySchema writtenSchema = schemaManager.getEntitySchema(tableName,
+          entityName, resultVersion);
+      entityMapper = addEntityMapper(resultVersion, writtenSchema);
     }
+    return entityMapper.mapToEntity(result);
   }
 
   @Override
@@ -282,6 +300,11 @@ public class VersionedAvroEntityMapper<ENTITY extends IndexedRecord> implements
     return requiredColumns;
   }
 
+  @Override
+  public EntityMapper<ENTITY> project(Collection<String> fieldNames) {
+    return new VersionedAvroEntityMapper<ENTITY>(this, fieldNames);
+  }
+
   @Override
   public KeySchema getKeySchema() {
     return keySchema;
@@ -327,14 +350,27 @@ public class VersionedAvroEntityMapper<ENTITY extends IndexedRecord> implements
     for (Entry<Integer, EntitySchema> entry : schemaManager.getEntitySchemas(
         tableName, entityName).entrySet()) {
       if (!entityMappers.containsKey(entry.getKey())) {
-        AvroEntitySchema writtenSchema = (AvroEntitySchema) entry.getValue();
-        EntityMapper<ENTITY> entityMapper = constructWrappedEntityMapper(
-            keySchema, entitySchema, writtenSchema, entityClass);
-        entityMappers.put(entry.getKey(), entityMapper);
+        addEntityMapper(entry.getKey(), entry.getValue());
       }
     }
   }
 
+  /**
+   * Add a wrapped entity mapper for a written schema version, unless another
+   * thread already added one, and return the mapper for that version.
+   */
+  private EntityMapper<ENTITY> addEntityMapper(int writtenVersion,
+      EntitySchema writtenSchema) {
+    EntityMapper<ENTITY> entityMapper = constructWrappedEntityMapper(
+        keySchema, entitySchema, (AvroEntitySchema) writtenSchema, entityClass);
+    if (projection != null) {
+      entityMapper = entityMapper.project(projection);
+    }
+    EntityMapper<ENTITY> existing = entityMappers.putIfAbsent(writtenVersion,
+        entityMapper);
+    return (existing != null ? existing : entityMapper);
+  }
+
   /**
    * 
    * @param keySchema
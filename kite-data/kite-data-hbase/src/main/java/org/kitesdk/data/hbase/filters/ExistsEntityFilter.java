@@ -0,0 +1,54 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase.filters;
+
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.kitesdk.data.DatasetException;
+import org.kitesdk.data.FieldMapping;
+import org.kitesdk.data.FieldMapping.MappingType;
+import org.kitesdk.data.hbase.impl.EntitySchema;
+
+/**
+ * An EntityFilter that will only include rows that have a value for a single
+ * entity field. Null field values are never written, so this matches entities
+ * with a non-null value for the field, unless the field has a default value.
+ */
+public class ExistsEntityFilter implements EntityFilter {
+
+  private final Filter filter;
+
+  public ExistsEntityFilter(EntitySchema entitySchema, String fieldName) {
+    FieldMapping fieldMapping = entitySchema.getColumnMappingDescriptor()
+        .getFieldMapping(fieldName);
+    if (fieldMapping.getMappingType() != MappingType.COLUMN) {
+      throw new DatasetException(
+          "SingleColumnValueFilter only compatible with COLUMN mapping types.");
+    }
+
+    // serialized values are never empty, so this only filters missing cells
+    SingleColumnValueFilter existsFilter = new SingleColumnValueFilter(
+        fieldMapping.getFamily(), fieldMapping.getQualifier(),
+        CompareFilter.CompareOp.NOT_EQUAL, new byte[0]);
+    existsFilter.setFilterIfMissing(true);
+    this.filter = existsFilter;
+  }
+
+  public Filter getFilter() {
+    return filter;
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase.filters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.kitesdk.data.DatasetException;
+import org.kitesdk.data.FieldMapping;
+import org.kitesdk.data.FieldMapping.MappingType;
+import org.kitesdk.data.hbase.impl.EntitySchema;
+import org.kitesdk.data.hbase.impl.EntitySerDe;
+
+/**
+ * An EntityFilter that will only include rows where a single entity field is
+ * equal to one of a set of values.
+ */
+public class InEntityFilter implements EntityFilter {
+
+  private final Filter filter;
+
+  public InEntityFilter(EntitySchema entitySchema,
+      EntitySerDe<?> entitySerDe, String fieldName, Collection<?> values) {
+    this(entitySchema, entitySerDe, fieldName, values, true);
+  }
+
+  /**
+   * @param filterIfMissing
+   *          If true, rows without a value for the field are filtered out.
+   *          This should be false if the field's default value may be one of
+   *          the values.
+   */
+  public InEntityFilter(EntitySchema entitySchema,
+      EntitySerDe<?> entitySerDe, String fieldName, Collection<?> values,
+      boolean filterIfMissing) {
+    FieldMapping fieldMapping = entitySchema.getColumnMappingDescriptor()
+        .getFieldMapping(fieldName);
+    if (fieldMapping.getMappingType() != MappingType.COLUMN) {
+      throw new DatasetException(
+          "SingleColumnValueFilter only compatible with COLUMN mapping types.");
+    }
+    if (values.isEmpty()) {
+      throw new DatasetException("No values to match for field: " + fieldName);
+    }
+
+    byte[] family = fieldMapping.getFamily();
+    byte[] qualifier = fieldMapping.getQualifier();
+    List<Filter> filters = new ArrayList<Filter>(values.size());
+    for (Object value : values) {
+      SingleColumnValueFilter valueFilter = new SingleColumnValueFilter(
+          family, qualifier, CompareFilter.CompareOp.EQUAL,
+          entitySerDe.serializeColumnValueToBytes(fieldName, value));
+      valueFilter.setFilterIfMissing(filterIfMissing);
+      filters.add(valueFilter);
+    }
+
+    if (filters.size() == 1) {
+      this.filter = filters.get(0);
+    } else {
+      this.filter = new FilterList(FilterList.Operator.MUST_PASS_ONE, filters);
+    }
+  }
+
+  public Filter getFilter() {
+    return filter;
+  }
+}
@@ -18,6 +18,7 @@ package org.kitesdk.data.hbase.impl;
 import org.kitesdk.data.spi.PartitionKey;
 import org.kitesdk.data.PartitionStrategy;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.client.HTablePool;
 
 /**
@@ -136,6 +137,29 @@ public class BaseDao<E> implements Dao<E> {
     return clientTemplate;
   }
 
+  /**
+   * Create an EntityBatch that writes entities to HFiles in the given
+   * directory instead of putting them into the table.
+   *
+   * @param directory
+   *          The directory where HFiles will be written
+   * @return An EntityBatch
+   */
+  public EntityBatch<E> newBulkWriter(Path directory) {
+    return clientTemplate.createBulkWriter(entityMapper, directory);
+  }
+
+  /**
+   * Load the HFiles written to the given directory by bulk writers into the
+   * table.
+   *
+   * @param directory
+   *          A directory of HFiles
+   */
+  public void bulkLoad(Path directory) {
+    clientTemplate.bulkLoad(directory);
+  }
+
   @Override
   public KeySchema getKeySchema() {
     return entityMapper.getKeySchema();
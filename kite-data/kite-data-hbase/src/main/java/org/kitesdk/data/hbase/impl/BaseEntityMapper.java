@@ -16,11 +16,13 @@
 package org.kitesdk.data.hbase.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
 import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Result;
+import org.kitesdk.data.ColumnMapping;
 import org.kitesdk.data.DatasetException;
 import org.kitesdk.data.FieldMapping;
 import org.kitesdk.data.FieldMapping.MappingType;
@@ -39,6 +41,8 @@ public class BaseEntityMapper<E> implements EntityMapper<E> {
   private final EntitySchema entitySchema;
   private final KeySerDe keySerDe;
   private final EntitySerDe<E> entitySerDe;
+  private final ColumnMapping readMapping;
+  private final boolean projected;
 
   public BaseEntityMapper(EntitySchema entitySchema, EntitySerDe<E> entitySerDe) {
     this(null, entitySchema, null, entitySerDe);
@@ -50,10 +54,48 @@ public class BaseEntityMapper<E> implements EntityMapper<E> {
     this.entitySchema = entitySchema;
     this.keySerDe = keySerDe;
     this.entitySerDe = entitySerDe;
+    this.readMapping = entitySchema.getColumnMappingDescriptor();
+    this.projected = false;
+  }
+
+  private BaseEntityMapper(BaseEntityMapper<E> mapper,
+      ColumnMapping readMapping) {
+    this.keySchema = mapper.keySchema;
+    this.entitySchema = mapper.entitySchema;
+    this.keySerDe = mapper.keySerDe;
+    this.entitySerDe = mapper.entitySerDe;
+    this.readMapping = readMapping;
+    this.projected = true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Key fields are always set since they are read from the row key. Writes are
+   * not affected by a projection.
+   *
+   * A projected mapper maps every non-empty Result to an entity, even if none
+   * of the projected columns are set in the row, because the row exists
+   * whether or not it has values for the projected fields.
+   */
+  @Override
+  public BaseEntityMapper<E> project(Collection<String> fieldNames) {
+    ColumnMapping.Builder builder = new ColumnMapping.Builder();
+    for (FieldMapping fieldMapping : entitySchema.getColumnMappingDescriptor()
+        .getFieldMappings()) {
+      if (fieldMapping.getMappingType() == MappingType.KEY
+          || fieldNames.contains(fieldMapping.getFieldName())) {
+        builder.fieldMapping(fieldMapping);
+      }
+    }
+    return new BaseEntityMapper<E>(this, builder.build());
   }
 
   @Override
   public E mapToEntity(Result result) {
+    if (projected && result.isEmpty()) {
+      return null;
+    }
     boolean allNull = true;
     PartitionKey partitionKey;
     if (keySerDe == null) {
@@ -62,8 +104,7 @@ public class BaseEntityMapper<E> implements EntityMapper<E> {
       partitionKey = keySerDe.deserialize(result.getRow());
     }
     EntityComposer.Builder<E> builder = getEntityComposer().getBuilder();
-    for (FieldMapping fieldMapping : entitySchema.getColumnMappingDescriptor()
-        .getFieldMappings()) {
+    for (FieldMapping fieldMapping : readMapping.getFieldMappings()) {
       Object fieldValue;
       if (fieldMapping.getMappingType() == MappingType.KEY) {
         if (partitionKey != null) {
@@ -106,8 +147,11 @@ public class BaseEntityMapper<E> implements EntityMapper<E> {
      * 
      * TODO: Think about disallowing puts of all null entity fields and schema
      * migrations where two schemas share no fields in common.
+     *
+     * This doesn't apply to projected mappers, which may not read any non-key
+     * fields at all.
      */
-    if (allNull) {
+    if (allNull && !projected) {
       return null;
     }
 
@@ -189,13 +233,12 @@ public class BaseEntityMapper<E> implements EntityMapper<E> {
 
   @Override
   public Set<String> getRequiredColumns() {
-    return entitySchema.getColumnMappingDescriptor().getRequiredColumns();
+    return readMapping.getRequiredColumns();
   }
 
   @Override
   public Set<String> getRequiredColumnFamilies() {
-    return entitySchema.getColumnMappingDescriptor()
-        .getRequiredColumnFamilies();
+    return readMapping.getRequiredColumnFamilies();
   }
 
   @Override
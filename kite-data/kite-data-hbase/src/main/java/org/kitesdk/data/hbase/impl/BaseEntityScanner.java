@@ -16,6 +16,7 @@
 package org.kitesdk.data.hbase.impl;
 
 import org.kitesdk.data.DatasetIOException;
+import org.kitesdk.data.hbase.HBaseProperties;
 import org.kitesdk.data.spi.AbstractDatasetReader;
 import org.kitesdk.data.spi.ReaderWriterState;
 import com.google.common.base.Preconditions;
@@ -24,6 +25,7 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.HTablePool;
 import org.apache.hadoop.hbase.client.Result;
@@ -44,8 +46,12 @@ public class BaseEntityScanner<E> extends AbstractDatasetReader<E>
   private final EntityMapper<E> entityMapper;
   private final HTablePool tablePool;
   private final String tableName;
+  private final long cachingBudget; // -1 if not set
+  private final Boolean prefetch; // null if not set
+  private final ScannerMetrics metrics = new ScannerMetrics();
   private Scan scan;
   private ResultScanner resultScanner;
+  private PrefetchingResultIterator prefetchingIterator;
   private Iterator<Result> iterator;
   private ReaderWriterState state;
 
@@ -65,6 +71,8 @@ public class BaseEntityScanner<E> extends AbstractDatasetReader<E>
     this.entityMapper = entityMapper;
     this.tablePool = tablePool;
     this.tableName = tableName;
+    this.cachingBudget = -1;
+    this.prefetch = null;
 
     this.state = ReaderWriterState.NEW;
   }
@@ -79,6 +87,8 @@ public class BaseEntityScanner<E> extends AbstractDatasetReader<E>
     this.entityMapper = scanBuilder.getEntityMapper();
     this.tablePool = scanBuilder.getTablePool();
     this.tableName = scanBuilder.getTableName();
+    this.cachingBudget = scanBuilder.getCachingBudget();
+    this.prefetch = scanBuilder.getPrefetch();
     this.scan = new Scan();
 
     if (scanBuilder.getStartKey() != null) {
@@ -138,11 +148,53 @@ public class BaseEntityScanner<E> extends AbstractDatasetReader<E>
     Preconditions.checkState(state.equals(ReaderWriterState.NEW),
         "A scanner may not be opened more than once - current state:%s", state);
 
+    // settings that were not set on the builder fall back to the defaults set
+    // in the HBase configuration. an explicit 0 budget or false prefetch
+    // disables the feature even if the configuration enables it
+    long budget = cachingBudget;
+    boolean background = (prefetch != null && prefetch);
+    if (budget < 0 || prefetch == null) {
+      Configuration conf = getConfiguration();
+      if (budget < 0) {
+        budget = Math.max(
+            conf.getLong(HBaseProperties.SCAN_CACHING_BUDGET_PROP, 0), 0);
+      }
+      if (prefetch == null) {
+        background = conf.getBoolean(HBaseProperties.SCAN_PREFETCH_PROP, false);
+      }
+    }
+
+    if (budget > 0 || background) {
+      prefetchingIterator = new PrefetchingResultIterator(scan, tablePool,
+          tableName, budget, background, metrics);
+      iterator = prefetchingIterator;
+    } else {
+      resultScanner = openScanner();
+      iterator = resultScanner.iterator();
+    }
+
+    state = ReaderWriterState.OPEN;
+  }
+
+  private Configuration getConfiguration() {
+    HTableInterface table = tablePool.getTable(tableName);
+    try {
+      return table.getConfiguration();
+    } finally {
+      try {
+        table.close();
+      } catch (IOException e) {
+        throw new DatasetIOException("Error putting table back into pool", e);
+      }
+    }
+  }
+
+  private ResultScanner openScanner() {
     HTableInterface table = null;
     try {
       table = tablePool.getTable(tableName);
       try {
-        resultScanner = table.getScanner(scan);
+        return table.getScanner(scan);
       } catch (IOException e) {
         throw new DatasetIOException("Failed to fetch scanner", e);
       }
@@ -156,9 +208,6 @@ public class BaseEntityScanner<E> extends AbstractDatasetReader<E>
         }
       }
     }
-    iterator = resultScanner.iterator();
-
-    state = ReaderWriterState.OPEN;
   }
 
   @Override
@@ -167,7 +216,11 @@ public class BaseEntityScanner<E> extends AbstractDatasetReader<E>
       return;
     }
 
-    resultScanner.close();
+    if (prefetchingIterator != null) {
+      prefetchingIterator.close();
+    } else {
+      resultScanner.close();
+    }
 
     state = ReaderWriterState.CLOSED;
   }
@@ -213,6 +266,16 @@ public class BaseEntityScanner<E> extends AbstractDatasetReader<E>
     return scan;
   }
 
+  /**
+   * Get the metrics for this scanner. Metrics are only collected when the
+   * scanner uses a caching budget or prefetching.
+   * 
+   * @return the ScannerMetrics
+   */
+  public ScannerMetrics getMetrics() {
+    return metrics;
+  }
+
   /**
    * Scanner builder for BaseEntityScanner
    * 
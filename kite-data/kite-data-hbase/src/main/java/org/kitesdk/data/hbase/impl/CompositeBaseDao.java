@@ -17,6 +17,7 @@ package org.kitesdk.data.hbase.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -132,6 +133,12 @@ public abstract class CompositeBaseDao<E, S> implements CompositeDao<E, S> {
       return requiredColumnFamiliesSet;
     }
 
+    @Override
+    public EntityMapper<E> project(Collection<String> fieldNames) {
+      // sub-entities are always read whole
+      return this;
+    }
+
     @Override
     public KeySchema getKeySchema() {
       return entityMappers.get(0).getKeySchema();
@@ -15,6 +15,7 @@
  */
 package org.kitesdk.data.hbase.impl;
 
+import java.util.Collection;
 import java.util.Set;
 
 import org.apache.hadoop.hbase.client.Increment;
@@ -104,6 +105,18 @@ public interface EntityMapper<E> {
    */
   public Set<String> getRequiredColumnFamilies();
 
+  /**
+   * Gets an entity mapper that only reads the given fields from HBase. The
+   * returned mapper requests only the columns those fields are mapped to, and
+   * leaves all other fields unset in the entities it maps. Implementations
+   * that can't narrow their reads may return this entity mapper.
+   *
+   * @param fieldNames
+   *          The names of the fields to read.
+   * @return The projected entity mapper.
+   */
+  public EntityMapper<E> project(Collection<String> fieldNames);
+
   /**
    * Gets the key schema instance for this entity mapper.
    * 
@@ -16,8 +16,11 @@
 package org.kitesdk.data.hbase.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+import com.google.common.base.Preconditions;
+
 import org.apache.hadoop.hbase.client.HTablePool;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
@@ -44,6 +47,8 @@ public abstract class EntityScannerBuilder<E> {
   private boolean startInclusive = true;
   private boolean stopInclusive = false;
   private int caching;
+  private long cachingBudget = -1;
+  private Boolean prefetch = null;
   private EntityMapper<E> entityMapper;
   private List<ScanModifier> scanModifiers = new ArrayList<ScanModifier>();
   private boolean passAllFilters = true;
@@ -198,6 +203,79 @@ public abstract class EntityScannerBuilder<E> {
     return this;
   }
 
+  /**
+   * Get the target number of bytes per batch of rows
+   * 
+   * @return the caching budget, 0 if caching is not sized automatically, or
+   *         -1 if not set, in which case the HBase configuration is used
+   */
+  long getCachingBudget() {
+    return cachingBudget;
+  }
+
+  /**
+   * Size the scanner caching automatically. The number of rows fetched in each
+   * batch is recalculated from the size of the rows fetched so far, so that
+   * each batch is about cachingBudget bytes. If caching is also set, it is
+   * used for the first batch.
+   * 
+   * @param cachingBudget
+   *          The target number of bytes per batch, or 0 to disable, even if
+   *          a budget is set in the HBase configuration
+   * @return ScannerBuilder
+   */
+  public EntityScannerBuilder<E> setCachingBudget(long cachingBudget) {
+    Preconditions.checkArgument(cachingBudget >= 0,
+        "Caching budget must not be negative: %s", cachingBudget);
+    this.cachingBudget = cachingBudget;
+    return this;
+  }
+
+  /**
+   * Returns true if the scanner should fetch the next batch of rows in the
+   * background.
+   * 
+   * @return prefetch, or null if not set, in which case the HBase
+   *         configuration is used
+   */
+  Boolean getPrefetch() {
+    return prefetch;
+  }
+
+  /**
+   * Fetch the next batch of rows on a background thread while the current
+   * batch is consumed, overlapping network waits with deserialization.
+   * 
+   * @param prefetch
+   *          The prefetch setting.
+   * @return ScannerBuilder
+   */
+  public EntityScannerBuilder<E> setPrefetch(boolean prefetch) {
+    this.prefetch = prefetch;
+    return this;
+  }
+
+  /**
+   * Only read the given fields. Columns mapped to other fields will not be
+   * fetched from HBase, and those fields will be left unset in the entities
+   * returned by the scanner. Rows that have no values for the given fields are
+   * still returned.
+   * 
+   * @param fieldNames
+   *          The names of the fields to read
+   * @return ScannerBuilder
+   */
+  public EntityScannerBuilder<E> setProjection(Collection<String> fieldNames) {
+    EntityMapper<E> projected = entityMapper.project(fieldNames);
+    if (projected != entityMapper) {
+      addScanModifier(new ProjectionModifier(
+          entityMapper.getRequiredColumnFamilies(),
+          projected.getRequiredColumns()));
+      this.entityMapper = projected;
+    }
+    return this;
+  }
+
   /**
    * Add an Equality Filter to the Scanner, Will Filter Results Not Equal to the
    * Filter Value
@@ -16,6 +16,7 @@
 package org.kitesdk.data.hbase.impl;
 
 import com.google.common.collect.ImmutableList;
+import org.kitesdk.data.DatasetException;
 import org.kitesdk.data.DatasetIOException;
 import org.kitesdk.data.spi.PartitionKey;
 import com.google.common.annotations.VisibleForTesting;
@@ -25,13 +26,17 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.HTablePool;
 import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
@@ -695,4 +700,58 @@ public class HBaseClientTemplate {
   public <E> EntityBatch<E> createBatch(EntityMapper<E> entityMapper) {
     return new BaseEntityBatch<E>(this, entityMapper, pool, tableName);
   }
+
+  /**
+   * Create an EntityBatch that writes entities to HFiles in a directory,
+   * rather than putting them into the table. The files are loaded into the
+   * table by {@link #bulkLoad(Path)}.
+   *
+   * @param entityMapper
+   *          The EntityMapper to use to map entities to KeyValues.
+   * @param directory
+   *          The directory where HFiles will be written
+   * @return EntityBatch
+   */
+  public <E> EntityBatch<E> createBulkWriter(EntityMapper<E> entityMapper,
+      Path directory) {
+    return new HFileEntityWriter<E>(this, entityMapper, pool, tableName,
+        directory);
+  }
+
+  /**
+   * Load the HFiles in a directory into the table. HFiles that span more than
+   * one region are split, and the files for each region are loaded
+   * atomically.
+   *
+   * @param directory
+   *          A directory of HFiles written by a bulk writer
+   */
+  public void bulkLoad(Path directory) {
+    HTableInterface pooled = pool.getTable(tableName);
+    Configuration conf = pooled.getConfiguration();
+    try {
+      pooled.close();
+    } catch (IOException e) {
+      throw new DatasetIOException("Error putting table back into pool", e);
+    }
+
+    LoadIncrementalHFiles loader;
+    try {
+      loader = new LoadIncrementalHFiles(conf);
+    } catch (Exception e) {
+      throw new DatasetException("Cannot create HFile loader", e);
+    }
+
+    try {
+      HTable table = new HTable(conf, tableName);
+      try {
+        loader.doBulkLoad(directory, table);
+      } finally {
+        table.close();
+      }
+    } catch (IOException e) {
+      throw new DatasetIOException("Error loading HFiles from [" + directory
+          + "] into table [" + tableName + "]", e);
+    }
+  }
 }
@@ -65,20 +65,34 @@ public class HBaseUtils {
   public static Put mergePuts(byte[] keyBytes, List<Put> putList) {
     Put put = new Put(keyBytes);
     for (Put putToMerge : putList) {
-      Map<byte[], List<KeyValue>> familyMap = 
-          (Map<byte[], List<KeyValue>>) GET_FAMILY_MAP_METHOD.invoke(putToMerge);
-      
-      for (List<KeyValue> keyValueList : familyMap.values()) {
-        for (KeyValue keyValue : keyValueList) {
-          // don't use put.add(KeyValue) since it doesn't work with HBase 0.96 onwards
-          put.add(keyValue.getFamily(), keyValue.getQualifier(),
-              keyValue.getTimestamp(), keyValue.getValue());
-        }
+      for (KeyValue keyValue : getKeyValues(putToMerge)) {
+        // don't use put.add(KeyValue) since it doesn't work with HBase 0.96 onwards
+        put.add(keyValue.getFamily(), keyValue.getQualifier(),
+            keyValue.getTimestamp(), keyValue.getValue());
       }
     }
     return put;
   }
 
+  /**
+   * Returns the KeyValues that will be written by a Put, in all of its column
+   * families.
+   *
+   * @param put
+   *          The Put
+   * @return the list of KeyValues in the Put
+   */
+  @SuppressWarnings("unchecked")
+  public static List<KeyValue> getKeyValues(Put put) {
+    Map<byte[], List<KeyValue>> familyMap =
+        (Map<byte[], List<KeyValue>>) GET_FAMILY_MAP_METHOD.invoke(put);
+    List<KeyValue> keyValues = new ArrayList<KeyValue>();
+    for (List<KeyValue> keyValueList : familyMap.values()) {
+      keyValues.addAll(keyValueList);
+    }
+    return keyValues;
+  }
+
   /**
    * Given a list of PutActions, create a new PutAction with the values in each
    * put merged together. It is expected that no puts have a value for the same
@@ -0,0 +1,368 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase.impl;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.kitesdk.compat.DynConstructors;
+import org.kitesdk.compat.DynMethods;
+import org.kitesdk.data.DatasetException;
+import org.kitesdk.data.DatasetIOException;
+import org.kitesdk.data.Flushable;
+import org.kitesdk.data.hbase.HBaseProperties;
+import org.kitesdk.data.spi.AbstractDatasetWriter;
+import org.kitesdk.data.spi.ReaderWriterState;
+
+/**
+ * An EntityBatch that writes entities to HFiles instead of putting them into
+ * the table, so that they can be bulk loaded with
+ * {@link HBaseClientTemplate#bulkLoad(Path)}.
+ *
+ * Entities are mapped to KeyValues with the EntityMapper, including the OCC
+ * version and managed schema version columns, and are buffered in sorted
+ * order. When the buffer is full or the batch is flushed, the buffered
+ * KeyValues are written to new HFiles, one for each column family and region.
+ * Files are written to family directories in the output directory, which is
+ * the layout expected by the bulk loader.
+ *
+ * Unlike puts, bulk writes do not check the OCC version of existing rows. The
+ * version column is set to the entity's version plus one, as it would be for
+ * a successful put.
+ *
+ * @param <E>
+ *          The entity type
+ */
+public class HFileEntityWriter<E> extends AbstractDatasetWriter<E>
+    implements EntityBatch<E>, Flushable {
+
+  private static final long DEFAULT_BUFFER_SIZE = 64 * 1024 * 1024; // 64MB
+
+  private static final String HFILE_CONTEXT_BUILDER_CLASS =
+      "org.apache.hadoop.hbase.io.hfile.HFileContextBuilder";
+
+  private final HBaseClientTemplate clientTemplate;
+  private final EntityMapper<E> entityMapper;
+  private final HTablePool pool;
+  private final String tableName;
+  private final Path directory;
+  private final TreeSet<KeyValue> buffer =
+      new TreeSet<KeyValue>(KeyValue.COMPARATOR);
+
+  private Configuration conf;
+  private FileSystem fs;
+  private HTableDescriptor tableDescriptor;
+  private byte[][] startKeys;
+  private long bufferSize;
+  private long bufferedBytes = 0;
+  private ReaderWriterState state;
+
+  /**
+   * Create a writer that stages entities for the given table as HFiles.
+   *
+   * @param clientTemplate
+   *          The client template, used for its PutActionModifiers
+   * @param entityMapper
+   *          The EntityMapper to use for mapping
+   * @param pool
+   *          The HBase table pool
+   * @param tableName
+   *          The name of the HBase table
+   * @param directory
+   *          The directory where HFiles will be written
+   */
+  public HFileEntityWriter(HBaseClientTemplate clientTemplate,
+      EntityMapper<E> entityMapper, HTablePool pool, String tableName,
+      Path directory) {
+    this.clientTemplate = clientTemplate;
+    this.entityMapper = entityMapper;
+    this.pool = pool;
+    this.tableName = tableName;
+    this.directory = directory;
+    this.state = ReaderWriterState.NEW;
+  }
+
+  @Override
+  public void initialize() {
+    Preconditions.checkState(state.equals(ReaderWriterState.NEW),
+        "Unable to open a writer from state:%s", state);
+
+    HTableInterface pooled = pool.getTable(tableName);
+    try {
+      this.conf = pooled.getConfiguration();
+      this.tableDescriptor = pooled.getTableDescriptor();
+      pooled.close();
+    } catch (IOException e) {
+      throw new DatasetIOException("Error reading descriptor for table ["
+          + tableName + "]", e);
+    }
+
+    // HTableInterface doesn't expose region boundaries
+    try {
+      HTable table = new HTable(conf, tableName);
+      try {
+        this.startKeys = table.getStartKeys();
+      } finally {
+        table.close();
+      }
+      this.fs = directory.getFileSystem(conf);
+    } catch (IOException e) {
+      throw new DatasetIOException("Error reading regions for table ["
+          + tableName + "]", e);
+    }
+
+    this.bufferSize = conf.getLong(
+        HBaseProperties.BULK_LOAD_BUFFER_SIZE_PROP, DEFAULT_BUFFER_SIZE);
+    this.state = ReaderWriterState.OPEN;
+  }
+
+  @Override
+  public void put(E entity) {
+    Preconditions.checkState(state.equals(ReaderWriterState.OPEN),
+        "Attempt to write to a writer in state:%s", state);
+
+    PutAction putAction = entityMapper.mapFromEntity(entity);
+    for (PutActionModifier putActionModifier :
+        clientTemplate.getPutActionModifiers()) {
+      putAction = putActionModifier.modifyPutAction(putAction);
+    }
+
+    // puts are normally timestamped by the region server
+    long now = System.currentTimeMillis();
+    for (KeyValue keyValue : HBaseUtils.getKeyValues(putAction.getPut())) {
+      if (keyValue.getTimestamp() == HConstants.LATEST_TIMESTAMP) {
+        keyValue = new KeyValue(keyValue.getRow(), keyValue.getFamily(),
+            keyValue.getQualifier(), now, keyValue.getValue());
+      }
+      // if a cell is written more than once, the last write wins
+      KeyValue previous = buffer.floor(keyValue);
+      if (previous != null &&
+          KeyValue.COMPARATOR.compare(previous, keyValue) == 0) {
+        buffer.remove(previous);
+        bufferedBytes -= previous.getLength();
+      }
+      buffer.add(keyValue);
+      bufferedBytes += keyValue.getLength();
+    }
+
+    if (bufferedBytes >= bufferSize) {
+      flush();
+    }
+  }
+
+  @Override
+  public void write(E entity) {
+    put(entity);
+  }
+
+  /**
+   * Writes all buffered KeyValues to new HFiles.
+   */
+  @Override
+  public void flush() {
+    Preconditions.checkState(state.equals(ReaderWriterState.OPEN),
+        "Attempt to flush a writer in state:%s", state);
+
+    if (buffer.isEmpty()) {
+      return;
+    }
+
+    // split the sorted KeyValues by family, which keeps them sorted
+    Map<byte[], List<KeyValue>> families =
+        new TreeMap<byte[], List<KeyValue>>(Bytes.BYTES_COMPARATOR);
+    for (KeyValue keyValue : buffer) {
+      List<KeyValue> keyValues = families.get(keyValue.getFamily());
+      if (keyValues == null) {
+        keyValues = new ArrayList<KeyValue>();
+        families.put(keyValue.getFamily(), keyValues);
+      }
+      keyValues.add(keyValue);
+    }
+
+    try {
+      for (Map.Entry<byte[], List<KeyValue>> entry : families.entrySet()) {
+        writeFamily(entry.getKey(), entry.getValue());
+      }
+    } catch (IOException e) {
+      throw new DatasetIOException("Error writing HFiles to [" + directory
+          + "]", e);
+    }
+
+    buffer.clear();
+    bufferedBytes = 0;
+  }
+
+  @Override
+  public void close() {
+    if (state.equals(ReaderWriterState.OPEN)) {
+      flush();
+      state = ReaderWriterState.CLOSED;
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return state.equals(ReaderWriterState.OPEN);
+  }
+
+  private void writeFamily(byte[] family, List<KeyValue> keyValues)
+      throws IOException {
+    HColumnDescriptor familyDescriptor = tableDescriptor.getFamily(family);
+    if (familyDescriptor == null) {
+      throw new DatasetException("Unknown column family: "
+          + Bytes.toString(family));
+    }
+
+    Path familyDir = new Path(directory, Bytes.toString(family));
+    HFile.Writer writer = null;
+    byte[] regionEnd = null;
+    try {
+      for (KeyValue keyValue : keyValues) {
+        // start a new file when the row is past the end of the current region
+        if (writer != null && regionEnd.length > 0 &&
+            Bytes.compareTo(keyValue.getRow(), regionEnd) >= 0) {
+          close(writer);
+          writer = null;
+        }
+        if (writer == null) {
+          writer = newWriter(familyDir, familyDescriptor);
+          regionEnd = regionEndFor(keyValue.getRow());
+        }
+        writer.append(keyValue);
+      }
+    } finally {
+      if (writer != null) {
+        close(writer);
+      }
+    }
+  }
+
+  /**
+   * Returns the end key of the region that contains the row, which is empty
+   * for the last region.
+   */
+  private byte[] regionEndFor(byte[] row) {
+    int index = Arrays.binarySearch(startKeys, row, Bytes.BYTES_COMPARATOR);
+    // the next region starts at the first start key after the row
+    int next = (index >= 0 ? index + 1 : -(index + 1));
+    return (next < startKeys.length ?
+        startKeys[next] : HConstants.EMPTY_END_ROW);
+  }
+
+  private HFile.Writer newWriter(Path familyDir,
+      HColumnDescriptor familyDescriptor) throws IOException {
+    Path file = new Path(familyDir,
+        UUID.randomUUID().toString().replace("-", ""));
+    HFile.WriterFactory factory = HFile
+        .getWriterFactory(conf, new CacheConfig(conf))
+        .withPath(fs, file);
+    return configure(factory, familyDescriptor).create();
+  }
+
+  private static void close(HFile.Writer writer) throws IOException {
+    // the same file info that HFileOutputFormat writes
+    writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY,
+        Bytes.toBytes(System.currentTimeMillis()));
+    writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY,
+        Bytes.toBytes(false));
+    writer.appendFileInfo(StoreFile.EXCLUDE_FROM_MINOR_COMPACTION_KEY,
+        Bytes.toBytes(false));
+    writer.close();
+  }
+
+  /**
+   * Sets the compression and block size of the family on an HFile
+   * WriterFactory. HBase 0.96 and later use an HFileContext for these options,
+   * which doesn't exist in 0.94. HBase 0.94 also needs the KeyValue comparator
+   * to be set because its default compares raw bytes.
+   */
+  private static HFile.WriterFactory configure(HFile.WriterFactory factory,
+      HColumnDescriptor familyDescriptor) {
+    // the Compression class moved packages in HBase 0.96
+    Enum<?> compression = familyDescriptor.getCompression();
+    Class<?> compressionClass = compression.getDeclaringClass();
+    int blockSize = familyDescriptor.getBlocksize();
+
+    DynConstructors.Ctor<Object> newContextBuilder;
+    try {
+      newContextBuilder = new DynConstructors.Builder()
+          .impl(HFILE_CONTEXT_BUILDER_CLASS)
+          .buildChecked();
+    } catch (NoSuchMethodException e) {
+      newContextBuilder = null;
+    }
+
+    if (newContextBuilder != null) {
+      Object contextBuilder = newContextBuilder.newInstance();
+      Class<?> builderClass = contextBuilder.getClass();
+      new DynMethods.Builder("withCompression")
+          .impl(builderClass, compressionClass)
+          .build().invoke(contextBuilder, compression);
+      new DynMethods.Builder("withBlockSize")
+          .impl(builderClass, int.class)
+          .build().invoke(contextBuilder, blockSize);
+      Object context = new DynMethods.Builder("build")
+          .impl(builderClass)
+          .build().invoke(contextBuilder);
+      return new DynMethods.Builder("withFileContext")
+          .impl(HFile.WriterFactory.class, context.getClass())
+          .build().invoke(factory, context);
+    }
+
+    Object keyComparator;
+    Class<?> keyComparatorClass;
+    try {
+      Field field = KeyValue.class.getField("KEY_COMPARATOR");
+      keyComparator = field.get(null);
+      keyComparatorClass = field.getType();
+    } catch (NoSuchFieldException e) {
+      throw new DatasetException("Cannot find the HBase key comparator", e);
+    } catch (IllegalAccessException e) {
+      throw new DatasetException("Cannot find the HBase key comparator", e);
+    }
+    new DynMethods.Builder("withCompression")
+        .impl(HFile.WriterFactory.class, compressionClass)
+        .build().invoke(factory, compression);
+    new DynMethods.Builder("withBlockSize")
+        .impl(HFile.WriterFactory.class, int.class)
+        .build().invoke(factory, blockSize);
+    new DynMethods.Builder("withComparator")
+        .impl(HFile.WriterFactory.class, keyComparatorClass)
+        .build().invoke(factory, keyComparator);
+    return factory;
+  }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.kitesdk.data.DatasetException;
+import org.kitesdk.data.DatasetIOException;
+
+/**
+ * An Iterator of HBase Results that fetches rows in batches, optionally
+ * sizing the batches to a byte budget and fetching the next batch on a
+ * background thread while the caller consumes the current one.
+ *
+ * When a caching budget is set, the number of rows per batch is recalculated
+ * from the average size of the rows fetched so far. HBase fixes the scanner
+ * caching when the scanner is opened, so the scanner is reopened after the
+ * last row fetched when the ideal caching differs from the current caching by
+ * more than a factor of two.
+ *
+ * Scan batching (splitting rows into several Results) is never used, because
+ * entities are mapped from whole rows.
+ */
+class PrefetchingResultIterator implements Iterator<Result> {
+
+  static final int DEFAULT_CACHING = 100;
+  static final int PROBE_CACHING = 10;
+  static final int MIN_CACHING = 1;
+  static final int MAX_CACHING = 10000;
+
+  private final HTablePool tablePool;
+  private final String tableName;
+  private final long cachingBudget;
+  private final ScannerMetrics metrics;
+  private final ExecutorService executor;
+  private final Callable<Result[]> fetch = new Callable<Result[]>() {
+    @Override
+    public Result[] call() {
+      return fetch();
+    }
+  };
+
+  // only accessed by one fetch at a time
+  private Scan scan;
+  private int caching;
+  private ResultScanner scanner;
+
+  private Future<Result[]> pending = null;
+  private Result[] batch = null;
+  private int position = 0;
+  private boolean exhausted = false;
+
+  /**
+   * @param scan
+   *          The Scan to open a scanner with
+   * @param tablePool
+   *          The HTablePool instance to get a table to open a scanner on
+   * @param tableName
+   *          The table name to perform the scan on
+   * @param cachingBudget
+   *          The target number of bytes to fetch in each batch, or 0 to use
+   *          the scan's caching for every batch
+   * @param prefetch
+   *          Whether to fetch the next batch on a background thread
+   * @param metrics
+   *          A ScannerMetrics to update
+   */
+  PrefetchingResultIterator(Scan scan, HTablePool tablePool, String tableName,
+      long cachingBudget, boolean prefetch, ScannerMetrics metrics) {
+    this.tablePool = tablePool;
+    this.tableName = tableName;
+    this.cachingBudget = cachingBudget;
+    this.metrics = metrics;
+    if (scan.getCaching() > 0) {
+      this.caching = scan.getCaching();
+    } else if (cachingBudget > 0) {
+      // start small until the row size is known
+      this.caching = PROBE_CACHING;
+    } else {
+      this.caching = DEFAULT_CACHING;
+    }
+    this.scan = scan;
+    this.scan.setCaching(caching);
+    this.scanner = openScanner(scan);
+    metrics.setCaching(caching);
+
+    if (prefetch) {
+      this.executor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("scanner-prefetch-" + tableName + "-%d")
+              .build());
+      this.pending = executor.submit(fetch);
+    } else {
+      this.executor = null;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (batch == null || position >= batch.length) {
+      if (exhausted) {
+        return false;
+      }
+      this.batch = nextBatch();
+      this.position = 0;
+    }
+    return true;
+  }
+
+  @Override
+  public Result next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Result result = batch[position];
+    batch[position] = null; // allow the row to be collected
+    position += 1;
+    return result;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException(
+        "Remove is not supported by HBase scanners");
+  }
+
+  void close() {
+    if (pending != null) {
+      // the scanner can't be closed while a fetch is using it
+      try {
+        pending.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // the fetch failed, but the scanner must still be closed
+      }
+      this.pending = null;
+    }
+    if (executor != null) {
+      executor.shutdown();
+    }
+    this.exhausted = true;
+    scanner.close();
+  }
+
+  private Result[] nextBatch() {
+    long start = System.nanoTime();
+    Result[] results;
+    if (executor == null) {
+      results = fetch();
+    } else {
+      try {
+        results = pending.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DatasetException(
+            "Interrupted while waiting for scanner results", e);
+      } catch (ExecutionException e) {
+        this.pending = null;
+        this.exhausted = true;
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new DatasetException("Failed to fetch scanner results",
+            e.getCause());
+      }
+      if (results.length > 0) {
+        // start fetching the next batch while this one is consumed
+        this.pending = executor.submit(fetch);
+      } else {
+        this.pending = null;
+      }
+    }
+    metrics.addWait(System.nanoTime() - start);
+
+    if (results.length == 0) {
+      this.exhausted = true;
+    }
+    return results;
+  }
+
+  private Result[] fetch() {
+    Result[] results;
+    try {
+      results = scanner.next(caching);
+    } catch (IOException e) {
+      throw new DatasetIOException("Failed to fetch scanner results", e);
+    }
+
+    if (results == null || results.length == 0) {
+      return new Result[0];
+    }
+
+    long bytes = 0;
+    for (Result result : results) {
+      bytes += sizeOf(result);
+    }
+    metrics.addBatch(results.length, bytes);
+
+    if (cachingBudget > 0) {
+      resize(results[results.length - 1].getRow(), bytes / results.length);
+    }
+
+    return results;
+  }
+
+  /**
+   * Reopens the scanner after lastRow if the caching that fits the budget is
+   * far enough from the current caching.
+   */
+  private void resize(byte[] lastRow, long averageRowSize) {
+    int target = (int) Math.max(MIN_CACHING, Math.min(MAX_CACHING,
+        cachingBudget / Math.max(averageRowSize, 1)));
+    if (target < caching * 2 && target > caching / 2) {
+      return;
+    }
+
+    Scan next;
+    try {
+      next = new Scan(scan);
+    } catch (IOException e) {
+      throw new DatasetIOException("Failed to copy scan", e);
+    }
+    next.setStartRow(addZeroByte(lastRow));
+    next.setCaching(target);
+
+    scanner.close();
+    this.scanner = openScanner(next);
+    this.scan = next;
+    this.caching = target;
+    metrics.reopened(target);
+  }
+
+  private ResultScanner openScanner(Scan scan) {
+    HTableInterface table = null;
+    try {
+      table = tablePool.getTable(tableName);
+      try {
+        return table.getScanner(scan);
+      } catch (IOException e) {
+        throw new DatasetIOException("Failed to fetch scanner", e);
+      }
+    } finally {
+      if (table != null) {
+        try {
+          table.close();
+        } catch (IOException e) {
+          throw new DatasetIOException("Error putting table back into pool",
+              e);
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private static long sizeOf(Result result) {
+    long size = 0;
+    KeyValue[] cells = result.raw();
+    if (cells != null) {
+      for (KeyValue cell : cells) {
+        size += cell.getLength();
+      }
+    }
+    return size;
+  }
+
+  private static byte[] addZeroByte(byte[] inBytes) {
+    byte[] outBytes = new byte[inBytes.length + 1];
+    System.arraycopy(inBytes, 0, outBytes, 0, inBytes.length);
+    outBytes[inBytes.length] = (byte) 0;
+    return outBytes;
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2015 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.FamilyFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Narrows a Scan or Get to the columns of a projected EntityMapper without
+ * losing rows that have no values in those columns.
+ *
+ * Requesting only the projected columns would skip any row that has none of
+ * them. Instead, every column family of the unprojected mapper is requested,
+ * and a filter returns only the projected columns plus the first cell of each
+ * row, so every row comes back but other columns are not sent to the client.
+ */
+public class ProjectionModifier implements ScanModifier, GetModifier {
+
+  private final Set<String> families;
+  private final Filter filter;
+
+  /**
+   * @param families
+   *          The column families of the unprojected entity mapper
+   * @param columns
+   *          The required columns of the projected entity mapper
+   */
+  public ProjectionModifier(Set<String> families, Set<String> columns) {
+    this.families = families;
+    this.filter = projectionFilter(columns);
+  }
+
+  @Override
+  public Scan modifyScan(Scan scan) {
+    scan.setFamilyMap(
+        new TreeMap<byte[], NavigableSet<byte[]>>(Bytes.BYTES_COMPARATOR));
+    for (String family : families) {
+      scan.addFamily(Bytes.toBytes(family));
+    }
+    scan.setFilter(and(scan.getFilter(), filter));
+    return scan;
+  }
+
+  @Override
+  public Get modifyGet(Get get) {
+    get.getFamilyMap().clear();
+    for (String family : families) {
+      get.addFamily(Bytes.toBytes(family));
+    }
+    get.setFilter(and(get.getFilter(), filter));
+    return get;
+  }
+
+  Filter getFilter() {
+    return filter;
+  }
+
+  private static Filter and(Filter existing, Filter projection) {
+    if (existing == null) {
+      return projection;
+    }
+    // the existing filters come first so they see every cell of the row
+    return new FilterList(FilterList.Operator.MUST_PASS_ALL, existing,
+        projection);
+  }
+
+  private static Filter projectionFilter(Set<String> columns) {
+    List<Filter> filters = new ArrayList<Filter>();
+    filters.add(new FirstKeyOnlyFilter());
+    for (String column : columns) {
+      // columns are either family:qualifier or a whole family
+      String[] familyAndColumn = column.split(":");
+      Filter family = new FamilyFilter(CompareOp.EQUAL,
+          new BinaryComparator(Bytes.toBytes(familyAndColumn[0])));
+      if (familyAndColumn.length == 1) {
+        filters.add(family);
+      } else {
+        filters.add(new FilterList(FilterList.Operator.MUST_PASS_ALL, family,
+            new QualifierFilter(CompareOp.EQUAL,
+                new BinaryComparator(Bytes.toBytes(familyAndColumn[1])))));
+      }
+    }
+    return new FilterList(FilterList.Operator.MUST_PASS_ONE, filters);
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase.impl;
+
+import com.google.common.base.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics collected by an EntityScanner while it fetches batches of rows from
+ * HBase. Counters may be updated by a background fetch thread, so reads are
+ * safe from any thread.
+ */
+public class ScannerMetrics {
+
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong rows = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+  private final AtomicLong reopens = new AtomicLong();
+  private volatile int caching;
+
+  void addBatch(int numRows, long numBytes) {
+    batches.incrementAndGet();
+    rows.addAndGet(numRows);
+    bytes.addAndGet(numBytes);
+  }
+
+  void addWait(long nanos) {
+    waitNanos.addAndGet(nanos);
+  }
+
+  void reopened(int newCaching) {
+    reopens.incrementAndGet();
+    this.caching = newCaching;
+  }
+
+  void setCaching(int caching) {
+    this.caching = caching;
+  }
+
+  /**
+   * @return the number of batches fetched from HBase. Each batch is normally
+   *         a single scanner RPC.
+   */
+  public long getBatches() {
+    return batches.get();
+  }
+
+  /**
+   * @return the number of rows fetched from HBase
+   */
+  public long getRows() {
+    return rows.get();
+  }
+
+  /**
+   * @return the number of cell bytes fetched from HBase
+   */
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * @return the average number of rows returned by each batch
+   */
+  public double getRowsPerBatch() {
+    long numBatches = batches.get();
+    return numBatches == 0 ? 0.0 : ((double) rows.get()) / numBatches;
+  }
+
+  /**
+   * @return the time, in milliseconds, the caller spent waiting for rows to
+   *         be fetched
+   */
+  public long getWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+  }
+
+  /**
+   * @return the number of times the scanner was reopened to change caching
+   */
+  public long getReopens() {
+    return reopens.get();
+  }
+
+  /**
+   * @return the scanner caching currently in use
+   */
+  public int getCaching() {
+    return caching;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("batches", getBatches())
+        .add("rows", getRows())
+        .add("bytes", getBytes())
+        .add("rowsPerBatch", getRowsPerBatch())
+        .add("waitMillis", getWaitMillis())
+        .add("reopens", getReopens())
+        .add("caching", getCaching())
+        .toString();
+  }
+}
@@ -18,6 +18,9 @@ package org.kitesdk.data.hbase.manager;
 import com.google.common.collect.Lists;
 
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -26,7 +29,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.hbase.client.HTablePool;
 import org.kitesdk.data.ConcurrentSchemaModificationException;
@@ -48,7 +57,7 @@ import org.slf4j.LoggerFactory;
  * implementation, passed in the constructor, to read schema metadata, and
  * persist schema metadata for schema creations and migrations.
  */
-public class DefaultSchemaManager implements SchemaManager {
+public class DefaultSchemaManager implements SchemaManager, Closeable {
 
   private static Logger LOG = LoggerFactory
       .getLogger(DefaultSchemaManager.class);
@@ -68,6 +77,26 @@ public class DefaultSchemaManager implements SchemaManager {
    */
   private ConcurrentHashMap<String, KeyEntitySchemaParser<?, ?>> schemaParsers = new ConcurrentHashMap<String, KeyEntitySchemaParser<?, ?>>();
 
+  /**
+   * Refreshes of the managedSchemaMap that are in progress, by managed schema
+   * row key. Threads that need the same managed schema refreshed wait for the
+   * refresh in progress rather than each reading it from HBase.
+   */
+  private final ConcurrentHashMap<String, FutureTask<ManagedSchema>> refreshes = new ConcurrentHashMap<String, FutureTask<ManagedSchema>>();
+
+  /**
+   * Parsed entity and key schemas, by schema parser class and then by schema
+   * string. A schema version never changes once it is written, so each
+   * version is parsed once, even when its managed schema is refreshed.
+   */
+  private final ConcurrentHashMap<String, ConcurrentHashMap<String, EntitySchema>> parsedEntitySchemas = new ConcurrentHashMap<String, ConcurrentHashMap<String, EntitySchema>>();
+  private final ConcurrentHashMap<String, ConcurrentHashMap<String, KeySchema>> parsedKeySchemas = new ConcurrentHashMap<String, ConcurrentHashMap<String, KeySchema>>();
+
+  /**
+   * Polls the managed schema table in the background, if enabled.
+   */
+  private ScheduledExecutorService refresher = null;
+
   /**
    * Constructor which uses the default managed schema table name, which is
    * managed_schemas.
@@ -83,10 +112,40 @@ public class DefaultSchemaManager implements SchemaManager {
     this(new ManagedSchemaHBaseDao(tablePool, managedSchemaTable));
   }
 
+  /**
+   * Constructor which uses the default managed schema table name, and reloads
+   * all managed schemas in the background.
+   * 
+   * @param tablePool
+   *          The pool of HBase tables
+   * @param refreshIntervalMillis
+   *          The time between reloads, or 0 to disable background reloads
+   */
+  public DefaultSchemaManager(HTablePool tablePool, long refreshIntervalMillis) {
+    this(new ManagedSchemaHBaseDao(tablePool), refreshIntervalMillis);
+  }
+
   public DefaultSchemaManager(ManagedSchemaDao managedSchemaDao) {
     this.managedSchemaDao = managedSchemaDao;
   }
 
+  /**
+   * Constructor that also reloads all managed schemas in the background, so
+   * that new schema versions are usually cached before they are needed.
+   * 
+   * @param managedSchemaDao
+   *          The ManagedSchemaDao used to read and persist schema metadata
+   * @param refreshIntervalMillis
+   *          The time between reloads, or 0 to disable background reloads
+   */
+  public DefaultSchemaManager(ManagedSchemaDao managedSchemaDao,
+      long refreshIntervalMillis) {
+    this(managedSchemaDao);
+    if (refreshIntervalMillis > 0) {
+      startBackgroundRefresh(refreshIntervalMillis);
+    }
+  }
+
   @Override
   public boolean hasManagedSchema(String tableName, String entityName) {
     ManagedSchema managedSchema;
@@ -101,19 +160,17 @@ public class DefaultSchemaManager implements SchemaManager {
   @Override
   public KeySchema getKeySchema(String tableName, String entityName) {
     ManagedSchema managedSchema = getManagedSchema(tableName, entityName);
-    KeyEntitySchemaParser<?, ?> schemaParser = getSchemaParser(managedSchema
-        .getSchemaType());
     String greatestVersionedSchema = getGreatestEntitySchemaString(managedSchema);
-    return schemaParser.parseKeySchema(greatestVersionedSchema);
+    return parseKeySchema(managedSchema.getSchemaType(),
+        greatestVersionedSchema);
   }
 
   @Override
   public EntitySchema getEntitySchema(String tableName, String entityName) {
     ManagedSchema managedSchema = getManagedSchema(tableName, entityName);
-    KeyEntitySchemaParser<?, ?> schemaParser = getSchemaParser(managedSchema
-        .getSchemaType());
     String greatestVersionedSchema = getGreatestEntitySchemaString(managedSchema);
-    return schemaParser.parseEntitySchema(greatestVersionedSchema);
+    return parseEntitySchema(managedSchema.getSchemaType(),
+        greatestVersionedSchema);
   }
 
   private String getGreatestEntitySchemaString(ManagedSchema managedSchema) {
@@ -142,18 +199,21 @@ public class DefaultSchemaManager implements SchemaManager {
   public EntitySchema getEntitySchema(String tableName, String entityName,
       int version) {
     ManagedSchema managedSchema = getManagedSchema(tableName, entityName);
-    KeyEntitySchemaParser<?, ?> schemaParser = getSchemaParser(managedSchema
-        .getSchemaType());
     if (!managedSchema.getEntitySchemas().containsKey(String.valueOf(version))) {
       // didn't contain the schema version, refresh the schema cache and refetch
       // the managed schema.
       refreshManagedSchemaCache(tableName, entityName);
       managedSchema = getManagedSchema(tableName, entityName);
     }
+    if (!managedSchema.getEntitySchemas().containsKey(String.valueOf(version))) {
+      // the refresh may have been in progress before the version was added
+      refreshManagedSchemaCache(tableName, entityName);
+      managedSchema = getManagedSchema(tableName, entityName);
+    }
     String schema = managedSchema.getEntitySchemas().get(
         String.valueOf(version));
     if (schema != null) {
-      return schemaParser.parseEntitySchema(schema);
+      return parseEntitySchema(managedSchema.getSchemaType(), schema);
     } else {
       String msg = "Could not find managed schema for " + tableName + ", "
           + entityName + ", and version " + Integer.toString(version);
@@ -166,13 +226,11 @@ public class DefaultSchemaManager implements SchemaManager {
   public Map<Integer, EntitySchema> getEntitySchemas(String tableName,
       String entityName) {
     ManagedSchema managedSchema = getManagedSchema(tableName, entityName);
-    KeyEntitySchemaParser<?, ?> schemaParser = getSchemaParser(managedSchema
-        .getSchemaType());
     Map<Integer, EntitySchema> retMap = new HashMap<Integer, EntitySchema>();
     for (Entry<String, String> entry : managedSchema.getEntitySchemas()
         .entrySet()) {
-      EntitySchema entitySchema = schemaParser.parseEntitySchema(entry
-          .getValue());
+      EntitySchema entitySchema = parseEntitySchema(
+          managedSchema.getSchemaType(), entry.getValue());
       retMap.put(Integer.parseInt(entry.getKey()), entitySchema);
     }
     return retMap;
@@ -282,8 +340,10 @@ public class DefaultSchemaManager implements SchemaManager {
         greatestSchemaVersion = version;
       }
       String schemaString = entry.getValue();
-      KeySchema keySchema = schemaParser.parseKeySchema(schemaString);
-      EntitySchema entitySchema = schemaParser.parseEntitySchema(schemaString);
+      KeySchema keySchema = parseKeySchema(managedSchema.getSchemaType(),
+          schemaString);
+      EntitySchema entitySchema = parseEntitySchema(
+          managedSchema.getSchemaType(), schemaString);
       if (!newKeySchema.compatible(keySchema)) {
         String msg = "StorageKey fields of entity schema not compatible with version "
             + Integer.toString(version)
@@ -336,19 +396,55 @@ public class DefaultSchemaManager implements SchemaManager {
    * Update the managedSchemaMap for the entry defined by tableName and
    * entityName.
    * 
+   * If a refresh for the same entry is already in progress, this waits for
+   * that refresh instead of starting another.
+   * 
    * @param tableName
    *          The table name of the managed schema
    * @param entityName
    *          The entity name of the managed schema
    */
   @Override
-  public void refreshManagedSchemaCache(String tableName, String entityName) {
-    ManagedSchema managedSchema = managedSchemaDao.getManagedSchema(tableName,
-        entityName);
-    if (managedSchema != null) {
-      getManagedSchemaMap().put(
-          getManagedSchemaMapKey(managedSchema.getTable(),
-              managedSchema.getName()), managedSchema);
+  public void refreshManagedSchemaCache(final String tableName,
+      final String entityName) {
+    String key = getManagedSchemaMapKey(tableName, entityName);
+    FutureTask<ManagedSchema> refresh = new FutureTask<ManagedSchema>(
+        new Callable<ManagedSchema>() {
+          @Override
+          public ManagedSchema call() {
+            ManagedSchema managedSchema = managedSchemaDao.getManagedSchema(
+                tableName, entityName);
+            if (managedSchema != null) {
+              getManagedSchemaMap().put(
+                  getManagedSchemaMapKey(managedSchema.getTable(),
+                      managedSchema.getName()), managedSchema);
+            }
+            return managedSchema;
+          }
+        });
+
+    FutureTask<ManagedSchema> inProgress = refreshes.putIfAbsent(key, refresh);
+    if (inProgress == null) {
+      try {
+        refresh.run();
+      } finally {
+        refreshes.remove(key, refresh);
+      }
+      inProgress = refresh;
+    }
+
+    try {
+      inProgress.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatasetException("Interrupted while refreshing schemas for "
+          + tableName + ", " + entityName, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new DatasetException("Failed to refresh schemas for "
+          + tableName + ", " + entityName, e.getCause());
     }
   }
 
@@ -391,6 +487,31 @@ public class DefaultSchemaManager implements SchemaManager {
     return managedSchemaMap;
   }
 
+  /**
+   * Reload all managed schemas on a daemon thread every refreshIntervalMillis.
+   * The thread stops when this manager is closed, or after it has been garbage
+   * collected.
+   */
+  private void startBackgroundRefresh(long refreshIntervalMillis) {
+    refresher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("managed-schema-refresh-%d")
+            .build());
+    refresher.scheduleWithFixedDelay(new BackgroundRefresh(this, refresher),
+        refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop reloading managed schemas in the background, if it was enabled.
+   */
+  @Override
+  public void close() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+  }
+
   /**
    * Populate the managedSchemaMap with all of the managed schemas returned by
    * the managedSchemaDao.
@@ -420,6 +541,52 @@ public class DefaultSchemaManager implements SchemaManager {
         getManagedSchemaMapKey(tableName, entityName));
   }
 
+  /**
+   * Parse an entity schema string with the parser for the schema type, or
+   * return the cached result if it has already been parsed.
+   */
+  private EntitySchema parseEntitySchema(String schemaType, String schema) {
+    ConcurrentHashMap<String, EntitySchema> parsed = parsedEntitySchemas
+        .get(schemaType);
+    if (parsed == null) {
+      parsedEntitySchemas.putIfAbsent(schemaType,
+          new ConcurrentHashMap<String, EntitySchema>());
+      parsed = parsedEntitySchemas.get(schemaType);
+    }
+    EntitySchema entitySchema = parsed.get(schema);
+    if (entitySchema == null) {
+      entitySchema = getSchemaParser(schemaType).parseEntitySchema(schema);
+      EntitySchema existing = parsed.putIfAbsent(schema, entitySchema);
+      if (existing != null) {
+        entitySchema = existing;
+      }
+    }
+    return entitySchema;
+  }
+
+  /**
+   * Parse a key schema string with the parser for the schema type, or return
+   * the cached result if it has already been parsed.
+   */
+  private KeySchema parseKeySchema(String schemaType, String schema) {
+    ConcurrentHashMap<String, KeySchema> parsed = parsedKeySchemas
+        .get(schemaType);
+    if (parsed == null) {
+      parsedKeySchemas.putIfAbsent(schemaType,
+          new ConcurrentHashMap<String, KeySchema>());
+      parsed = parsedKeySchemas.get(schemaType);
+    }
+    KeySchema keySchema = parsed.get(schema);
+    if (keySchema == null) {
+      keySchema = getSchemaParser(schemaType).parseKeySchema(schema);
+      KeySchema existing = parsed.putIfAbsent(schema, keySchema);
+      if (existing != null) {
+        keySchema = existing;
+      }
+    }
+    return keySchema;
+  }
+
   /**
    * Get the schema parser by its classname. This method will cache the
    * constructed schema parsers.
@@ -431,7 +598,7 @@ public class DefaultSchemaManager implements SchemaManager {
   @SuppressWarnings("unchecked")
   private KeyEntitySchemaParser<?, ?> getSchemaParser(
       String schemaParserClassName) {
-    if (schemaParsers.contains(schemaParserClassName)) {
+    if (schemaParsers.containsKey(schemaParserClassName)) {
       return schemaParsers.get(schemaParserClassName);
     } else {
       try {
@@ -527,11 +694,10 @@ public class DefaultSchemaManager implements SchemaManager {
     }
     for (ManagedSchema managedSchema : entitiesForTable) {
       if (!managedSchema.getName().equals(entitySchema.getName())) {
-        KeyEntitySchemaParser<?, ?> parser = getSchemaParser(managedSchema
-            .getSchemaType());
+        String schemaType = managedSchema.getSchemaType();
         for (String schema : managedSchema.getEntitySchemas().values()) {
-          EntitySchema otherEntitySchema = parser.parseEntitySchema(schema);
-          KeySchema otherKeySchema = parser.parseKeySchema(schema);
+          EntitySchema otherEntitySchema = parseEntitySchema(schemaType, schema);
+          KeySchema otherKeySchema = parseKeySchema(schemaType, schema);
           if (!keySchema.compatible(otherKeySchema)) {
             String msg = "StorageKey fields of schema not compatible with other schema for the table. "
                 + "Table: "
@@ -712,4 +878,33 @@ public class DefaultSchemaManager implements SchemaManager {
   private String getManagedSchemaMapKey(String tableName, String entityName) {
     return tableName + ":" + entityName;
   }
+
+  /**
+   * Reloads the managed schemas of a manager, which it only references weakly
+   * so that the scheduled task does not keep an unclosed manager reachable.
+   */
+  private static class BackgroundRefresh implements Runnable {
+    private final WeakReference<DefaultSchemaManager> managerRef;
+    private final ScheduledExecutorService executor;
+
+    BackgroundRefresh(DefaultSchemaManager manager,
+        ScheduledExecutorService executor) {
+      this.managerRef = new WeakReference<DefaultSchemaManager>(manager);
+      this.executor = executor;
+    }
+
+    @Override
+    public void run() {
+      DefaultSchemaManager manager = managerRef.get();
+      if (manager == null) {
+        executor.shutdown();
+        return;
+      }
+      try {
+        manager.populateManagedSchemaMap();
+      } catch (RuntimeException e) {
+        LOG.warn("Failed to refresh managed schemas", e);
+      }
+    }
+  }
 }
@@ -15,12 +15,19 @@
  */
 package org.kitesdk.data.hbase;
 
+import com.google.common.collect.Sets;
 import java.io.IOException;
 import org.kitesdk.data.DatasetDescriptor;
 import org.kitesdk.data.DatasetReader;
 import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.FieldMapping;
 import org.kitesdk.data.View;
 import org.kitesdk.data.hbase.avro.AvroUtils;
+import org.kitesdk.data.hbase.impl.BaseDao;
+import org.kitesdk.data.hbase.impl.BaseEntityMapper;
+import org.kitesdk.data.hbase.impl.BaseEntityScanner;
+import org.kitesdk.data.hbase.impl.EntityMapper;
+import org.kitesdk.data.hbase.impl.EntitySerDe;
 import org.kitesdk.data.hbase.avro.entities.ArrayRecord;
 import org.kitesdk.data.hbase.avro.entities.EmbeddedRecord;
 import org.kitesdk.data.hbase.avro.entities.TestEntity;
@@ -30,7 +37,20 @@ import org.kitesdk.data.hbase.testing.HBaseTestUtils;
 import org.kitesdk.data.spi.AbstractRefinableView;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Set;
 
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.mapreduce.TableInputFormat;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -183,6 +203,293 @@ public class DaoViewTest {
 
   }
 
+  @Test
+  public void testProjectedReader() throws Exception {
+    populateTestEntities(10);
+
+    Schema projection = SchemaBuilder.record("TestEntity")
+        .namespace("org.kitesdk.data.hbase.avro.entities").fields()
+        .requiredString("part1")
+        .requiredString("part2")
+        .requiredString("field1")
+        .endRecord();
+
+    DaoView<GenericRecord> projected = (DaoView<GenericRecord>)
+        new DaoView<TestEntity>(ds, TestEntity.class).asSchema(projection);
+    Assert.assertEquals(Sets.newHashSet("part1", "part2", "field1"),
+        projected.getProjectedFields());
+
+    // fields used by constraints must also be read
+    DaoView<GenericRecord> constrained = (DaoView<GenericRecord>)
+        new DaoView<TestEntity>(ds, TestEntity.class)
+            .with("field2", "field2").asSchema(projection);
+    Assert.assertEquals(Sets.newHashSet("part1", "part2", "field1", "field2"),
+        constrained.getProjectedFields());
+
+    // the projected mapper only asks for the projected columns
+    EntityMapper<TestEntity> mapper =
+        ((BaseDao<TestEntity>) ds.getDao()).getEntityMapper();
+    EntityMapper<TestEntity> projectedMapper =
+        mapper.project(projected.getProjectedFields());
+    Set<String> columns = projectedMapper.getRequiredColumns();
+    Assert.assertTrue(columns.contains("meta:field1"));
+    Assert.assertFalse(columns.contains("meta:field2"));
+    Assert.assertFalse(columns.contains("string"));
+    Assert.assertFalse(columns.contains("embedded"));
+    Assert.assertFalse(projectedMapper.getRequiredColumnFamilies()
+        .contains("string"));
+    Assert.assertFalse(projectedMapper.getRequiredColumnFamilies()
+        .contains("embedded"));
+
+    // the scan only returns projected cells and one cell to find each row
+    Scan scan = ((BaseEntityScanner) projected.newEntityScanner()).getScan();
+    RecordingEntitySerDe<TestEntity> serDe =
+        new RecordingEntitySerDe<TestEntity>(mapper.getEntitySerDe());
+    EntityMapper<TestEntity> recordingMapper = new BaseEntityMapper<TestEntity>(
+        mapper.getKeySchema(), mapper.getEntitySchema(), mapper.getKeySerDe(),
+        serDe).project(projected.getProjectedFields());
+    HTable table = new HTable(HBaseTestUtils.getConf(), tableName);
+    ResultScanner results = table.getScanner(scan);
+    int rows = 0;
+    try {
+      for (Result result : results) {
+        rows++;
+        int unprojected = 0;
+        for (KeyValue kv : result.raw()) {
+          if (!columns.contains(Bytes.toString(kv.getFamily()) + ":"
+              + Bytes.toString(kv.getQualifier()))) {
+            unprojected++;
+          }
+        }
+        Assert.assertTrue("Should not return unprojected cells",
+            unprojected <= 1);
+        Assert.assertTrue(result.getFamilyMap(Bytes.toBytes("string")).isEmpty());
+        Assert.assertTrue(result.getFamilyMap(Bytes.toBytes("embedded")).isEmpty());
+        Assert.assertNotNull(recordingMapper.mapToEntity(result));
+      }
+    } finally {
+      results.close();
+      table.close();
+    }
+    Assert.assertEquals(10, rows);
+    // fields that are not projected are never deserialized
+    Assert.assertEquals(Sets.newHashSet("part1", "part2", "field1"),
+        serDe.deserialized);
+
+    DatasetReader<GenericRecord> reader = projected.newReader();
+    int cnt = 0;
+    try {
+      for (GenericRecord entity : reader) {
+        Assert.assertEquals(Integer.toString(cnt),
+            entity.get("part1").toString());
+        Assert.assertEquals("field1", entity.get("field1").toString());
+        cnt++;
+      }
+    } finally {
+      reader.close();
+    }
+    Assert.assertEquals(10, cnt);
+  }
+
+  @Test
+  public void testProjectionOfColumnEmptyInSomeRows() throws Exception {
+    populateTestEntities(10);
+
+    // remove field2 from every other row
+    HTable table = new HTable(HBaseTestUtils.getConf(), tableName);
+    ResultScanner results = table.getScanner(new Scan());
+    int row = 0;
+    try {
+      for (Result result : results) {
+        if (row++ % 2 == 0) {
+          Delete delete = new Delete(result.getRow());
+          delete.deleteColumns(Bytes.toBytes("meta"), Bytes.toBytes("field2"));
+          table.delete(delete);
+        }
+      }
+    } finally {
+      results.close();
+      table.close();
+    }
+
+    Schema projection = SchemaBuilder.record("TestEntity")
+        .namespace("org.kitesdk.data.hbase.avro.entities").fields()
+        .optionalString("field2")
+        .endRecord();
+    DaoView<GenericRecord> projected = (DaoView<GenericRecord>)
+        new DaoView<TestEntity>(ds, TestEntity.class).asSchema(projection);
+
+    DatasetReader<GenericRecord> reader = projected.newReader();
+    int withField2 = 0;
+    int withoutField2 = 0;
+    try {
+      for (GenericRecord entity : reader) {
+        Assert.assertNotNull("Should not return null entities", entity);
+        if (entity.get("field2") == null) {
+          withoutField2++;
+        } else {
+          Assert.assertEquals("field2", entity.get("field2").toString());
+          withField2++;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    Assert.assertEquals("Should return rows without the projected column",
+        5, withoutField2);
+    Assert.assertEquals(5, withField2);
+  }
+
+  @Test
+  public void testKeyOnlyProjection() throws Exception {
+    String genericTableName = "generictable";
+    String genericEntity = AvroUtils.inputStreamToString(
+        HBaseDatasetRepositoryTest.class
+            .getResourceAsStream("/TestGenericEntity.avsc"));
+    DaoDataset<GenericRecord> generic = (DaoDataset<GenericRecord>) repo.create(
+        "default", genericTableName, new DatasetDescriptor.Builder()
+            .schemaLiteral(genericEntity).build());
+    try {
+      for (int i = 0; i < 10; i++) {
+        generic.put(HBaseDatasetRepositoryTest.createGenericEntity(i));
+      }
+
+      Schema keys = SchemaBuilder.record("TestGenericEntity")
+          .namespace("org.kitesdk.data.hbase.avro.entities").fields()
+          .requiredString("part1")
+          .requiredString("part2")
+          .endRecord();
+      DaoView<GenericRecord> projected = (DaoView<GenericRecord>)
+          new DaoView<GenericRecord>(generic, GenericRecord.class)
+              .asSchema(keys);
+
+      // only key fields are projected, so no columns are needed
+      Assert.assertTrue(((BaseDao<GenericRecord>) generic.getDao())
+          .getEntityMapper().project(projected.getProjectedFields())
+          .getRequiredColumns().isEmpty());
+
+      DatasetReader<GenericRecord> reader = projected.newReader();
+      Set<String> keysRead = Sets.newHashSet();
+      try {
+        for (GenericRecord entity : reader) {
+          Assert.assertNotNull("Should not return null entities", entity);
+          keysRead.add(entity.get("part1") + "/" + entity.get("part2"));
+        }
+      } finally {
+        reader.close();
+      }
+      Set<String> expected = Sets.newHashSet();
+      for (int i = 0; i < 10; i++) {
+        expected.add("part1_" + i + "/part2_" + i);
+      }
+      Assert.assertEquals("Should return every row", expected, keysRead);
+    } finally {
+      repo.delete("default", genericTableName);
+      HBaseTestUtils.util.deleteTable(Bytes.toBytes(genericTableName));
+    }
+  }
+
+  @Test
+  public void testPushedDownConstraints() {
+    populateTestEntities(10);
+
+    DaoView<TestEntity> unbounded = new DaoView<TestEntity>(ds, TestEntity.class);
+    Assert.assertNull("Should not filter an unbounded view",
+        ((BaseEntityScanner) unbounded.newEntityScanner()).getScan().getFilter());
+
+    DaoView<TestEntity> matching = (DaoView<TestEntity>) unbounded
+        .with("field1", "field1");
+    Assert.assertNotNull("Should push down the field1 constraint",
+        ((BaseEntityScanner) matching.newEntityScanner()).getScan().getFilter());
+    validRange(matching, 0, 10);
+
+    DaoView<TestEntity> missing = (DaoView<TestEntity>) unbounded
+        .with("field1", "other", "values");
+    validRange(missing, 0, 0);
+
+    DaoView<TestEntity> exists = (DaoView<TestEntity>) unbounded
+        .with("field2");
+    validRange(exists, 0, 10);
+  }
+
+  @Test
+  public void testPushedDownNullableConstraints() throws Exception {
+    String nullableTableName = "nullabletable";
+    String nullableEntity = AvroUtils.inputStreamToString(
+        HBaseDatasetRepositoryTest.class
+            .getResourceAsStream("/TestNullableEntity.avsc"));
+    DaoDataset<GenericRecord> nullable = (DaoDataset<GenericRecord>) repo.create(
+        "default", nullableTableName, new DatasetDescriptor.Builder()
+            .schemaLiteral(nullableEntity).build());
+    try {
+      Schema schema = nullable.getDescriptor().getSchema();
+      for (int i = 0; i < 10; i++) {
+        GenericRecord entity = new GenericData.Record(schema);
+        entity.put("id", Integer.toString(i));
+        // every third entity has no name
+        entity.put("name", (i % 3 == 0) ? null : (i % 2 == 0 ? "even" : "odd"));
+        entity.put("count", (long) i);
+        nullable.put(entity);
+      }
+
+      DaoView<GenericRecord> unbounded =
+          new DaoView<GenericRecord>(nullable, GenericRecord.class);
+
+      DaoView<GenericRecord> even = (DaoView<GenericRecord>) unbounded
+          .with("name", "even");
+      Assert.assertNotNull("Should push down the nullable name constraint",
+          ((BaseEntityScanner) even.newEntityScanner()).getScan().getFilter());
+      Assert.assertEquals(Sets.newHashSet("2", "4", "8"), readIds(even));
+
+      DaoView<GenericRecord> named = (DaoView<GenericRecord>) unbounded
+          .with("name");
+      Assert.assertNotNull("Should push down the nullable name constraint",
+          ((BaseEntityScanner) named.newEntityScanner()).getScan().getFilter());
+      Assert.assertEquals(Sets.newHashSet("1", "2", "4", "5", "7", "8"),
+          readIds(named));
+
+      DaoView<GenericRecord> counts = (DaoView<GenericRecord>) unbounded
+          .from("count", 2L).to("count", 4L);
+      Assert.assertNotNull("Should push down the nullable count range",
+          ((BaseEntityScanner) counts.newEntityScanner()).getScan().getFilter());
+      Assert.assertEquals(Sets.newHashSet("2", "3", "4"), readIds(counts));
+    } finally {
+      repo.delete("default", nullableTableName);
+      HBaseTestUtils.util.deleteTable(Bytes.toBytes(nullableTableName));
+    }
+  }
+
+  @Test
+  public void testPushedDownConstraintsInInputFormat() throws Exception {
+    populateTestEntities(10);
+
+    DaoView<TestEntity> matching = (DaoView<TestEntity>)
+        new DaoView<TestEntity>(ds, TestEntity.class).with("field1", "field1");
+    HBaseViewKeyInputFormat<TestEntity> format =
+        new HBaseViewKeyInputFormat<TestEntity>(matching);
+    Assert.assertNotNull("Should push down the field1 constraint",
+        format.getScan().getFilter());
+
+    // the filter must survive serialization into the job configuration
+    TableInputFormat delegate = format.getDelegate(
+        new Configuration(HBaseTestUtils.getConf()));
+    Assert.assertNotNull("Should push down the field1 constraint in MR jobs",
+        delegate.getScan().getFilter());
+  }
+
+  private static Set<String> readIds(View<GenericRecord> view) {
+    Set<String> ids = Sets.newHashSet();
+    DatasetReader<GenericRecord> reader = view.newReader();
+    try {
+      for (GenericRecord entity : reader) {
+        ids.add(entity.get("id").toString());
+      }
+    } finally {
+      reader.close();
+    }
+    return ids;
+  }
+
   private TestEntity newTestEntity(String part1, String part2) {
     return TestEntity
         .newBuilder()
@@ -218,4 +525,67 @@ public class DaoViewTest {
     }
     Assert.assertEquals(endIdx, cnt);
   }
+
+  /**
+   * An EntitySerDe that records the fields it deserializes.
+   */
+  private static class RecordingEntitySerDe<E> extends EntitySerDe<E> {
+    private final EntitySerDe<E> delegate;
+    private final Set<String> deserialized = Sets.newHashSet();
+
+    RecordingEntitySerDe(EntitySerDe<E> delegate) {
+      super(delegate.getEntityComposer());
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Object deserialize(FieldMapping fieldMapping, Result result) {
+      deserialized.add(fieldMapping.getFieldName());
+      return super.deserialize(fieldMapping, result);
+    }
+
+    @Override
+    public byte[] serializeColumnValueToBytes(String fieldName,
+        Object fieldValue) {
+      return delegate.serializeColumnValueToBytes(fieldName, fieldValue);
+    }
+
+    @Override
+    public byte[] serializeKeyAsColumnValueToBytes(String fieldName,
+        CharSequence columnKey, Object columnValue) {
+      return delegate.serializeKeyAsColumnValueToBytes(fieldName, columnKey,
+          columnValue);
+    }
+
+    @Override
+    public byte[] serializeKeyAsColumnKeyToBytes(String fieldName,
+        CharSequence columnKey) {
+      return delegate.serializeKeyAsColumnKeyToBytes(fieldName, columnKey);
+    }
+
+    @Override
+    public Object deserializeColumnValueFromBytes(String fieldName,
+        byte[] bytes) {
+      return delegate.deserializeColumnValueFromBytes(fieldName, bytes);
+    }
+
+    @Override
+    public Object deserializeKeyAsColumnValueFromBytes(String fieldName,
+        byte[] columnKeyBytes, byte[] columnValueBytes) {
+      return delegate.deserializeKeyAsColumnValueFromBytes(fieldName,
+          columnKeyBytes, columnValueBytes);
+    }
+
+    @Override
+    public CharSequence deserializeKeyAsColumnKeyFromBytes(String fieldName,
+        byte[] columnKeyBytes) {
+      return delegate.deserializeKeyAsColumnKeyFromBytes(fieldName,
+          columnKeyBytes);
+    }
+
+    @Override
+    public Object getDefaultValue(String fieldName) {
+      return delegate.getDefaultValue(fieldName);
+    }
+  }
 }
@@ -460,6 +460,30 @@ public class ManagedDaoTest {
     }
   }
 
+  @Test
+  public void testBackgroundRefresh() throws Exception {
+    DefaultSchemaManager refreshingManager = new DefaultSchemaManager(
+        tablePool, 100);
+    try {
+      int versions = refreshingManager.getEntitySchemas(tableName,
+          "TestRecord").size();
+
+      manager.migrateSchema(tableName, "TestRecord",
+          goodMigrationRecordAddField);
+
+      // the new version should be loaded without an explicit refresh
+      long deadline = System.currentTimeMillis() + 10000;
+      while (refreshingManager.getEntitySchemas(tableName, "TestRecord")
+          .size() == versions && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertEquals(versions + 1, refreshingManager.getEntitySchemas(tableName,
+          "TestRecord").size());
+    } finally {
+      refreshingManager.close();
+    }
+  }
+
   /**
    * GenericAvroDaos created without a entity schema (but with a manager) should
    * use the newest available
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase.avro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.kitesdk.data.hbase.HBaseProperties;
+import org.kitesdk.data.hbase.impl.BaseDao;
+import org.kitesdk.data.hbase.impl.BaseEntityScanner;
+import org.kitesdk.data.hbase.impl.EntityScannerBuilder;
+import org.kitesdk.data.hbase.testing.HBaseTestUtils;
+
+public class ScannerCachingBudgetTest {
+
+  private static final String recordString;
+  private static final String tableName = "cachingbudgettable";
+
+  private HTablePool tablePool;
+  private BaseDao<GenericRecord> dao;
+
+  static {
+    try {
+      recordString = AvroUtils.inputStreamToString(AvroDaoTest.class
+          .getResourceAsStream("/TestRecord.avsc"));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    HBaseTestUtils.getMiniCluster();
+    byte[] tableNameBytes = Bytes.toBytes(tableName);
+    byte[][] cfNames = { Bytes.toBytes("meta"), Bytes.toBytes("string"),
+        Bytes.toBytes("embedded"), Bytes.toBytes("_s") };
+    HBaseTestUtils.util.createTable(tableNameBytes, cfNames);
+  }
+
+  @AfterClass
+  public static void afterClass() throws Exception {
+    HBaseTestUtils.util.deleteTable(Bytes.toBytes(tableName));
+  }
+
+  @Before
+  public void beforeTest() throws Exception {
+    HBaseTestUtils.util.truncateTable(Bytes.toBytes(tableName));
+    // a tiny budget forces single-row batches if the defaults are used
+    Configuration conf = new Configuration(HBaseTestUtils.getConf());
+    conf.setLong(HBaseProperties.SCAN_CACHING_BUDGET_PROP, 1);
+    conf.setBoolean(HBaseProperties.SCAN_PREFETCH_PROP, true);
+    tablePool = new HTablePool(conf, 10);
+    dao = new GenericAvroDao(tablePool, tableName, recordString);
+
+    for (int i = 0; i < 10; ++i) {
+      @SuppressWarnings("deprecation")
+      GenericRecord entity = new GenericData.Record(Schema.parse(recordString));
+      entity.put("keyPart1", "part1_" + i);
+      entity.put("keyPart2", "part2_" + i);
+      entity.put("field1", "field1_" + Integer.toString(i));
+      entity.put("field2", "field2_" + Integer.toString(i));
+      dao.put(entity);
+    }
+  }
+
+  @After
+  public void afterTest() throws Exception {
+    tablePool.close();
+  }
+
+  @Test
+  public void testConfiguredDefaults() {
+    BaseEntityScanner<GenericRecord> scanner = scan(dao.getScannerBuilder());
+    assertTrue("Should use the configured budget",
+        scanner.getMetrics().getBatches() > 1);
+  }
+
+  @Test
+  public void testZeroBudgetDisablesSizing() {
+    BaseEntityScanner<GenericRecord> scanner = scan(dao.getScannerBuilder()
+        .setCachingBudget(0).setPrefetch(false));
+    assertEquals("Should not use the configured budget or prefetch",
+        0, scanner.getMetrics().getBatches());
+    assertEquals(0, scanner.getMetrics().getReopens());
+  }
+
+  @Test
+  public void testZeroBudgetWithPrefetch() {
+    BaseEntityScanner<GenericRecord> scanner = scan(dao.getScannerBuilder()
+        .setCachingBudget(0).setPrefetch(true));
+    // prefetching without a budget keeps the initial caching for all batches
+    assertEquals(0, scanner.getMetrics().getReopens());
+    assertTrue(scanner.getMetrics().getCaching() > 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeBudgetRejected() {
+    dao.getScannerBuilder().setCachingBudget(-1);
+  }
+
+  private BaseEntityScanner<GenericRecord> scan(
+      EntityScannerBuilder<GenericRecord> builder) {
+    BaseEntityScanner<GenericRecord> scanner =
+        (BaseEntityScanner<GenericRecord>) builder.build();
+    scanner.initialize();
+    int cnt = 0;
+    try {
+      for (GenericRecord entity : scanner) {
+        cnt++;
+      }
+    } finally {
+      scanner.close();
+    }
+    assertEquals(10, cnt);
+    return scanner;
+  }
+}
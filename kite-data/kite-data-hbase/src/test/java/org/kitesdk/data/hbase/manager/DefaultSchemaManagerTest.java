@@ -0,0 +1,131 @@
+/**
+ * Copyright 2014 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.data.hbase.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.kitesdk.data.hbase.manager.generated.ManagedSchema;
+
+public class DefaultSchemaManagerTest {
+
+  @Test
+  public void testConcurrentRefreshesShareOneRead() throws Exception {
+    final CountingManagedSchemaDao dao = new CountingManagedSchemaDao();
+    final DefaultSchemaManager manager = new DefaultSchemaManager(dao);
+
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          manager.refreshManagedSchemaCache("table", "entity");
+        }
+      });
+      threads[i].start();
+    }
+
+    // all threads should be waiting on the first read
+    assertTrue(dao.started.await(10, TimeUnit.SECONDS));
+    Thread.sleep(500);
+    dao.release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1, dao.reads.get());
+
+    // a later refresh reads again
+    manager.refreshManagedSchemaCache("table", "entity");
+    assertEquals(2, dao.reads.get());
+  }
+
+  @Test
+  public void testCloseStopsBackgroundRefresh() throws Exception {
+    CountingManagedSchemaDao dao = new CountingManagedSchemaDao();
+    DefaultSchemaManager manager = new DefaultSchemaManager(dao, 10);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (dao.scans.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue("Should reload in the background", dao.scans.get() >= 2);
+
+    manager.close();
+    Thread.sleep(100); // let a reload in progress finish
+    int scans = dao.scans.get();
+    Thread.sleep(200);
+    assertEquals("Should not reload after close", scans, dao.scans.get());
+    assertFalse(isRefreshThreadAlive());
+  }
+
+  private static boolean isRefreshThreadAlive() throws InterruptedException {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("managed-schema-refresh-")) {
+        thread.join(1000);
+        if (thread.isAlive()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A ManagedSchemaDao without schemas that counts reads, and blocks the first
+   * read of a single managed schema until released.
+   */
+  private static class CountingManagedSchemaDao implements ManagedSchemaDao {
+    private final AtomicInteger reads = new AtomicInteger();
+    private final AtomicInteger scans = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public List<ManagedSchema> getManagedSchemas() {
+      scans.incrementAndGet();
+      return Collections.emptyList();
+    }
+
+    @Override
+    public ManagedSchema getManagedSchema(String tableName, String entityName) {
+      reads.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return null;
+    }
+
+    @Override
+    public boolean save(ManagedSchema schema) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean delete(ManagedSchema schema) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -36,14 +36,14 @@ import org.kitesdk.data.DatasetIOException;
 import org.kitesdk.data.DatasetNotFoundException;
 import org.kitesdk.data.URIBuilder;
 import org.kitesdk.data.spi.AbstractMetadataProvider;
+import org.kitesdk.data.spi.BatchPartitionListener;
 import org.kitesdk.data.spi.Compatibility;
-import org.kitesdk.data.spi.PartitionListener;
 import org.kitesdk.data.spi.filesystem.SchemaManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 abstract class HiveAbstractMetadataProvider extends AbstractMetadataProvider implements
-    PartitionListener {
+    BatchPartitionListener {
 
   static final String SCHEMA_DIRECTORY = ".metadata/schemas";
 
@@ -234,6 +234,12 @@ abstract class HiveAbstractMetadataProvider extends AbstractMetadataProvider imp
     getMetaStoreUtil().addPartition(namespace, name, path);
   }
 
+  @Override
+  public void partitionsAdded(String namespace, String name,
+                              Collection<String> paths) {
+    getMetaStoreUtil().addPartitions(namespace, name, paths);
+  }
+
 
   @Override
   @SuppressWarnings("unchecked")
@@ -18,6 +18,7 @@ package org.kitesdk.data.spi.hive;
 import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collection;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -139,4 +140,20 @@ class HiveExternalMetadataProvider extends HiveAbstractMetadataProvider {
     super.partitionAdded(namespace, name, path);
   }
 
+  @Override
+  public void partitionsAdded(String namespace, String name,
+                              Collection<String> paths) {
+    Path datasetPath = pathForDataset(namespace, name);
+    for (String path : paths) {
+      Path partitionPath = new Path(datasetPath, path);
+      try {
+        rootFileSystem.mkdirs(partitionPath);
+      } catch (IOException ex) {
+        throw new DatasetIOException(
+          "Unable to create partition directory  " + partitionPath, ex);
+      }
+    }
+    super.partitionsAdded(namespace, name, paths);
+  }
+
 }
@@ -15,63 +15,173 @@
  */
 package org.kitesdk.data.spi.hive;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
+import org.apache.hadoop.hive.metastore.Warehouse;
 import org.apache.hadoop.hive.metastore.api.AlreadyExistsException;
 import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
 import org.apache.hadoop.hive.metastore.api.InvalidObjectException;
 import org.apache.hadoop.hive.metastore.api.InvalidOperationException;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.metastore.api.NoSuchObjectException;
 import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
 import org.apache.hadoop.hive.metastore.api.Table;
 import org.apache.hadoop.hive.metastore.api.UnknownDBException;
+import org.apache.thrift.TBase;
 import org.apache.thrift.TException;
 import org.kitesdk.data.DatasetExistsException;
 import org.kitesdk.data.DatasetNotFoundException;
 import org.kitesdk.data.DatasetOperationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MetaStoreUtil {
 
   private static final Logger LOG = LoggerFactory.getLogger(MetaStoreUtil.class);
   private static final String ALLOW_LOCAL_METASTORE = "kite.hive.allow-local-metastore";
 
-  private final HiveMetaStoreClient client;
+  /**
+   * The maximum number of connections to a remote MetaStore. Calls from
+   * different threads use separate connections, up to this limit.
+   */
+  private static final String CLIENT_POOL_SIZE = "kite.hive.metastore.client-pool-size";
+  private static final int DEFAULT_CLIENT_POOL_SIZE = 4;
+
+  /**
+   * How long, in seconds, a partition that has been added is remembered so
+   * that adding it again doesn't call the MetaStore. Partitions dropped
+   * outside of Kite are not re-added until this expires.
+   */
+  private static final String KNOWN_PARTITION_EXPIRY = "kite.hive.known-partition-expiry-seconds";
+  private static final long DEFAULT_KNOWN_PARTITION_EXPIRY = 600;
+  private static final long MAX_KNOWN_PARTITIONS = 100000;
+
   private final HiveConf hiveConf;
+  private final ClientFactory factory;
+  private final int poolSize;
+  private final BlockingQueue<HiveMetaStoreClient> idleClients =
+      new LinkedBlockingQueue<HiveMetaStoreClient>();
+  private final AtomicInteger numClients = new AtomicInteger(0);
+
+  /**
+   * Partitions known to be in the MetaStore, by db, table, and path.
+   */
+  private final Cache<String, Boolean> knownPartitions;
 
   private static interface ClientAction<R> {
-    R call() throws TException;
+    R call(HiveMetaStoreClient client) throws TException;
+  }
+
+  /**
+   * Opens connections to the MetaStore. Tests use this to substitute clients.
+   */
+  static interface ClientFactory {
+    HiveMetaStoreClient newClient(HiveConf conf) throws TException;
   }
 
+  private static final ClientFactory DEFAULT_FACTORY = new ClientFactory() {
+    @Override
+    public HiveMetaStoreClient newClient(HiveConf conf) throws TException {
+      return new HiveMetaStoreClient(conf);
+    }
+  };
+
   private <R> R doWithRetry(ClientAction<R> action) throws TException {
+    HiveMetaStoreClient client = borrowClient();
+    boolean usable = true;
     try {
-      synchronized (client) {
-        return action.call();
-      }
-    } catch (TException e) {
       try {
-        synchronized (client) {
+        return action.call(client);
+      } catch (TException e) {
+        try {
           client.reconnect();
+        } catch (MetaException swallowedException) {
+          // reconnect failed, throw the original exception. exceptions that
+          // are part of the MetaStore API were sent by the server, so the
+          // connection still works; anything else means it is broken
+          usable = (e instanceof TBase);
+          throw e;
         }
-      } catch (MetaException swallowedException) {
-        // reconnect failed, throw the original exception
-        throw e;
-      }
-      synchronized (client) {
         // retry the action. if this fails, its exception is propagated
-        return action.call();
+        return action.call(client);
+      }
+    } finally {
+      if (usable) {
+        idleClients.add(client);
+      } else {
+        discardClient(client);
       }
     }
   }
 
+  /**
+   * Returns an idle client, opening a new one if fewer than the pool size are
+   * open or waiting for one to be returned otherwise.
+   */
+  private HiveMetaStoreClient borrowClient() throws TException {
+    while (true) {
+      HiveMetaStoreClient client = idleClients.poll();
+      if (client != null) {
+        return client;
+      }
+
+      if (numClients.incrementAndGet() <= poolSize) {
+        try {
+          return factory.newClient(hiveConf);
+        } catch (TException e) {
+          numClients.decrementAndGet();
+          throw e;
+        } catch (RuntimeException e) {
+          numClients.decrementAndGet();
+          throw e;
+        }
+      }
+      numClients.decrementAndGet();
+
+      try {
+        // wake up periodically because a discarded client frees a slot
+        // without returning anything to the idle queue
+        client = idleClients.poll(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DatasetOperationException(
+            "Interrupted while waiting for a Hive MetaStore connection", e);
+      }
+      if (client != null) {
+        return client;
+      }
+    }
+  }
+
+  /**
+   * Closes a client that can no longer reach the MetaStore so that the next
+   * call opens a new connection in its place.
+   */
+  private void discardClient(HiveMetaStoreClient client) {
+    numClients.decrementAndGet();
+    try {
+      client.close();
+    } catch (RuntimeException e) {
+      LOG.debug("Failed to close a broken Hive MetaStore client", e);
+    }
+  }
+
   public static final Map<String, MetaStoreUtil> INSTANCES = Maps.newHashMap();
 
   public static MetaStoreUtil get(Configuration conf) {
@@ -120,22 +230,68 @@ public class MetaStoreUtil {
       throw new IllegalArgumentException(
           "Missing Hive MetaStore connection URI");
     }
-    try {
-      this.client = new HiveMetaStoreClient(hiveConf);
-    } catch (TException e) {
-      throw new DatasetOperationException("Hive metastore exception", e);
-    }
+    this.factory = DEFAULT_FACTORY;
+    this.poolSize = poolSize(hiveConf);
+    this.knownPartitions = knownPartitionCache(hiveConf);
+    openFirstClient();
   }
 
   private MetaStoreUtil(HiveConf conf) {
+    this(conf, DEFAULT_FACTORY);
+  }
+
+  MetaStoreUtil(HiveConf conf, ClientFactory factory) {
     this.hiveConf = conf;
+    this.factory = factory;
+    this.poolSize = poolSize(hiveConf);
+    this.knownPartitions = knownPartitionCache(hiveConf);
+    openFirstClient();
+  }
+
+  private void openFirstClient() {
+    // open a connection right away so that configuration problems are found
     try {
-      this.client = new HiveMetaStoreClient(hiveConf);
+      idleClients.add(factory.newClient(hiveConf));
+      numClients.incrementAndGet();
     } catch (TException e) {
       throw new DatasetOperationException("Hive metastore exception", e);
     }
   }
 
+  private static int poolSize(HiveConf conf) {
+    if (isEmpty(conf, Loader.HIVE_METASTORE_URI_PROP)) {
+      // a local MetaStore runs in this process, use a single client for it
+      return 1;
+    }
+    return Math.max(1, conf.getInt(CLIENT_POOL_SIZE, DEFAULT_CLIENT_POOL_SIZE));
+  }
+
+  private static Cache<String, Boolean> knownPartitionCache(HiveConf conf) {
+    return CacheBuilder.newBuilder()
+        .maximumSize(MAX_KNOWN_PARTITIONS)
+        .expireAfterWrite(
+            conf.getLong(KNOWN_PARTITION_EXPIRY, DEFAULT_KNOWN_PARTITION_EXPIRY),
+            TimeUnit.SECONDS)
+        .build();
+  }
+
+  private static String tableKey(String dbName, String tableName) {
+    return dbName + "." + tableName + "/";
+  }
+
+  private static String partitionKey(String dbName, String tableName,
+                                     String path) {
+    return tableKey(dbName, tableName) + path;
+  }
+
+  private void forgetPartitions(String prefix) {
+    for (String key : knownPartitions.asMap().keySet()) {
+      if (key.startsWith(prefix)) {
+        knownPartitions.invalidate(key);
+      }
+    }
+  }
+
   private static boolean allowLocalMetaStore(HiveConf conf) {
     return conf.getBoolean(ALLOW_LOCAL_METASTORE, false);
   }
@@ -149,7 +305,7 @@ public class MetaStoreUtil {
     ClientAction<Table> getTable =
         new ClientAction<Table>() {
           @Override
-          public Table call() throws TException {
+          public Table call(HiveMetaStoreClient client) throws TException {
             return new Table(client.getTable(dbName, tableName));
           }
         };
@@ -177,7 +333,7 @@ public class MetaStoreUtil {
     ClientAction<Boolean> exists =
         new ClientAction<Boolean>() {
           @Override
-          public Boolean call() throws TException {
+          public Boolean call(HiveMetaStoreClient client) throws TException {
             return client.tableExists(dbName, tableName);
           }
         };
@@ -198,7 +354,7 @@ public class MetaStoreUtil {
     ClientAction<Void> create =
         new ClientAction<Void>() {
           @Override
-          public Void call() throws TException {
+          public Void call(HiveMetaStoreClient client) throws TException {
             client.createDatabase(
                 new Database(dbName, "Database created by Kite",
                     null /* default location */,
@@ -226,7 +382,7 @@ public class MetaStoreUtil {
     ClientAction<Void> create =
         new ClientAction<Void>() {
           @Override
-          public Void call() throws TException {
+          public Void call(HiveMetaStoreClient client) throws TException {
             client.createTable(tbl);
             return null;
           }
@@ -260,7 +416,7 @@ public class MetaStoreUtil {
     ClientAction<Void> alter =
         new ClientAction<Void>() {
           @Override
-          public Void call() throws TException {
+          public Void call(HiveMetaStoreClient client) throws TException {
             client.alter_table(
                 tbl.getDbName(), tbl.getTableName(), tbl);
             return null;
@@ -288,7 +444,7 @@ public class MetaStoreUtil {
     ClientAction<Void> drop =
         new ClientAction<Void>() {
           @Override
-          public Void call() throws TException {
+          public Void call(HiveMetaStoreClient client) throws TException {
             client.dropTable(dbName, tableName, true /* deleteData */,
                 true /* ignoreUnknownTable */);
             return null;
@@ -304,15 +460,22 @@ public class MetaStoreUtil {
     } catch (TException e) {
       throw new DatasetOperationException(
           "Exception communicating with the Hive MetaStore", e);
+    } finally {
+      forgetPartitions(tableKey(dbName, tableName));
     }
   }
 
   public void addPartition(final String dbName, final String tableName,
                            final String path) {
+    String key = partitionKey(dbName, tableName, path);
+    if (knownPartitions.getIfPresent(key) != null) {
+      return;
+    }
+
     ClientAction<Void> addPartition =
         new ClientAction<Void>() {
           @Override
-          public Void call() throws TException {
+          public Void call(HiveMetaStoreClient client) throws TException {
             // purposely don't check if the partition already exists because
             // getPartition(db, table, path) will throw an exception to indicate the
             // partition doesn't exist also. this way, it's only one call.
@@ -334,6 +497,100 @@ public class MetaStoreUtil {
       throw new DatasetOperationException(
           "Exception communicating with the Hive MetaStore", e);
     }
+    knownPartitions.put(key, Boolean.TRUE);
+  }
+
+  /**
+   * Adds several partitions to a table with one call to the MetaStore.
+   * Partitions that are already known to exist are skipped. If any of the
+   * others already exist, this falls back to adding them one at a time.
+   */
+  public void addPartitions(final String dbName, final String tableName,
+                            Collection<String> paths) {
+    final List<String> newPaths = Lists.newArrayList();
+    for (String path : paths) {
+      if (knownPartitions.getIfPresent(
+          partitionKey(dbName, tableName, path)) == null) {
+        newPaths.add(path);
+      }
+    }
+
+    if (newPaths.isEmpty()) {
+      return;
+    } else if (newPaths.size() == 1) {
+      addPartition(dbName, tableName, newPaths.get(0));
+      return;
+    }
+
+    final Table table = getTable(dbName, tableName);
+    ClientAction<Void> addPartitions =
+        new ClientAction<Void>() {
+          @Override
+          public Void call(HiveMetaStoreClient client) throws TException {
+            List<Partition> partitions = Lists.newArrayList();
+            for (String path : newPaths) {
+              partitions.add(newPartition(table, path));
+            }
+            // add_partitions is atomic, so if one partition already exists,
+            // none of them are added
+            client.add_partitions(partitions);
+            return null;
+          }
+        };
+
+    try {
+      doWithRetry(addPartitions);
+    } catch (AlreadyExistsException e) {
+      for (String path : newPaths) {
+        addPartition(dbName, tableName, path);
+      }
+      return;
+    } catch (InvalidObjectException e) {
+      throw new DatasetOperationException(
+          "Invalid partitions for " + dbName + "." + tableName + ": " +
+          newPaths, e);
+    } catch (MetaException e) {
+      throw new DatasetOperationException("Hive MetaStore exception", e);
+    } catch (TException e) {
+      throw new DatasetOperationException(
+          "Exception communicating with the Hive MetaStore", e);
+    }
+
+    for (String path : newPaths) {
+      knownPartitions.put(partitionKey(dbName, tableName, path), Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Builds the Partition that appendPartition would create for a path, like
+   * "year=2014/month=10", relative to the table's location.
+   */
+  private static Partition newPartition(Table table, String path)
+      throws MetaException {
+    Map<String, String> spec = Warehouse.makeSpecFromName(path);
+    List<String> values = Lists.newArrayList();
+    for (FieldSchema key : table.getPartitionKeys()) {
+      String value = spec.get(key.getName());
+      if (value == null) {
+        throw new MetaException("Partition path " + path +
+            " is missing a value for " + key.getName());
+      }
+      values.add(value);
+    }
+
+    StorageDescriptor sd = new StorageDescriptor(table.getSd());
+    sd.setLocation(new Path(table.getSd().getLocation(), path).toString());
+
+    int now = (int) (System.currentTimeMillis() / 1000);
+    Partition partition = new Partition();
+    partition.setDbName(table.getDbName());
+    partition.setTableName(table.getTableName());
+    partition.setValues(values);
+    partition.setSd(sd);
+    partition.setCreateTime(now);
+    partition.setLastAccessTime(now);
+    partition.setParameters(Maps.<String, String>newHashMap());
+    return partition;
   }
 
   public void dropPartition(final String dbName, final String tableName,
@@ -341,13 +598,15 @@ public class MetaStoreUtil {
     ClientAction<Void> dropPartition =
         new ClientAction<Void>() {
           @Override
-          public Void call() throws TException {
+          public Void call(HiveMetaStoreClient client) throws TException {
 
             client.dropPartition(dbName, tableName, path, false);
             return null;
           }
         };
 
+    knownPartitions.invalidate(partitionKey(dbName, tableName, path));
+
     try {
       doWithRetry(dropPartition);
     } catch (NoSuchObjectException e) {
@@ -369,7 +628,7 @@ public class MetaStoreUtil {
     ClientAction<List<String>> listPartitions =
         new ClientAction<List<String>>() {
           @Override
-          public List<String> call() throws TException {
+          public List<String> call(HiveMetaStoreClient client) throws TException {
             List<Partition> partitions =
                 client.listPartitions(dbName, tableName, max);
             List<String> paths = Lists.newArrayList();
@@ -400,7 +659,7 @@ public class MetaStoreUtil {
     ClientAction<List<String>> create =
         new ClientAction<List<String>>() {
           @Override
-          public List<String> call() throws TException {
+          public List<String> call(HiveMetaStoreClient client) throws TException {
             return client.getAllTables(dbName);
           }
         };
@@ -421,7 +680,7 @@ public class MetaStoreUtil {
     ClientAction<List<String>> create =
         new ClientAction<List<String>>() {
           @Override
-          public List<String> call() throws TException {
+          public List<String> call(HiveMetaStoreClient client) throws TException {
             return client.getAllDatabases();
           }
         };
@@ -443,7 +702,7 @@ public class MetaStoreUtil {
         new ClientAction<Void>() {
 
         @Override
-        public Void call() throws TException {
+        public Void call(HiveMetaStoreClient client) throws TException {
           client.dropDatabase(name, deleteData, true);
           return null;
         }
@@ -457,6 +716,8 @@ public class MetaStoreUtil {
     } catch (TException e) {
       throw new DatasetOperationException(
           "Exception communicating with the Hive MetaStore", e);
+    } finally {
+      forgetPartitions(name + ".");
     }
   }
 }
@@ -25,6 +25,7 @@ import org.kitesdk.data.DatasetWriter;
 import org.kitesdk.data.spi.PartitionKey;
 import org.kitesdk.data.PartitionStrategy;
 import org.kitesdk.data.spi.PartitionedDataset;
+import org.kitesdk.data.spi.filesystem.FileSystemProperties;
 import org.kitesdk.data.spi.filesystem.TestFileSystemDatasetRepository;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.generic.GenericRecordBuilder;
@@ -174,6 +175,41 @@ public class TestHiveExternalDatasetRepository extends TestFileSystemDatasetRepo
         client.listPartitionNames(NAMESPACE, NAME2, (short) 10).size());
   }
 
+  @Test
+  public void testDeferredPartitionsAddedToHiveOnClose() throws Exception {
+    final String NAME2 = "test2";
+
+    PartitionStrategy partitionStrategy = new PartitionStrategy.Builder()
+        .identity("username")
+        .identity("email").build();
+
+    DatasetDescriptor descriptor = new DatasetDescriptor.Builder()
+        .schema(testSchema)
+        .partitionStrategy(partitionStrategy)
+        .property(FileSystemProperties.DEFER_PARTITION_REGISTRATION_PROP, "true")
+        .build();
+
+    Dataset<GenericRecord> dataset = repo.create(NAMESPACE, NAME2, descriptor);
+
+    DatasetWriter<GenericRecord> writer = dataset.newWriter();
+    try {
+      for (int i = 0; i < 3; i += 1) {
+        writer.write(new GenericRecordBuilder(
+            dataset.getDescriptor().getSchema())
+            .set("username", String.valueOf(i))
+            .set("email", String.valueOf(i)).build());
+      }
+
+      Assert.assertTrue("Partitions should not be added before close",
+          client.listPartitionNames(NAMESPACE, NAME2, (short) 10).isEmpty());
+    } finally {
+      writer.close();
+    }
+
+    Assert.assertEquals("Should be three partitions", 3,
+        client.listPartitionNames(NAMESPACE, NAME2, (short) 10).size());
+  }
+
   @SuppressWarnings({"deprecation", "unchecked"})
   @Test
   public void testMerge() throws Exception {
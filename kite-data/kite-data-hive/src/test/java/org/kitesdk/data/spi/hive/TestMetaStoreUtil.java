@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kitesdk.data.spi.hive;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import org.apache.avro.SchemaBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.metastore.api.UnknownDBException;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetNotFoundException;
+import org.kitesdk.data.DatasetOperationException;
+import org.kitesdk.data.PartitionStrategy;
+
+public class TestMetaStoreUtil {
+
+  private static final String NAMESPACE = "metastore_util_test";
+  private static final String NAME = "partitioned";
+
+  private static final DatasetDescriptor descriptor =
+      new DatasetDescriptor.Builder()
+          .schema(SchemaBuilder.record("Record").fields()
+              .requiredString("id")
+              .requiredLong("timestamp")
+              .endRecord())
+          .partitionStrategy(new PartitionStrategy.Builder()
+              .identity("id", "id_part")
+              .build())
+          .build();
+
+  private HiveConf conf;
+  private HiveMetaStoreClient client;
+
+  @Before
+  public void setUp() throws MetaException {
+    this.conf = new HiveConf(new Configuration(), HiveConf.class);
+    this.client = new HiveMetaStoreClient(conf);
+  }
+
+  @Before
+  @After
+  public void cleanHive() {
+    MetaStoreUtil metastore = MetaStoreUtil.get(new Configuration());
+    for (String table : metastore.getAllTables(NAMESPACE)) {
+      metastore.dropTable(NAMESPACE, table);
+    }
+    metastore.dropDatabase(NAMESPACE, true);
+  }
+
+  @After
+  public void closeClient() {
+    client.close();
+  }
+
+  @Test(timeout = 60000)
+  public void testClientReturnedAfterFailedCall() {
+    // the first call fails and so does the retry after reconnecting
+    RecordingFactory factory = new RecordingFactory(2, true);
+    MetaStoreUtil metastore = new MetaStoreUtil(conf, factory);
+
+    try {
+      metastore.tableExists("default", "anything");
+      Assert.fail("Should propagate the failure");
+    } catch (DatasetOperationException e) {
+      // expected
+    }
+
+    // a local MetaStore has a single client, so this blocks if it leaked
+    metastore.getAllDatabases();
+    Assert.assertEquals("Should reuse the reconnected client",
+        1, factory.clients.size());
+    Assert.assertFalse("Should not close the reconnected client",
+        factory.clients.get(0).closed);
+  }
+
+  @Test(timeout = 60000)
+  public void testClientReturnedAfterMetaStoreError() {
+    RecordingFactory factory = new RecordingFactory(0, false);
+    MetaStoreUtil metastore = new MetaStoreUtil(conf, factory);
+
+    try {
+      // the local MetaStore can't reconnect, but the error came from the
+      // MetaStore itself so the connection is still good
+      metastore.getTable("default", "missing_table");
+      Assert.fail("Should not find a missing table");
+    } catch (DatasetNotFoundException e) {
+      // expected
+    }
+
+    metastore.getAllDatabases();
+    Assert.assertEquals("Should reuse the client", 1, factory.clients.size());
+    Assert.assertFalse("Should not close the client",
+        factory.clients.get(0).closed);
+  }
+
+  @Test(timeout = 60000)
+  public void testBrokenClientInvalidated() {
+    // the first call fails with a transport error and reconnecting fails
+    RecordingFactory factory = new RecordingFactory(1, false);
+    MetaStoreUtil metastore = new MetaStoreUtil(conf, factory);
+
+    try {
+      metastore.tableExists("default", "anything");
+      Assert.fail("Should propagate the failure");
+    } catch (DatasetOperationException e) {
+      // expected
+    }
+
+    Assert.assertTrue("Should close the broken client",
+        factory.clients.get(0).closed);
+
+    // a local MetaStore has a single client, so this blocks if the broken
+    // client still holds its place in the pool
+    metastore.getAllDatabases();
+    Assert.assertEquals("Should open a replacement client",
+        2, factory.clients.size());
+    Assert.assertFalse("Should not close the replacement client",
+        factory.clients.get(1).closed);
+  }
+
+  @Test
+  public void testKnownPartitionNotAddedAgain() throws Exception {
+    MetaStoreUtil metastore = new MetaStoreUtil(conf, new RecordingFactory(0, false));
+    metastore.createTable(
+        HiveUtils.tableForDescriptor(NAMESPACE, NAME, descriptor, false));
+
+    metastore.addPartition(NAMESPACE, NAME, "id_part=a");
+    Assert.assertEquals("Should add the partition",
+        1, client.listPartitionNames(NAMESPACE, NAME, (short) 10).size());
+
+    // drop the partition behind the cache's back
+    client.dropPartition(NAMESPACE, NAME, "id_part=a", false);
+
+    metastore.addPartition(NAMESPACE, NAME, "id_part=a");
+    metastore.addPartitions(NAMESPACE, NAME, Lists.newArrayList("id_part=a"));
+    Assert.assertEquals("Should not call the MetaStore for a known partition",
+        0, client.listPartitionNames(NAMESPACE, NAME, (short) 10).size());
+  }
+
+  @Test
+  public void testDroppedPartitionAddedAgain() throws Exception {
+    MetaStoreUtil metastore = new MetaStoreUtil(conf, new RecordingFactory(0, false));
+    metastore.createTable(
+        HiveUtils.tableForDescriptor(NAMESPACE, NAME, descriptor, false));
+
+    metastore.addPartitions(NAMESPACE, NAME,
+        Lists.newArrayList("id_part=a", "id_part=b"));
+    Assert.assertEquals("Should add both partitions",
+        2, client.listPartitionNames(NAMESPACE, NAME, (short) 10).size());
+
+    metastore.dropPartition(NAMESPACE, NAME, "id_part=a");
+    Assert.assertEquals("Should drop the partition",
+        1, client.listPartitionNames(NAMESPACE, NAME, (short) 10).size());
+
+    metastore.addPartition(NAMESPACE, NAME, "id_part=a");
+    Assert.assertEquals("Should add the dropped partition again",
+        2, client.listPartitionNames(NAMESPACE, NAME, (short) 10).size());
+  }
+
+  @Test
+  public void testDroppedTablePartitionsForgotten() throws Exception {
+    MetaStoreUtil metastore = new MetaStoreUtil(conf, new RecordingFactory(0, false));
+    metastore.createTable(
+        HiveUtils.tableForDescriptor(NAMESPACE, NAME, descriptor, false));
+    metastore.addPartition(NAMESPACE, NAME, "id_part=a");
+
+    metastore.dropTable(NAMESPACE, NAME);
+    metastore.createTable(
+        HiveUtils.tableForDescriptor(NAMESPACE, NAME, descriptor, false));
+
+    metastore.addPartition(NAMESPACE, NAME, "id_part=a");
+    Assert.assertEquals("Should add the partition to the new table",
+        1, client.listPartitionNames(NAMESPACE, NAME, (short) 10).size());
+  }
+
+  /**
+   * Opens clients that fail the first calls to tableExists with a transport
+   * error and records every client it opens.
+   */
+  private static class RecordingFactory implements MetaStoreUtil.ClientFactory {
+    private final int failures;
+    private final boolean canReconnect;
+    private final List<RecordingClient> clients = Lists.newArrayList();
+
+    private RecordingFactory(int failures, boolean canReconnect) {
+      this.failures = failures;
+      this.canReconnect = canReconnect;
+    }
+
+    @Override
+    public HiveMetaStoreClient newClient(HiveConf conf) throws TException {
+      RecordingClient client = new RecordingClient(conf, failures, canReconnect);
+      clients.add(client);
+      return client;
+    }
+  }
+
+  private static class RecordingClient extends HiveMetaStoreClient {
+    private final boolean canReconnect;
+    private int failures;
+    private boolean closed = false;
+
+    private RecordingClient(HiveConf conf, int failures, boolean canReconnect)
+        throws MetaException {
+      super(conf);
+      this.failures = failures;
+      this.canReconnect = canReconnect;
+    }
+
+    @Override
+    public boolean tableExists(String dbName, String tableName)
+        throws MetaException, TException, UnknownDBException {
+      if (failures > 0) {
+        failures -= 1;
+        throw new TTransportException("Connection reset");
+      }
+      return super.tableExists(dbName, tableName);
+    }
+
+    @Override
+    public void reconnect() throws MetaException {
+      if (!canReconnect) {
+        throw new MetaException("Cannot reconnect");
+      }
+    }
+
+    @Override
+    public void close() {
+      this.closed = true;
+      super.close();
+    }
+  }
+}
@@ -22,6 +22,8 @@ import java.util.Map;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
@@ -41,6 +43,7 @@ import org.kitesdk.data.Signalable;
 import org.kitesdk.data.TypeNotFoundException;
 import org.kitesdk.data.View;
 import org.kitesdk.data.spi.AbstractDataset;
+import org.kitesdk.data.spi.BulkLoadable;
 import org.kitesdk.data.spi.Compatibility;
 import org.kitesdk.data.spi.Constraints;
 import org.kitesdk.data.spi.DataModelUtil;
@@ -71,12 +74,15 @@ public class DatasetKeyOutputFormat<E> extends OutputFormat<E, Void> {
   public static final String KITE_TYPE = "kite.outputEntityType";
   public static final String KITE_WRITE_MODE = "kite.outputMode";
   public static final String KITE_COPY_RECORDS = "kite.copyOutputRecords";
+  public static final String KITE_BULK_LOAD = "kite.outputBulkLoad";
+  public static final String KITE_BULK_LOAD_DIR = "kite.outputBulkLoadDir";
 
   public enum WriteMode {
     DEFAULT, APPEND, OVERWRITE
   }
 
   private static final String TEMP_NAMESPACE = "mr";
+  private static final String BULK_LOAD_DIR_NAME = "kite-bulk-load";
 
   public static class ConfigBuilder {
     private final Configuration conf;
@@ -249,6 +255,23 @@ public class DatasetKeyOutputFormat<E> extends OutputFormat<E, Void> {
       return writeTo(uri);
     }
 
+    /**
+     * Configures {@code DatasetKeyOutputFormat} to stage entities in files
+     * and bulk load the files into the target when the job is committed,
+     * rather than writing entities as the job runs.
+     * <p>
+     * The target must be a {@link BulkLoadable} view, such as an HBase
+     * dataset, or the job will fail. Files are staged in the directory set by
+     * {@link #KITE_BULK_LOAD_DIR}, which defaults to a directory in
+     * {@code hadoop.tmp.dir}.
+     *
+     * @return this for method chaining
+     */
+    public ConfigBuilder bulkLoad() {
+      conf.setBoolean(KITE_BULK_LOAD, true);
+      return this;
+    }
+
     /**
      * Sets the entity Class that will be output by the Job.
      * <p>
@@ -309,7 +332,12 @@ public class DatasetKeyOutputFormat<E> extends OutputFormat<E, Void> {
     private Schema schema;
 
     public DatasetRecordWriter(View<E> view, boolean copyRecords) {
-      this.datasetWriter = view.newWriter();
+      this(view, view.newWriter(), copyRecords);
+    }
+
+    public DatasetRecordWriter(View<E> view, DatasetWriter<E> datasetWriter,
+                               boolean copyRecords) {
+      this.datasetWriter = datasetWriter;
 
       this.schema = view.getDataset().getDescriptor().getSchema();
       this.dataModel = DataModelUtil.getDataModelForType(
@@ -436,6 +464,82 @@ public class DatasetKeyOutputFormat<E> extends OutputFormat<E, Void> {
     }
   }
 
+  static class BulkLoadOutputCommitter<E> extends OutputCommitter {
+    @Override
+    public void setupJob(JobContext jobContext) { }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void commitJob(JobContext jobContext) throws IOException {
+      View<E> targetView = load(jobContext);
+      Path jobDir = getJobBulkLoadDir(jobContext);
+      FileSystem fs = jobDir.getFileSystem(
+          Hadoop.JobContext.getConfiguration.<Configuration>invoke(jobContext));
+
+      if (fs.exists(jobDir)) {
+        ((BulkLoadable<E>) targetView).bulkLoad(jobDir);
+      }
+
+      if (targetView instanceof Signalable) {
+        ((Signalable)targetView).signalReady();
+      }
+
+      fs.delete(jobDir, true);
+    }
+
+    @Override
+    public void abortJob(JobContext jobContext, JobStatus.State state)
+        throws IOException {
+      Path jobDir = getJobBulkLoadDir(jobContext);
+      jobDir.getFileSystem(
+          Hadoop.JobContext.getConfiguration.<Configuration>invoke(jobContext))
+          .delete(jobDir, true);
+    }
+
+    @Override
+    public void setupTask(TaskAttemptContext taskContext) {
+      // do nothing: the task attempt directory is created by the writer
+    }
+
+    @Override
+    public boolean needsTaskCommit(TaskAttemptContext taskContext) {
+      return true;
+    }
+
+    @Override
+    public void commitTask(TaskAttemptContext taskContext) throws IOException {
+      // move each file from the attempt's staging directory into the job's.
+      // files have unique names, so only the family directories are shared.
+      Path attemptDir = getTaskAttemptBulkLoadDir(taskContext);
+      Path jobDir = getJobBulkLoadDir(taskContext);
+      FileSystem fs = attemptDir.getFileSystem(
+          Hadoop.TaskAttemptContext.getConfiguration.<Configuration>invoke(taskContext));
+      if (!fs.exists(attemptDir)) {
+        return;
+      }
+      for (FileStatus groupDir : fs.listStatus(attemptDir)) {
+        Path targetDir = new Path(jobDir, groupDir.getPath().getName());
+        fs.mkdirs(targetDir);
+        for (FileStatus file : fs.listStatus(groupDir.getPath())) {
+          Path target = new Path(targetDir, file.getPath().getName());
+          if (!fs.rename(file.getPath(), target)) {
+            throw new IOException(
+                "Failed to move " + file.getPath() + " to " + target);
+          }
+        }
+      }
+      fs.delete(attemptDir, true);
+    }
+
+    @Override
+    public void abortTask(TaskAttemptContext taskContext) throws IOException {
+      Path attemptDir = getTaskAttemptBulkLoadDir(taskContext);
+      attemptDir.getFileSystem(
+          Hadoop.TaskAttemptContext.getConfiguration.<Configuration>invoke(taskContext))
+          .delete(attemptDir, true);
+    }
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public RecordWriter<E, Void> getRecordWriter(TaskAttemptContext taskAttemptContext) {
@@ -444,14 +548,20 @@ public class DatasetKeyOutputFormat<E> extends OutputFormat<E, Void> {
     View<E> target = load(taskAttemptContext);
     View<E> working;
 
+    boolean copyRecords = conf.getBoolean(KITE_COPY_RECORDS, false);
+
+    if (useBulkLoad(conf)) {
+      DatasetWriter<E> bulkWriter = ((BulkLoadable<E>) target).newBulkWriter(
+          getTaskAttemptBulkLoadDir(taskAttemptContext));
+      return new DatasetRecordWriter<E>(target, bulkWriter, copyRecords);
+    }
+
     if (usePerTaskAttemptDatasets(target)) {
       working = loadOrCreateTaskAttemptView(taskAttemptContext);
     } else {
       working = target;
     }
 
-    boolean copyRecords = conf.getBoolean(KITE_COPY_RECORDS, false);
-
     String partitionDir = conf.get(KITE_PARTITION_DIR);
     if (working.getDataset().getDescriptor().isPartitioned() &&
         partitionDir != null) {
@@ -475,6 +585,17 @@ public class DatasetKeyOutputFormat<E> extends OutputFormat<E, Void> {
     // The committer setup will fail if the output dataset does not exist
     View<E> target = load(jobContext);
     Configuration conf = Hadoop.JobContext.getConfiguration.invoke(jobContext);
+    if (useBulkLoad(conf)) {
+      if (!(target instanceof BulkLoadable)) {
+        throw new DatasetException(
+            "View does not support bulk loading: " + target);
+      }
+      if (Hadoop.isHadoop1()) {
+        // the output committer moves and loads the staged files
+        throw new UnsupportedOperationException(
+            "Bulk loading is not supported for Hadoop 1");
+      }
+    }
     switch (conf.getEnum(KITE_WRITE_MODE, WriteMode.DEFAULT)) {
       case APPEND:
         break;
@@ -503,10 +624,31 @@ public class DatasetKeyOutputFormat<E> extends OutputFormat<E, Void> {
     Configuration conf = Hadoop.TaskAttemptContext.getConfiguration.invoke(taskAttemptContext);
     DefaultConfiguration.init(conf);
     View<E> view = load(taskAttemptContext);
+    if (useBulkLoad(conf)) {
+      return new BulkLoadOutputCommitter<E>();
+    }
     return usePerTaskAttemptDatasets(view) ?
         new MergeOutputCommitter<E>() : new NullOutputCommitter();
   }
 
+  private static boolean useBulkLoad(Configuration conf) {
+    return conf.getBoolean(KITE_BULK_LOAD, false);
+  }
+
+  private static Path getJobBulkLoadDir(JobContext jobContext) {
+    Configuration conf = Hadoop.JobContext.getConfiguration.invoke(jobContext);
+    String base = conf.get(KITE_BULK_LOAD_DIR);
+    Path baseDir = (base != null ? new Path(base) :
+        new Path(conf.get("hadoop.tmp.dir"), BULK_LOAD_DIR_NAME));
+    return new Path(baseDir, getJobDatasetName(jobContext));
+  }
+
+  private static Path getTaskAttemptBulkLoadDir(TaskAttemptContext taskContext) {
+    // the bulk loader ignores directories that start with _
+    return new Path(new Path(getJobBulkLoadDir(taskContext), "_temporary"),
+        getTaskAttemptDatasetName(taskContext));
+  }
+
   private static <E> boolean usePerTaskAttemptDatasets(View<E> target) {
     // new API output committers are not called properly in Hadoop 1
     return !Hadoop.isHadoop1() && target.getDataset() instanceof Mergeable;
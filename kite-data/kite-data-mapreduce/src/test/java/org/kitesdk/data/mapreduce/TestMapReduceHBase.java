@@ -31,6 +31,7 @@ import org.kitesdk.data.Dataset;
 import org.kitesdk.data.DatasetDescriptor;
 import org.kitesdk.data.DatasetReader;
 import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.RandomAccessDataset;
 import org.kitesdk.data.hbase.HBaseDatasetRepositoryTest;
 import org.kitesdk.data.hbase.testing.HBaseTestUtils;
 import org.kitesdk.data.spi.DatasetRepository;
@@ -119,6 +120,74 @@ public class TestMapReduceHBase extends HBaseTestBase {
 
   }
 
+  @Test
+  @SuppressWarnings({"deprecation", "unchecked"})
+  public void testBulkLoadJob() throws Exception {
+    Job job = new Job(HBaseTestUtils.getConf());
+
+    String datasetName = tableName + ".TestGenericEntity";
+
+    Dataset<GenericRecord> inputDataset = repo.create("default", "in",
+        new DatasetDescriptor.Builder()
+        .schemaLiteral(testGenericEntity).build());
+
+    DatasetDescriptor descriptor = new DatasetDescriptor.Builder()
+        .schemaLiteral(testGenericEntity)
+        .build();
+    Dataset<GenericRecord> outputDataset = repo.create("default", datasetName, descriptor);
+
+    DatasetWriter<GenericRecord> writer = inputDataset.newWriter();
+    try {
+      for (int i = 0; i < 10; ++i) {
+        GenericRecord entity = HBaseDatasetRepositoryTest.createGenericEntity(i);
+        writer.write(entity);
+      }
+    } finally {
+      writer.close();
+    }
+
+    DatasetKeyInputFormat.configure(job).readFrom(inputDataset);
+
+    job.setMapperClass(AvroKeyWrapperMapper.class);
+    job.setMapOutputKeyClass(AvroKey.class);
+    job.setMapOutputValueClass(NullWritable.class);
+    AvroJob.setMapOutputKeySchema(job, new Schema.Parser().parse(testGenericEntity));
+
+    job.setReducerClass(AvroKeyWrapperReducer.class);
+    job.setOutputKeyClass(GenericData.Record.class);
+    job.setOutputValueClass(Void.class);
+    AvroJob.setOutputKeySchema(job, new Schema.Parser().parse(testGenericEntity));
+
+    DatasetKeyOutputFormat.configure(job).writeTo(outputDataset).bulkLoad();
+
+    Assert.assertTrue(job.waitForCompletion(true));
+
+    int cnt = 0;
+    DatasetReader<GenericRecord> reader = outputDataset.newReader();
+    try {
+      for (GenericRecord entity : reader) {
+        HBaseDatasetRepositoryTest.compareEntitiesWithUtf8(cnt, entity);
+        assertEquals("Should write the OCC version of a put",
+            1L, entity.get("version"));
+        cnt++;
+      }
+      assertEquals(10, cnt);
+    } finally {
+      reader.close();
+      assertFalse("Reader should be closed after calling close", reader.isOpen());
+    }
+
+    // the OCC version column is checked by later puts
+    RandomAccessDataset<GenericRecord> loaded =
+        (RandomAccessDataset<GenericRecord>) outputDataset;
+    assertFalse("Should reject a put with a stale version",
+        loaded.put(HBaseDatasetRepositoryTest.createGenericEntity(0)));
+    GenericRecord updated = HBaseDatasetRepositoryTest.createGenericEntity(0);
+    updated.put("version", 1L);
+    Assert.assertTrue("Should accept a put with the loaded version",
+        loaded.put(updated));
+  }
+
   @Test
   @SuppressWarnings("deprecation")
   public void testJobEmptyView() throws Exception {
@@ -25,14 +25,22 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.PrivilegedExceptionAction;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
@@ -61,7 +69,11 @@ import org.kitesdk.data.Datasets;
 import org.kitesdk.data.Flushable;
 import org.kitesdk.data.URIBuilder;
 import org.kitesdk.data.View;
+import org.kitesdk.data.impl.Accessor;
+import org.kitesdk.data.spi.FieldPartitioner;
 import org.kitesdk.data.spi.Registration;
+import org.kitesdk.data.spi.filesystem.EncodedAvroRecord;
+import org.kitesdk.data.spi.filesystem.FileSystemDataset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -92,10 +104,21 @@ public class DatasetSink extends AbstractSink implements Configurable {
   private long lastRolledMs = 0l;
 
   // for working with avro serialized records
-  private GenericRecord datum = null;
+  private EventDecoder eventDecoder = new EventDecoder();
   // TODO: remove this after PARQUET-62 is released
   private boolean reuseDatum = true;
-  private BinaryDecoder decoder = null;
+
+  // for appending encoded records without decoding them
+  private boolean passthrough = DatasetSinkConstants.DEFAULT_PASSTHROUGH;
+  // readers for the fields needed to partition, indexed by field position.
+  // null if the current writer can't accept encoded records.
+  private List<DatumReader<Object>> keyFieldReaders = null;
+
+  // for decoding and writing on background threads
+  private int decodeThreads = DatasetSinkConstants.DEFAULT_DECODE_THREADS;
+  private ExecutorService decodePool = null;
+  private ExecutorService writerThread = null;
+  private ExecutorService closerThread = null;
   private LoadingCache<Schema, DatumReader<GenericRecord>> readers =
       CacheBuilder.newBuilder()
       .build(new CacheLoader<Schema, DatumReader<GenericRecord>>() {
@@ -182,6 +205,12 @@ public class DatasetSink extends AbstractSink implements Configurable {
     this.rollIntervalS = context.getInteger(
         DatasetSinkConstants.CONFIG_KITE_ROLL_INTERVAL,
         DatasetSinkConstants.DEFAULT_ROLL_INTERVAL);
+    this.passthrough = context.getBoolean(
+        DatasetSinkConstants.CONFIG_KITE_PASSTHROUGH,
+        DatasetSinkConstants.DEFAULT_PASSTHROUGH);
+    this.decodeThreads = context.getInteger(
+        DatasetSinkConstants.CONFIG_KITE_DECODE_THREADS,
+        DatasetSinkConstants.DEFAULT_DECODE_THREADS);
 
     this.counter = new SinkCounter(datasetName);
   }
@@ -189,6 +218,14 @@ public class DatasetSink extends AbstractSink implements Configurable {
   @Override
   public synchronized void start() {
     this.lastRolledMs = System.currentTimeMillis();
+    if (decodeThreads > 0) {
+      this.decodePool = Executors.newFixedThreadPool(decodeThreads,
+          threadFactory("decoder"));
+      this.writerThread = Executors.newSingleThreadExecutor(
+          threadFactory("writer"));
+      this.closerThread = Executors.newSingleThreadExecutor(
+          threadFactory("closer"));
+    }
     counter.start();
     // signal that this sink is ready to process
     LOG.info("Started DatasetSink " + getName());
@@ -207,6 +244,24 @@ public class DatasetSink extends AbstractSink implements Configurable {
   public synchronized void stop() {
     counter.stop();
 
+    if (decodePool != null) {
+      decodePool.shutdown();
+      writerThread.shutdown();
+      // wait for writers that were rolled to finish closing
+      closerThread.shutdown();
+      try {
+        if (!closerThread.awaitTermination(
+            DatasetSinkConstants.CLOSE_TIMEOUT_S, TimeUnit.SECONDS)) {
+          LOG.warn("Timed out waiting for rolled writers to close");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.decodePool = null;
+      this.writerThread = null;
+      this.closerThread = null;
+    }
+
     if (writer != null) {
       // any write problems invalidate the writer, which is immediately closed
       writer.close();
@@ -233,11 +288,11 @@ public class DatasetSink extends AbstractSink implements Configurable {
 
     // handle file rolling
     if ((System.currentTimeMillis() - lastRolledMs) / 1000 > rollIntervalS) {
-      // close the current writer and get a new one
-      writer.close();
-      this.writer = newWriter(login, target);
-      this.lastRolledMs = System.currentTimeMillis();
-      LOG.info("Rolled writer for " + getName());
+      rollWriter();
+    }
+
+    if (decodePool != null) {
+      return processPipelined();
     }
 
     Channel channel = getChannel();
@@ -254,13 +309,7 @@ public class DatasetSink extends AbstractSink implements Configurable {
           break;
         }
 
-        this.datum = deserialize(event, reuseDatum ? datum : null);
-
-        // writeEncoded would be an optimization in some cases, but HBase
-        // will not support it and partitioned Datasets need to get partition
-        // info from the entity Object. We may be able to avoid the
-        // serialization round-trip otherwise.
-        writer.write(datum);
+        writer.write(eventDecoder.decode(event, reuseDatum));
       }
 
       // TODO: Add option to sync, depends on CDK-203
@@ -313,6 +362,179 @@ public class DatasetSink extends AbstractSink implements Configurable {
     }
   }
 
+  /**
+   * Takes a batch of events on the sink runner thread, decodes them in chunks
+   * on the decode pool, and writes the chunks in order on the writer thread.
+   * The channel transaction is committed once the writer thread has written
+   * and flushed every chunk.
+   */
+  private Status processPipelined() throws EventDeliveryException {
+    final DatasetWriter<GenericRecord> currentWriter = writer;
+    int chunkSize = (int) Math.max(1, batchSize / decodeThreads);
+    List<Future<Void>> pending = Lists.newArrayList();
+
+    Channel channel = getChannel();
+    Transaction transaction = null;
+    try {
+      long processedEvents = 0;
+
+      transaction = channel.getTransaction();
+      transaction.begin();
+      List<Event> chunk = Lists.newArrayListWithCapacity(chunkSize);
+      for (; processedEvents < batchSize; processedEvents += 1) {
+        Event event = channel.take();
+        if (event == null) {
+          // no events available in the channel
+          break;
+        }
+
+        chunk.add(event);
+        if (chunk.size() >= chunkSize) {
+          pending.add(decodeAndWrite(chunk, currentWriter));
+          chunk = Lists.newArrayListWithCapacity(chunkSize);
+        }
+      }
+      if (!chunk.isEmpty()) {
+        pending.add(decodeAndWrite(chunk, currentWriter));
+      }
+
+      // TODO: Add option to sync, depends on CDK-203
+      if (currentWriter instanceof Flushable) {
+        pending.add(writerThread.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            ((Flushable) currentWriter).flush();
+            return null;
+          }
+        }));
+      }
+
+      for (Future<Void> future : pending) {
+        future.get();
+      }
+
+      // commit after data has been written and flushed
+      transaction.commit();
+
+      if (processedEvents == 0) {
+        counter.incrementBatchEmptyCount();
+        return Status.BACKOFF;
+      } else if (processedEvents < batchSize) {
+        counter.incrementBatchUnderflowCount();
+      } else {
+        counter.incrementBatchCompleteCount();
+      }
+
+      counter.addToEventDrainSuccessCount(processedEvents);
+
+      return Status.READY;
+
+    } catch (Throwable th) {
+      if (th instanceof ExecutionException && th.getCause() != null) {
+        th = th.getCause();
+      }
+
+      // catch-all for any unhandled Throwable so that the transaction is
+      // correctly rolled back.
+      if (transaction != null) {
+        try {
+          transaction.rollback();
+        } catch (Exception ex) {
+          LOG.error("Transaction rollback failed", ex);
+          throw Throwables.propagate(ex);
+        }
+      }
+
+      // the writer can't be closed while the writer thread is using it
+      for (Future<Void> future : pending) {
+        try {
+          future.get();
+        } catch (Exception ignored) {
+          // the first failure is propagated below
+        }
+      }
+
+      // close the writer and remove the its reference
+      currentWriter.close();
+      this.writer = null;
+      this.lastRolledMs = System.currentTimeMillis();
+
+      // handle the exception
+      Throwables.propagateIfInstanceOf(th, Error.class);
+      Throwables.propagateIfInstanceOf(th, EventDeliveryException.class);
+      throw new EventDeliveryException(th);
+
+    } finally {
+      if (transaction != null) {
+        transaction.close();
+      }
+    }
+  }
+
+  private Future<Void> decodeAndWrite(final List<Event> events,
+                                      final DatasetWriter<GenericRecord> writer) {
+    final Future<List<GenericRecord>> decoded = decodePool.submit(
+        new Callable<List<GenericRecord>>() {
+          @Override
+          public List<GenericRecord> call() throws EventDeliveryException {
+            // records are held until written, so they can't be reused
+            EventDecoder chunkDecoder = new EventDecoder();
+            List<GenericRecord> records =
+                Lists.newArrayListWithCapacity(events.size());
+            for (Event event : events) {
+              records.add(chunkDecoder.decode(event, false));
+            }
+            return records;
+          }
+        });
+    // the writer thread runs tasks in the order they are submitted, so
+    // records are written in the order they were taken
+    return writerThread.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for (GenericRecord record : decoded.get()) {
+          writer.write(record);
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Replaces the current writer with a new one. The new writer is opened
+   * before the old one is closed. When the old writer is Flushable, every
+   * committed batch has already been flushed to it, so it is closed in the
+   * background if background threads are enabled.
+   */
+  private void rollWriter() {
+    final DatasetWriter<GenericRecord> previous = writer;
+    this.writer = newWriter(login, target);
+    this.lastRolledMs = System.currentTimeMillis();
+
+    if (closerThread != null && previous instanceof Flushable) {
+      closerThread.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            previous.close();
+          } catch (RuntimeException e) {
+            LOG.error("Failed to close rolled writer for " + getName(), e);
+          }
+        }
+      });
+    } else {
+      previous.close();
+    }
+    LOG.info("Rolled writer for " + getName());
+  }
+
+  private ThreadFactory threadFactory(String purpose) {
+    return new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("DatasetSink-" + getName() + "-" + purpose + "-%d")
+        .build();
+  }
+
   private DatasetWriter<GenericRecord> newWriter(
       final UserGroupInformation login, final URI uri) {
     View<GenericRecord> view = KerberosUtil.runPrivileged(login,
@@ -333,30 +555,135 @@ public class DatasetSink extends AbstractSink implements Configurable {
       this.targetSchema = descriptor.getSchema();
       // target dataset schema has changed, invalidate all readers based on it
       readers.invalidateAll();
+      this.eventDecoder = new EventDecoder();
     }
 
     this.reuseDatum = !("parquet".equals(formatName));
     this.datasetName = view.getDataset().getName();
 
+    // only Avro files in a file system append encoded records, and only the
+    // unfiltered dataset can be written without checking every field
+    if (passthrough && "avro".equals(formatName) &&
+        view.getDataset() instanceof FileSystemDataset &&
+        URIBuilder.DATASET_SCHEME.equals(target.getScheme())) {
+      this.keyFieldReaders = keyFieldReaders(descriptor);
+    } else {
+      this.keyFieldReaders = null;
+    }
+
     return view.newWriter();
   }
 
   /**
-   * Not thread-safe.
-   *
-   * @param event
-   * @param reuse
-   * @return
+   * Returns readers for the fields that are used to partition the dataset,
+   * indexed by field position, or null if a partition source is not a
+   * top-level field.
    */
-  private GenericRecord deserialize(Event event, GenericRecord reuse)
-      throws EventDeliveryException {
-    decoder = DecoderFactory.get().binaryDecoder(event.getBody(), decoder);
-    // no checked exception is thrown in the CacheLoader
-    DatumReader<GenericRecord> reader = readers.getUnchecked(schema(event));
-    try {
-      return reader.read(reuse, decoder);
-    } catch (IOException ex) {
-      throw new EventDeliveryException("Cannot deserialize event", ex);
+  private List<DatumReader<Object>> keyFieldReaders(
+      DatasetDescriptor descriptor) {
+    List<DatumReader<Object>> fieldReaders = Lists.newArrayList();
+    for (int i = 0; i < targetSchema.getFields().size(); i += 1) {
+      fieldReaders.add(null);
+    }
+    if (descriptor.isPartitioned()) {
+      for (FieldPartitioner fp : Accessor.getDefault().getFieldPartitioners(
+          descriptor.getPartitionStrategy())) {
+        Schema.Field field = targetSchema.getField(fp.getSourceName());
+        if (field == null) {
+          return null;
+        }
+        fieldReaders.set(field.pos(),
+            new GenericDatumReader<Object>(field.schema()));
+      }
+    }
+    return fieldReaders;
+  }
+
+  /**
+   * Decodes event bodies into records for the target dataset. Not
+   * thread-safe; each thread that decodes events needs its own.
+   */
+  private class EventDecoder {
+    private BinaryDecoder decoder = null;
+    private GenericRecord datum = null;
+    private Schema lastEventSchema = null;
+    private boolean lastEventSchemaMatches = false;
+
+    /**
+     * @param event an Event to decode
+     * @param reuse whether the last record returned may be reused
+     * @return a record for the event
+     */
+    public GenericRecord decode(Event event, boolean reuse)
+        throws EventDeliveryException {
+      Schema schema = schema(event);
+
+      // when the event was encoded with the dataset's schema, Avro file
+      // datasets can append the event body as-is. only the fields needed
+      // to partition are decoded.
+      if (keyFieldReaders != null && matchesTarget(schema)) {
+        GenericRecord record = deserializeKeyFields(event);
+        if (record != null) {
+          return record;
+        }
+      }
+
+      this.datum = deserialize(event, schema, reuse ? datum : null);
+      return datum;
+    }
+
+    private boolean matchesTarget(Schema schema) {
+      // schemas are cached, so this is usually the same instance as last time
+      if (schema != lastEventSchema) {
+        this.lastEventSchema = schema;
+        this.lastEventSchemaMatches = schema.equals(targetSchema);
+      }
+      return lastEventSchemaMatches;
+    }
+
+    /**
+     * Decodes only the fields needed to partition the event's record and
+     * skips the rest.
+     *
+     * @param event an Event encoded with the target schema
+     * @return an EncodedAvroRecord that wraps the event body, or null if the
+     *          body has trailing bytes and must be fully decoded
+     */
+    private GenericRecord deserializeKeyFields(Event event)
+        throws EventDeliveryException {
+      byte[] body = event.getBody();
+      decoder = DecoderFactory.get().binaryDecoder(body, decoder);
+      EncodedAvroRecord record = new EncodedAvroRecord(
+          targetSchema, ByteBuffer.wrap(body));
+      try {
+        for (Schema.Field field : targetSchema.getFields()) {
+          DatumReader<Object> reader = keyFieldReaders.get(field.pos());
+          if (reader != null) {
+            record.put(field.pos(), reader.read(null, decoder));
+          } else {
+            GenericDatumReader.skip(field.schema(), decoder);
+          }
+        }
+        if (!decoder.isEnd()) {
+          return null;
+        }
+      } catch (IOException ex) {
+        throw new EventDeliveryException("Cannot deserialize event", ex);
+      }
+      return record;
+    }
+
+    private GenericRecord deserialize(Event event, Schema schema,
+                                      GenericRecord reuse)
+        throws EventDeliveryException {
+      decoder = DecoderFactory.get().binaryDecoder(event.getBody(), decoder);
+      // no checked exception is thrown in the CacheLoader
+      DatumReader<GenericRecord> reader = readers.getUnchecked(schema);
+      try {
+        return reader.read(reuse, decoder);
+      } catch (IOException ex) {
+        throw new EventDeliveryException("Cannot deserialize event", ex);
+      }
     }
   }
 
@@ -46,6 +46,26 @@ public class DatasetSinkConstants {
   public static final String CONFIG_KITE_ROLL_INTERVAL = "kite.rollInterval";
   public static int DEFAULT_ROLL_INTERVAL = 30; // seconds
 
+  /**
+   * Whether to append event bodies to Avro datasets without decoding and
+   * re-encoding them, when the event schema is the dataset schema.
+   */
+  public static final String CONFIG_KITE_PASSTHROUGH = "kite.passthrough";
+  public static boolean DEFAULT_PASSTHROUGH = false;
+
+  /**
+   * Number of threads used to decode events. When this is positive, events
+   * are written and flushed on a separate writer thread and rolled writers
+   * are closed in the background. 0 processes events on the sink thread.
+   */
+  public static final String CONFIG_KITE_DECODE_THREADS = "kite.decodeThreads";
+  public static int DEFAULT_DECODE_THREADS = 0;
+
+  /**
+   * Maximum time to wait for rolled writers to close when stopping.
+   */
+  public static long CLOSE_TIMEOUT_S = 60;
+
   /**
    * Headers with avro schema information is expected.
    */
@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.flume.sink.kite;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Sink;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetReader;
+import org.kitesdk.data.Datasets;
+import org.kitesdk.data.PartitionStrategy;
+import org.kitesdk.data.View;
+import org.kitesdk.data.spi.PartitionedDataset;
+import org.kitesdk.data.spi.filesystem.FileSystemDataset;
+
+public class TestDatasetSink {
+
+  private static final String DATASET_URI =
+      "dataset:file:/tmp/datasets/flume_sink";
+
+  private static final Schema SCHEMA = SchemaBuilder.record("Event")
+      .fields()
+      .requiredLong("id")
+      .requiredString("msg")
+      .endRecord();
+
+  // written with a field the dataset doesn't have, so it must be decoded
+  private static final Schema EXTENDED_SCHEMA = SchemaBuilder.record("Event")
+      .fields()
+      .requiredLong("id")
+      .requiredString("msg")
+      .optionalString("extra")
+      .endRecord();
+
+  private Channel channel = null;
+
+  @Before
+  public void setup() {
+    Datasets.delete(DATASET_URI);
+    this.channel = new MemoryChannel();
+    Context channelContext = new Context();
+    channelContext.put("capacity", "1000");
+    channelContext.put("transactionCapacity", "1000");
+    Configurables.configure(channel, channelContext);
+    channel.start();
+  }
+
+  @After
+  public void teardown() {
+    channel.stop();
+    Datasets.delete(DATASET_URI);
+  }
+
+  @Test
+  public void testDefaultMode() throws Exception {
+    createDataset(false);
+    List<GenericRecord> expected = records(25);
+    putEvents(expected, SCHEMA);
+
+    DatasetSink sink = sink(config());
+    drain(sink);
+
+    Assert.assertEquals(expected, read(DATASET_URI));
+    Assert.assertEquals("Should consume all events", 0, remaining());
+  }
+
+  @Test
+  public void testPassthrough() throws Exception {
+    createDataset(false);
+    List<GenericRecord> expected = records(25);
+    putEvents(expected, SCHEMA);
+
+    Context config = config();
+    config.put(DatasetSinkConstants.CONFIG_KITE_PASSTHROUGH, "true");
+    DatasetSink sink = sink(config);
+    drain(sink);
+
+    Assert.assertEquals("Encoded records should be appended as-is",
+        expected, read(DATASET_URI));
+  }
+
+  @Test
+  public void testPassthroughPartitioned() throws Exception {
+    createDataset(true);
+    List<GenericRecord> expected = records(25);
+    putEvents(expected, SCHEMA);
+
+    Context config = config();
+    config.put(DatasetSinkConstants.CONFIG_KITE_PASSTHROUGH, "true");
+    DatasetSink sink = sink(config);
+    drain(sink);
+
+    Assert.assertEquals(Sets.newHashSet(expected),
+        Sets.newHashSet(read(DATASET_URI)));
+
+    // the decoded key fields must place records in the right partitions.
+    // small longs hash to themselves, so the bucket is the id's parity.
+    FileSystemDataset<GenericRecord> dataset = Datasets.load(DATASET_URI);
+    int partitions = 0;
+    for (PartitionedDataset<GenericRecord> partition :
+        dataset.getPartitions()) {
+      partitions += 1;
+      String location = partition.getDescriptor().getLocation().toString();
+      long bucket = location.endsWith("id_bucket=0") ? 0 : 1;
+      DatasetReader<GenericRecord> reader = partition.newReader();
+      try {
+        for (GenericRecord record : reader) {
+          Assert.assertEquals("Should be in the partition for its id",
+              bucket, ((Long) record.get("id")) % 2);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    Assert.assertEquals(2, partitions);
+  }
+
+  @Test
+  public void testPassthroughWithOtherSchema() throws Exception {
+    createDataset(false);
+    List<GenericRecord> extended = Lists.newArrayList();
+    List<GenericRecord> expected = records(10);
+    for (GenericRecord record : expected) {
+      GenericRecord copy = new GenericData.Record(EXTENDED_SCHEMA);
+      copy.put("id", record.get("id"));
+      copy.put("msg", record.get("msg"));
+      copy.put("extra", "extra-" + record.get("id"));
+      extended.add(copy);
+    }
+    putEvents(extended, EXTENDED_SCHEMA);
+
+    Context config = config();
+    config.put(DatasetSinkConstants.CONFIG_KITE_PASSTHROUGH, "true");
+    DatasetSink sink = sink(config);
+    drain(sink);
+
+    Assert.assertEquals("Events with another schema should be decoded",
+        expected, read(DATASET_URI));
+  }
+
+  @Test
+  public void testPipelined() throws Exception {
+    createDataset(false);
+    List<GenericRecord> expected = records(95);
+    putEvents(expected, SCHEMA);
+
+    Context config = config();
+    config.put(DatasetSinkConstants.CONFIG_KITE_DECODE_THREADS, "3");
+    DatasetSink sink = sink(config);
+    drain(sink);
+
+    // a single file is written, so the channel order must be preserved
+    Assert.assertEquals("Should write decoded chunks in order",
+        expected, read(DATASET_URI));
+    Assert.assertEquals("Should consume all events", 0, remaining());
+  }
+
+  @Test
+  public void testPipelinedPassthroughWithRoll() throws Exception {
+    createDataset(true);
+    List<GenericRecord> expected = records(60);
+
+    Context config = config();
+    config.put(DatasetSinkConstants.CONFIG_KITE_DECODE_THREADS, "2");
+    config.put(DatasetSinkConstants.CONFIG_KITE_PASSTHROUGH, "true");
+    DatasetSink sink = sink(config);
+    sink.start();
+    try {
+      putEvents(expected.subList(0, 30), SCHEMA);
+      while (sink.process() == Sink.Status.READY) {
+      }
+      // the rolled writer is closed in the background
+      sink.roll();
+      putEvents(expected.subList(30, 60), SCHEMA);
+      while (sink.process() == Sink.Status.READY) {
+      }
+    } finally {
+      sink.stop();
+    }
+
+    Assert.assertEquals(Sets.newHashSet(expected),
+        Sets.newHashSet(read(DATASET_URI)));
+  }
+
+  @Test
+  public void testPipelinedFailureRollsBack() throws Exception {
+    createDataset(false);
+    List<GenericRecord> expected = records(10);
+    putEvents(expected, SCHEMA);
+    // an event that can't be decoded
+    Map<String, String> headers = Maps.newHashMap();
+    headers.put(DatasetSinkConstants.AVRO_SCHEMA_LITERAL_HEADER,
+        SCHEMA.toString());
+    putEvent(EventBuilder.withBody(new byte[] { (byte) 0x80 }, headers));
+
+    Context config = config();
+    config.put(DatasetSinkConstants.CONFIG_KITE_DECODE_THREADS, "2");
+    DatasetSink sink = sink(config);
+    sink.start();
+    try {
+      sink.process();
+      Assert.fail("Should fail to decode the last event");
+    } catch (EventDeliveryException e) {
+      // expected
+    } finally {
+      sink.stop();
+    }
+
+    Assert.assertEquals("Should return the batch to the channel",
+        11, remaining());
+  }
+
+  private void createDataset(boolean partitioned) {
+    DatasetDescriptor.Builder builder = new DatasetDescriptor.Builder()
+        .schema(SCHEMA);
+    if (partitioned) {
+      builder.partitionStrategy(new PartitionStrategy.Builder()
+          .hash("id", "id_bucket", 2)
+          .build());
+    }
+    Datasets.create(DATASET_URI, builder.build());
+  }
+
+  private Context config() {
+    Context config = new Context();
+    config.put(DatasetSinkConstants.CONFIG_KITE_DATASET_URI, DATASET_URI);
+    config.put(DatasetSinkConstants.CONFIG_KITE_BATCH_SIZE, "10");
+    return config;
+  }
+
+  private DatasetSink sink(Context config) {
+    DatasetSink sink = new DatasetSink();
+    sink.setChannel(channel);
+    sink.configure(config);
+    return sink;
+  }
+
+  private static void drain(DatasetSink sink) throws EventDeliveryException {
+    sink.start();
+    try {
+      while (sink.process() == Sink.Status.READY) {
+      }
+    } finally {
+      sink.stop();
+    }
+  }
+
+  private static List<GenericRecord> records(int count) {
+    List<GenericRecord> records = Lists.newArrayList();
+    for (long i = 0; i < count; i += 1) {
+      GenericRecord record = new GenericData.Record(SCHEMA);
+      record.put("id", i);
+      record.put("msg", "msg-" + i);
+      records.add(record);
+    }
+    return records;
+  }
+
+  private void putEvents(List<GenericRecord> records, Schema schema)
+      throws IOException {
+    GenericDatumWriter<GenericRecord> datumWriter =
+        new GenericDatumWriter<GenericRecord>(schema);
+    Map<String, String> headers = Maps.newHashMap();
+    headers.put(DatasetSinkConstants.AVRO_SCHEMA_LITERAL_HEADER,
+        schema.toString());
+    for (GenericRecord record : records) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+      datumWriter.write(record, encoder);
+      encoder.flush();
+      putEvent(EventBuilder.withBody(out.toByteArray(), headers));
+    }
+  }
+
+  private void putEvent(Event event) {
+    Transaction transaction = channel.getTransaction();
+    transaction.begin();
+    try {
+      channel.put(event);
+      transaction.commit();
+    } finally {
+      transaction.close();
+    }
+  }
+
+  private int remaining() {
+    int count = 0;
+    Transaction transaction = channel.getTransaction();
+    transaction.begin();
+    try {
+      while (channel.take() != null) {
+        count += 1;
+      }
+      transaction.rollback();
+    } finally {
+      transaction.close();
+    }
+    return count;
+  }
+
+  private static List<GenericRecord> read(String uri) {
+    View<GenericRecord> view = Datasets.load(uri);
+    List<GenericRecord> records = Lists.newArrayList();
+    DatasetReader<GenericRecord> reader = view.newReader();
+    try {
+      for (GenericRecord record : reader) {
+        records.add(record);
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.avro;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+
+/**
+ * Builds Avro reader schemas that contain only the parts of a schema that are reachable from a set
+ * of avro paths, as used by {@link ExtractAvroPathsBuilder}.
+ * 
+ * A path is a list of steps; each step is a record field name, a map key, or the array token "[]".
+ * The entire subtree below the last step of a path is kept. Fields that are not kept are skipped
+ * by the ResolvingDecoder without being materialized. Types and default values are taken from the
+ * projected schema, so the result is always a valid reader schema for it.
+ */
+final class AvroProjection {
+
+  /** The path step that traverses an Avro array */
+  static final String ARRAY_TOKEN = "[]";
+
+  /** Marker for records whose fields are all required */
+  private static final Set<String> ALL_FIELDS = Collections.unmodifiableSet(new HashSet<String>());
+  
+  private AvroProjection() {}
+  
+  /**
+   * Returns a copy of the given schema that only contains the given paths, or the schema itself if
+   * nothing can be pruned.
+   */
+  public static Schema project(Schema schema, Collection<? extends List<String>> paths) {
+    // all references to a named record must share one definition, so required fields are
+    // collected by record name before any schema is built
+    Map<String, Set<String>> requiredFields = new HashMap<String, Set<String>>();
+    for (List<String> path : paths) {
+      require(schema, path, 0, requiredFields);
+    }
+    return build(schema, requiredFields, new HashMap<String, Schema>());
+  }
+  
+  /**
+   * Returns the paths to the leaves of the given projection schema. Records, arrays of records and
+   * unions with record branches are traversed; any other type is a leaf.
+   */
+  public static List<List<String>> paths(Schema projection) {
+    List<List<String>> paths = new ArrayList<List<String>>();
+    addPaths(projection, new ArrayList<String>(), paths, new HashSet<String>());
+    return paths;
+  }
+  
+  private static void addPaths(Schema schema, List<String> prefix, List<List<String>> paths, 
+      Set<String> visiting) {
+    switch (schema.getType()) {
+    case RECORD: {
+      if (!visiting.add(schema.getFullName())) { // recursive schema
+        paths.add(new ArrayList<String>(prefix));
+        return;
+      }
+      for (Field field : schema.getFields()) {
+        prefix.add(field.name());
+        addPaths(field.schema(), prefix, paths, visiting);
+        prefix.remove(prefix.size() - 1);
+      }
+      visiting.remove(schema.getFullName());
+      return;
+    }
+    case ARRAY: {
+      prefix.add(ARRAY_TOKEN);
+      addPaths(schema.getElementType(), prefix, paths, visiting);
+      prefix.remove(prefix.size() - 1);
+      return;
+    }
+    case UNION: {
+      boolean hasRecord = false;
+      for (Schema branch : schema.getTypes()) {
+        if (branch.getType() == Type.RECORD) {
+          hasRecord = true;
+          addPaths(branch, prefix, paths, visiting);
+        }
+      }
+      if (!hasRecord) {
+        paths.add(new ArrayList<String>(prefix));
+      }
+      return;
+    }
+    default:
+      paths.add(new ArrayList<String>(prefix));
+    }
+  }
+  
+  private static void require(Schema schema, List<String> steps, int level, 
+      Map<String, Set<String>> requiredFields) {
+    if (level >= steps.size()) {
+      requireAll(schema, requiredFields);
+      return;
+    }
+    String step = steps.get(level);
+    switch (schema.getType()) {
+    case RECORD: {
+      Field field = schema.getField(step);
+      Set<String> fields = fieldsOf(schema, requiredFields);
+      if (field != null) {
+        if (fields != ALL_FIELDS) {
+          fields.add(step);
+        }
+        require(field.schema(), steps, level + 1, requiredFields);
+      }
+      return;
+    }
+    case ARRAY: {
+      if (ARRAY_TOKEN.equals(step)) {
+        require(schema.getElementType(), steps, level + 1, requiredFields);
+      }
+      return;
+    }
+    case MAP: {
+      if (!ARRAY_TOKEN.equals(step)) { // step is a map key
+        require(schema.getValueType(), steps, level + 1, requiredFields);
+      }
+      return;
+    }
+    case UNION: {
+      for (Schema branch : schema.getTypes()) {
+        require(branch, steps, level, requiredFields);
+      }
+      return;
+    }
+    default:
+      return; // a primitive can't be traversed
+    }
+  }
+  
+  private static void requireAll(Schema schema, Map<String, Set<String>> requiredFields) {
+    switch (schema.getType()) {
+    case RECORD: {
+      if (requiredFields.get(schema.getFullName()) == ALL_FIELDS) {
+        return; // already done, or a recursive reference
+      }
+      requiredFields.put(schema.getFullName(), ALL_FIELDS);
+      for (Field field : schema.getFields()) {
+        requireAll(field.schema(), requiredFields);
+      }
+      return;
+    }
+    case ARRAY: {
+      requireAll(schema.getElementType(), requiredFields);
+      return;
+    }
+    case MAP: {
+      requireAll(schema.getValueType(), requiredFields);
+      return;
+    }
+    case UNION: {
+      for (Schema branch : schema.getTypes()) {
+        requireAll(branch, requiredFields);
+      }
+      return;
+    }
+    default:
+      return;
+    }
+  }
+  
+  private static Set<String> fieldsOf(Schema record, Map<String, Set<String>> requiredFields) {
+    Set<String> fields = requiredFields.get(record.getFullName());
+    if (fields == null) {
+      fields = new LinkedHashSet<String>();
+      requiredFields.put(record.getFullName(), fields);
+    }
+    return fields;
+  }
+  
+  private static Schema build(Schema schema, Map<String, Set<String>> requiredFields, 
+      Map<String, Schema> built) {
+    switch (schema.getType()) {
+    case RECORD: {
+      Set<String> fields = requiredFields.get(schema.getFullName());
+      if (fields == null || fields == ALL_FIELDS) {
+        // records that are not traversed are only reachable from kept subtrees
+        return schema;
+      }
+      Schema projected = built.get(schema.getFullName());
+      if (projected != null) {
+        return projected; // recursive or repeated reference
+      }
+      projected = Schema.createRecord(
+          schema.getName(), schema.getDoc(), schema.getNamespace(), schema.isError());
+      built.put(schema.getFullName(), projected);
+      for (String alias : schema.getAliases()) {
+        projected.addAlias(alias);
+      }
+      for (Map.Entry<String, String> prop : schema.getProps().entrySet()) {
+        projected.addProp(prop.getKey(), prop.getValue());
+      }
+      List<Field> projectedFields = new ArrayList<Field>();
+      for (Field field : schema.getFields()) {
+        if (fields.contains(field.name())) {
+          Field copy = new Field(field.name(), build(field.schema(), requiredFields, built), 
+              field.doc(), field.defaultValue(), field.order());
+          for (String alias : field.aliases()) {
+            copy.addAlias(alias);
+          }
+          for (Map.Entry<String, String> prop : field.getProps().entrySet()) {
+            copy.addProp(prop.getKey(), prop.getValue());
+          }
+          projectedFields.add(copy);
+        }
+      }
+      projected.setFields(projectedFields);
+      return projected;
+    }
+    case ARRAY: {
+      Schema elementType = build(schema.getElementType(), requiredFields, built);
+      return elementType == schema.getElementType() ? schema : Schema.createArray(elementType);
+    }
+    case MAP: {
+      Schema valueType = build(schema.getValueType(), requiredFields, built);
+      return valueType == schema.getValueType() ? schema : Schema.createMap(valueType);
+    }
+    case UNION: {
+      boolean changed = false;
+      List<Schema> branches = new ArrayList<Schema>();
+      for (Schema branch : schema.getTypes()) {
+        Schema projected = build(branch, requiredFields, built);
+        changed |= (projected != branch);
+        branches.add(projected);
+      }
+      return changed ? Schema.createUnion(branches) : schema;
+    }
+    default:
+      return schema;
+    }
+  }
+
+}
@@ -16,13 +16,18 @@
 package org.kitesdk.morphline.avro;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.Schema.Type;
 import org.apache.avro.generic.GenericContainer;
@@ -38,6 +43,7 @@ import org.kitesdk.morphline.api.MorphlineCompilationException;
 import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.MorphlineRuntimeException;
 import org.kitesdk.morphline.api.Record;
+import org.kitesdk.morphline.avro.ReadAvroContainerBuilder.ReadAvroContainer;
 import org.kitesdk.morphline.base.AbstractCommand;
 import org.kitesdk.morphline.base.Configs;
 import org.kitesdk.morphline.base.Fields;
@@ -84,8 +90,13 @@ public final class ExtractAvroPathsBuilder implements CommandBuilder {
     
     private final boolean flatten;
     private final Map<String, Collection<String>> stepMap;
+    private final boolean compilePaths;
+    private final Map<Long, PathPlan> planCache;
+    private Schema lastSchema;
+    private PathPlan lastPlan;
     
     private static final String ARRAY_TOKEN = "[]";
+    private static final Accessor NO_VALUE = new NoValueAccessor();
 
     public ExtractAvroPaths(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {
       super(builder, config, parent, child, context);
@@ -118,7 +129,25 @@ public final class ExtractAvroPathsBuilder implements CommandBuilder {
       }
       this.stepMap = stepMultiMap.asMap();
       LOG.debug("stepMap: {}", stepMap);
+      this.compilePaths = getConfigs().getBoolean(config, "compilePaths", true);
+      final int capacity = getConfigs().getInt(config, "schemaCacheCapacity", 100);
+      this.planCache = new LinkedHashMap<Long, PathPlan>(16, 0.5f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+          return size() > capacity;
+        }
+      };
       validateArguments();
+      
+      // let an upstream readAvroContainer skip the fields that no path refers to
+      ReadAvroContainer source = ReadAvroContainer.findUpstream(this);
+      if (source != null) {
+        List<List<String>> paths = new ArrayList<List<String>>();
+        for (Collection<String> steps : stepMap.values()) {
+          paths.add((List<String>) steps);
+        }
+        source.addProjectionPaths(paths);
+      }
     }
     
     private String normalize(String step) { // for faster subsequent query performance
@@ -133,16 +162,116 @@ public final class ExtractAvroPathsBuilder implements CommandBuilder {
       Preconditions.checkNotNull(datum.getSchema());      
       Record outputRecord = inputRecord.copy();
       
-      for (Map.Entry<String, Collection<String>> entry : stepMap.entrySet()) {
-        String fieldName = entry.getKey();
-        List<String> steps = (List<String>) entry.getValue();
-        extractPath(datum, datum.getSchema(), fieldName, steps, outputRecord, 0);
+      if (compilePaths) {
+        getPlan(datum.getSchema()).extract(datum, outputRecord);
+      } else {
+        for (Map.Entry<String, Collection<String>> entry : stepMap.entrySet()) {
+          String fieldName = entry.getKey();
+          List<String> steps = (List<String>) entry.getValue();
+          extractPath(datum, datum.getSchema(), fieldName, steps, outputRecord, 0);
+        }
       }
         
       // pass record to next command in chain:
       return getChild().process(outputRecord);
     }
-
+    
+    /**
+     * Returns the accessor plan for the given writer schema, compiling it on first use. Records
+     * read from the same container share one schema instance, so the common case is an identity
+     * check; otherwise plans are looked up by the schema's parsing fingerprint, which covers
+     * exactly the names, types and field order that a plan depends on.
+     */
+    private PathPlan getPlan(Schema schema) {
+      if (schema == lastSchema) {
+        return lastPlan;
+      }
+      Long fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+      PathPlan plan = planCache.get(fingerprint);
+      if (plan == null) {
+        plan = compile(schema);
+        planCache.put(fingerprint, plan);
+      }
+      lastSchema = schema;
+      lastPlan = plan;
+      return plan;
+    }
+    
+    private PathPlan compile(Schema schema) {
+      String[] fieldNames = new String[stepMap.size()];
+      Accessor[] accessors = new Accessor[stepMap.size()];
+      int i = 0;
+      for (Map.Entry<String, Collection<String>> entry : stepMap.entrySet()) {
+        fieldNames[i] = entry.getKey();
+        accessors[i] = compilePath(schema, entry.getKey(), (List<String>) entry.getValue(), 0);
+        i++;
+      }
+      return new PathPlan(fieldNames, accessors);
+    }
+    
+    /** Mirrors {@link #extractPath} but resolves each step against the schema only once */
+    private Accessor compilePath(Schema schema, String fieldName, List<String> steps, int level) {
+      if (level >= steps.size()) {
+        return NO_VALUE;
+      }
+      boolean isLeaf = (level + 1 == steps.size());
+      String step = steps.get(level);
+      if (ARRAY_TOKEN == step) {
+        if (schema.getType() == Type.ARRAY) {
+          if (isLeaf) {
+            return compileLeaf(schema, fieldName);
+          } else {
+            return new ArrayAccessor(compilePath(schema.getElementType(), fieldName, steps, level + 1));
+          }
+        }
+      } else {
+        if (schema.getType() == Type.RECORD) {
+          Field field = schema.getField(step);
+          if (field != null) {
+            Accessor next = isLeaf 
+                ? compileLeaf(field.schema(), fieldName) 
+                : compilePath(field.schema(), fieldName, steps, level + 1);
+            return new RecordFieldAccessor(field.pos(), next);
+          }
+        } else if (schema.getType() == Type.MAP) {
+          Accessor next = isLeaf 
+              ? compileLeaf(schema.getValueType(), fieldName) 
+              : compilePath(schema.getValueType(), fieldName, steps, level + 1);
+          return new MapValueAccessor(step, next);
+        } else if (schema.getType() == Type.UNION) {
+          List<Schema> types = schema.getTypes();
+          Accessor[] branches = new Accessor[types.size()];
+          for (int i = 0; i < branches.length; i++) {
+            branches[i] = compilePath(types.get(i), fieldName, steps, level);
+          }
+          return new UnionAccessor(schema, branches);
+        }
+      }
+      return NO_VALUE;
+    }
+    
+    private Accessor compileLeaf(Schema schema, String fieldName) {
+      if (flatten) {
+        return new FlattenLeaf(schema, fieldName);
+      }
+      switch (schema.getType()) {
+      case ENUM: 
+      case STRING: 
+        return new ToStringLeaf(fieldName);
+      case UNION: 
+        return new UnionLeaf(fieldName);
+      case FIXED: 
+        return new FixedLeaf(fieldName);
+      case BYTES: 
+        return new BytesLeaf(fieldName);
+      case NULL: 
+        return NO_VALUE;
+      default: 
+        // RECORD, ARRAY, MAP, INT, LONG, FLOAT, DOUBLE, BOOLEAN
+        return new IdentityLeaf(fieldName);
+      }
+    }
+    
     @SuppressWarnings("unchecked")
     private void extractPath(Object datum, Schema schema, String fieldName, List<String> steps, Record record, int level) {
       if (level >= steps.size()) {
@@ -275,7 +404,7 @@ public final class ExtractAvroPathsBuilder implements CommandBuilder {
       }
     }
     
-    private Object normalizeUtf8(Object datum) {
+    private static Object normalizeUtf8(Object datum) {
       if (datum instanceof Utf8) {
         return ((Utf8) datum).toString();
       } else {
@@ -284,7 +413,7 @@ public final class ExtractAvroPathsBuilder implements CommandBuilder {
     }
 
     @SuppressWarnings("unchecked")
-    private void flatten(Object datum, Schema schema, List list) { 
+    private static void flatten(Object datum, Schema schema, List list) { 
       if (datum == null) {
         return;
       }
@@ -371,4 +500,283 @@ public final class ExtractAvroPathsBuilder implements CommandBuilder {
     
   }
   
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /**
+   * The paths of an extractAvroPaths command compiled against one writer schema. Record fields are
+   * addressed by position, map keys are prebuilt, union branches are resolved to subplans and leaf
+   * conversions are chosen up front, so extracting a record is a few indexed gets.
+   */
+  private static final class PathPlan {
+    
+    private final String[] fieldNames;
+    private final Accessor[] accessors;
+    
+    public PathPlan(String[] fieldNames, Accessor[] accessors) {
+      this.fieldNames = fieldNames;
+      this.accessors = accessors;
+    }
+    
+    public void extract(Object datum, Record record) {
+      for (int i = 0; i < accessors.length; i++) {
+        accessors[i].extract(datum, record);
+      }
+    }
+    
+    @Override
+    public String toString() {
+      return Arrays.asList(fieldNames).toString();
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static abstract class Accessor {
+    
+    /** Adds the values found at this step of the path below the given datum to the record */
+    public abstract void extract(Object datum, Record record);
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** A path step that can never match the schema */
+  private static final class NoValueAccessor extends Accessor {
+    
+    @Override
+    public void extract(Object datum, Record record) {
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class RecordFieldAccessor extends Accessor {
+    
+    private final int pos;
+    private final Accessor next;
+    
+    public RecordFieldAccessor(int pos, Accessor next) {
+      this.pos = pos;
+      this.next = next;
+    }
+    
+    @Override
+    public void extract(Object datum, Record record) {
+      Object value = ((IndexedRecord) datum).get(pos);
+      if (value != null) {
+        next.extract(value, record);
+      }
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class MapValueAccessor extends Accessor {
+    
+    private final String key;
+    private final Utf8 utf8Key;
+    private final Accessor next;
+    
+    public MapValueAccessor(String key, Accessor next) {
+      this.key = key;
+      this.utf8Key = new Utf8(key);
+      this.next = next;
+    }
+    
+    @Override
+    public void extract(Object datum, Record record) {
+      Map<CharSequence, ?> map = (Map<CharSequence, ?>) datum;
+      Object value = map.get(utf8Key); // decoded maps are keyed by Utf8, so try that first
+      if (value == null) {
+        value = map.get(key);
+      }
+      if (value != null) {
+        next.extract(value, record);
+      }
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class ArrayAccessor extends Accessor {
+    
+    private final Accessor next;
+    
+    public ArrayAccessor(Accessor next) {
+      this.next = next;
+    }
+    
+    @Override
+    public void extract(Object datum, Record record) {
+      if (datum instanceof List && datum instanceof RandomAccess) {
+        List list = (List) datum;
+        for (int i = 0, n = list.size(); i < n; i++) {
+          next.extract(list.get(i), record);
+        }
+      } else {
+        Iterator iter = ((Collection) datum).iterator();
+        while (iter.hasNext()) {
+          next.extract(iter.next(), record);
+        }
+      }
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class UnionAccessor extends Accessor {
+    
+    private final Schema schema;
+    private final Accessor[] branches;
+    
+    public UnionAccessor(Schema schema, Accessor[] branches) {
+      this.schema = schema;
+      this.branches = branches;
+    }
+    
+    @Override
+    public void extract(Object datum, Record record) {
+      branches[GenericData.get().resolveUnion(schema, datum)].extract(datum, record);
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static abstract class Leaf extends Accessor {
+    
+    protected final String fieldName;
+    
+    public Leaf(String fieldName) {
+      this.fieldName = fieldName;
+    }
+    
+    @Override
+    public final void extract(Object datum, Record record) {
+      if (datum != null) {
+        resolve(datum, record);
+      }
+    }
+    
+    protected abstract void resolve(Object datum, Record record);
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class FlattenLeaf extends Leaf {
+    
+    private final Schema schema;
+    
+    public FlattenLeaf(Schema schema, String fieldName) {
+      super(fieldName);
+      this.schema = schema;
+    }
+    
+    @Override
+    protected void resolve(Object datum, Record record) {
+      ExtractAvroPaths.flatten(datum, schema, record.get(fieldName));
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class IdentityLeaf extends Leaf {
+    
+    public IdentityLeaf(String fieldName) {
+      super(fieldName);
+    }
+    
+    @Override
+    protected void resolve(Object datum, Record record) {
+      record.put(fieldName, datum);
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class ToStringLeaf extends Leaf {
+    
+    public ToStringLeaf(String fieldName) {
+      super(fieldName);
+    }
+    
+    @Override
+    protected void resolve(Object datum, Record record) {
+      record.put(fieldName, datum.toString());
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class UnionLeaf extends Leaf {
+    
+    public UnionLeaf(String fieldName) {
+      super(fieldName);
+    }
+    
+    @Override
+    protected void resolve(Object datum, Record record) {
+      record.put(fieldName, ExtractAvroPaths.normalizeUtf8(datum));
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class FixedLeaf extends Leaf {
+    
+    public FixedLeaf(String fieldName) {
+      super(fieldName);
+    }
+    
+    @Override
+    protected void resolve(Object datum, Record record) {
+      record.put(fieldName, ((GenericFixed) datum).bytes());
+    }
+  }
+  
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class BytesLeaf extends Leaf {
+    
+    public BytesLeaf(String fieldName) {
+      super(fieldName);
+    }
+    
+    @Override
+    protected void resolve(Object datum, Record record) {
+      ByteBuffer buf = (ByteBuffer) datum;
+      int pos = buf.position();
+      byte[] bytes = new byte[buf.remaining()];
+      buf.get(bytes);
+      buf.position(pos); // undo relative read
+      record.put(fieldName, bytes);
+    }
+  }
+  
 }
@@ -33,6 +33,7 @@ import org.kitesdk.morphline.api.CommandBuilder;
 import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.MorphlineRuntimeException;
 import org.kitesdk.morphline.api.Record;
+import org.kitesdk.morphline.avro.ReadAvroContainerBuilder.ReadAvroContainer;
 import org.kitesdk.morphline.base.AbstractCommand;
 import org.kitesdk.morphline.base.Fields;
 
@@ -74,6 +75,11 @@ public final class ExtractAvroTreeBuilder implements CommandBuilder {
       super(builder, config, parent, child, context);
       this.outputFieldPrefix = getConfigs().getString(config, "outputFieldPrefix", "");
       validateArguments();
+      
+      ReadAvroContainer source = ReadAvroContainer.findUpstream(this);
+      if (source != null) {
+        source.requireAllFields(); // the whole tree is extracted
+      }
     }
     
     @Override
@@ -19,10 +19,12 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.avro.Schema;
@@ -52,6 +54,13 @@ import com.typesafe.config.Config;
  * 
  * The Avro schema that was used to write the Avro data is retrieved from the container. Optionally, the
  * Avro schema that shall be used for reading can be supplied as well.
+ * 
+ * Optionally, only part of each datum is decoded: with a projection schema, only the fields present
+ * in the projection are read; with <code>inferProjection : true</code>, only the avro paths used by
+ * downstream {@link ExtractAvroPathsBuilder extractAvroPaths} commands are read. Other fields are
+ * skipped by the decoder and are absent from the datum, so inference must only be enabled if no
+ * other downstream command inspects the datum. A downstream
+ * {@link ExtractAvroTreeBuilder extractAvroTree} command requires all fields.
  */
 public final class ReadAvroContainerBuilder implements CommandBuilder {
 
@@ -77,6 +86,10 @@ public final class ReadAvroContainerBuilder implements CommandBuilder {
     protected final Schema readerSchema;
     protected FastGenericDatumReader<GenericContainer> datumReader;
     private final Map<ByteArrayKey, ResolvingDecoder> resolverCache;
+    private final Map<ByteArrayKey, Schema> projectionCache;
+    private final boolean inferProjection;
+    private final List<List<String>> projectionPaths = new ArrayList<List<String>>();
+    private boolean requiresAllFields = false;
 
     public ReadAvroContainer(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {   
       super(builder, config, parent, child, context);
@@ -98,15 +111,73 @@ public final class ReadAvroContainerBuilder implements CommandBuilder {
       }
       
       if (getClass() == ReadAvroContainer.class) {
-        resolverCache = new BoundedLRUHashMap<ByteArrayKey, ResolvingDecoder>(
-            getConfigs().getInt(config, "schemaCacheCapacity", 100));
+        int capacity = getConfigs().getInt(config, "schemaCacheCapacity", 100);
+        resolverCache = new BoundedLRUHashMap<ByteArrayKey, ResolvingDecoder>(capacity);
+        projectionCache = new BoundedLRUHashMap<ByteArrayKey, Schema>(capacity);
+        
+        Schema projectionSchema = parseProjectionSchema(config);
+        if (projectionSchema != null) {
+          projectionPaths.addAll(AvroProjection.paths(projectionSchema));
+        }
+        inferProjection = getConfigs().getBoolean(config, "inferProjection", false);
         
         validateArguments();
       } else {
         resolverCache = null;
+        projectionCache = null;
+        inferProjection = false;
+      }
+    }
+    
+    private Schema parseProjectionSchema(Config config) {
+      String schemaString = getConfigs().getString(config, "projectionSchemaString", null);
+      if (schemaString != null) {
+        return new Parser().parse(schemaString);
+      }
+      String schemaFile = getConfigs().getString(config, "projectionSchemaFile", null);
+      if (schemaFile != null) {
+        try { 
+          return new Parser().parse(new File(schemaFile));
+        } catch (IOException e) {
+          throw new MorphlineCompilationException("Cannot parse external Avro projection schema file: " + schemaFile, getConfig(), e);
+        }
+      }
+      return null;
+    }
+    
+    /**
+     * Called at compile time by a downstream command that reads the given avro paths of each datum.
+     * Has no effect unless projection inference is enabled.
+     */
+    void addProjectionPaths(Collection<? extends List<String>> paths) {
+      if (inferProjection) {
+        projectionPaths.addAll(paths);
       }
     }
     
+    /**
+     * Called at compile time by a downstream command that reads all fields of each datum.
+     */
+    void requireAllFields() {
+      if (inferProjection) {
+        requiresAllFields = true;
+      }
+    }
+    
+    /**
+     * Returns the nearest upstream {@link ReadAvroContainer} of the given command, or null.
+     */
+    static ReadAvroContainer findUpstream(Command command) {
+      Command parent = command.getParent();
+      while (parent != null) {
+        if (parent instanceof ReadAvroContainer) {
+          return (ReadAvroContainer) parent;
+        }
+        parent = parent.getParent();
+      }
+      return null;
+    }
+    
     @Override
     @SuppressWarnings("unchecked")
     protected boolean doProcess(Record inputRecord, InputStream in) throws IOException {
@@ -123,12 +194,22 @@ public final class ReadAvroContainerBuilder implements CommandBuilder {
         byte[] writerSchemaBytes = reader.getMeta(DataFileConstants.SCHEMA);
         Preconditions.checkNotNull(writerSchemaBytes);
         ByteArrayKey writerSchemaKey = new ByteArrayKey(writerSchemaBytes);
+        if (isProjecting()) {
+          Schema projection = projectionCache.get(writerSchemaKey);
+          if (projection == null) {
+            Schema expected = readerSchema != null ? readerSchema : datumReader.getSchema();
+            projection = AvroProjection.project(expected, projectionPaths);
+            LOG.debug("Reading Avro projection schema: {}", projection);
+            projectionCache.put(writerSchemaKey, projection);
+          }
+          datumReader.setExpected(projection);
+        }
         ResolvingDecoder resolver = resolverCache.get(writerSchemaKey); // cache for performance
         if (resolver == null) { 
           resolver = createResolver(datumReader.getSchema(), datumReader.getExpected());
           resolverCache.put(writerSchemaKey, resolver);
-          datumReader.setResolver(resolver);
         }
+        datumReader.setResolver(resolver);
         Record template = inputRecord.copy();
         removeAttachments(template);
         template.put(Fields.ATTACHMENT_MIME_TYPE, ReadAvroBuilder.AVRO_MEMORY_MIME_TYPE);
@@ -146,6 +227,10 @@ public final class ReadAvroContainerBuilder implements CommandBuilder {
       return true;
     }
     
+    private boolean isProjecting() {
+      return !projectionPaths.isEmpty() && !requiresAllFields;
+    }
+    
     protected ResolvingDecoder createResolver(Schema writerSchema, Schema readerSchema) throws IOException {
       return DecoderFactory.get().resolvingDecoder(
           Schema.applyAliases(writerSchema, readerSchema), readerSchema, null);
@@ -71,6 +71,8 @@ public final class ToAvroBuilder implements CommandBuilder {
     private final Map<String, String> mappings = new HashMap<String,String>();
     private final Schema fixedSchema;
     private final String schemaField;
+    private Schema lastSchema;
+    private FieldMapping[] lastFieldMappings;
     
     public ToAvro(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {
       super(builder, config, parent, child, context);
@@ -132,31 +134,23 @@ public final class ToAvroBuilder implements CommandBuilder {
       AbstractParser.removeAttachments(outputRecord);
       IndexedRecord avroRecord = new GenericData.Record(schema);
       
-      for (Field field : schema.getFields()) {
-        String morphlineFieldName = mappings.get(field.name());
-        if (morphlineFieldName == null) {
-          morphlineFieldName = field.name();
-        }
-        List list = inputRecord.get(morphlineFieldName);
+      for (FieldMapping mapping : getFieldMappings(schema)) {
+        List list = inputRecord.get(mapping.morphlineFieldName);
         
         Object avroResult = AvroConversions.ERROR;
-        if (field.schema().getType() == Schema.Type.ARRAY) {
-          avroResult = AvroConversions.toAvro(list, field);
+        if (mapping.isArray) {
+          avroResult = AvroConversions.toAvro(list, mapping.field);
         } else if (list.size() == 0) { 
-          try { // this will fail if there is no default value
-            avroResult = ReflectData.get().getDefaultValue(field);
-          } catch (AvroRuntimeException e) {
-            avroResult = AvroConversions.ERROR;
-          }
+          avroResult = mapping.defaultValue;
         } else if (list.size() == 1) {
-          avroResult = AvroConversions.toAvro(list.get(0), field); 
+          avroResult = AvroConversions.toAvro(list.get(0), mapping.field); 
         }
         
         if (avroResult == AvroConversions.ERROR) {
           LOG.debug("Cannot convert item: {} to schema: {}", list, schema);
           return false;          
         }
-        avroRecord.put(field.pos(), avroResult);
+        avroRecord.put(mapping.field.pos(), avroResult);
       }
 
       outputRecord.put(Fields.ATTACHMENT_BODY, avroRecord);
@@ -165,6 +159,48 @@ public final class ToAvroBuilder implements CommandBuilder {
       return super.doProcess(outputRecord);
     }  
     
+    /** Resolves the morphline field name and default value of each Avro field once per schema */
+    private FieldMapping[] getFieldMappings(Schema schema) {
+      if (schema != lastSchema) {
+        List<Field> fields = schema.getFields();
+        FieldMapping[] fieldMappings = new FieldMapping[fields.size()];
+        for (int i = 0; i < fieldMappings.length; i++) {
+          Field field = fields.get(i);
+          String morphlineFieldName = mappings.get(field.name());
+          if (morphlineFieldName == null) {
+            morphlineFieldName = field.name();
+          }
+          Object defaultValue;
+          try { // this will fail if there is no default value
+            defaultValue = ReflectData.get().getDefaultValue(field);
+          } catch (AvroRuntimeException e) {
+            defaultValue = AvroConversions.ERROR;
+          }
+          fieldMappings[i] = new FieldMapping(field, morphlineFieldName, defaultValue);
+        }
+        lastFieldMappings = fieldMappings;
+        lastSchema = schema;
+      }
+      return lastFieldMappings;
+    }
+    
+  }
+  
+  
+  /** An Avro field together with how it is populated from a morphline record */
+  private static final class FieldMapping {
+    
+    private final Field field;
+    private final String morphlineFieldName;
+    private final boolean isArray;
+    private final Object defaultValue;
+    
+    public FieldMapping(Field field, String morphlineFieldName, Object defaultValue) {
+      this.field = field;
+      this.morphlineFieldName = morphlineFieldName;
+      this.isArray = field.schema().getType() == Schema.Type.ARRAY;
+      this.defaultValue = defaultValue;
+    }
   }
     
 }
@@ -18,16 +18,22 @@ package org.kitesdk.morphline.avro;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.apache.avro.Schema;
 import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericContainer;
 import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.Encoder;
 import org.apache.avro.io.EncoderFactory;
 import org.kitesdk.morphline.api.Command;
@@ -53,6 +59,9 @@ import com.typesafe.config.ConfigFactory;
  * Command that serializes the Avro records contained in the _attachment_body field into a byte
  * array and replaces the _attachment_body field with that byte array.
  * 
+ * Datum writers are cached per schema, and the output buffer and binary encoder are reused across
+ * records, so the only per record allocation is the resulting byte array.
+ * 
  * @since 0.9.0
  */
 public final class WriteAvroToByteArrayBuilder implements CommandBuilder {
@@ -76,6 +85,14 @@ public final class WriteAvroToByteArrayBuilder implements CommandBuilder {
     private final Format format;
     private final CodecFactory codecFactory;
     private final Map<String,String> metadata = new HashMap<String,String>();
+    private final Map<Schema, SchemaWriter> writerCache;
+    private SchemaWriter lastWriter;
+    private final ByteArrayOutputStream bout = new ByteArrayOutputStream(1024);
+    private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream(1024);
+    private BinaryEncoder binaryEncoder;
+    private BinaryEncoder blockEncoder;
+    private final Random syncRandom = new Random(new SecureRandom().nextLong());
+    private final byte[] syncMarker = new byte[DataFileConstants.SYNC_SIZE];
     
     public WriteAvroToByteArray(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {
       super(builder, config, parent, child, context);      
@@ -96,6 +113,14 @@ public final class WriteAvroToByteArrayBuilder implements CommandBuilder {
         this.metadata.put(entry.getKey(), entry.getValue().toString());
       }
       
+      final int capacity = getConfigs().getInt(config, "schemaCacheCapacity", 100);
+      this.writerCache = new LinkedHashMap<Schema, SchemaWriter>(16, 0.5f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+          return size() > capacity;
+        }
+      };
+      
       validateArguments();
     }
     
@@ -103,9 +128,13 @@ public final class WriteAvroToByteArrayBuilder implements CommandBuilder {
     protected boolean doProcess(Record inputRecord) {      
       Record outputRecord = inputRecord.copy();
       AbstractParser.removeAttachments(outputRecord);
-      ByteArrayOutputStream bout = new ByteArrayOutputStream(1024);
+      bout.reset();
       if (format == Format.container) {
-        writeContainer(inputRecord, bout);
+        if (isNullCodec()) {
+          writeNullCodecContainer(inputRecord, bout);
+        } else {
+          writeContainer(inputRecord, bout);
+        }
       } else {
         writeContainerless(inputRecord, bout);
       }      
@@ -115,6 +144,10 @@ public final class WriteAvroToByteArrayBuilder implements CommandBuilder {
       return super.doProcess(outputRecord);
     }
 
+    private boolean isNullCodec() {
+      return codecFactory == null || "null".equals(codecFactory.toString());
+    }
+    
     @SuppressWarnings("unchecked")
     private void writeContainer(Record src, OutputStream dst) {
       DataFileWriter dataFileWriter = null;
@@ -127,14 +160,7 @@ public final class WriteAvroToByteArrayBuilder implements CommandBuilder {
             schema = getSchema(datum, schema);
             assert schema != null;
             if (dataFileWriter == null) { // init
-              GenericDatumWriter datumWriter = new GenericDatumWriter(schema);
-              dataFileWriter = new DataFileWriter(datumWriter);
-              if (codecFactory != null) {
-                dataFileWriter.setCodec(codecFactory);
-              }
-              for (Map.Entry<String,String> entry : metadata.entrySet()) {
-                dataFileWriter.setMeta(entry.getKey(), entry.getValue());              
-              }
+              dataFileWriter = newDataFileWriter(getSchemaWriter(schema).datumWriter);
               dataFileWriter.create(schema, dst);
             }
             dataFileWriter.append(datum);
@@ -149,35 +175,114 @@ public final class WriteAvroToByteArrayBuilder implements CommandBuilder {
         Closeables.closeQuietly(dataFileWriter);
       }
     }
+    
+    private DataFileWriter newDataFileWriter(GenericDatumWriter datumWriter) {
+      DataFileWriter dataFileWriter = new DataFileWriter(datumWriter);
+      if (codecFactory != null) {
+        dataFileWriter.setCodec(codecFactory);
+      }
+      for (Map.Entry<String,String> entry : metadata.entrySet()) {
+        dataFileWriter.setMeta(entry.getKey(), entry.getValue());              
+      }
+      return dataFileWriter;
+    }
+    
+    /**
+     * Writes the same bytes as a {@link DataFileWriter} with the null codec, except that the
+     * container header up to the sync marker is precomputed once per schema, which avoids
+     * allocating and initializing a DataFileWriter with its block buffers for each record. Like
+     * DataFileWriter, each container gets a new random sync marker, so containers can be
+     * concatenated or split on sync markers.
+     */
+    @SuppressWarnings("unchecked")
+    private void writeNullCodecContainer(Record src, OutputStream dst) {
+      try {
+        SchemaWriter writer = null;
+        Schema schema = null;
+        long blockCount = 0;
+        for (Object attachment : src.get(Fields.ATTACHMENT_BODY)) {
+          Preconditions.checkNotNull(attachment);
+          GenericContainer datum = (GenericContainer) attachment;
+          schema = getSchema(datum, schema);
+          assert schema != null;
+          if (writer == null) { // init
+            writer = getSchemaWriter(schema);
+            dst.write(writer.getHeaderWithoutSync());
+            syncRandom.nextBytes(syncMarker);
+            dst.write(syncMarker);
+            blockBuffer.reset();
+            blockEncoder = EncoderFactory.get().binaryEncoder(blockBuffer, blockEncoder);
+          }
+          writer.datumWriter.write(datum, blockEncoder);
+          blockCount++;
+          blockEncoder.flush();
+          if (blockBuffer.size() >= DataFileConstants.DEFAULT_SYNC_INTERVAL) {
+            writeBlock(blockCount, dst);
+            blockCount = 0;
+          }
+        }
+        if (blockCount > 0) {
+          writeBlock(blockCount, dst);
+        }
+      } catch (IOException e) {
+        throw new MorphlineRuntimeException(e);
+      }
+    }
+    
+    private void writeBlock(long blockCount, OutputStream dst) throws IOException {
+      binaryEncoder = EncoderFactory.get().binaryEncoder(dst, binaryEncoder);
+      binaryEncoder.writeLong(blockCount);
+      binaryEncoder.writeLong(blockBuffer.size());
+      binaryEncoder.flush();
+      blockBuffer.writeTo(dst);
+      dst.write(syncMarker);
+      blockBuffer.reset();
+    }
       
     @SuppressWarnings("unchecked")
     private void writeContainerless(Record src, OutputStream dst) {
       try {
-        GenericDatumWriter datumWriter = new GenericDatumWriter();
         Encoder encoder = null;
         Schema schema = null;
+        GenericDatumWriter datumWriter = null;
         for (Object attachment : src.get(Fields.ATTACHMENT_BODY)) {
           Preconditions.checkNotNull(attachment);
           GenericContainer datum = (GenericContainer) attachment;
           schema = getSchema(datum, schema);
           assert schema != null;
-          datumWriter.setSchema(schema);
           if (encoder == null) { // init
+            datumWriter = getSchemaWriter(schema).datumWriter;
             if (format == Format.containerlessJSON) {
               encoder = EncoderFactory.get().jsonEncoder(schema, dst);
             } else {
-              encoder = EncoderFactory.get().binaryEncoder(dst, null);
+              binaryEncoder = EncoderFactory.get().binaryEncoder(dst, binaryEncoder);
+              encoder = binaryEncoder;
             }          
             assert encoder != null;
           } 
           datumWriter.write(datum, encoder);
         }
-        encoder.flush();
+        if (encoder != null) {
+          encoder.flush();
+        }
       } catch (IOException e) {
         throw new MorphlineRuntimeException(e);
       }
     }
     
+    private SchemaWriter getSchemaWriter(Schema schema) {
+      if (lastWriter != null && lastWriter.schema == schema) {
+        return lastWriter;
+      }
+      SchemaWriter writer = writerCache.get(schema);
+      if (writer == null) {
+        writer = new SchemaWriter(schema);
+        writerCache.put(schema, writer);
+      }
+      lastWriter = writer;
+      return writer;
+    }
+    
     private Schema getSchema(GenericContainer datum, Schema lastSchema) {
       Schema schema = datum.getSchema();
       if (lastSchema != null && lastSchema != schema) {
@@ -186,6 +291,37 @@ public final class WriteAvroToByteArrayBuilder implements CommandBuilder {
       return schema;
     }
 
+    
+    ///////////////////////////////////////////////////////////////////////////////
+    // Nested classes:
+    ///////////////////////////////////////////////////////////////////////////////
+    /** The cached serialization state for one schema */
+    private final class SchemaWriter {
+      
+      private final Schema schema;
+      private final GenericDatumWriter datumWriter;
+      private byte[] headerWithoutSync;
+      
+      public SchemaWriter(Schema schema) {
+        this.schema = schema;
+        this.datumWriter = new GenericDatumWriter(schema);
+      }
+      
+      /** Returns the magic bytes and metadata that start a container file, up to the sync marker */
+      public byte[] getHeaderWithoutSync() throws IOException {
+        if (headerWithoutSync == null) {
+          ByteArrayOutputStream header = new ByteArrayOutputStream();
+          DataFileWriter dataFileWriter = newDataFileWriter(datumWriter);
+          dataFileWriter.create(schema, header);
+          dataFileWriter.close();
+          byte[] containerHeader = header.toByteArray();
+          headerWithoutSync = Arrays.copyOf(
+              containerHeader, containerHeader.length - DataFileConstants.SYNC_SIZE);
+        }
+        return headerWithoutSync;
+      }
+    }
+    
   }
 
   
@@ -33,9 +33,11 @@ import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.Schema.Parser;
 import org.apache.avro.Schema.Type;
+import org.apache.avro.file.DataFileConstants;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.file.FileReader;
+import org.apache.avro.generic.GenericContainer;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericDatumWriter;
@@ -45,6 +47,7 @@ import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.Encoder;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.util.Utf8;
+import org.codehaus.jackson.node.TextNode;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.kitesdk.morphline.api.AbstractMorphlineTest;
@@ -815,6 +818,221 @@ public class AvroMorphlineTest extends AbstractMorphlineTest {
     }
   }
 
+  @Test
+  public void testWriteAvroToByteArrayContainerMatchesDataFileWriter() throws Exception {
+    morphline = createMorphline("test-morphlines/writeAvroToByteArrayWithContainer");
+    Map<String, String> metadata = ImmutableMap.of("foo", "bar", "firstName", "Nadja");
+    
+    Schema schemaA = Schema.createRecord("DocA", "adoc", null, false);
+    schemaA.setFields(Arrays.asList(
+        new Field("id", Schema.create(Type.LONG), null, null),
+        new Field("text", Schema.create(Type.STRING), null, null)));
+    Schema schemaB = Schema.createRecord("DocB", "bdoc", null, false);
+    schemaB.setFields(Arrays.asList(
+        new Field("count", Schema.create(Type.INT), null, null)));
+    
+    // several records through the same command, including one block that is larger than the sync
+    // interval and a schema change between records
+    List<GenericData.Record> small = docsA(schemaA, 3, 10);
+    List<GenericData.Record> large = docsA(schemaA, 200, 1000);
+    List<GenericData.Record> other = new ArrayList<GenericData.Record>();
+    for (int i = 0; i < 5; i++) {
+      GenericData.Record doc = new GenericData.Record(schemaB);
+      doc.put("count", i);
+      other.add(doc);
+    }
+    
+    byte[] first = writeAvroToByteArray(small);
+    byte[] second = writeAvroToByteArray(large);
+    byte[] third = writeAvroToByteArray(other);
+    byte[] fourth = writeAvroToByteArray(small);
+    
+    assertContainerEquals(writeDataFile(schemaA, metadata, small), first);
+    assertContainerEquals(writeDataFile(schemaA, metadata, large), second);
+    assertContainerEquals(writeDataFile(schemaB, metadata, other), third);
+    assertContainerEquals(writeDataFile(schemaA, metadata, small), fourth);
+    
+    assertTrue("Should write several blocks", second.length > 2 * DataFileConstants.DEFAULT_SYNC_INTERVAL);
+    
+    // the header up to the sync marker is cached per schema, but each container has its own sync
+    // marker, so containers can be concatenated
+    int headerLength = headerLength(schemaA, metadata);
+    int syncStart = headerLength - DataFileConstants.SYNC_SIZE;
+    assertArrayEquals(Arrays.copyOf(first, syncStart), Arrays.copyOf(second, syncStart));
+    assertFalse(Arrays.equals(
+        Arrays.copyOfRange(first, syncStart, headerLength),
+        Arrays.copyOfRange(second, syncStart, headerLength)));
+    assertFalse(Arrays.equals(
+        Arrays.copyOfRange(first, syncStart, headerLength),
+        Arrays.copyOfRange(fourth, syncStart, headerLength)));
+    assertFalse(Arrays.equals(
+        Arrays.copyOf(first, headerLength),
+        Arrays.copyOf(third, headerLength(schemaB, metadata))));
+    
+    assertEquals(small, readDataFile(first));
+    assertEquals(large, readDataFile(second));
+    assertEquals(other, readDataFile(third));
+    assertEquals(small, readDataFile(fourth));
+  }
+  
+  @Test
+  public void testToAvroWithChangingSchemas() throws Exception {
+    morphline = createMorphline("test-morphlines/toAvro");
+    
+    Schema schemaA = Schema.createRecord("DocA", "adoc", null, false);
+    schemaA.setFields(Arrays.asList(
+        new Field("price", Schema.create(Type.INT), null, null)));
+    
+    Schema schemaB = Schema.createRecord("DocB", "bdoc", null, false);
+    schemaB.setFields(Arrays.asList(
+        new Field("price", Schema.create(Type.STRING), null, null),
+        new Field("currency", Schema.create(Type.STRING), null, new TextNode("EUR")),
+        new Field("tags", Schema.createArray(Schema.create(Type.STRING)), null, null)));
+    
+    Schema schemaC = Schema.createRecord("DocC", "cdoc", null, false);
+    schemaC.setFields(Arrays.asList(
+        new Field("price", Schema.create(Type.INT), null, null),
+        new Field("required", Schema.create(Type.STRING), null, null)));
+    
+    for (int i = 0; i < 2; i++) {
+      GenericData.Record docA = new GenericData.Record(schemaA);
+      docA.put("price", 5);
+      Record inputA = new Record();
+      inputA.put("_dataset_descriptor_schema", schemaA);
+      inputA.put("price", 5);
+      Record expectA = inputA.copy();
+      expectA.put(Fields.ATTACHMENT_BODY, docA);
+      processAndVerifySuccess(inputA, expectA, false);
+      
+      // the default value is used when the field is missing
+      GenericData.Record docB = new GenericData.Record(schemaB);
+      docB.put("price", "7");
+      docB.put("currency", "EUR");
+      docB.put("tags", Arrays.asList("x", "y"));
+      Record inputB = new Record();
+      inputB.put("_dataset_descriptor_schema", schemaB);
+      inputB.put("price", 7);
+      inputB.put("tags", "x");
+      inputB.put("tags", "y");
+      Record expectB = inputB.copy();
+      expectB.put(Fields.ATTACHMENT_BODY, docB);
+      processAndVerifySuccess(inputB, expectB, false);
+      
+      // fails without a value or default for a required field
+      Record inputC = new Record();
+      inputC.put("_dataset_descriptor_schema", schemaC);
+      inputC.put("price", 5);
+      collector.reset();
+      assertFalse(morphline.process(inputC));
+      assertEquals(0, collector.getRecords().size());
+    }
+  }
+  
+  private List<GenericData.Record> docsA(Schema schema, int count, int textSize) {
+    char[] text = new char[textSize];
+    Arrays.fill(text, 'x');
+    List<GenericData.Record> docs = new ArrayList<GenericData.Record>();
+    for (int i = 0; i < count; i++) {
+      GenericData.Record doc = new GenericData.Record(schema);
+      doc.put("id", (long) i);
+      doc.put("text", i + new String(text));
+      docs.add(doc);
+    }
+    return docs;
+  }
+  
+  private byte[] writeAvroToByteArray(List<GenericData.Record> docs) {
+    Record event = new Record();
+    event.getFields().putAll(Fields.ATTACHMENT_BODY, docs);
+    deleteAllDocuments();
+    assertTrue(load(event));
+    return (byte[]) collector.getFirstRecord().getFirstValue(Fields.ATTACHMENT_BODY);
+  }
+  
+  private byte[] writeDataFile(Schema schema, Map<String, String> metadata, List<GenericData.Record> docs)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataFileWriter writer = newDataFileWriter(schema, metadata);
+    writer.create(schema, bytes);
+    for (GenericData.Record doc : docs) {
+      writer.append(doc);
+    }
+    writer.close();
+    return bytes.toByteArray();
+  }
+  
+  private int headerLength(Schema schema, Map<String, String> metadata) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataFileWriter writer = newDataFileWriter(schema, metadata);
+    writer.create(schema, bytes);
+    writer.close();
+    return bytes.size();
+  }
+  
+  private DataFileWriter newDataFileWriter(Schema schema, Map<String, String> metadata) {
+    DataFileWriter writer = new DataFileWriter(new GenericDatumWriter(schema));
+    for (Map.Entry<String, String> entry : metadata.entrySet()) {
+      writer.setMeta(entry.getKey(), entry.getValue());
+    }
+    return writer;
+  }
+  
+  /** Asserts that two container files have the same bytes, except for their random sync markers */
+  private void assertContainerEquals(byte[] expected, byte[] actual) {
+    assertEquals(expected.length, actual.length);
+    int headerEnd = headerEnd(expected);
+    byte[] expectedSync = Arrays.copyOfRange(expected, headerEnd - DataFileConstants.SYNC_SIZE, headerEnd);
+    byte[] actualSync = Arrays.copyOfRange(actual, headerEnd - DataFileConstants.SYNC_SIZE, headerEnd);
+    byte[] normalized = expected.clone();
+    for (int i = 0; i <= normalized.length - expectedSync.length; i++) {
+      if (regionEquals(normalized, i, expectedSync)) {
+        System.arraycopy(actualSync, 0, normalized, i, actualSync.length);
+      }
+    }
+    assertArrayEquals(normalized, actual);
+  }
+  
+  /** Returns the offset just after the sync marker that ends the header of a container file */
+  private int headerEnd(byte[] container) {
+    try {
+      DataFileReader reader = new DataFileReader(
+          new ReadAvroContainerBuilder.ForwardOnlySeekableInputStream(new ByteArrayInputStream(container)), 
+          new GenericDatumReader());
+      Schema schema = reader.getSchema();
+      Map<String, String> metadata = new HashMap<String, String>();
+      for (String key : (List<String>) reader.getMetaKeys()) {
+        if (!key.startsWith("avro.")) {
+          metadata.put(key, reader.getMetaString(key));
+        }
+      }
+      reader.close();
+      return headerLength(schema, metadata);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+  
+  private static boolean regionEquals(byte[] bytes, int offset, byte[] region) {
+    for (int i = 0; i < region.length; i++) {
+      if (bytes[offset + i] != region[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  private List<GenericData.Record> readDataFile(byte[] bytes) throws IOException {
+    DataFileReader<GenericData.Record> reader = new DataFileReader(
+        new ReadAvroContainerBuilder.ForwardOnlySeekableInputStream(new ByteArrayInputStream(bytes)), 
+        new GenericDatumReader());
+    List<GenericData.Record> docs = new ArrayList<GenericData.Record>();
+    while (reader.hasNext()) {
+      docs.add(reader.next());
+    }
+    reader.close();
+    return docs;
+  }
+  
   @Test
   public void testReadAvroWithMissingExternalSchema() throws Exception {
     try {
@@ -855,6 +1073,55 @@ public class AvroMorphlineTest extends AbstractMorphlineTest {
     runTweetContainer("test-morphlines/readAvroTweetsContainerWithExternalSubSchema", subSchemaFieldNames);    
   }
   
+  @Test
+  public void testReadAvroTweetsContainerWithInferredProjection() throws Exception {
+    String[] projectedFieldNames = new String[] { 
+        "id", 
+        "text", 
+        };
+    runTweetContainer("test-morphlines/readAvroTweetsContainerWithInferredProjection", projectedFieldNames);
+    assertProjectedSchema(projectedFieldNames);
+  }
+  
+  @Test
+  public void testReadAvroTweetsContainerWithProjectionSchema() throws Exception {
+    String[] projectedFieldNames = new String[] { 
+        "id", 
+        "text", 
+        };
+    runTweetContainer("test-morphlines/readAvroTweetsContainerWithProjectionSchema", projectedFieldNames);
+    assertProjectedSchema(projectedFieldNames);
+  }
+  
+  @Test
+  public void testReadAvroTweetsContainerWithInterpretedPaths() throws Exception {
+    runTweetContainer("test-morphlines/readAvroTweetsContainerWithInterpretedPaths", TWEET_FIELD_NAMES);
+    List<Record> interpreted = new ArrayList<Record>(collector.getRecords());
+    
+    // compiled accessor plans must produce exactly what the step by step walker produces
+    runTweetContainer("test-morphlines/readAvroTweetsContainer", TWEET_FIELD_NAMES);
+    List<Record> compiled = collector.getRecords();
+    assertEquals(interpreted.size(), compiled.size());
+    for (int i = 0; i < compiled.size(); i++) {
+      Record expected = interpreted.get(i).copy();
+      Record actual = compiled.get(i).copy();
+      expected.removeAll(Fields.ATTACHMENT_BODY);
+      actual.removeAll(Fields.ATTACHMENT_BODY);
+      assertEquals(expected, actual);
+    }
+  }
+  
+  private void assertProjectedSchema(String[] fieldNames) {
+    for (Record record : collector.getRecords()) {
+      GenericContainer datum = (GenericContainer) record.getFirstValue(Fields.ATTACHMENT_BODY);
+      List<String> actualFieldNames = new ArrayList<String>();
+      for (Field field : datum.getSchema().getFields()) {
+        actualFieldNames.add(field.name());
+      }
+      assertEquals(Arrays.asList(fieldNames), actualFieldNames);
+    }
+  }
+  
   private void runTweetContainer(String morphlineConfigFile, String[] fieldNames) throws Exception {
     File file = new File(RESOURCES_DIR + "/test-documents/sample-statuses-20120906-141433-medium.avro");
     morphline = createMorphline(morphlineConfigFile);    
@@ -979,6 +1246,7 @@ public class AvroMorphlineTest extends AbstractMorphlineTest {
     benchmarkAvro("test-morphlines/readAvroTweetsWithExternalSchema");
     benchmarkAvro("test-morphlines/readAvroJsonTweetsWithExternalSchema");
     benchmarkAvro("test-morphlines/readAvroTweetsContainer");
+    benchmarkAvro("test-morphlines/readAvroTweetsContainerWithInterpretedPaths");
   }
   
   private void benchmarkAvro(String morphlineConfigFile) throws Exception {
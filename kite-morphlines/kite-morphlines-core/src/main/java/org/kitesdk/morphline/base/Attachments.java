@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.kitesdk.morphline.shaded.com.google.common.io.Closeables;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Tools for reading the attachment bodies of records without copying them.
+ *
+ * An attachment body in {@link Fields#ATTACHMENT_BODY} can be a <code>byte[]</code>, an
+ * {@link InputStream} or a {@link ByteBuffer}. A {@link ByteBuffer} body can be a slice of a larger
+ * buffer or a {@link MappedByteBuffer} obtained via {@link #map(File)}, and its bytes are read in
+ * place, from its position up to its limit. Reading never modifies the position of the buffer, so
+ * the same buffer can be read by any number of commands.
+ */
+public final class Attachments {
+
+  private Attachments() {}
+
+  /**
+   * Returns a stream over the given attachment body. Streams are returned as is; arrays and
+   * buffers are read in place.
+   */
+  public static InputStream getInputStream(Object body) {
+    Preconditions.checkNotNull(body);
+    if (body instanceof byte[]) {
+      return new ByteArrayInputStream((byte[]) body);
+    } else if (body instanceof ByteBuffer) {
+      return new ByteBufferInputStream(((ByteBuffer) body).duplicate());
+    } else {
+      return (InputStream) body;
+    }
+  }
+
+  /**
+   * Returns the bytes of the given attachment body as an array, or null if the body is a stream.
+   * Arrays are returned as is, and so are the backing arrays of buffers that span their entire
+   * backing array; other buffers are copied.
+   */
+  public static byte[] toByteArray(Object body) {
+    Preconditions.checkNotNull(body);
+    if (body instanceof byte[]) {
+      return (byte[]) body;
+    } else if (body instanceof ByteBuffer) {
+      ByteBuffer buffer = (ByteBuffer) body;
+      if (buffer.hasArray()
+          && buffer.arrayOffset() == 0
+          && buffer.position() == 0
+          && buffer.remaining() == buffer.array().length) {
+        return buffer.array();
+      }
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return bytes;
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Memory maps the given file read-only, for use as an attachment body. The file contents are
+   * paged in by the OS on demand and are not copied onto the Java heap.
+   */
+  public static MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      Closeables.closeQuietly(raf); // the mapping remains valid after the channel is closed
+    }
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** An InputStream that reads the remaining bytes of a ByteBuffer in place */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.buffer.mark(); // reset() without a prior mark() rewinds to the start
+    }
+
+    @Override
+    public int read() {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(bytes, off, len);
+      return len;
+    }
+
+    @Override
+    public long skip(long n) {
+      if (n <= 0) {
+        return 0;
+      }
+      int skipped = (int) Math.min(n, buffer.remaining());
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+      buffer.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+      buffer.reset();
+    }
+  }
+
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.base;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.kitesdk.morphline.api.MorphlineCompilationException;
+
+import com.google.common.base.Preconditions;
+import com.typesafe.config.Config;
+
+/**
+ * A row filter predicate over named columns, such as
+ * <code>year &gt;= 2012 and (status == 'active' or not retries &gt; 3)</code>.
+ *
+ * Each comparison consists of a column name on the left hand side, one of the operators
+ * <code>==</code>, <code>!=</code>, <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code> and
+ * <code>&gt;=</code>, and a literal on the right hand side. Literals are numbers, single or double
+ * quoted strings, <code>true</code>, <code>false</code> and <code>null</code>. Comparisons are
+ * combined with <code>and</code>, <code>or</code>, <code>not</code> and parentheses.
+ *
+ * File readers translate the parsed tree into the native filter mechanism of their format, so data
+ * that cannot match is skipped without being decoded. Null semantics follow Parquet: a missing
+ * value is equal to <code>null</code>, not equal to any other literal, and never less or greater
+ * than anything. The parser therefore pushes each <code>not</code> down into the comparisons, e.g.
+ * <code>not x &lt; 5</code> becomes <code>x &gt;= 5</code>, which fails for a missing value just
+ * like <code>x &lt; 5</code> does. The tree consists of comparisons, conjunctions and
+ * disjunctions only, so every reader and evaluator applies the same semantics.
+ */
+public final class FilterExpression {
+
+  private final String expression;
+  private final Node root;
+
+  public FilterExpression(String expression, Config config) {
+    Preconditions.checkNotNull(expression);
+    this.expression = expression;
+    Parser parser = new Parser(expression, config);
+    this.root = parser.parse();
+  }
+
+  /** Returns the root of the parsed expression tree, which contains no negations */
+  public Node getRoot() {
+    return root;
+  }
+
+  /** Returns the names of all columns that the expression refers to */
+  public Set<String> getColumns() {
+    Set<String> columns = new LinkedHashSet<String>();
+    root.addColumns(columns);
+    return columns;
+  }
+
+  /** Returns whether the row with the given column values satisfies this expression */
+  public boolean matches(Map<String, ?> values) {
+    return root.matches(values);
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** A comparison operator */
+  public static enum Operator {
+    EQ("=="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+    private final String symbol;
+
+    private Operator(String symbol) {
+      this.symbol = symbol;
+    }
+
+    public String getSymbol() {
+      return symbol;
+    }
+
+    /** Returns the operator that holds for two non-null comparable values iff this one doesn't */
+    public Operator getComplement() {
+      switch (this) {
+        case EQ: return NE;
+        case NE: return EQ;
+        case LT: return GE;
+        case LE: return GT;
+        case GT: return LE;
+        case GE: return LT;
+        default: throw new IllegalStateException();
+      }
+    }
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** A node of the parsed expression tree */
+  public static abstract class Node {
+
+    private Node() {}
+
+    abstract boolean matches(Map<String, ?> values);
+
+    /** Returns the node that <code>not</code> this node is rewritten to */
+    abstract Node negate();
+
+    abstract void addColumns(Set<String> columns);
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /**
+   * Compares the value of a column with a literal, which is a Long, Double, String, Boolean or
+   * null.
+   */
+  public static final class Comparison extends Node {
+
+    private final String column;
+    private final Operator operator;
+    private final Object literal;
+
+    private Comparison(String column, Operator operator, Object literal) {
+      this.column = column;
+      this.operator = operator;
+      this.literal = literal;
+    }
+
+    public String getColumn() {
+      return column;
+    }
+
+    public Operator getOperator() {
+      return operator;
+    }
+
+    public Object getLiteral() {
+      return literal;
+    }
+
+    @Override
+    boolean matches(Map<String, ?> values) {
+      return matches(values.get(column));
+    }
+
+    /** Returns whether the given column value satisfies this comparison */
+    public boolean matches(Object value) {
+      if (value == null || literal == null) {
+        boolean isEqual = (value == literal);
+        switch (operator) {
+          case EQ: return isEqual;
+          case NE: return !isEqual;
+          default: return false;
+        }
+      }
+      Integer cmp = compare(value, literal);
+      if (cmp == null) { // incomparable types
+        return operator == Operator.NE;
+      }
+      switch (operator) {
+        case EQ: return cmp == 0;
+        case NE: return cmp != 0;
+        case LT: return cmp < 0;
+        case LE: return cmp <= 0;
+        case GT: return cmp > 0;
+        case GE: return cmp >= 0;
+        default: throw new IllegalStateException();
+      }
+    }
+
+    private static Integer compare(Object value, Object literal) {
+      if (literal instanceof Number) {
+        if (value instanceof CharSequence) {
+          try {
+            value = parseNumber(value.toString().trim());
+          } catch (NumberFormatException e) {
+            return null;
+          }
+        }
+        if (!(value instanceof Number)) {
+          return null;
+        }
+        if (isIntegral(value) && isIntegral(literal)) {
+          long v = ((Number) value).longValue();
+          long l = ((Number) literal).longValue();
+          return v < l ? -1 : (v == l ? 0 : 1);
+        }
+        return Double.compare(((Number) value).doubleValue(), ((Number) literal).doubleValue());
+      } else if (literal instanceof Boolean) {
+        if (value instanceof CharSequence) {
+          value = Boolean.valueOf(value.toString().trim());
+        }
+        if (!(value instanceof Boolean)) {
+          return null;
+        }
+        return ((Boolean) value).compareTo((Boolean) literal);
+      } else {
+        return value.toString().compareTo((String) literal);
+      }
+    }
+
+    private static boolean isIntegral(Object number) {
+      return number instanceof Long || number instanceof Integer || number instanceof Short
+          || number instanceof Byte;
+    }
+
+    @Override
+    Node negate() {
+      return new Comparison(column, operator.getComplement(), literal);
+    }
+
+    @Override
+    void addColumns(Set<String> columns) {
+      columns.add(column);
+    }
+
+    @Override
+    public String toString() {
+      return column + " " + operator.getSymbol() + " "
+          + (literal instanceof String ? "'" + literal + "'" : literal);
+    }
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** Logical conjunction of two nodes */
+  public static final class And extends Node {
+
+    private final Node left;
+    private final Node right;
+
+    private And(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    public Node getLeft() {
+      return left;
+    }
+
+    public Node getRight() {
+      return right;
+    }
+
+    @Override
+    boolean matches(Map<String, ?> values) {
+      return left.matches(values) && right.matches(values);
+    }
+
+    @Override
+    Node negate() {
+      return new Or(left.negate(), right.negate());
+    }
+
+    @Override
+    void addColumns(Set<String> columns) {
+      left.addColumns(columns);
+      right.addColumns(columns);
+    }
+
+    @Override
+    public String toString() {
+      return "(" + left + " and " + right + ")";
+    }
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** Logical disjunction of two nodes */
+  public static final class Or extends Node {
+
+    private final Node left;
+    private final Node right;
+
+    private Or(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    public Node getLeft() {
+      return left;
+    }
+
+    public Node getRight() {
+      return right;
+    }
+
+    @Override
+    boolean matches(Map<String, ?> values) {
+      return left.matches(values) || right.matches(values);
+    }
+
+    @Override
+    Node negate() {
+      return new And(left.negate(), right.negate());
+    }
+
+    @Override
+    void addColumns(Set<String> columns) {
+      left.addColumns(columns);
+      right.addColumns(columns);
+    }
+
+    @Override
+    public String toString() {
+      return "(" + left + " or " + right + ")";
+    }
+  }
+
+
+  private static Number parseNumber(String str) {
+    if (str.indexOf('.') >= 0 || str.indexOf('e') >= 0 || str.indexOf('E') >= 0) {
+      return Double.valueOf(str);
+    }
+    return Long.valueOf(str);
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** Recursive descent parser; 'or' binds weaker than 'and', which binds weaker than 'not' */
+  private static final class Parser {
+
+    private final String input;
+    private final Config config;
+    private int pos = 0;
+
+    public Parser(String input, Config config) {
+      this.input = input;
+      this.config = config;
+    }
+
+    public Node parse() {
+      Node node = parseOr();
+      skipWhitespace();
+      if (pos < input.length()) {
+        throw error("Unexpected input");
+      }
+      return node;
+    }
+
+    private Node parseOr() {
+      Node node = parseAnd();
+      while (acceptKeyword("or")) {
+        node = new Or(node, parseAnd());
+      }
+      return node;
+    }
+
+    private Node parseAnd() {
+      Node node = parseNot();
+      while (acceptKeyword("and")) {
+        node = new And(node, parseNot());
+      }
+      return node;
+    }
+
+    private Node parseNot() {
+      if (acceptKeyword("not")) {
+        return parseNot().negate();
+      }
+      skipWhitespace();
+      if (pos < input.length() && input.charAt(pos) == '(') {
+        pos++;
+        Node node = parseOr();
+        skipWhitespace();
+        if (pos >= input.length() || input.charAt(pos) != ')') {
+          throw error("Missing closing parenthesis");
+        }
+        pos++;
+        return node;
+      }
+      return parseComparison();
+    }
+
+    private Node parseComparison() {
+      String column = parseIdentifier();
+      Operator operator = parseOperator();
+      Object literal = parseLiteral();
+      if (literal == null && operator != Operator.EQ && operator != Operator.NE) {
+        throw error("null can only be compared with == or !=");
+      }
+      return new Comparison(column, operator, literal);
+    }
+
+    private String parseIdentifier() {
+      skipWhitespace();
+      int start = pos;
+      while (pos < input.length()) {
+        char c = input.charAt(pos);
+        if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$') {
+          pos++;
+        } else {
+          break;
+        }
+      }
+      if (start == pos) {
+        throw error("Expected column name");
+      }
+      return input.substring(start, pos);
+    }
+
+    private Operator parseOperator() {
+      skipWhitespace();
+      // longest symbols first
+      for (Operator op : new Operator[] {
+          Operator.EQ, Operator.NE, Operator.LE, Operator.GE, Operator.LT, Operator.GT }) {
+        if (input.startsWith(op.getSymbol(), pos)) {
+          pos += op.getSymbol().length();
+          return op;
+        }
+      }
+      throw error("Expected comparison operator");
+    }
+
+    private Object parseLiteral() {
+      skipWhitespace();
+      if (pos >= input.length()) {
+        throw error("Expected literal");
+      }
+      char c = input.charAt(pos);
+      if (c == '\'' || c == '"') {
+        return parseString(c);
+      }
+      if (acceptKeyword("null")) {
+        return null;
+      }
+      if (acceptKeyword("true")) {
+        return Boolean.TRUE;
+      }
+      if (acceptKeyword("false")) {
+        return Boolean.FALSE;
+      }
+      int start = pos;
+      while (pos < input.length()) {
+        c = input.charAt(pos);
+        if (Character.isDigit(c) || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+          pos++;
+        } else {
+          break;
+        }
+      }
+      try {
+        return parseNumber(input.substring(start, pos));
+      } catch (NumberFormatException e) {
+        pos = start;
+        throw error("Expected literal");
+      }
+    }
+
+    private String parseString(char quote) {
+      StringBuilder buf = new StringBuilder();
+      pos++;
+      while (pos < input.length()) {
+        char c = input.charAt(pos++);
+        if (c == quote) {
+          return buf.toString();
+        } else if (c == '\\' && pos < input.length()) {
+          buf.append(input.charAt(pos++));
+        } else {
+          buf.append(c);
+        }
+      }
+      throw error("Unterminated string literal");
+    }
+
+    private boolean acceptKeyword(String keyword) {
+      skipWhitespace();
+      int end = pos + keyword.length();
+      if (input.regionMatches(true, pos, keyword, 0, keyword.length())
+          && (end == input.length() || !isIdentifierPart(input.charAt(end)))) {
+        pos = end;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean isIdentifierPart(char c) {
+      return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$';
+    }
+
+    private void skipWhitespace() {
+      while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private MorphlineCompilationException error(String message) {
+      return new MorphlineCompilationException(
+          message + " at position " + pos + " of filter expression: " + input, config);
+    }
+  }
+
+}
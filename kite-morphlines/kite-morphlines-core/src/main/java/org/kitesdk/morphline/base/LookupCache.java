@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.base;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A thread-safe cache with a bounded number of entries, intended for memoizing expensive lookups
+ * such as GeoIP or user agent parsing across many threads.
+ *
+ * Entries are held in lock striped LRU segments. Once a segment is full, a new entry is only
+ * admitted if its key has been requested more often than the key of the LRU entry it would evict,
+ * as estimated by a small count-min sketch whose counters are periodically halved (TinyLFU). This
+ * keeps a stream of one-off keys from flushing out a small set of hot keys.
+ */
+public final class LookupCache<K,V> {
+
+  private final Segment<K,V>[] segments;
+  private final int segmentMask;
+  private final FrequencySketch sketch;
+  private final AtomicLong numHits = new AtomicLong();
+  private final AtomicLong numMisses = new AtomicLong();
+
+  private static final int MAX_SEGMENTS = 64;
+
+  @SuppressWarnings("unchecked")
+  public LookupCache(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+    int numSegments = 1;
+    while (numSegments < MAX_SEGMENTS && numSegments * 2 * 16 <= capacity) {
+      numSegments *= 2; // keep at least 16 entries per segment
+    }
+    this.segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      int segmentCapacity = capacity / numSegments + (i < capacity % numSegments ? 1 : 0);
+      segments[i] = new Segment<K,V>(segmentCapacity);
+    }
+    this.segmentMask = numSegments - 1;
+    this.sketch = new FrequencySketch(capacity);
+  }
+
+  /** Returns the value cached for the given key, or null if there is none */
+  public V get(K key) {
+    int hash = spread(key.hashCode());
+    sketch.increment(hash);
+    Segment<K,V> segment = segments[hash & segmentMask];
+    V value;
+    synchronized (segment) {
+      value = segment.get(key);
+    }
+    if (value == null) {
+      numMisses.incrementAndGet();
+    } else {
+      numHits.incrementAndGet();
+    }
+    return value;
+  }
+
+  /**
+   * Caches the given value for the given key, unless the key is requested less frequently than
+   * the entry that would have to be evicted to make room for it.
+   */
+  public void put(K key, V value) {
+    Preconditions.checkNotNull(value);
+    int hash = spread(key.hashCode());
+    Segment<K,V> segment = segments[hash & segmentMask];
+    synchronized (segment) {
+      if (segment.size() < segment.capacity || segment.containsKey(key)) {
+        segment.put(key, value);
+        return;
+      }
+      Iterator<K> iter = segment.keySet().iterator();
+      K victim = iter.next(); // least recently used
+      if (sketch.frequency(hash) > sketch.frequency(spread(victim.hashCode()))) {
+        iter.remove();
+        segment.put(key, value);
+      }
+    }
+  }
+
+  /** Returns the number of calls to {@link #get(Object)} that found a value */
+  public long getNumHits() {
+    return numHits.get();
+  }
+
+  /** Returns the number of calls to {@link #get(Object)} that found no value */
+  public long getNumMisses() {
+    return numMisses.get();
+  }
+
+  /** Returns the current number of entries */
+  public int size() {
+    int size = 0;
+    for (Segment<K,V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  private static int spread(int hash) { // same as java.util.HashMap
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    return hash ^ (hash >>> 7) ^ (hash >>> 4);
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static final class Segment<K,V> extends LinkedHashMap<K,V> {
+
+    private final int capacity;
+
+    public Segment(int capacity) {
+      super(16, 0.5f, true);
+      this.capacity = capacity;
+    }
+  }
+
+
+  /**
+   * Approximate access frequencies of keys, as a count-min sketch of 4 rows of counters that
+   * saturate at 15. All counters are halved after 10 increments per cache entry, so the sketch
+   * reflects recent rather than all time popularity.
+   */
+  private static final class FrequencySketch {
+
+    private final AtomicIntegerArray counters;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger numIncrements = new AtomicInteger();
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = { 0x97cb3127, 0xb8a4c7b3, 0x8e1d5a6b, 0xc2b2ae35 };
+
+    public FrequencySketch(int capacity) {
+      int width = 16;
+      while (width < capacity && width < (1 << 24)) {
+        width *= 2;
+      }
+      this.counters = new AtomicIntegerArray(DEPTH * width);
+      this.mask = width - 1;
+      this.sampleSize = (int) Math.min(10L * Math.max(capacity, 16), Integer.MAX_VALUE);
+    }
+
+    public void increment(int hash) {
+      for (int i = 0; i < DEPTH; i++) {
+        int index = indexOf(hash, i);
+        int count = counters.get(index);
+        if (count < MAX_COUNT) {
+          counters.compareAndSet(index, count, count + 1); // losing a race merely loses a count
+        }
+      }
+      if (numIncrements.incrementAndGet() >= sampleSize) {
+        age();
+      }
+    }
+
+    public int frequency(int hash) {
+      int frequency = MAX_COUNT;
+      for (int i = 0; i < DEPTH; i++) {
+        frequency = Math.min(frequency, counters.get(indexOf(hash, i)));
+      }
+      return frequency;
+    }
+
+    private synchronized void age() {
+      if (numIncrements.get() < sampleSize) {
+        return; // another thread has just aged the sketch
+      }
+      for (int i = 0; i < counters.length(); i++) {
+        counters.set(i, counters.get(i) >>> 1);
+      }
+      numIncrements.set(0);
+    }
+
+    private int indexOf(int hash, int row) {
+      int h = (hash ^ SEEDS[row]) * 0x9E3779B1;
+      return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JVM wide registry of expensive, thread-safe resources such as parsed lookup databases, so that
+ * all morphline commands (and morphline instances) that refer to the same resource share a single
+ * copy of it.
+ *
+ * Resources are reference counted: each {@link #acquire(String, Factory)} must eventually be
+ * matched by a {@link #release(String)}, typically upon the
+ * {@link Notifications.LifecycleEvent#SHUTDOWN} notification. A resource that implements
+ * {@link Closeable} is closed once the last reference to it has been released.
+ */
+public final class SharedResources {
+
+  private static final Map<String, Entry> RESOURCES = new HashMap<String, Entry>();
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedResources.class);
+
+  private SharedResources() {}
+
+  /**
+   * Returns the resource registered under the given key, creating it with the given factory if no
+   * such resource exists yet.
+   */
+  @SuppressWarnings("unchecked")
+  public static synchronized <T> T acquire(String key, Factory<T> factory) throws IOException {
+    Entry entry = RESOURCES.get(key);
+    if (entry == null) {
+      LOG.debug("Creating shared resource: {}", key);
+      entry = new Entry(factory.create());
+      RESOURCES.put(key, entry);
+    }
+    entry.refCount++;
+    return (T) entry.resource;
+  }
+
+  /** Releases a reference to the resource registered under the given key */
+  public static synchronized void release(String key) {
+    Entry entry = RESOURCES.get(key);
+    if (entry == null) {
+      return;
+    }
+    if (--entry.refCount == 0) {
+      RESOURCES.remove(key);
+      if (entry.resource instanceof Closeable) {
+        LOG.debug("Closing shared resource: {}", key);
+        try {
+          ((Closeable) entry.resource).close();
+        } catch (IOException e) {
+          LOG.warn("Cannot close shared resource: " + key, e);
+        }
+      }
+    }
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** Creates a shared resource */
+  public static interface Factory<T> {
+    T create() throws IOException;
+  }
+
+
+  private static final class Entry {
+
+    private final Object resource;
+    private int refCount = 0;
+
+    public Entry(Object resource) {
+      this.resource = resource;
+    }
+  }
+
+}
@@ -31,11 +31,11 @@ import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.MorphlineRuntimeException;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.AbstractCommand;
+import org.kitesdk.morphline.base.Attachments;
 import org.kitesdk.morphline.base.Fields;
 import org.kitesdk.morphline.base.Metrics;
 
 import com.codahale.metrics.Meter;
-import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 
 import org.kitesdk.morphline.shaded.com.google.common.io.Closeables;
@@ -176,13 +176,7 @@ public abstract class AbstractParser extends AbstractCommand {
   }
 
   private InputStream getAttachmentInputStream(Record record) {
-    Object body = record.getFirstValue(Fields.ATTACHMENT_BODY);
-    Preconditions.checkNotNull(body);
-    if (body instanceof byte[]) {
-      return new ByteArrayInputStream((byte[]) body);
-    } else {
-      return (InputStream) body;
-    }
+    return Attachments.getInputStream(record.getFirstValue(Fields.ATTACHMENT_BODY));
   }
 
   public static void removeAttachments(Record outputRecord) {
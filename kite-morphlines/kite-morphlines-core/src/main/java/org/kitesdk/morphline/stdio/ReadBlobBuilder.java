@@ -25,6 +25,7 @@ import org.kitesdk.morphline.api.Command;
 import org.kitesdk.morphline.api.CommandBuilder;
 import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.Record;
+import org.kitesdk.morphline.base.Attachments;
 import org.kitesdk.morphline.base.Fields;
 
 import com.typesafe.config.Config;
@@ -69,12 +70,17 @@ public final class ReadBlobBuilder implements CommandBuilder {
       }
       incrementNumRecords();
       
-      blob.reset();      
-      int len;
-      while ((len = stream.read(buffer)) >= 0) {
-        blob.write(buffer, 0, len);
-      }      
-      inputRecord.replaceValues(outputFieldName, blob.toByteArray());
+      // bodies that already are in memory are passed on as is rather than copied
+      byte[] bytes = Attachments.toByteArray(inputRecord.getFirstValue(Fields.ATTACHMENT_BODY));
+      if (bytes == null) {
+        blob.reset();      
+        int len;
+        while ((len = stream.read(buffer)) >= 0) {
+          blob.write(buffer, 0, len);
+        }      
+        bytes = blob.toByteArray();
+      }
+      inputRecord.replaceValues(outputFieldName, bytes);
         
       // pass record to next command in chain:
       return getChild().process(inputRecord);
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.stdlib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A table driven Base64 decoder that works directly on CharSequences, byte arrays and streams,
+ * without intermediate Strings or byte arrays.
+ *
+ * Base64 decoding has the same semantics as commons-codec: both the standard and the URL safe
+ * alphabet are accepted, characters outside of the alphabet (e.g. line breaks) are ignored, and
+ * decoding stops at the first padding character.
+ */
+final class Codecs {
+
+  private static final byte[] DECODE_TABLE = new byte[128];
+
+  private static final char PAD = '=';
+
+  static {
+    Arrays.fill(DECODE_TABLE, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < alphabet.length(); i++) {
+      DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+    }
+    DECODE_TABLE['-'] = 62; // URL safe alphabet
+    DECODE_TABLE['_'] = 63;
+  }
+
+  private Codecs() {}
+
+  /** Decodes the given Base64 encoded chars */
+  public static byte[] decodeBase64(CharSequence src) {
+    int len = src.length();
+    int end = len;
+    while (end > 0 && src.charAt(end - 1) == PAD) {
+      end--;
+    }
+    // exact for input without line breaks; otherwise an upper bound
+    byte[] dst = new byte[(int) (end * 3L / 4)];
+    int n = 0;
+    int bits = 0;
+    int count = 0;
+    int i = 0;
+    while (i < end) {
+      if (count == 0 && i + 4 <= end) { // fast path for a full quantum of alphabet chars
+        int b0 = lookup(src.charAt(i));
+        int b1 = lookup(src.charAt(i + 1));
+        int b2 = lookup(src.charAt(i + 2));
+        int b3 = lookup(src.charAt(i + 3));
+        if ((b0 | b1 | b2 | b3) >= 0) {
+          int quantum = (b0 << 18) | (b1 << 12) | (b2 << 6) | b3;
+          dst[n++] = (byte) (quantum >> 16);
+          dst[n++] = (byte) (quantum >> 8);
+          dst[n++] = (byte) quantum;
+          i += 4;
+          continue;
+        }
+      }
+      char c = src.charAt(i++);
+      if (c == PAD) {
+        break;
+      }
+      int b = lookup(c);
+      if (b >= 0) {
+        bits = (bits << 6) | b;
+        if (++count == 4) {
+          dst[n++] = (byte) (bits >> 16);
+          dst[n++] = (byte) (bits >> 8);
+          dst[n++] = (byte) bits;
+          bits = 0;
+          count = 0;
+        }
+      }
+    }
+    n = flush(bits, count, dst, n);
+    return n == dst.length ? dst : Arrays.copyOf(dst, n);
+  }
+
+  /** Decodes the given Base64 encoded ASCII bytes */
+  public static byte[] decodeBase64(byte[] src) {
+    Base64Decoder decoder = new Base64Decoder();
+    byte[] dst = new byte[maxDecodedLength(src.length)];
+    int n = decoder.decode(src, 0, src.length, dst, 0);
+    n += decoder.finish(dst, n);
+    return n == dst.length ? dst : Arrays.copyOf(dst, n);
+  }
+
+  /** Returns a stream that lazily decodes the Base64 encoded ASCII bytes of the given stream */
+  public static InputStream newBase64DecodingInputStream(InputStream in) {
+    return new Base64DecodingInputStream(in);
+  }
+
+  private static int lookup(int c) {
+    return c >= 0 && c < 128 ? DECODE_TABLE[c] : -1;
+  }
+
+  private static int maxDecodedLength(int len) {
+    return (int) ((len + 3L) * 3 / 4); // including up to 3 pending chars of a previous call
+  }
+
+  /** Writes the whole bytes of a trailing partial quantum; returns the new position */
+  private static int flush(int bits, int count, byte[] dst, int n) {
+    switch (count) {
+      case 2 : // 12 bits = 8 + 4
+        dst[n++] = (byte) (bits >> 4);
+        break;
+      case 3 : // 18 bits = 8 + 8 + 2
+        dst[n++] = (byte) (bits >> 10);
+        dst[n++] = (byte) (bits >> 2);
+        break;
+      default : // 6 bits are ignored entirely
+        break;
+    }
+    return n;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** Decodes Base64 encoded ASCII bytes chunk by chunk */
+  private static final class Base64Decoder {
+
+    private int bits = 0;
+    private int count = 0;
+    private boolean eof = false;
+
+    /**
+     * Decodes the given chunk into the given destination, which must have room for
+     * <code>maxDecodedLength(len)</code> bytes; returns the number of bytes written.
+     */
+    public int decode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+      int n = dstOff;
+      int end = off + len;
+      for (int i = off; i < end && !eof; i++) {
+        byte c = src[i];
+        if (c == PAD) {
+          eof = true;
+        } else {
+          int b = lookup(c);
+          if (b >= 0) {
+            bits = (bits << 6) | b;
+            if (++count == 4) {
+              dst[n++] = (byte) (bits >> 16);
+              dst[n++] = (byte) (bits >> 8);
+              dst[n++] = (byte) bits;
+              bits = 0;
+              count = 0;
+            }
+          }
+        }
+      }
+      return n - dstOff;
+    }
+
+    /** Writes the bytes of a trailing partial quantum; returns the number of bytes written */
+    public int finish(byte[] dst, int dstOff) {
+      eof = true;
+      int n = flush(bits, count, dst, dstOff) - dstOff;
+      count = 0;
+      return n;
+    }
+
+    public boolean isEOF() {
+      return eof;
+    }
+  }
+
+
+  /**
+   * An InputStream that decodes a Base64 encoded stream through a pair of fixed size buffers, so
+   * memory use is independent of the size of the stream.
+   */
+  private static final class Base64DecodingInputStream extends InputStream {
+
+    private final InputStream in;
+    private final Base64Decoder decoder = new Base64Decoder();
+    private final byte[] inBuffer = new byte[8 * 1024];
+    private final byte[] outBuffer = new byte[maxDecodedLength(inBuffer.length)];
+    private int outPos = 0;
+    private int outLimit = 0;
+    private boolean isDone = false;
+
+    public Base64DecodingInputStream(InputStream in) {
+      Preconditions.checkNotNull(in);
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return outBuffer[outPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      len = Math.min(len, outLimit - outPos);
+      System.arraycopy(outBuffer, outPos, bytes, off, len);
+      outPos += len;
+      return len;
+    }
+
+    @Override
+    public int available() {
+      return outLimit - outPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    /** Returns false if all decoded bytes have been consumed */
+    private boolean fill() throws IOException {
+      while (outPos == outLimit) {
+        if (isDone) {
+          return false;
+        }
+        outPos = 0;
+        outLimit = 0;
+        int n = decoder.isEOF() ? -1 : in.read(inBuffer);
+        if (n < 0) {
+          outLimit = decoder.finish(outBuffer, 0);
+          isDone = true;
+        } else {
+          outLimit = decoder.decode(inBuffer, 0, n, outBuffer, 0);
+        }
+      }
+      return true;
+    }
+  }
+
+}
@@ -15,19 +15,24 @@
  */
 package org.kitesdk.morphline.stdlib;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 
 import org.kitesdk.morphline.api.Command;
 import org.kitesdk.morphline.api.CommandBuilder;
 import org.kitesdk.morphline.api.MorphlineContext;
-import org.kitesdk.morphline.shaded.org.apache.commons.codec.binary.binary.Base64;
+import org.kitesdk.morphline.base.Attachments;
 
 import com.typesafe.config.Config;
 
 /**
  * Command that converts a Base64 encoded String to a byte[] per Section <cite>6.8. Base64
  * Content-Transfer-Encoding</cite> of <a href="http://www.ietf.org/rfc/rfc2045.txt">RFC 2045</a>.
+ * 
+ * Byte arrays and ByteBuffers are decoded as Base64 encoded ASCII bytes. An InputStream, e.g. a
+ * streaming attachment body, is replaced with an InputStream that lazily decodes it.
  */
 public final class DecodeBase64Builder implements CommandBuilder {
 
@@ -47,8 +52,6 @@ public final class DecodeBase64Builder implements CommandBuilder {
   ///////////////////////////////////////////////////////////////////////////////
   private static final class Base64Decode extends AbstractFieldTransformCommand {
 
-    private final Base64 base64 = new Base64();
-    
     public Base64Decode(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {
       super(builder, config, parent, child, context);      
       validateArguments();
@@ -56,10 +59,17 @@ public final class DecodeBase64Builder implements CommandBuilder {
         
     @Override
     protected Object transformFieldValue(Object value) {
-      String str = value.toString();
-      // consider switching to com.fasterxml.jackson.core.Base64Variants.MIME.decode(String, ByteArrayBuilder) for performance?
-      byte[] bytes = base64.decode(str);
-      return bytes;
+      if (value instanceof CharSequence) {
+        return Codecs.decodeBase64((CharSequence) value);
+      } else if (value instanceof byte[]) {
+        return Codecs.decodeBase64((byte[]) value);
+      } else if (value instanceof ByteBuffer) {
+        return Codecs.decodeBase64(Attachments.toByteArray(value));
+      } else if (value instanceof InputStream) {
+        return Codecs.newBase64DecodingInputStream((InputStream) value);
+      } else {
+        return Codecs.decodeBase64(value.toString());
+      }
     }
     
   }
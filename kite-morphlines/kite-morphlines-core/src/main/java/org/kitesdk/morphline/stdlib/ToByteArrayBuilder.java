@@ -15,6 +15,7 @@
  */
 package org.kitesdk.morphline.stdlib;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Collections;
@@ -25,6 +26,7 @@ import org.kitesdk.morphline.api.CommandBuilder;
 import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.AbstractCommand;
+import org.kitesdk.morphline.base.Attachments;
 
 import com.google.common.base.Charsets;
 import com.typesafe.config.Config;
@@ -33,6 +35,7 @@ import com.typesafe.config.Config;
  * Command that converts the Java objects in a given field via <code>Object.toString()</code> to
  * their string representation, and then via <code>String.getBytes(Charset)</code> to their byte
  * array representation. If the input Java objects are already byte arrays the command does nothing.
+ * ByteBuffers are converted to byte arrays, without a copy if the buffer spans its whole array.
  */
 public final class ToByteArrayBuilder implements CommandBuilder {
 
@@ -68,7 +71,9 @@ public final class ToByteArrayBuilder implements CommandBuilder {
       ListIterator iter = record.get(fieldName).listIterator();
       while (iter.hasNext()) {
         Object value = iter.next();
-        if (!(value instanceof byte[])) {
+        if (value instanceof ByteBuffer) {
+          iter.set(Attachments.toByteArray(value));
+        } else if (!(value instanceof byte[])) {
           String str = value.toString();
           value = str.getBytes(charset);
           iter.set(value);
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.api;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitesdk.morphline.base.FilterExpression;
+
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.ConfigFactory;
+
+public class FilterExpressionTest extends Assert {
+
+  @Test
+  public void testParse() throws Exception {
+    FilterExpression expr = parse("year >= 2012 and (status == 'active' or not retries > 3)");
+    assertEquals("(year >= 2012 and (status == 'active' or retries <= 3))", expr.getRoot().toString());
+    assertEquals(Arrays.asList("year", "status", "retries"), Arrays.asList(expr.getColumns().toArray()));
+    
+    // 'and' binds stronger than 'or'
+    assertEquals("(a == 1 or (b == 2 and c == 3))", parse("a == 1 or b == 2 AND c == 3").getRoot().toString());
+    assertEquals("a.b != \"x\"".replace('"', '\''), parse("not a.b == \"x\"").getRoot().toString());
+  }
+
+  @Test
+  public void testNegationIsPushedDown() throws Exception {
+    assertEquals("a >= 1", parse("not a < 1").getRoot().toString());
+    assertEquals("a > 1", parse("not a <= 1").getRoot().toString());
+    assertEquals("a <= 1", parse("not a > 1").getRoot().toString());
+    assertEquals("a < 1", parse("not a >= 1").getRoot().toString());
+    assertEquals("a == null", parse("not a != null").getRoot().toString());
+    assertEquals("a < 1", parse("not not a < 1").getRoot().toString());
+    assertEquals("(a != 1 or b != 2)", parse("not (a == 1 and b == 2)").getRoot().toString());
+    assertEquals("(a != 1 and (b <= 2 or c == 3))",
+        parse("not (a == 1 or (b > 2 and not c == 3))").getRoot().toString());
+  }
+
+  @Test
+  public void testParseErrors() throws Exception {
+    for (String str : new String[] {"", "a", "a ==", "a == 1 and", "(a == 1", "a == 'x", "a < null", 
+        "a == b", "a == 1 b == 2", "a =! 1"}) {
+      try {
+        parse(str);
+        fail(str);
+      } catch (MorphlineCompilationException e) {
+        ; // expected
+      }
+    }
+  }
+
+  @Test
+  public void testMatches() throws Exception {
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("i", 5);
+    row.put("l", 5000000000L);
+    row.put("d", 1.5);
+    row.put("s", "foo");
+    row.put("n", "42");
+    row.put("b", true);
+    
+    assertTrue(parse("i == 5 and i != 4 and i < 6 and i <= 5 and i > 4 and i >= 5").matches(row));
+    assertTrue(parse("l > 4000000000 and d < 1.6 and d > 1").matches(row));
+    assertTrue(parse("i < 5.5 and i > 4.5").matches(row));
+    assertTrue(parse("s == 'foo' and s < 'fop' and s != \"bar\"").matches(row));
+    assertTrue(parse("n == 42 and n > 41.5").matches(row)); // numeric strings compare as numbers
+    assertTrue(parse("b == true and b != false").matches(row));
+    assertFalse(parse("s == 1").matches(row));
+    assertTrue(parse("s != 1").matches(row));
+    assertTrue(parse("not (i == 5 and s == 'bar')").matches(row));
+  }
+
+  @Test
+  public void testNullSemantics() throws Exception {
+    Map<String, Object> row = ImmutableMap.<String, Object>of("i", 5);
+    assertTrue(parse("missing == null").matches(row));
+    assertFalse(parse("missing != null").matches(row));
+    assertFalse(parse("missing == 5").matches(row));
+    assertTrue(parse("missing != 5").matches(row));
+    assertFalse(parse("missing < 5").matches(row));
+    assertFalse(parse("missing >= 5").matches(row));
+    assertTrue(parse("i != null").matches(row));
+    assertFalse(parse("i == null").matches(row));
+  }
+
+  @Test
+  public void testNullSemanticsUnderNot() throws Exception {
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("i", 5);
+    row.put("n", null);
+    for (String column : new String[] {"missing", "n"}) {
+      // a null value fails a range comparison and its negation alike
+      assertFalse(parse("not " + column + " < 5").matches(row));
+      assertFalse(parse("not " + column + " >= 5").matches(row));
+      assertFalse(parse("not (" + column + " > 1 or " + column + " <= 1)").matches(row));
+      assertFalse(parse("not (" + column + " > 1 and i == 5)").matches(row));
+      assertTrue(parse("not (" + column + " > 1 and i == 4)").matches(row));
+      // but it is not equal to any literal
+      assertTrue(parse("not " + column + " == 5").matches(row));
+      assertFalse(parse("not " + column + " != 5").matches(row));
+      assertFalse(parse("not " + column + " == null").matches(row));
+      assertTrue(parse("not " + column + " != null").matches(row));
+      assertTrue(parse("not not " + column + " == null").matches(row));
+    }
+    // incomparable values behave like nulls
+    row.put("s", "foo");
+    assertFalse(parse("not s < 5").matches(row));
+    assertFalse(parse("not s >= 5").matches(row));
+    assertTrue(parse("not s == 5").matches(row));
+  }
+
+  private FilterExpression parse(String str) {
+    return new FilterExpression(str, ConfigFactory.empty());
+  }
+
+}
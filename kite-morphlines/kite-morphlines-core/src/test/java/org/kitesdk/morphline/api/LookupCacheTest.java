@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitesdk.morphline.base.LookupCache;
+import org.kitesdk.morphline.base.SharedResources;
+
+public class LookupCacheTest extends Assert {
+
+  @Test
+  public void testGetAndPut() throws Exception {
+    LookupCache<String, String> cache = new LookupCache<String, String>(100);
+    assertNull(cache.get("foo"));
+    cache.put("foo", "bar");
+    assertEquals("bar", cache.get("foo"));
+    assertEquals(1, cache.size());
+    assertEquals(1, cache.getNumHits());
+    assertEquals(1, cache.getNumMisses());
+  }
+
+  @Test
+  public void testBoundedSize() throws Exception {
+    LookupCache<Integer, Integer> cache = new LookupCache<Integer, Integer>(100);
+    for (int i = 0; i < 10000; i++) {
+      if (cache.get(i) == null) {
+        cache.put(i, i);
+      }
+    }
+    assertTrue(cache.size() <= 100);
+  }
+
+  @Test
+  public void testHotKeysSurviveOneOffKeys() throws Exception {
+    LookupCache<String, String> cache = new LookupCache<String, String>(64);
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 32; i++) {
+        String key = "hot" + i;
+        if (cache.get(key) == null) {
+          cache.put(key, key);
+        }
+      }
+    }
+    for (int i = 0; i < 10000; i++) { // a stream of one-off keys interleaved with the hot keys
+      String key = "cold" + i;
+      if (cache.get(key) == null) {
+        cache.put(key, key);
+      }
+      key = "hot" + (i % 32);
+      if (cache.get(key) == null) {
+        cache.put(key, key);
+      }
+    }
+    int numHotHits = 0;
+    for (int i = 0; i < 32; i++) {
+      if (cache.get("hot" + i) != null) {
+        numHotHits++;
+      }
+    }
+    assertTrue("numHotHits: " + numHotHits, numHotHits >= 28);
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final LookupCache<Integer, Integer> cache = new LookupCache<Integer, Integer>(1000);
+    Thread[] threads = new Thread[8];
+    final AtomicInteger numErrors = new AtomicInteger();
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 100000; i++) {
+            Integer key = i % 2000;
+            Integer value = cache.get(key);
+            if (value == null) {
+              cache.put(key, key);
+            } else if (!value.equals(key)) {
+              numErrors.incrementAndGet();
+            }
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, numErrors.get());
+    assertTrue(cache.size() <= 1000);
+  }
+
+  @Test
+  public void testSharedResources() throws Exception {
+    final AtomicInteger numCreates = new AtomicInteger();
+    final AtomicInteger numCloses = new AtomicInteger();
+    SharedResources.Factory<Closeable> factory = new SharedResources.Factory<Closeable>() {
+      @Override
+      public Closeable create() {
+        numCreates.incrementAndGet();
+        return new Closeable() {
+          @Override
+          public void close() throws IOException {
+            numCloses.incrementAndGet();
+          }
+        };
+      }
+    };
+    Closeable first = SharedResources.acquire("testSharedResources", factory);
+    Closeable second = SharedResources.acquire("testSharedResources", factory);
+    assertSame(first, second);
+    assertEquals(1, numCreates.get());
+    SharedResources.release("testSharedResources");
+    assertEquals(0, numCloses.get());
+    SharedResources.release("testSharedResources");
+    assertEquals(1, numCloses.get());
+    SharedResources.release("testSharedResources"); // no-op
+    assertEquals(1, numCloses.get());
+  }
+
+}
@@ -16,6 +16,7 @@
 package org.kitesdk.morphline.api;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -25,6 +26,7 @@ import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -62,6 +64,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigException;
@@ -967,8 +970,24 @@ public class MorphlineTest extends AbstractMorphlineTest {
       assertEquals(1, collector.getNumStartEvents());
       assertTrue(morphline.process(record));
       assertSame(record, collector.getFirstRecord());
-      assertNotSame(bytes, record.getFirstValue(Fields.ATTACHMENT_BODY)); 
-      assertArrayEquals(bytes, (byte[])record.getFirstValue(Fields.ATTACHMENT_BODY)); 
+      assertSame(bytes, record.getFirstValue(Fields.ATTACHMENT_BODY)); 
+    }
+  }
+  
+  @Test
+  public void testReadBlobWithByteBuffer() throws IOException {
+    morphline = createMorphline("test-morphlines/readBlob");    
+    for (int i = 0; i < 3; i++) {
+      Record record = new Record();
+      ByteBuffer buffer = ByteBuffer.wrap("xxfooxx".getBytes("UTF-8"), 2, 3).slice();
+      record.put(Fields.ATTACHMENT_BODY, buffer);
+      collector.reset();
+      startSession();
+      assertEquals(1, collector.getNumStartEvents());
+      assertTrue(morphline.process(record));
+      assertSame(record, collector.getFirstRecord());
+      assertArrayEquals("foo".getBytes("UTF-8"), (byte[])record.getFirstValue(Fields.ATTACHMENT_BODY)); 
+      assertEquals(0, buffer.position());
     }
   }
   
@@ -985,8 +1004,7 @@ public class MorphlineTest extends AbstractMorphlineTest {
       assertTrue(morphline.process(record));
       assertSame(record, collector.getFirstRecord());
       assertSame(bytes, record.getFirstValue(Fields.ATTACHMENT_BODY)); 
-      assertNotSame(bytes, record.getFirstValue("myAwesomeDestination")); 
-      assertArrayEquals(bytes, (byte[])record.getFirstValue("myAwesomeDestination")); 
+      assertSame(bytes, record.getFirstValue("myAwesomeDestination")); 
     }
   }
   
@@ -1568,6 +1586,18 @@ public class MorphlineTest extends AbstractMorphlineTest {
     assertSame(record, collector.getFirstRecord());    
   }
   
+  @Test
+  public void testDecodeBase64Stream() throws Exception {
+    morphline = createMorphline("test-morphlines/decodeBase64");    
+    Record record = new Record();
+    record.put("data", new ByteArrayInputStream("SGVsbG8g\r\nV29ybGQ=".getBytes(Charsets.US_ASCII)));
+    startSession();
+    assertEquals(1, collector.getNumStartEvents());
+    assertTrue(morphline.process(record));
+    InputStream actual = (InputStream) collector.getFirstRecord().getFirstValue("data");
+    assertArrayEquals("Hello World".getBytes(Charsets.UTF_8), ByteStreams.toByteArray(actual));
+  }
+  
   @Test
   public void testFindReplace() throws Exception {
     Config override = ConfigFactory.parseString("replaceFirst : false");
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.stdlib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.kitesdk.morphline.shaded.org.apache.commons.codec.binary.binary.Base64;
+
+import com.google.common.base.Charsets;
+
+public class CodecsTest extends Assert {
+
+  private final Base64 base64 = new Base64();
+
+  @Test
+  public void testDecodeBase64() throws Exception {
+    assertArrayEquals("Hello World".getBytes(Charsets.UTF_8), Codecs.decodeBase64("SGVsbG8gV29ybGQ="));
+    assertArrayEquals("Hello World".getBytes(Charsets.UTF_8), Codecs.decodeBase64("SGVsbG8g\r\nV29ybGQ"));
+    assertArrayEquals(new byte[0], Codecs.decodeBase64(""));
+    assertArrayEquals(new byte[0], Codecs.decodeBase64("===="));
+  }
+
+  @Test
+  public void testDecodeBase64SameAsCommonsCodec() throws Exception {
+    Random random = new Random(0);
+    String noise = "ABab09+/-_=\r\n \t\u00e9\u20ac#";
+    for (int i = 0; i < 10000; i++) {
+      String str;
+      if (random.nextBoolean()) {
+        byte[] data = new byte[random.nextInt(200)];
+        random.nextBytes(data);
+        str = new String(Base64.encodeBase64(data, random.nextBoolean(), random.nextBoolean()), Charsets.US_ASCII);
+      } else {
+        StringBuilder buf = new StringBuilder();
+        for (int j = random.nextInt(40); --j >= 0; ) {
+          buf.append(noise.charAt(random.nextInt(noise.length())));
+        }
+        str = buf.toString();
+      }
+      byte[] expected = base64.decode(str);
+      assertArrayEquals(str, expected, Codecs.decodeBase64(str));
+      assertArrayEquals(str, expected, Codecs.decodeBase64(new StringBuilder(str)));
+      byte[] bytes = str.getBytes(Charsets.UTF_8);
+      assertArrayEquals(str, expected, Codecs.decodeBase64(bytes));
+      assertArrayEquals(str, expected, readFully(Codecs.newBase64DecodingInputStream(new ByteArrayInputStream(bytes)), 1 + random.nextInt(8)));
+    }
+  }
+
+  @Test
+  public void testBase64DecodingInputStreamSpansManyBuffers() throws Exception {
+    byte[] data = new byte[1000 * 1000 + 1];
+    new Random(0).nextBytes(data);
+    byte[] encoded = Base64.encodeBase64Chunked(data);
+    InputStream in = Codecs.newBase64DecodingInputStream(new ByteArrayInputStream(encoded));
+    assertArrayEquals(data, readFully(in, 5000));
+    assertEquals(-1, in.read());
+  }
+
+  private byte[] readFully(InputStream in, int bufferSize) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[bufferSize];
+    int n;
+    while ((n = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  @Ignore
+  public void benchmarkDecodeBase64() throws Exception {
+    byte[] data = new byte[300];
+    new Random(0).nextBytes(data);
+    String str = new String(Base64.encodeBase64Chunked(data), Charsets.US_ASCII);
+    long durationSecs = 10;
+    for (boolean isCommonsCodec : new boolean[] {true, false, true, false}) {
+      long start = System.currentTimeMillis();
+      long duration = durationSecs * 1000;
+      int iters = 0;
+      long sum = 0;
+      while (System.currentTimeMillis() < start + duration) {
+        for (int i = 0; i < 1000; i++) {
+          byte[] bytes = isCommonsCodec ? base64.decode(str) : Codecs.decodeBase64(str);
+          sum += bytes.length;
+        }
+        iters += 1000;
+      }
+      float secs = (System.currentTimeMillis() - start) / 1000.0f;
+      System.out.println("Results: commonsCodec=" + isCommonsCodec + ", iters=" + iters + ", took[secs]=" + secs
+          + ", iters/secs=" + (iters / secs) + ", sum=" + sum);
+    }
+  }
+
+}
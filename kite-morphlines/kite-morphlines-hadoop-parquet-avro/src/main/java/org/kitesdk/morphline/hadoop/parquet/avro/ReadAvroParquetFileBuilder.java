@@ -20,13 +20,16 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Parser;
 import org.apache.avro.generic.GenericContainer;
 import org.apache.avro.generic.IndexedRecord;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.kitesdk.morphline.api.Command;
@@ -37,11 +40,26 @@ import org.kitesdk.morphline.api.MorphlineRuntimeException;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.AbstractCommand;
 import org.kitesdk.morphline.base.Fields;
+import org.kitesdk.morphline.base.FilterExpression;
+import org.kitesdk.morphline.base.FilterExpression.Operator;
 import org.kitesdk.morphline.base.Metrics;
 import org.kitesdk.morphline.stdio.AbstractParser;
 
 import parquet.avro.AvroParquetReader;
 import parquet.avro.AvroReadSupport;
+import parquet.filter2.compat.FilterCompat;
+import parquet.filter2.predicate.FilterApi;
+import parquet.filter2.predicate.FilterPredicate;
+import parquet.filter2.predicate.Operators.BooleanColumn;
+import parquet.filter2.predicate.Operators.Column;
+import parquet.filter2.predicate.Operators.SupportsLtGt;
+import parquet.format.converter.ParquetMetadataConverter;
+import parquet.hadoop.ParquetFileReader;
+import parquet.hadoop.ParquetReader;
+import parquet.io.api.Binary;
+import parquet.schema.MessageType;
+import parquet.schema.PrimitiveType.PrimitiveTypeName;
+import parquet.schema.Type;
 
 import com.codahale.metrics.Meter;
 import org.kitesdk.morphline.shaded.com.google.common.io.Closeables;
@@ -55,6 +73,11 @@ import com.typesafe.config.Config;
  * 
  * The Avro schema that was used to write the data is retrieved from the Parquet file. Optionally, the
  * Avro schema that shall be used for reading can be supplied as well.
+ * 
+ * Optionally, a {@link FilterExpression} can be supplied via the <code>filter</code> parameter. It
+ * is translated into a Parquet filter predicate, so row groups whose column statistics show that
+ * no row can match are skipped without being read, and non-matching rows are dropped before they
+ * are assembled into Avro records. Column names are dotted Parquet column paths.
  */
 public final class ReadAvroParquetFileBuilder implements CommandBuilder {
 
@@ -81,7 +104,18 @@ public final class ReadAvroParquetFileBuilder implements CommandBuilder {
   ///////////////////////////////////////////////////////////////////////////////
   private static final class ReadAvroParquetFile extends AbstractCommand {
 
+    private static final int MAX_CACHED_FILE_SCHEMAS = 1000;
+
     private final Configuration conf;
+    private final FilterExpression filter;
+    private final Map<String, MessageType> fileSchemas = new LinkedHashMap<String, MessageType>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, MessageType> eldest) {
+        return size() > MAX_CACHED_FILE_SCHEMAS;
+      }
+    };
+    private MessageType lastFileSchema;
+    private Object lastPredicate;
     private final Meter numRecordsMeter;
     
     public ReadAvroParquetFile(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {   
@@ -140,6 +174,9 @@ public final class ReadAvroParquetFileBuilder implements CommandBuilder {
         AvroReadSupport.setAvroReadSchema(conf, readerSchema);
       }
       
+      String filterString = getConfigs().getString(config, "filter", null);
+      this.filter = filterString == null ? null : new FilterExpression(filterString, config);
+      
       this.numRecordsMeter = getMeter(Metrics.NUM_RECORDS);
       
       validateArguments();      
@@ -163,9 +200,24 @@ public final class ReadAvroParquetFileBuilder implements CommandBuilder {
       AbstractParser.removeAttachments(template);
       template.put(Fields.ATTACHMENT_MIME_TYPE, AVRO_MEMORY_MIME_TYPE);
 
-      AvroParquetReader<IndexedRecord> reader = null;
+      ParquetReader<IndexedRecord> reader = null;
       try {
-        reader = new AvroParquetReader(conf, path);
+        if (filter == null) {
+          reader = new AvroParquetReader(conf, path);
+        } else {
+          Object predicate = getPredicate(path);
+          if (predicate == Boolean.FALSE) {
+            LOG.debug("Skipping file that cannot match filter {}: {}", filter, path);
+            return true;
+          } else if (predicate == Boolean.TRUE) {
+            reader = new AvroParquetReader(conf, path);
+          } else {
+            reader = ParquetReader.builder(new AvroReadSupport<IndexedRecord>(), path)
+                .withConf(conf)
+                .withFilter(FilterCompat.get((FilterPredicate) predicate))
+                .build();
+          }
+        }
         while (true) {
           IndexedRecord datum;
           try {
@@ -192,6 +244,199 @@ public final class ReadAvroParquetFileBuilder implements CommandBuilder {
       }
     }
         
+    /**
+     * Returns the filter translated against the schema of the given file, which is either a
+     * {@link FilterPredicate} or a Boolean constant if the outcome doesn't depend on the data.
+     */
+    private Object getPredicate(Path path) throws IOException {
+      MessageType fileSchema = getFileSchema(path);
+      if (!fileSchema.equals(lastFileSchema)) {
+        lastPredicate = toPredicate(filter.getRoot(), fileSchema);
+        lastFileSchema = fileSchema;
+        LOG.debug("Parquet filter predicate: {}", lastPredicate);
+      }
+      return lastPredicate;
+    }
+    
+    /**
+     * Returns the schema of the given file. The reader has to read the footer again, so this only
+     * decodes the file metadata and skips the row group metadata, which grows with the file size.
+     * Schemas are cached by path, length and modification time, so reading a file again doesn't
+     * read its footer twice.
+     */
+    private MessageType getFileSchema(Path path) throws IOException {
+      FileStatus status = path.getFileSystem(conf).getFileStatus(path);
+      String key = status.getPath() + "@" + status.getLen() + ":" + status.getModificationTime();
+      MessageType fileSchema = fileSchemas.get(key);
+      if (fileSchema == null) {
+        fileSchema = ParquetFileReader.readFooter(conf, path, ParquetMetadataConverter.SKIP_ROW_GROUPS)
+            .getFileMetaData().getSchema();
+        fileSchemas.put(key, fileSchema);
+      }
+      return fileSchema;
+    }
+    
+    private Object toPredicate(FilterExpression.Node node, MessageType schema) {
+      if (node instanceof FilterExpression.And) {
+        FilterExpression.And and = (FilterExpression.And) node;
+        Object left = toPredicate(and.getLeft(), schema);
+        Object right = toPredicate(and.getRight(), schema);
+        if (left == Boolean.FALSE || right == Boolean.FALSE) {
+          return Boolean.FALSE;
+        } else if (left == Boolean.TRUE) {
+          return right;
+        } else if (right == Boolean.TRUE) {
+          return left;
+        }
+        return FilterApi.and((FilterPredicate) left, (FilterPredicate) right);
+      } else if (node instanceof FilterExpression.Or) {
+        FilterExpression.Or or = (FilterExpression.Or) node;
+        Object left = toPredicate(or.getLeft(), schema);
+        Object right = toPredicate(or.getRight(), schema);
+        if (left == Boolean.TRUE || right == Boolean.TRUE) {
+          return Boolean.TRUE;
+        } else if (left == Boolean.FALSE) {
+          return right;
+        } else if (right == Boolean.FALSE) {
+          return left;
+        }
+        return FilterApi.or((FilterPredicate) left, (FilterPredicate) right);
+      } else { // negations have already been pushed down into the comparisons
+        return toPredicate((FilterExpression.Comparison) node, schema);
+      }
+    }
+    
+    private Object toPredicate(FilterExpression.Comparison comparison, MessageType schema) {
+      String column = comparison.getColumn();
+      String[] columnPath = column.split("\\.");
+      if (!schema.containsPath(columnPath)) {
+        return comparison.matches((Object) null); // a missing column is null in every row
+      }
+      Type type = schema.getType(columnPath);
+      if (!type.isPrimitive() || type.isRepetition(Type.Repetition.REPEATED)) {
+        throw new MorphlineRuntimeException("Filter column must be a non-repeated primitive: " + column);
+      }
+      Operator op = comparison.getOperator();
+      Object literal = comparison.getLiteral();
+      PrimitiveTypeName typeName = type.asPrimitiveType().getPrimitiveTypeName();
+      switch (typeName) {
+      case INT32:
+      case INT64: {
+        if (literal != null && !(literal instanceof Number)) {
+          return op == Operator.NE; // incomparable
+        }
+        long min = typeName == PrimitiveTypeName.INT32 ? Integer.MIN_VALUE : Long.MIN_VALUE;
+        long max = typeName == PrimitiveTypeName.INT32 ? Integer.MAX_VALUE : Long.MAX_VALUE;
+        Long value = null;
+        if (literal instanceof Double) {
+          double d = (Double) literal;
+          if (d != Math.rint(d)) { // x < 1.5 is x <= 1 and x > 1.5 is x >= 2
+            switch (op) {
+            case EQ: return Boolean.FALSE;
+            case NE: return Boolean.TRUE;
+            case LT: 
+            case LE: op = Operator.LE; d = Math.floor(d); break;
+            default: op = Operator.GE; d = Math.ceil(d); break;
+            }
+          }
+          if (d < min || d > max) {
+            return outOfRange(op, d > max, typeName, column);
+          }
+          value = (long) d;
+        } else if (literal != null) {
+          value = ((Number) literal).longValue();
+          if (value < min || value > max) {
+            return outOfRange(op, value > max, typeName, column);
+          }
+        }
+        if (typeName == PrimitiveTypeName.INT32) {
+          return compare(FilterApi.intColumn(column), op, value == null ? null : value.intValue());
+        } else {
+          return compare(FilterApi.longColumn(column), op, value);
+        }
+      }
+      case FLOAT: {
+        if (literal != null && !(literal instanceof Number)) {
+          return op == Operator.NE;
+        }
+        return compare(FilterApi.floatColumn(column), op, 
+            literal == null ? null : ((Number) literal).floatValue());
+      }
+      case DOUBLE: {
+        if (literal != null && !(literal instanceof Number)) {
+          return op == Operator.NE;
+        }
+        return compare(FilterApi.doubleColumn(column), op, 
+            literal == null ? null : ((Number) literal).doubleValue());
+      }
+      case BOOLEAN: {
+        if (literal != null && !(literal instanceof Boolean)) {
+          return op == Operator.NE;
+        }
+        BooleanColumn booleanColumn = FilterApi.booleanColumn(column);
+        switch (op) {
+        case EQ: return FilterApi.eq(booleanColumn, (Boolean) literal);
+        case NE: return FilterApi.notEq(booleanColumn, (Boolean) literal);
+        default: throw new MorphlineRuntimeException(
+            "Boolean filter column only supports == and !=: " + column);
+        }
+      }
+      case BINARY: {
+        if (literal != null && !(literal instanceof String)) {
+          throw new MorphlineRuntimeException(
+              "Filter on binary column requires a string literal: " + comparison);
+        }
+        return compare(FilterApi.binaryColumn(column), op, 
+            literal == null ? null : Binary.fromString((String) literal));
+      }
+      default:
+        throw new MorphlineRuntimeException("Unsupported filter column type " + typeName + ": " + column);
+      }
+    }
+    
+    /**
+     * Handles an integral comparison whose literal is beyond the range of the column type, i.e.
+     * every non-null value is less than the literal (isAbove) or greater than it.
+     */
+    private static Object outOfRange(Operator op, boolean isAbove, PrimitiveTypeName typeName, String column) {
+      switch (op) {
+      case EQ: 
+        return Boolean.FALSE;
+      case NE: 
+        return Boolean.TRUE; // holds for null values, too
+      case LT: 
+      case LE: 
+        if (!isAbove) {
+          return Boolean.FALSE;
+        }
+        break;
+      default: 
+        if (isAbove) {
+          return Boolean.FALSE;
+        }
+        break;
+      }
+      // every non-null value matches
+      if (typeName == PrimitiveTypeName.INT32) {
+        return FilterApi.notEq(FilterApi.intColumn(column), null);
+      } else {
+        return FilterApi.notEq(FilterApi.longColumn(column), null);
+      }
+    }
+    
+    private static <T extends Comparable<T>, C extends Column<T> & SupportsLtGt> FilterPredicate compare(
+        C column, Operator op, T value) {
+      switch (op) {
+      case EQ: return FilterApi.eq(column, value);
+      case NE: return FilterApi.notEq(column, value);
+      case LT: return FilterApi.lt(column, value);
+      case LE: return FilterApi.ltEq(column, value);
+      case GT: return FilterApi.gt(column, value);
+      case GE: return FilterApi.gtEq(column, value);
+      default: throw new IllegalStateException();
+      }
+    }
+    
     private boolean extract(GenericContainer datum, Record inputRecord) {
       incrementNumRecords();
       Record outputRecord = inputRecord.copy();
@@ -38,6 +38,7 @@ import parquet.avro.AvroParquetWriter;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.ConfigFactory;
 
 public class AvroParquetMorphlineTest extends AbstractMorphlineTest {
 
@@ -157,6 +158,93 @@ public class AvroParquetMorphlineTest extends AbstractMorphlineTest {
     assertEquals(genericFixed, actualRecord.get("myfixed"));
   }
 
+  @Test
+  public void testFilter() throws Exception {
+    Schema schema = new Schema.Parser().parse(
+        "{\"type\":\"record\",\"name\":\"myrecord\",\"fields\":["
+        + "{\"name\":\"myint\",\"type\":\"int\"},"
+        + "{\"name\":\"mystring\",\"type\":\"string\"}]}");
+
+    File tmp = File.createTempFile(getClass().getSimpleName(), ".tmp");
+    tmp.deleteOnExit();
+    tmp.delete();
+    Path file = new Path(tmp.getPath());
+
+    AvroParquetWriter<GenericRecord> writer = 
+        new AvroParquetWriter<GenericRecord>(file, schema);
+    String[] names = {"zero", "one", "two", "three", "four", "five", "six", "seven", "eight", "nine"};
+    for (int i = 0; i < names.length; i++) {
+      writer.write(new GenericRecordBuilder(schema).set("myint", i).set("mystring", names[i]).build());
+    }
+    writer.close();
+
+    morphline = createMorphline("test-morphlines/readAvroParquetFileWithFilter");
+    Record morphlineRecord = new Record();
+    morphlineRecord.put(ReadAvroParquetFileBuilder.FILE_UPLOAD_URL, file.toString());
+    collector.reset();
+    assertTrue(morphline.process(morphlineRecord));
+    
+    List<Integer> actual = new ArrayList<Integer>();
+    for (Record record : collector.getRecords()) {
+      actual.add((Integer) ((GenericRecord) record.getFirstValue(Fields.ATTACHMENT_BODY)).get("myint"));
+    }
+    assertEquals(Arrays.asList(3, 4, 5, 9), actual);
+    
+    morphline = createMorphline("test-morphlines/readAvroParquetFileWithFilterOnMissingColumn");
+    collector.reset();
+    assertTrue(morphline.process(morphlineRecord));
+    assertEquals(0, collector.getRecords().size());
+  }
+
+  @Test
+  public void testFilterNegationWithNulls() throws Exception {
+    Schema schema = new Schema.Parser().parse(
+        "{\"type\":\"record\",\"name\":\"myrecord\",\"fields\":["
+        + "{\"name\":\"myint\",\"type\":\"int\"},"
+        + "{\"name\":\"mynullable\",\"type\":[\"null\",\"int\"],\"default\":null}]}");
+
+    File tmp = File.createTempFile(getClass().getSimpleName(), ".tmp");
+    tmp.deleteOnExit();
+    tmp.delete();
+    Path file = new Path(tmp.getPath());
+
+    // mynullable is null in even rows
+    AvroParquetWriter<GenericRecord> writer = 
+        new AvroParquetWriter<GenericRecord>(file, schema);
+    for (int i = 0; i < 10; i++) {
+      writer.write(new GenericRecordBuilder(schema)
+          .set("myint", i).set("mynullable", i % 2 == 0 ? null : i).build());
+    }
+    writer.close();
+
+    // a null value fails a comparison and its negation alike
+    assertEquals(Arrays.asList(5, 7, 9), readFiltered(file, "not mynullable < 5"));
+    assertEquals(Arrays.asList(1, 3), readFiltered(file, "not (mynullable >= 5 or myint > 5)"));
+    assertEquals(Arrays.asList(0, 2, 4, 6, 8), readFiltered(file, "not mynullable != null"));
+    assertEquals(Arrays.asList(0, 1, 2, 4, 6, 8), 
+        readFiltered(file, "not (mynullable > 1 and mynullable != null)"));
+    
+    // a missing column is null in every row
+    assertEquals(Arrays.asList(), readFiltered(file, "not mymissingcolumn < 5"));
+    assertEquals(Arrays.asList(), readFiltered(file, "not (mymissingcolumn > 1 or myint > 9)"));
+    assertEquals(10, readFiltered(file, "not mymissingcolumn == 5").size());
+  }
+
+  private List<Integer> readFiltered(Path file, String filter) throws Exception {
+    morphline = createMorphline("test-morphlines/readAvroParquetFileWithFilterExpression",
+        ConfigFactory.parseMap(ImmutableMap.of("filter", filter)));
+    Record morphlineRecord = new Record();
+    morphlineRecord.put(ReadAvroParquetFileBuilder.FILE_UPLOAD_URL, file.toString());
+    collector.reset();
+    assertTrue(morphline.process(morphlineRecord));
+    
+    List<Integer> actual = new ArrayList<Integer>();
+    for (Record record : collector.getRecords()) {
+      actual.add((Integer) ((GenericRecord) record.getFirstValue(Fields.ATTACHMENT_BODY)).get("myint"));
+    }
+    return actual;
+  }
+
   private static String utf8(String str) {
     return str;
   }
@@ -21,18 +21,30 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.ql.io.RCFile;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefArrayWritable;
 import org.apache.hadoop.hive.serde2.columnar.BytesRefWritable;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.VLongWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.kitesdk.morphline.api.Command;
@@ -43,9 +55,12 @@ import org.kitesdk.morphline.api.MorphlineRuntimeException;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.Configs;
 import org.kitesdk.morphline.base.Fields;
+import org.kitesdk.morphline.base.FilterExpression;
 import org.kitesdk.morphline.base.Validator;
 import org.kitesdk.morphline.stdio.AbstractParser;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.io.ByteStreams;
 import com.typesafe.config.Config;
 
@@ -61,7 +76,13 @@ import com.typesafe.config.Config;
  *
  * For a RCFile with n rows and m columns. Row wise would emit n records and
  * Column wise would emit m * (row splits) records.
- * De-Compression is handled automatically
+ * De-Compression is handled automatically, and only the configured columns are read and
+ * decompressed.
+ *
+ * Optionally, a {@link FilterExpression} over the outputField names of the configured columns can
+ * be supplied via the <code>filter</code> parameter. For each row split only the columns referred
+ * to by the filter are decompressed first; row splits without any matching row are skipped
+ * entirely, and otherwise only matching rows are emitted.
  *
  */
 public final class ReadRCFileBuilder implements CommandBuilder {
@@ -88,9 +109,14 @@ public final class ReadRCFileBuilder implements CommandBuilder {
     private final List<RCFileColumn> columns = new ArrayList();
     private final RCFileReadMode readMode;
     private final boolean includeMetaData;
+    private final FilterExpression filter;
+    private final List<RCFileColumn> filterColumns = new ArrayList();
     private final Configuration conf = new Configuration();
 
     private static final Object STREAM_PROTOCOL = "stream://";
+    
+    // ColumnProjectionUtils.READ_ALL_COLUMNS, which doesn't exist in older Hive versions
+    private static final String READ_ALL_COLUMNS = "hive.io.file.read.all.columns";
 
     public ReadRCFile(CommandBuilder builder, Config config, Command parent,
         Command child, MorphlineContext context) {
@@ -105,6 +131,35 @@ public final class ReadRCFileBuilder implements CommandBuilder {
       for (Config columnConfig : getConfigs().getConfigList(config, "columns")) {
         columns.add(new RCFileColumn(columnConfig, conf));
       }
+      
+      String filterString = getConfigs().getString(config, "filter", null);
+      if (filterString != null) {
+        this.filter = new FilterExpression(filterString, config);
+        for (String columnName : filter.getColumns()) {
+          RCFileColumn filterColumn = null;
+          for (RCFileColumn rcColumn : columns) {
+            if (rcColumn.getOutputField().equals(columnName)) {
+              filterColumn = rcColumn;
+              break;
+            }
+          }
+          if (filterColumn == null) {
+            throw new MorphlineCompilationException("Filter refers to unknown column: " + columnName 
+                + ". Filter columns must be one of the outputField names of the columns", config);
+          }
+          filterColumns.add(filterColumn);
+        }
+      } else {
+        this.filter = null;
+      }
+      
+      // only read and decompress the configured columns
+      Set<Integer> columnIds = new TreeSet<Integer>();
+      for (RCFileColumn rcColumn : columns) {
+        columnIds.add(rcColumn.getInputField());
+      }
+      conf.set(ColumnProjectionUtils.READ_COLUMN_IDS_CONF_STR, Joiner.on(',').join(columnIds));
+      conf.setBoolean(READ_ALL_COLUMNS, false);
       validateArguments();
     }
 
@@ -125,6 +180,10 @@ public final class ReadRCFileBuilder implements CommandBuilder {
           }
         }
         
+        if (filter != null) {
+          return readFiltered(reader, template);
+        }
+        
         switch (readMode) {
         case row:
           return readRowWise(reader, template);
@@ -225,6 +284,124 @@ public final class ReadRCFileBuilder implements CommandBuilder {
       return true;
     }
 
+    /**
+     * Reads the row splits, decompressing the filter columns first and the remaining columns only
+     * if at least one row of the split matches the filter.
+     */
+    private boolean readFiltered(RCFile.Reader reader, Record record) throws IOException {
+      Map<String, Object> values = new HashMap<String, Object>();
+      BitSet matches = new BitSet();
+      Map<Integer, BytesRefArrayWritable> columnBatches = new HashMap<Integer, BytesRefArrayWritable>();
+      
+      while (true) {
+        boolean next;
+        try {
+          next = reader.nextBlock();
+        } catch (EOFException ex) {
+          // We have hit EOF of the stream
+          break;
+        }
+        if (!next) {
+          break;
+        }
+        
+        columnBatches.clear();
+        int numRows = -1;
+        for (RCFileColumn rcColumn : filterColumns) {
+          BytesRefArrayWritable rowBatchBytes = getColumn(reader, rcColumn, columnBatches);
+          numRows = rowBatchBytes.size();
+        }
+        matches.clear();
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+          for (RCFileColumn rcColumn : filterColumns) {
+            BytesRefArrayWritable rowBatchBytes = columnBatches.get(rcColumn.getInputField());
+            Writable value = updateColumnValue(rcColumn, rowBatchBytes.get(rowIndex));
+            values.put(rcColumn.getOutputField(), toFilterValue(value));
+          }
+          if (filter.matches(values)) {
+            matches.set(rowIndex);
+          }
+        }
+        if (matches.isEmpty()) {
+          continue; // skip the row split without decompressing the other columns
+        }
+        
+        switch (readMode) {
+        case row:
+          for (int rowIndex = matches.nextSetBit(0); rowIndex >= 0; rowIndex = matches.nextSetBit(rowIndex + 1)) {
+            incrementNumRecords();
+            Record outputRecord = record.copy();
+            for (RCFileColumn rcColumn : columns) {
+              BytesRefArrayWritable rowBatchBytes = getColumn(reader, rcColumn, columnBatches);
+              outputRecord.put(rcColumn.getOutputField(), updateColumnValue(rcColumn, rowBatchBytes.get(rowIndex)));
+            }
+            
+            // pass record to next command in chain:
+            if (!getChild().process(outputRecord)) {
+              return false;
+            }
+          }
+          break;
+        case column:
+          for (RCFileColumn rcColumn : columns) {
+            BytesRefArrayWritable rowBatchBytes = getColumn(reader, rcColumn, columnBatches);
+            List<Writable> rowValues = new ArrayList<Writable>(matches.cardinality());
+            incrementNumRecords();
+            Record outputRecord = record.copy();
+            for (int rowIndex = matches.nextSetBit(0); rowIndex >= 0; rowIndex = matches.nextSetBit(rowIndex + 1)) {
+              rowValues.add(updateColumnValue(rcColumn, rowBatchBytes.get(rowIndex)));
+            }
+            outputRecord.put(rcColumn.getOutputField(), rowValues);
+            
+            // pass record to next command in chain:
+            if (!getChild().process(outputRecord)) {
+              return false;
+            }
+          }
+          break;
+        default :
+          throw new IllegalStateException();
+        }
+      }
+      return true;
+    }
+    
+    private BytesRefArrayWritable getColumn(RCFile.Reader reader, RCFileColumn rcColumn, 
+        Map<Integer, BytesRefArrayWritable> columnBatches) throws IOException {
+      BytesRefArrayWritable rowBatchBytes = columnBatches.get(rcColumn.getInputField());
+      if (rowBatchBytes == null) {
+        rowBatchBytes = reader.getColumn(rcColumn.getInputField(), null);
+        columnBatches.put(rcColumn.getInputField(), rowBatchBytes);
+      }
+      return rowBatchBytes;
+    }
+    
+    /** Converts a column value into the kind of Java object that {@link FilterExpression} compares */
+    private Object toFilterValue(Writable value) throws IOException {
+      if (value instanceof NullWritable) {
+        return null;
+      } else if (value instanceof BytesRefWritable) {
+        BytesRefWritable bytesRef = (BytesRefWritable) value;
+        return new String(bytesRef.getData(), bytesRef.getStart(), bytesRef.getLength(), Charsets.UTF_8);
+      } else if (value instanceof IntWritable) {
+        return ((IntWritable) value).get();
+      } else if (value instanceof LongWritable) {
+        return ((LongWritable) value).get();
+      } else if (value instanceof VIntWritable) {
+        return ((VIntWritable) value).get();
+      } else if (value instanceof VLongWritable) {
+        return ((VLongWritable) value).get();
+      } else if (value instanceof FloatWritable) {
+        return ((FloatWritable) value).get();
+      } else if (value instanceof DoubleWritable) {
+        return ((DoubleWritable) value).get();
+      } else if (value instanceof BooleanWritable) {
+        return ((BooleanWritable) value).get();
+      } else {
+        return value.toString();
+      }
+    }
+
     private Writable updateColumnValue(RCFileColumn column, BytesRefWritable bytesRef) throws IOException {
       if(bytesRef.getLength() == 0) {
         // This is a null field.
@@ -140,6 +140,54 @@ public class ReadRCFileTest extends AbstractMorphlineTest {
         areFieldsEqual(expected, collector.getRecords(), NUM_COLUMNS, true));
   }
 
+  @Test
+  public void testRCFileRowWiseWithFilter() throws Exception {
+    morphline = createMorphline("test-morphlines/rcFileMorphlineRowWithFilter");
+    String rcFileName = "testRCFileRowWiseWithFilter.rc";
+    List<Record> all = setupRCFile(rcFileName, NUM_RECORDS, NUM_COLUMNS, true);
+    Path inputFile = dfs.makeQualified(new Path(testDirectory, rcFileName));
+    Record input = new Record();
+    input.put(Fields.ATTACHMENT_NAME, inputFile.toString());
+    input.put(Fields.ATTACHMENT_BODY, readPath(inputFile));
+    startSession();
+    assertEquals(1, collector.getNumStartEvents());
+    assertTrue(morphline.process(input));
+    
+    List<Record> actual = collector.getRecords();
+    assertEquals(2, actual.size());
+    int i = 0;
+    for (int row : new int[] {2, 4}) {
+      assertTrue(isRecordColumnEqual(actual.get(i), all.get(row), "field1"));
+      assertTrue(isRecordColumnEqual(actual.get(i), all.get(row), "field3"));
+      assertEquals(0, actual.get(i).get("field2").size()); // not projected
+      i++;
+    }
+  }
+
+  @Test
+  public void testRCFileColumnWiseWithFilter() throws Exception {
+    morphline = createMorphline("test-morphlines/rcFileMorphlineColumnWithFilter");
+    String rcFileName = "testRCFileColumnWiseWithFilter.rc";
+    List<Record> all = setupRCFile(rcFileName, NUM_RECORDS, NUM_COLUMNS, false);
+    Path inputFile = dfs.makeQualified(new Path(testDirectory, rcFileName));
+    Record input = new Record();
+    input.put(Fields.ATTACHMENT_NAME, inputFile.toString());
+    input.put(Fields.ATTACHMENT_BODY, readPath(inputFile));
+    startSession();
+    assertEquals(1, collector.getNumStartEvents());
+    assertTrue(morphline.process(input));
+    
+    List<Record> actual = collector.getRecords();
+    assertEquals(2, actual.size());
+    int i = 0;
+    for (String fieldName : new String[] {"field1", "field3"}) {
+      List<Writable> allValues = (List<Writable>) all.get(i == 0 ? 0 : 2).getFirstValue(fieldName);
+      List<Writable> expected = Lists.newArrayList(allValues.get(2), allValues.get(4));
+      assertEquals(expected, actual.get(i).getFirstValue(fieldName));
+      i++;
+    }
+  }
+
   private void createRCFile(final String fileName, final int numRecords,
       final int maxColumns, boolean addNullValue) throws IOException {
     // Write the sequence file
@@ -23,17 +23,14 @@ import java.util.Map;
 
 import org.kitesdk.morphline.api.Command;
 import org.kitesdk.morphline.api.CommandBuilder;
-import org.kitesdk.morphline.api.MorphlineCompilationException;
 import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.AbstractCommand;
-import org.kitesdk.morphline.base.Configs;
 import org.kitesdk.morphline.base.Fields;
+import org.kitesdk.morphline.json.ReadJsonBuilder.ReadJson;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
 import com.typesafe.config.Config;
 
 
@@ -72,49 +69,32 @@ public final class ExtractJsonPathsBuilder implements CommandBuilder {
     
     private final boolean flatten;
     private final Map<String, Collection<String>> stepMap;
+    private final ReadJson source;
     
-    private static final String ARRAY_TOKEN = "[]";
+    private static final String ARRAY_TOKEN = JsonPathMatcher.ARRAY_TOKEN;
 
     public ExtractJsonPaths(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {
       super(builder, config, parent, child, context);
-      ListMultimap<String, String> stepMultiMap = ArrayListMultimap.create();
       this.flatten = getConfigs().getBoolean(config, "flatten", true);
       Config paths = getConfigs().getConfig(config, "paths");
-      for (Map.Entry<String, Object> entry : new Configs().getEntrySet(paths)) {
-        String fieldName = entry.getKey();        
-        String path = entry.getValue().toString().trim();
-        if (path.contains("//")) {
-          throw new MorphlineCompilationException("No support for descendant axis available yet", config);
-        }
-        if (path.startsWith("/")) {
-          path = path.substring(1);
-        }
-        if (path.endsWith("/")) {
-          path = path.substring(0, path.length() - 1);
-        }
-        path = path.trim();
-        for (String step : path.split("/")) {
-          step = step.trim();
-          if (step.length() > ARRAY_TOKEN.length() && step.endsWith(ARRAY_TOKEN)) {
-            step = step.substring(0,  step.length() - ARRAY_TOKEN.length());
-            stepMultiMap.put(fieldName, normalize(step));
-            stepMultiMap.put(fieldName, ARRAY_TOKEN);
-          } else {
-            stepMultiMap.put(fieldName, normalize(step));
-          }
-        }
-      }
-      this.stepMap = stepMultiMap.asMap();
+      this.stepMap = JsonPathMatcher.parsePaths(paths, config);
       LOG.debug("stepMap: {}", stepMap);
       validateArguments();
-    }
-    
-    private String normalize(String step) { // for faster subsequent query performance
-      return ARRAY_TOKEN.equals(step) ? ARRAY_TOKEN : step;
+      
+      // let an upstream readJson extract the paths while it parses, instead of building a tree
+      this.source = ReadJson.findUpstream(this);
+      if (source != null) {
+        source.addPathExtractor(this, stepMap, flatten);
+      }
     }
     
     @Override
     protected boolean doProcess(Record inputRecord) {
+      if (source != null && source.isFusedWith(this)) {
+        // the values have already been extracted by readJson
+        return getChild().process(inputRecord);
+      }
+      
       JsonNode datum = (JsonNode) inputRecord.getFirstValue(Fields.ATTACHMENT_BODY);
       Preconditions.checkNotNull(datum);
       Record outputRecord = inputRecord.copy();
@@ -159,82 +139,7 @@ public final class ExtractJsonPathsBuilder implements CommandBuilder {
     }
     
     private void resolve(JsonNode datum, Record record, String fieldName) { 
-      if (datum == null) {
-        return;
-      }
-      
-      if (flatten) {
-        flatten(datum, record.get(fieldName));
-        return;
-      }
-
-      if (datum.isObject()) {
-        record.put(fieldName, datum);
-      } else if (datum.isArray()) {
-        record.put(fieldName, datum);  
-      } else if (datum.isTextual()) {
-        record.put(fieldName, datum.asText());
-      } else if (datum.isBoolean()) {
-        record.put(fieldName, datum.asBoolean());
-      } else if (datum.isInt()) {
-        record.put(fieldName, datum.asInt());
-      } else if (datum.isLong()) {
-        record.put(fieldName, datum.asLong());
-      } else if (datum.isShort()) {
-        record.put(fieldName, datum.shortValue());
-      } else if (datum.isDouble()) {
-        record.put(fieldName, datum.asDouble());
-      } else if (datum.isFloat()) {
-        record.put(fieldName, datum.floatValue());
-      } else if (datum.isBigInteger()) {
-        record.put(fieldName, datum.bigIntegerValue());
-      } else if (datum.isBigDecimal()) {
-        record.put(fieldName, datum.decimalValue());
-      } else if (datum.isNull()) {
-        ; // ignore
-      } else {
-        record.put(fieldName, datum.toString());
-      }
-    }
-
-    @SuppressWarnings("unchecked")
-    private void flatten(JsonNode datum, List list) { 
-      if (datum == null) {
-        return;
-      }
-
-      if (datum.isObject()) {
-        for (JsonNode child : datum) {
-          flatten(child, list);
-        }
-      } else if (datum.isArray()) {
-        Iterator<JsonNode> iter = datum.elements();
-        while (iter.hasNext()) {
-          flatten(iter.next(), list);
-        }        
-      } else if (datum.isTextual()) {
-        list.add(datum.asText());
-      } else if (datum.isBoolean()) {
-        list.add(datum.asBoolean());
-      } else if (datum.isInt()) {
-        list.add(datum.asInt());
-      } else if (datum.isLong()) {
-        list.add(datum.asLong());
-      } else if (datum.isShort()) {
-        list.add(datum.shortValue());
-      } else if (datum.isDouble()) {
-        list.add(datum.asDouble());
-      } else if (datum.isFloat()) {
-        list.add(datum.floatValue());
-      } else if (datum.isBigInteger()) {
-        list.add(datum.bigIntegerValue());
-      } else if (datum.isBigDecimal()) {
-        list.add(datum.decimalValue());
-      } else if (datum.isNull()) {
-        ; // ignore
-      } else {
-        list.add(datum.toString());
-      }
+      JsonPathMatcher.resolve(datum, record, fieldName, flatten);
     }
     
   }
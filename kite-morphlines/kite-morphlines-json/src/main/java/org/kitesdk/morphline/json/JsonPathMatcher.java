@@ -0,0 +1,278 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.kitesdk.morphline.api.MorphlineCompilationException;
+import org.kitesdk.morphline.api.Record;
+import org.kitesdk.morphline.base.Configs;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.typesafe.config.Config;
+
+/**
+ * Evaluates a set of JSON path expressions directly on the token stream of a {@link JsonParser}.
+ *
+ * The paths are compiled into a trie. Subtrees that no path refers to are skipped without being
+ * materialized; only the values that a path resolves to are bound into {@link JsonNode}s, and then
+ * converted exactly as extractJsonPaths would convert them.
+ */
+final class JsonPathMatcher {
+
+  private final Node root = new Node();
+  private final boolean flatten;
+
+  static final String ARRAY_TOKEN = "[]";
+
+  public JsonPathMatcher(Map<String, Collection<String>> stepMap, boolean flatten) {
+    this.flatten = flatten;
+    for (Map.Entry<String, Collection<String>> entry : stepMap.entrySet()) {
+      String fieldName = entry.getKey();
+      List<String> steps = (List<String>) entry.getValue();
+      Node node = root;
+      for (int i = 0; i < steps.size(); i++) {
+        String step = steps.get(i);
+        boolean isLeaf = (i + 1 == steps.size());
+        if (ARRAY_TOKEN == step) {
+          if (isLeaf) {
+            node.arrayLeaves.add(fieldName);
+          } else {
+            if (node.elements == null) {
+              node.elements = new Node();
+            }
+            node = node.elements;
+          }
+        } else {
+          Node child = node.fields.get(step);
+          if (child == null) {
+            child = new Node();
+            node.fields.put(step, child);
+          }
+          node = child;
+          if (isLeaf) {
+            node.leaves.add(fieldName);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses the given path expressions into a map of record output field name to path steps, with
+   * the array token normalized to {@link #ARRAY_TOKEN} for fast identity comparisons.
+   */
+  static Map<String, Collection<String>> parsePaths(Config paths, Config config) {
+    ListMultimap<String, String> stepMultiMap = ArrayListMultimap.create();
+    for (Map.Entry<String, Object> entry : new Configs().getEntrySet(paths)) {
+      String fieldName = entry.getKey();
+      String path = entry.getValue().toString().trim();
+      if (path.contains("//")) {
+        throw new MorphlineCompilationException("No support for descendant axis available yet", config);
+      }
+      if (path.startsWith("/")) {
+        path = path.substring(1);
+      }
+      if (path.endsWith("/")) {
+        path = path.substring(0, path.length() - 1);
+      }
+      path = path.trim();
+      for (String step : path.split("/")) {
+        step = step.trim();
+        if (step.length() > ARRAY_TOKEN.length() && step.endsWith(ARRAY_TOKEN)) {
+          step = step.substring(0,  step.length() - ARRAY_TOKEN.length());
+          stepMultiMap.put(fieldName, normalize(step));
+          stepMultiMap.put(fieldName, ARRAY_TOKEN);
+        } else {
+          stepMultiMap.put(fieldName, normalize(step));
+        }
+      }
+    }
+    return stepMultiMap.asMap();
+  }
+
+  private static String normalize(String step) { // for faster subsequent query performance
+    return ARRAY_TOKEN.equals(step) ? ARRAY_TOKEN : step;
+  }
+
+  /**
+   * Consumes the JSON value at the current token of the given parser and adds the values that
+   * match the paths to the given record. On return the parser is positioned such that the next call
+   * to {@link JsonParser#nextToken()} returns the first token after the value.
+   */
+  public void match(JsonParser parser, Record record) throws IOException {
+    match(root, parser, record);
+  }
+
+  private void match(Node node, JsonParser parser, Record record) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (node.leaves.size() > 0 || (node.arrayLeaves.size() > 0 && token == JsonToken.START_ARRAY)) {
+      // the value itself is wanted, so bind it once and evaluate the remaining subpaths on the tree
+      JsonNode tree = parser.readValueAsTree();
+      match(node, tree, record);
+    } else if (token == JsonToken.START_OBJECT && node.fields.size() > 0) {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        Node child = node.fields.get(parser.getCurrentName());
+        parser.nextToken();
+        if (child != null) {
+          match(child, parser, record);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    } else if (token == JsonToken.START_ARRAY && node.elements != null) {
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        match(node.elements, parser, record);
+      }
+    } else {
+      parser.skipChildren(); // noop for scalars
+    }
+  }
+
+  private void match(Node node, JsonNode datum, Record record) {
+    for (String fieldName : node.leaves) {
+      resolve(datum, record, fieldName, flatten);
+    }
+    if (datum.isArray()) {
+      for (String fieldName : node.arrayLeaves) {
+        resolve(datum, record, fieldName, flatten);
+      }
+      if (node.elements != null) {
+        Iterator<JsonNode> iter = datum.elements();
+        while (iter.hasNext()) {
+          match(node.elements, iter.next(), record);
+        }
+      }
+    } else if (datum.isObject()) {
+      for (Map.Entry<String, Node> entry : node.fields.entrySet()) {
+        JsonNode value = datum.get(entry.getKey());
+        if (value != null) {
+          match(entry.getValue(), value, record);
+        }
+      }
+    }
+  }
+
+  static void resolve(JsonNode datum, Record record, String fieldName, boolean flatten) {
+    if (datum == null) {
+      return;
+    }
+
+    if (flatten) {
+      flatten(datum, record.get(fieldName));
+      return;
+    }
+
+    if (datum.isObject()) {
+      record.put(fieldName, datum);
+    } else if (datum.isArray()) {
+      record.put(fieldName, datum);
+    } else if (datum.isTextual()) {
+      record.put(fieldName, datum.asText());
+    } else if (datum.isBoolean()) {
+      record.put(fieldName, datum.asBoolean());
+    } else if (datum.isInt()) {
+      record.put(fieldName, datum.asInt());
+    } else if (datum.isLong()) {
+      record.put(fieldName, datum.asLong());
+    } else if (datum.isShort()) {
+      record.put(fieldName, datum.shortValue());
+    } else if (datum.isDouble()) {
+      record.put(fieldName, datum.asDouble());
+    } else if (datum.isFloat()) {
+      record.put(fieldName, datum.floatValue());
+    } else if (datum.isBigInteger()) {
+      record.put(fieldName, datum.bigIntegerValue());
+    } else if (datum.isBigDecimal()) {
+      record.put(fieldName, datum.decimalValue());
+    } else if (datum.isNull()) {
+      ; // ignore
+    } else {
+      record.put(fieldName, datum.toString());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void flatten(JsonNode datum, List list) {
+    if (datum == null) {
+      return;
+    }
+
+    if (datum.isObject()) {
+      for (JsonNode child : datum) {
+        flatten(child, list);
+      }
+    } else if (datum.isArray()) {
+      Iterator<JsonNode> iter = datum.elements();
+      while (iter.hasNext()) {
+        flatten(iter.next(), list);
+      }
+    } else if (datum.isTextual()) {
+      list.add(datum.asText());
+    } else if (datum.isBoolean()) {
+      list.add(datum.asBoolean());
+    } else if (datum.isInt()) {
+      list.add(datum.asInt());
+    } else if (datum.isLong()) {
+      list.add(datum.asLong());
+    } else if (datum.isShort()) {
+      list.add(datum.shortValue());
+    } else if (datum.isDouble()) {
+      list.add(datum.asDouble());
+    } else if (datum.isFloat()) {
+      list.add(datum.floatValue());
+    } else if (datum.isBigInteger()) {
+      list.add(datum.bigIntegerValue());
+    } else if (datum.isBigDecimal()) {
+      list.add(datum.decimalValue());
+    } else if (datum.isNull()) {
+      ; // ignore
+    } else {
+      list.add(datum.toString());
+    }
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** A JSON value that one or more paths reach after consuming the same steps */
+  private static final class Node {
+
+    /** Output fields that take this value */
+    private final List<String> leaves = new ArrayList<String>(1);
+
+    /** Output fields that take this value if it is an array */
+    private final List<String> arrayLeaves = new ArrayList<String>(1);
+
+    /** Subpaths continuing into the fields of this value if it is an object */
+    private final Map<String, Node> fields = new HashMap<String, Node>();
+
+    /** Subpaths continuing into each element of this value if it is an array */
+    private Node elements;
+  }
+
+}
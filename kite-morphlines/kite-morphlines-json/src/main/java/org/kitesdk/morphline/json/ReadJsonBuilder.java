@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 
 import org.kitesdk.morphline.api.Command;
 import org.kitesdk.morphline.api.CommandBuilder;
@@ -29,6 +30,7 @@ import org.kitesdk.morphline.base.Fields;
 import org.kitesdk.morphline.stdio.AbstractParser;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -39,6 +41,13 @@ import com.typesafe.config.Config;
  * Command that parses an InputStream that contains JSON data; for each JSON object in the stream,
  * the command emits a morphline record containing the object as an attachment in
  * {@link Fields#ATTACHMENT_BODY}.
+ * 
+ * Alternatively, if path expressions are given via the <code>paths</code> parameter (with the same
+ * syntax and semantics as in extractJsonPaths), or inferred from a single downstream
+ * extractJsonPaths command via <code>inferPaths : true</code>, the paths are evaluated while
+ * streaming over the parser tokens, and the command emits records that contain the extracted values
+ * instead of an attachment. Subtrees that no path refers to are skipped without being bound into
+ * objects, which saves most of the allocation on large documents.
  */
 public final class ReadJsonBuilder implements CommandBuilder {
 
@@ -59,9 +68,15 @@ public final class ReadJsonBuilder implements CommandBuilder {
   ///////////////////////////////////////////////////////////////////////////////
   // Nested classes:
   ///////////////////////////////////////////////////////////////////////////////
-  private static final class ReadJson extends AbstractParser {
+  static final class ReadJson extends AbstractParser {
 
+    private final ObjectMapper objectMapper;
     private final ObjectReader reader;
+    private final JsonPathMatcher matcher;
+    private final boolean inferPaths;
+    private Command inferredExtractor;
+    private JsonPathMatcher inferredMatcher;
+    private boolean isAmbiguous;
 
     public ReadJson(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {
       super(builder, config, parent, child, context);
@@ -77,7 +92,6 @@ public final class ReadJsonBuilder implements CommandBuilder {
       }
       
       String objectMapperClassName = getConfigs().getString(config, "objectMapper", null);
-      ObjectMapper objectMapper = null;
       if (objectMapperClassName != null) {
         try {
           objectMapper = (ObjectMapper) Class.forName(objectMapperClassName).newInstance();
@@ -97,13 +111,66 @@ public final class ReadJsonBuilder implements CommandBuilder {
       }
       
       reader = objectMapper.reader(outputClass);
+      
+      boolean flatten = getConfigs().getBoolean(config, "flatten", true);
+      Config paths = getConfigs().getConfig(config, "paths", null);
+      if (paths != null) {
+        matcher = new JsonPathMatcher(JsonPathMatcher.parsePaths(paths, config), flatten);
+      } else {
+        matcher = null;
+      }
+      inferPaths = getConfigs().getBoolean(config, "inferPaths", false);
       validateArguments();
     }
+    
+    /**
+     * Called at compile time by a downstream extractJsonPaths command. If path inference is enabled
+     * and this is the only such command, its paths are evaluated by this command while parsing.
+     */
+    void addPathExtractor(Command extractor, Map<String, Collection<String>> stepMap, boolean flatten) {
+      if (!inferPaths || matcher != null) {
+        return;
+      }
+      if (inferredExtractor == null && !isAmbiguous) {
+        inferredExtractor = extractor;
+        inferredMatcher = new JsonPathMatcher(stepMap, flatten);
+      } else {
+        // further extractors need the tree, so keep binding it
+        isAmbiguous = true;
+        inferredExtractor = null;
+        inferredMatcher = null;
+      }
+    }
+    
+    /**
+     * Returns whether this command already extracts the paths of the given downstream command.
+     */
+    boolean isFusedWith(Command extractor) {
+      return extractor == inferredExtractor;
+    }
+    
+    /**
+     * Returns the nearest upstream {@link ReadJson} of the given command, or null.
+     */
+    static ReadJson findUpstream(Command command) {
+      Command parent = command.getParent();
+      while (parent != null) {
+        if (parent instanceof ReadJson) {
+          return (ReadJson) parent;
+        }
+        parent = parent.getParent();
+      }
+      return null;
+    }
 
     @Override
     protected boolean doProcess(Record inputRecord, InputStream in) throws IOException {
       Record template = inputRecord.copy();
       removeAttachments(template);
+      JsonPathMatcher pathMatcher = matcher != null ? matcher : inferredMatcher;
+      if (pathMatcher != null) {
+        return doProcess(template, in, pathMatcher);
+      }
       MappingIterator iter = reader.readValues(in);
       try {
         while (iter.hasNextValue()) {
@@ -125,5 +192,26 @@ public final class ReadJsonBuilder implements CommandBuilder {
         iter.close();
       }
     }
+    
+    private boolean doProcess(Record template, InputStream in, JsonPathMatcher pathMatcher) throws IOException {
+      JsonParser parser = objectMapper.getFactory().createParser(in);
+      parser.setCodec(objectMapper);
+      try {
+        while (parser.nextToken() != null) {
+          incrementNumRecords();
+          Record outputRecord = template.copy();
+          pathMatcher.match(parser, outputRecord);
+          LOG.trace("jsonRecord: {}", outputRecord);
+  
+          // pass record to next command in chain:
+          if (!getChild().process(outputRecord)) {
+            return false;
+          }
+        }
+        return true;
+      } finally {
+        parser.close();
+      }
+    }
   }
 }
@@ -182,6 +182,42 @@ public class JsonMorphlineTest extends AbstractMorphlineTest {
     in.close();    
   }
 
+  @Test
+  public void testExtractJsonPathsWithInferredPaths() throws Exception {
+    Record expected = extractComplexDocument("test-morphlines/extractJsonPaths");
+    Record actual = extractComplexDocument("test-morphlines/extractJsonPathsWithInferredPaths");
+    assertEquals(expected, actual);
+    assertEquals(Arrays.asList(10), actual.get("/docId"));
+  }
+  
+  @Test
+  public void testReadJsonWithPaths() throws Exception {
+    Record expected = extractComplexDocument("test-morphlines/extractJsonPaths");
+    Record actual = extractComplexDocument("test-morphlines/readJsonWithPaths");
+    assertEquals(expected, actual);
+    assertEquals(Arrays.asList("us", "gb"), actual.get("/name/[]/language/[]/country"));
+  }
+  
+  private Record extractComplexDocument(String morphlineConfigFile) throws Exception {
+    morphline = createMorphline(morphlineConfigFile);    
+    File file = new File(RESOURCES_DIR + "/test-documents/complex.json");
+    InputStream in = new FileInputStream(file);
+    Record record = new Record();
+    record.put(Fields.ATTACHMENT_BODY, in);
+    
+    collector.reset();
+    startSession();
+    assertEquals(1, collector.getNumStartEvents());
+    assertTrue(morphline.process(record));    
+    assertEquals(1, collector.getRecords().size());
+    in.close();
+    
+    Record result = collector.getFirstRecord().copy();
+    result.removeAll(Fields.ATTACHMENT_BODY);
+    result.removeAll(Fields.ATTACHMENT_MIME_TYPE);
+    return result;
+  }
+
   @Test
   @SuppressWarnings("unchecked")
   public void testExtractJsonPathsComplexFlattened() throws Exception {
@@ -15,6 +15,7 @@
  */
 package org.kitesdk.morphline.maxmind;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -30,9 +31,14 @@ import org.kitesdk.morphline.api.MorphlineRuntimeException;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.AbstractCommand;
 import org.kitesdk.morphline.base.Fields;
+import org.kitesdk.morphline.base.LookupCache;
+import org.kitesdk.morphline.base.Metrics;
 import org.kitesdk.morphline.base.Notifications;
+import org.kitesdk.morphline.base.SharedResources;
 
+import com.codahale.metrics.Meter;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.net.InetAddresses;
 import com.maxmind.db.Reader;
@@ -41,6 +47,9 @@ import com.typesafe.config.Config;
 /**
  * Command that returns Geolocation information for a given IP address, using an efficient in-memory
  * Maxmind database lookup.
+ * 
+ * The database and a cache of recent lookup results are shared by all geoIP commands in the JVM
+ * that refer to the same database file.
  */
 public final class GeoIPBuilder implements CommandBuilder {
 
@@ -62,7 +71,11 @@ public final class GeoIPBuilder implements CommandBuilder {
 
     private final String inputFieldName;
     private final File databaseFile;
-    private final Reader databaseReader;
+    private final String databaseKey;
+    private final Database database;
+    private boolean isShutdown = false;
+    private final Meter numCacheHitsMeter;
+    private final Meter numCacheMissesMeter;
     
     
     public GeoIP(CommandBuilder builder, Config config, Command parent, 
@@ -71,11 +84,20 @@ public final class GeoIPBuilder implements CommandBuilder {
       super(builder, config, parent, child, context);      
       this.inputFieldName = getConfigs().getString(config, "inputField");
       this.databaseFile = new File(getConfigs().getString(config, "database", "GeoLite2-City.mmdb"));
+      final int cacheCapacity = getConfigs().getInt(config, "cacheCapacity", 1000);
       try {
-        this.databaseReader = new Reader(databaseFile);
+        this.databaseKey = "geoIP:" + databaseFile.getCanonicalPath() + ":" + cacheCapacity;
+        this.database = SharedResources.acquire(databaseKey, new SharedResources.Factory<Database>() {
+          @Override
+          public Database create() throws IOException {
+            return new Database(new Reader(databaseFile), cacheCapacity);
+          }
+        });
       } catch (IOException e) {
         throw new MorphlineCompilationException("Cannot read Maxmind database: " + databaseFile, config, e);
       }
+      this.numCacheHitsMeter = isMeasuringMetrics() ? getMeter(Metrics.NUM_CACHE_HITS) : null;
+      this.numCacheMissesMeter = isMeasuringMetrics() ? getMeter(Metrics.NUM_CACHE_MISSES) : null;
       validateArguments();
     }
 
@@ -87,42 +109,36 @@ public final class GeoIPBuilder implements CommandBuilder {
         return false;
       }
       for (Object value : values) {
-        InetAddress addr;
-        if (value instanceof InetAddress) {
-          addr = (InetAddress) value;
-        } else {
-          try {
-            addr = InetAddresses.forString(value.toString());
-          } catch (IllegalArgumentException e) {
-            LOG.debug("Invalid IP string literal: {}", value);
-            return false;
-          }   
-        }
-        
         JsonNode json;
-        try {
-          json = databaseReader.get(addr);
-        } catch (IOException e) {
-          throw new MorphlineRuntimeException("Cannot perform GeoIP lookup for IP: " + addr, e);
+        if (database.cache == null) {
+          json = lookup(value);
+        } else {
+          Object key = value instanceof InetAddress ? value : value.toString();
+          json = database.cache.get(key);
+          if (json == null) { // cache miss
+            if (numCacheMissesMeter != null) {
+              numCacheMissesMeter.mark();
+            }
+            json = lookup(value);
+            if (json == null) {
+              return false; // invalid IP string literal
+            }
+            database.cache.put(key, json);
+          } else if (numCacheHitsMeter != null) {
+            numCacheHitsMeter.mark();
+          }
+          if (!json.isNull()) {
+            json = json.deepCopy(); // the cached node is shared with other threads and commands
+          }
         }
 
         if (json == null) {
-          LOG.debug("No GeoIP record found for: {}", value);
           return false;
         }
-
-        ObjectNode location = (ObjectNode) json.get("location");
-        if (location != null) {
-          JsonNode jlatitude = location.get("latitude");
-          JsonNode jlongitude = location.get("longitude");
-          if (jlatitude != null && jlongitude != null) {
-            String latitude = jlatitude.toString();
-            String longitude = jlongitude.toString();
-            location.put("latitude_longitude", latitude + "," + longitude);
-            location.put("longitude_latitude", longitude + "," + latitude);
-          }
+        if (json.isNull()) {
+          LOG.debug("No GeoIP record found for: {}", value);
+          return false;
         }
-
         record.put(Fields.ATTACHMENT_BODY, json);
       }
       
@@ -130,15 +146,54 @@ public final class GeoIPBuilder implements CommandBuilder {
       return super.doProcess(record);
     }
     
+    /**
+     * Returns the GeoIP record for the given IP address, or a NullNode if the database contains no
+     * such record, or null if the IP address is invalid.
+     */
+    private JsonNode lookup(Object value) {
+      InetAddress addr;
+      if (value instanceof InetAddress) {
+        addr = (InetAddress) value;
+      } else {
+        try {
+          addr = InetAddresses.forString(value.toString());
+        } catch (IllegalArgumentException e) {
+          LOG.debug("Invalid IP string literal: {}", value);
+          return null;
+        }   
+      }
+      
+      JsonNode json;
+      try {
+        json = database.reader.get(addr);
+      } catch (IOException e) {
+        throw new MorphlineRuntimeException("Cannot perform GeoIP lookup for IP: " + addr, e);
+      }
+
+      if (json == null) {
+        return NullNode.getInstance();
+      }
+
+      ObjectNode location = (ObjectNode) json.get("location");
+      if (location != null) {
+        JsonNode jlatitude = location.get("latitude");
+        JsonNode jlongitude = location.get("longitude");
+        if (jlatitude != null && jlongitude != null) {
+          String latitude = jlatitude.toString();
+          String longitude = jlongitude.toString();
+          location.put("latitude_longitude", latitude + "," + longitude);
+          location.put("longitude_latitude", longitude + "," + latitude);
+        }
+      }
+      return json;
+    }
+    
     @Override
     protected void doNotify(Record notification) {      
       for (Object event : Notifications.getLifecycleEvents(notification)) {
-        if (event == Notifications.LifecycleEvent.SHUTDOWN) {
-          try {
-            databaseReader.close();
-          } catch (IOException e) {
-            LOG.warn("Cannot close Maxmind database: " + databaseFile, e);
-          }
+        if (event == Notifications.LifecycleEvent.SHUTDOWN && !isShutdown) {
+          isShutdown = true;
+          SharedResources.release(databaseKey); // closes the database once no command uses it anymore
         }
       }
       super.doNotify(notification);
@@ -146,4 +201,28 @@ public final class GeoIPBuilder implements CommandBuilder {
     
   }
   
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /**
+   * A Maxmind database reader plus a cache of lookup results keyed by IP address, shared by all
+   * geoIP commands in the JVM that use the same database file and cache capacity.
+   */
+  private static final class Database implements Closeable {
+    
+    private final Reader reader;
+    private final LookupCache<Object, JsonNode> cache;
+    
+    public Database(Reader reader, int cacheCapacity) {
+      this.reader = reader;
+      this.cache = cacheCapacity > 0 ? new LookupCache<Object, JsonNode>(cacheCapacity) : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+  
 }
@@ -21,6 +21,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
@@ -124,6 +125,45 @@ abstract class SaxonCommand extends AbstractParser {
     return document;
   }
   
+  /**
+   * Returns a splitter that streams the fragments with the given paths, or null if there is a single
+   * fragment and its path is the document root.
+   */
+  protected XMLFragmentSplitter createFragmentSplitter(List<String> fragmentPaths, Config config) {
+    if (fragmentPaths.size() == 0) {
+      throw new MorphlineCompilationException("At least one fragment must be defined", config);
+    }
+    for (String fragmentPath : fragmentPaths) {
+      if (XMLFragmentSplitter.isRootPath(fragmentPath)) {
+        if (fragmentPaths.size() > 1) {
+          throw new MorphlineCompilationException(
+              "The root fragment path must not be combined with other fragments", config);
+        }
+        return null;
+      }
+    }
+    try {
+      return new XMLFragmentSplitter(fragmentPaths);
+    } catch (IllegalArgumentException e) {
+      throw new MorphlineCompilationException(e.getMessage(), config);
+    }
+  }
+  
+  /**
+   * Streams the given XML document through the given splitter, building a small document per
+   * fragment rather than a tree for the entire document.
+   */
+  protected boolean parseXmlFragments(InputStream stream, XMLFragmentSplitter splitter, 
+      XMLFragmentSplitter.Handler handler) throws XMLStreamException, SaxonApiException {
+    
+    XMLStreamReader reader = inputFactory.createXMLStreamReader(null, stream);
+    try {
+      return splitter.split(reader, documentBuilder, handler);
+    } finally {
+      reader.close();
+    }
+  }
+  
   
   ///////////////////////////////////////////////////////////////////////////////
   // Nested classes:
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.saxon;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.saxon.s9api.BuildingStreamWriterImpl;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+/**
+ * Splits a StAX event stream into the subtrees rooted at elements that match one of a set of
+ * absolute fragment paths such as <code>/catalog/item</code>, and builds a small Saxon document for
+ * each such subtree, so memory is bounded by the size of a fragment rather than the size of the
+ * document.
+ *
+ * A path step matches an element with the same local name, irrespective of its namespace, or any
+ * element if the step is <code>*</code>. Fragment paths must not be nested within each other.
+ * Namespace declarations in scope on the ancestors of a fragment are copied onto the root element
+ * of the fragment document.
+ */
+final class XMLFragmentSplitter {
+
+  private final List<String[]> paths = new ArrayList();
+
+  private static final String WILDCARD = "*";
+
+  public XMLFragmentSplitter(List<String> fragmentPaths) {
+    for (String fragmentPath : fragmentPaths) {
+      paths.add(parse(fragmentPath));
+    }
+    for (int i = 0; i < paths.size(); i++) {
+      for (int j = 0; j < paths.size(); j++) {
+        if (i != j && isPrefix(paths.get(i), paths.get(j))) {
+          throw new IllegalArgumentException("Fragment paths must not be nested: "
+              + fragmentPaths.get(i) + ", " + fragmentPaths.get(j));
+        }
+      }
+    }
+  }
+
+  /** Returns true if the given fragment path denotes the entire document */
+  public static boolean isRootPath(String fragmentPath) {
+    return fragmentPath.trim().equals("/");
+  }
+
+  private static String[] parse(String fragmentPath) {
+    String path = fragmentPath.trim();
+    if (!path.startsWith("/") || isRootPath(path) || path.startsWith("//")) {
+      throw new IllegalArgumentException("Fragment path must be of the form /a/b/c: " + fragmentPath);
+    }
+    String[] steps = path.substring(1).split("/");
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = steps[i].trim();
+      if (steps[i].length() == 0) {
+        throw new IllegalArgumentException("Fragment path must not contain empty steps: " + fragmentPath);
+      }
+      if (steps[i].equals(WILDCARD)) {
+        steps[i] = WILDCARD; // for fast identity comparisons
+      }
+    }
+    return steps;
+  }
+
+  private static boolean isPrefix(String[] prefix, String[] path) {
+    if (prefix.length > path.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      String a = prefix[i];
+      String b = path[i];
+      if (!a.equals(b) && !a.equals(WILDCARD) && !b.equals(WILDCARD)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads all events from the given reader and calls the handler for each fragment. Returns false
+   * as soon as the handler returns false, true otherwise.
+   */
+  public boolean split(XMLStreamReader reader, DocumentBuilder documentBuilder, Handler handler)
+      throws XMLStreamException, SaxonApiException {
+
+    List<String> elements = new ArrayList();
+    List<Map<String, String>> namespaces = new ArrayList();
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        elements.add(reader.getLocalName());
+        int fragmentIndex = match(elements);
+        if (fragmentIndex >= 0) {
+          XdmNode document = buildFragment(reader, documentBuilder, namespaces);
+          elements.remove(elements.size() - 1); // the copier has consumed the END_ELEMENT
+          if (!handler.handle(fragmentIndex, document)) {
+            return false;
+          }
+        } else {
+          namespaces.add(getNamespaces(reader));
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        elements.remove(elements.size() - 1);
+        namespaces.remove(namespaces.size() - 1);
+      }
+    }
+    return true;
+  }
+
+  private int match(List<String> elements) {
+    for (int i = 0; i < paths.size(); i++) {
+      String[] path = paths.get(i);
+      if (path.length == elements.size()) {
+        int j = path.length;
+        while (--j >= 0 && (path[j] == WILDCARD || path[j].equals(elements.get(j)))) {
+          ;
+        }
+        if (j < 0) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private Map<String, String> getNamespaces(XMLStreamReader reader) {
+    int count = reader.getNamespaceCount();
+    if (count == 0) {
+      return null;
+    }
+    Map<String, String> map = new LinkedHashMap();
+    for (int i = 0; i < count; i++) {
+      String prefix = reader.getNamespacePrefix(i);
+      map.put(prefix == null ? "" : prefix, reader.getNamespaceURI(i));
+    }
+    return map;
+  }
+
+  private XdmNode buildFragment(XMLStreamReader reader, DocumentBuilder documentBuilder,
+      List<Map<String, String>> ancestorNamespaces) throws XMLStreamException, SaxonApiException {
+
+    Map<String, String> inheritedNamespaces = new LinkedHashMap();
+    for (Map<String, String> map : ancestorNamespaces) {
+      if (map != null) {
+        inheritedNamespaces.putAll(map); // inner declarations override outer declarations
+      }
+    }
+    BuildingStreamWriterImpl writer = documentBuilder.newBuildingStreamWriter();
+    writer.writeStartDocument();
+    new XMLStreamCopier(reader, writer).copy(true, inheritedNamespaces);
+    writer.writeEndDocument();
+    writer.close();
+    return writer.getDocumentNode();
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** Receives the fragments of a document */
+  static interface Handler {
+
+    /**
+     * Processes the fragment that matched the fragment path with the given index; returns false to
+     * stop splitting
+     */
+    boolean handle(int fragmentIndex, XdmNode document) throws SaxonApiException;
+  }
+
+}
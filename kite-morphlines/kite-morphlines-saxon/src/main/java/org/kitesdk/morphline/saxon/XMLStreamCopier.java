@@ -44,6 +44,8 @@
  */
 package org.kitesdk.morphline.saxon;
 
+import java.util.Map;
+
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -83,6 +85,25 @@ final class XMLStreamCopier {
 	 *             If an error occurs while copying the stream
 	 */
 	public void copy(boolean isFragmentMode) throws XMLStreamException {
+		copy(isFragmentMode, null);
+	}
+	
+	/**
+	 * Same as {@link #copy(boolean)}, except that the given namespace
+	 * declarations (prefix to URI) are additionally written onto the first
+	 * element, unless the element itself declares the same prefix. This
+	 * keeps a fragment well-formed that uses namespaces declared on its
+	 * ancestors.
+	 * 
+	 * @param isFragmentMode
+	 *            see {@link #copy(boolean)}
+	 * @param inheritedNamespaces
+	 *            the namespace declarations in scope of the first element, or
+	 *            null
+	 * @throws XMLStreamException
+	 *             If an error occurs while copying the stream
+	 */
+	public void copy(boolean isFragmentMode, Map<String, String> inheritedNamespaces) throws XMLStreamException {
 		int ev = isFragmentMode ? 
 			XMLStreamConstants.START_ELEMENT : XMLStreamConstants.START_DOCUMENT;
 		reader.require(ev, null, null);
@@ -98,6 +119,9 @@ final class XMLStreamCopier {
 							nonNull(reader.getNamespaceURI())); // Saxon requires nonNull
 					copyAttributes();
 					copyNamespaces();
+					if (inheritedNamespaces != null && depth == 0) {
+						copyInheritedNamespaces(inheritedNamespaces);
+					}
 					depth++;
 					break;
 				}
@@ -194,6 +218,22 @@ final class XMLStreamCopier {
 		}
 	}
 
+	private void copyInheritedNamespaces(Map<String, String> inheritedNamespaces) throws XMLStreamException {
+		for (Map.Entry<String, String> entry : inheritedNamespaces.entrySet()) {
+			String prefix = entry.getKey();
+			boolean isRedeclared = false;
+			for (int i = 0; i < reader.getNamespaceCount(); i++) {
+				if (prefix.equals(nonNull(reader.getNamespacePrefix(i)))) {
+					isRedeclared = true;
+					break;
+				}
+			}
+			if (!isRedeclared) {
+				writer.writeNamespace(prefix, nonNull(entry.getValue()));
+			}
+		}
+	}
+	
 //	private char[] buf = new char[2048];
 	private void copyText() throws XMLStreamException {
 		writer.writeCharacters(reader.getText());
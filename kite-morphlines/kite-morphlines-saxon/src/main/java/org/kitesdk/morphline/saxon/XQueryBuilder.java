@@ -54,6 +54,10 @@ import com.typesafe.config.ConfigFactory;
  * Command that parses an InputStream that contains an XML document and runs the given XQuery over
  * the XML document. For each item in the query result sequence, the command emits a morphline record
  * containing the item's name-value pairs.
+ * 
+ * If the fragment paths are not the document root, e.g. <code>/catalog/item</code>, the document is
+ * streamed and the query is run once per matching element, against a small document that contains
+ * only that element, so memory use is bounded by the size of a fragment.
  */
 public final class XQueryBuilder implements CommandBuilder {
 
@@ -82,30 +86,22 @@ public final class XQueryBuilder implements CommandBuilder {
   private static final class XQuery extends SaxonCommand {
     
     /*
-     * TODO: Add option to support streaming via fragmentPath.
-     * 
      * TODO: Add option to support serializing each item in the result sequence according to the XML
      * Output Method of the <a target="_blank" href="http://www.w3.org/TR/xslt-xquery-serialization-30/">
      * W3C XQuery/XSLT2 Serialization Spec</a>, with sequence normalization as defined therein.
      */
     
     private final List<Fragment> fragments = new ArrayList();
+    private final XMLFragmentSplitter splitter;
   
     public XQuery(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) throws SaxonApiException, IOException, XMLStreamException {
       super(builder, config, parent, child, context);
       
       List<? extends Config> fragmentConfigs = getConfigs().getConfigList(config, "fragments");
-      if (fragmentConfigs.size() == 0) {
-        throw new MorphlineCompilationException("At least one fragment must be defined", config);
-      }
-      if (fragmentConfigs.size() > 1) {
-        throw new MorphlineCompilationException("More than one fragment is not yet supported", config);
-      }
+      List<String> fragmentPaths = new ArrayList();
       for (Config fragment : fragmentConfigs) {
         String fragmentPath = getConfigs().getString(fragment, "fragmentPath");
-        if (!fragmentPath.equals("/")) {
-          throw new MorphlineCompilationException("Non-root fragment paths are not yet supported", config);
-        }  
+        fragmentPaths.add(fragmentPath);
         
         XQueryCompiler compiler = processor.newXQueryCompiler();
         compiler.setErrorListener(new DefaultErrorListener());
@@ -146,43 +142,56 @@ public final class XQueryBuilder implements CommandBuilder {
 
         fragments.add(new Fragment(fragmentPath, evaluator));
       }  
+      this.splitter = createFragmentSplitter(fragmentPaths, config);
       validateArguments();
     }
   
     @Override
     protected boolean doProcess2(Record inputRecord, InputStream stream) throws SaxonApiException, XMLStreamException {
       incrementNumRecords();      
-      for (Fragment fragment : fragments) {
-        Record template = inputRecord.copy();
-        removeAttachments(template);
+      final Record template = inputRecord.copy();
+      removeAttachments(template);
+      if (splitter == null) {
         XdmNode document = parseXmlDocument(stream);
-        LOG.trace("XQuery input document: {}", document);
-        XQueryEvaluator evaluator = fragment.xQueryEvaluator;
-        evaluator.setContextItem(document);
-        
-        int i = 0;
-        for (XdmItem item : evaluator) {
-          i++;
-          if (LOG.isTraceEnabled()) {
-            LOG.trace("XQuery result sequence item #{} is of class: {} with value: {}", new Object[] { i,
-                item.getUnderlyingValue().getClass().getName(), item });
-          }
-          if (item.isAtomicValue()) {
-            LOG.debug("Ignoring atomic value in result sequence: {}", item);
-            continue;
-          }
-          XdmNode node = (XdmNode) item;
-          Record outputRecord = template.copy();
-          boolean isNonEmpty = addRecordValues(node, Axis.SELF, XdmNodeKind.ATTRIBUTE, outputRecord);
-          isNonEmpty = addRecordValues(node, Axis.ATTRIBUTE, XdmNodeKind.ATTRIBUTE, outputRecord) || isNonEmpty;
-          isNonEmpty = addRecordValues(node, Axis.CHILD, XdmNodeKind.ELEMENT, outputRecord) || isNonEmpty;
-          if (isNonEmpty) { // pass record to next command in chain   
-            if (!getChild().process(outputRecord)) { 
-              return false;
-            }
+        return evaluate(fragments.get(0), document, template);
+      }
+      
+      // stream the document, running the query once per fragment
+      return parseXmlFragments(stream, splitter, new XMLFragmentSplitter.Handler() {
+        @Override
+        public boolean handle(int fragmentIndex, XdmNode document) throws SaxonApiException {
+          return evaluate(fragments.get(fragmentIndex), document, template);
+        }
+      });
+    }
+    
+    private boolean evaluate(Fragment fragment, XdmNode document, Record template) throws SaxonApiException {
+      LOG.trace("XQuery input document: {}", document);
+      XQueryEvaluator evaluator = fragment.xQueryEvaluator;
+      evaluator.setContextItem(document);
+      
+      int i = 0;
+      for (XdmItem item : evaluator) {
+        i++;
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("XQuery result sequence item #{} is of class: {} with value: {}", new Object[] { i,
+              item.getUnderlyingValue().getClass().getName(), item });
+        }
+        if (item.isAtomicValue()) {
+          LOG.debug("Ignoring atomic value in result sequence: {}", item);
+          continue;
+        }
+        XdmNode node = (XdmNode) item;
+        Record outputRecord = template.copy();
+        boolean isNonEmpty = addRecordValues(node, Axis.SELF, XdmNodeKind.ATTRIBUTE, outputRecord);
+        isNonEmpty = addRecordValues(node, Axis.ATTRIBUTE, XdmNodeKind.ATTRIBUTE, outputRecord) || isNonEmpty;
+        isNonEmpty = addRecordValues(node, Axis.CHILD, XdmNodeKind.ELEMENT, outputRecord) || isNonEmpty;
+        if (isNonEmpty) { // pass record to next command in chain   
+          if (!getChild().process(outputRecord)) { 
+            return false;
           }
         }
-      }      
+      }
       return true;
     }
 
@@ -57,7 +57,9 @@ import com.typesafe.config.ConfigFactory;
  * over the XML document. For each item in the query result sequence, the command emits a morphline
  * record containing the item's name-value pairs.
  * 
- * TODO: Add support for streaming via fragmentPath.
+ * If the fragment paths are not the document root, e.g. <code>/catalog/item</code>, the document is
+ * streamed and the transform is run once per matching element, against a small document that
+ * contains only that element, so memory use is bounded by the size of a fragment.
  */
 public final class XSLTBuilder implements CommandBuilder {
 
@@ -86,22 +88,16 @@ public final class XSLTBuilder implements CommandBuilder {
   private static final class XSLT extends SaxonCommand {
     
     private final List<Fragment> fragments = new ArrayList();
+    private final XMLFragmentSplitter splitter;
   
     public XSLT(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) throws SaxonApiException, IOException, XMLStreamException {
       super(builder, config, parent, child, context);
       
       List<? extends Config> fragmentConfigs = getConfigs().getConfigList(config, "fragments");
-      if (fragmentConfigs.size() == 0) {
-        throw new MorphlineCompilationException("At least one fragment must be defined", config);
-      }
-      if (fragmentConfigs.size() > 1) {
-        throw new MorphlineCompilationException("More than one fragment is not yet supported", config);
-      }
+      List<String> fragmentPaths = new ArrayList();
       for (Config fragment : fragmentConfigs) {
         String fragmentPath = getConfigs().getString(fragment, "fragmentPath");
-        if (!fragmentPath.equals("/")) {
-          throw new MorphlineCompilationException("Non-root fragment paths are not yet supported", config);
-        }  
+        fragmentPaths.add(fragmentPath);
         
         XsltCompiler compiler = processor.newXsltCompiler();
         compiler.setErrorListener(new DefaultErrorListener());
@@ -145,24 +141,38 @@ public final class XSLTBuilder implements CommandBuilder {
 
         fragments.add(new Fragment(fragmentPath, evaluator));
       }  
+      this.splitter = createFragmentSplitter(fragmentPaths, config);
       validateArguments();
     }
   
     @Override
     protected boolean doProcess2(Record inputRecord, InputStream stream) throws SaxonApiException, XMLStreamException {
       incrementNumRecords();      
-      for (Fragment fragment : fragments) {
-        Record outputRecord = inputRecord.copy();
-        removeAttachments(outputRecord);   
+      final Record outputRecord = inputRecord.copy();
+      removeAttachments(outputRecord);   
+      if (splitter == null) {
         XdmNode document = parseXmlDocument(stream);
-        LOG.trace("XSLT input document: {}", document);
-        XsltTransformer evaluator = fragment.transformer;
-        evaluator.setInitialContextNode(document);
-        XMLStreamWriter morphlineWriter = new MorphlineXMLStreamWriter(getChild(), outputRecord);
-        evaluator.setDestination(new XMLStreamWriterDestination(morphlineWriter));
-        evaluator.transform(); //  run the query and push into child via RecordXMLStreamWriter
-      }      
-      return true;
+        transform(fragments.get(0), document, outputRecord);
+        return true;
+      }
+      
+      // stream the document, running the transform once per fragment
+      return parseXmlFragments(stream, splitter, new XMLFragmentSplitter.Handler() {
+        @Override
+        public boolean handle(int fragmentIndex, XdmNode document) throws SaxonApiException {
+          transform(fragments.get(fragmentIndex), document, outputRecord);
+          return true;
+        }
+      });
+    }
+    
+    private void transform(Fragment fragment, XdmNode document, Record outputRecord) throws SaxonApiException {
+      LOG.trace("XSLT input document: {}", document);
+      XsltTransformer evaluator = fragment.transformer;
+      evaluator.setInitialContextNode(document);
+      XMLStreamWriter morphlineWriter = new MorphlineXMLStreamWriter(getChild(), outputRecord);
+      evaluator.setDestination(new XMLStreamWriterDestination(morphlineWriter));
+      evaluator.transform(); //  run the query and push into child via RecordXMLStreamWriter
     }
 
 
@@ -29,6 +29,7 @@ import java.util.Iterator;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.kitesdk.morphline.api.AbstractMorphlineTest;
+import org.kitesdk.morphline.api.MorphlineCompilationException;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.Fields;
 
@@ -53,6 +54,48 @@ public class SaxonMorphlineTest extends AbstractMorphlineTest {
     in.close();
   }  
 
+  @Test
+  public void testXQueryTweetTextsStreaming() throws Exception {
+    morphline = createMorphline("test-morphlines/xquery-tweet-texts-streaming");    
+    InputStream in = new FileInputStream(new File(RESOURCES_DIR + "/test-documents/sample-statuses-20120906-141433.xml"));
+    Record record = new Record();
+    record.put("id", "123");
+    record.put(Fields.ATTACHMENT_BODY, in);
+    processAndVerifySuccess(record, 
+        ImmutableMultimap.of("id", "123", "text", "sample tweet one"),
+        ImmutableMultimap.of("id", "123", "text", "sample tweet two")
+        );    
+    in.close();
+  }  
+
+  @Test
+  public void testXQueryCatalogStreaming() throws Exception {
+    // fragments of both paths arrive in document order; the wildcard matches book and novel, and
+    // the cur prefix declared on the catalog element resolves within each fragment
+    morphline = createMorphline("test-morphlines/xquery-catalog-streaming");    
+    InputStream in = new FileInputStream(new File(RESOURCES_DIR + "/test-documents/catalog.xml"));
+    Record record = new Record();
+    record.put("id", "123");
+    record.put(Fields.ATTACHMENT_BODY, in);
+    processAndVerifySuccess(record, 
+        ImmutableMultimap.of("id", "123", "name", "book", "title", "Emma", "currency", "urn:currency"),
+        ImmutableMultimap.of("id", "123", "name", "novel", "title", "Persuasion", "currency", "urn:currency"),
+        ImmutableMultimap.of("id", "123", "title", "Kind of Blue"),
+        ImmutableMultimap.of("id", "123", "name", "book", "title", "Dracula", "currency", "urn:currency")
+        );    
+    in.close();
+  }  
+
+  @Test(expected = MorphlineCompilationException.class)
+  public void testNestedFragmentPathsAreRejected() throws Exception {
+    createMorphline("test-morphlines/xquery-fragments-nested");    
+  }  
+
+  @Test(expected = MorphlineCompilationException.class)
+  public void testRootFragmentPathWithOtherPathsIsRejected() throws Exception {
+    createMorphline("test-morphlines/xquery-fragments-root");    
+  }  
+
   @Test
   public void testXQueryTweetUsers() throws Exception {
     morphline = createMorphline("test-morphlines/xquery-tweet-users");    
@@ -161,6 +204,21 @@ public class SaxonMorphlineTest extends AbstractMorphlineTest {
     in.close();
   }  
 
+  @Test
+  public void testXsltCatalogStreaming() throws Exception {
+    morphline = createMorphline("test-morphlines/xslt-catalog-streaming");    
+    InputStream in = new FileInputStream(new File(RESOURCES_DIR + "/test-documents/catalog.xml"));
+    Record record = new Record();
+    record.put("id", "123");
+    record.put(Fields.ATTACHMENT_BODY, in);
+    processAndVerifySuccess(record, 
+        ImmutableMultimap.of("id", "123", "name", "book", "title", "Emma", "currency", "urn:currency"),
+        ImmutableMultimap.of("id", "123", "name", "novel", "title", "Persuasion", "currency", "urn:currency"),
+        ImmutableMultimap.of("id", "123", "name", "book", "title", "Dracula", "currency", "urn:currency")
+        );    
+    in.close();
+  }  
+
   @Test
   public void testXQueryJoin() throws Exception {
     File table = new File("target/test-table.xml");
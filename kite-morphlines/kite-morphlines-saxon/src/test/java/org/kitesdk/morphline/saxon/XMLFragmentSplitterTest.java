@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.saxon;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class XMLFragmentSplitterTest extends Assert {
+
+  private static final String DOC =
+      "<a xmlns:x='urn:outer'>"
+    +   "<b xmlns:x='urn:inner' xmlns:y='urn:y'><c id='1'/><d id='2'/></b>"
+    +   "<e><c id='3'/></e>"
+    +   "<b><c id='4'/></b>"
+    + "</a>";
+
+  private final Processor processor = new Processor(false);
+  private final List<Integer> indexes = new ArrayList();
+  private final List<XdmNode> fragments = new ArrayList();
+
+  @Test
+  public void testSinglePath() throws Exception {
+    split(DOC, "/a/b/c");
+    assertEquals(Arrays.asList(0, 0), indexes);
+    assertEquals(Arrays.asList("1", "4"), ids());
+  }
+
+  @Test
+  public void testWildcardSteps() throws Exception {
+    split(DOC, "/a/*/c");
+    assertEquals(Arrays.asList("1", "3", "4"), ids());
+
+    split(DOC, "/*/b/*");
+    assertEquals(Arrays.asList("1", "2", "4"), ids());
+  }
+
+  @Test
+  public void testMultiplePathsInDocumentOrder() throws Exception {
+    split(DOC, "/a/e/c", "/a/b/d", "/a/b/c");
+    assertEquals(Arrays.asList("1", "2", "3", "4"), ids());
+    assertEquals(Arrays.asList(2, 1, 0, 2), indexes);
+  }
+
+  @Test
+  public void testInheritedNamespaces() throws Exception {
+    split(DOC, "/a/*/c");
+    // the inner declaration of x overrides the outer one
+    assertEquals("urn:inner", namespaceURI(fragments.get(0), "x"));
+    assertEquals("urn:y", namespaceURI(fragments.get(0), "y"));
+    // declarations go out of scope with the element that declares them
+    assertEquals("urn:outer", namespaceURI(fragments.get(1), "x"));
+    assertNull(namespaceURI(fragments.get(1), "y"));
+    assertEquals("urn:outer", namespaceURI(fragments.get(2), "x"));
+  }
+
+  @Test
+  public void testStopsWhenHandlerReturnsFalse() throws Exception {
+    XMLFragmentSplitter splitter = new XMLFragmentSplitter(Arrays.asList("/a/*/c"));
+    final List<XdmNode> seen = new ArrayList();
+    boolean result = splitter.split(reader(DOC), processor.newDocumentBuilder(),
+        new XMLFragmentSplitter.Handler() {
+          @Override
+          public boolean handle(int fragmentIndex, XdmNode document) {
+            seen.add(document);
+            return seen.size() < 2;
+          }
+        });
+    assertFalse(result);
+    assertEquals(2, seen.size());
+  }
+
+  @Test
+  public void testNestedPathsAreRejected() throws Exception {
+    assertRejected("/a/b", "/a/b/c");
+    assertRejected("/a/b/c", "/a/b");
+    assertRejected("/a/*", "/a/b/c");
+    assertRejected("/a/b/c", "/*/b");
+    assertRejected("/a/b", "/a/b");
+  }
+
+  @Test
+  public void testSiblingPathsAreAccepted() throws Exception {
+    new XMLFragmentSplitter(Arrays.asList("/a/b/c", "/a/e/c", "/a/b/d"));
+    new XMLFragmentSplitter(Arrays.asList("/a/b", "/x/*/c"));
+  }
+
+  @Test
+  public void testMalformedPathsAreRejected() throws Exception {
+    assertRejected("a/b");
+    assertRejected("/");
+    assertRejected("//a");
+    assertRejected("/a//b");
+  }
+
+  @Test
+  public void testIsRootPath() throws Exception {
+    assertTrue(XMLFragmentSplitter.isRootPath("/"));
+    assertTrue(XMLFragmentSplitter.isRootPath(" / "));
+    assertFalse(XMLFragmentSplitter.isRootPath("/a"));
+  }
+
+  private void split(String xml, String... fragmentPaths) throws Exception {
+    indexes.clear();
+    fragments.clear();
+    XMLFragmentSplitter splitter = new XMLFragmentSplitter(Arrays.asList(fragmentPaths));
+    boolean result = splitter.split(reader(xml), processor.newDocumentBuilder(),
+        new XMLFragmentSplitter.Handler() {
+          @Override
+          public boolean handle(int fragmentIndex, XdmNode document) {
+            indexes.add(fragmentIndex);
+            fragments.add(document);
+            return true;
+          }
+        });
+    assertTrue(result);
+  }
+
+  private XMLStreamReader reader(String xml) throws Exception {
+    return new XMLInputFactoryCreator().getXMLInputFactory().createXMLStreamReader(
+        null, new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8)));
+  }
+
+  private List<String> ids() {
+    List<String> ids = new ArrayList();
+    for (XdmNode document : fragments) {
+      ids.add(root(document).getAttributeValue(new QName("id")));
+    }
+    return ids;
+  }
+
+  private static XdmNode root(XdmNode document) {
+    return (XdmNode) document.axisIterator(Axis.CHILD).next();
+  }
+
+  private String namespaceURI(XdmNode document, String prefix) throws SaxonApiException {
+    XdmItem uri = processor.newXPathCompiler().evaluateSingle(
+        "namespace-uri-for-prefix('" + prefix + "', /*)", document);
+    return uri == null ? null : uri.getStringValue();
+  }
+
+  private static void assertRejected(String... fragmentPaths) {
+    try {
+      new XMLFragmentSplitter(Arrays.asList(fragmentPaths));
+      fail("Should reject " + Arrays.asList(fragmentPaths));
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+}
@@ -43,6 +43,7 @@ import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.MorphlineRuntimeException;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.AbstractCommand;
+import org.kitesdk.morphline.base.Attachments;
 import org.kitesdk.morphline.base.Fields;
 
 import com.google.common.base.Preconditions;
@@ -131,12 +132,7 @@ public final class DetectMimeTypeBuilder implements CommandBuilder {
         if (attachments.size() > 0) {
           Object attachment = attachments.get(0);
           Preconditions.checkNotNull(attachment);
-          InputStream stream;
-          if (attachment instanceof byte[]) {
-            stream = new ByteArrayInputStream((byte[]) attachment);
-          } else {
-            stream = (InputStream) attachment;
-          }
+          InputStream stream = Attachments.getInputStream(attachment);
           
           Metadata metadata = new Metadata();
           
@@ -16,11 +16,23 @@
 package org.kitesdk.morphline.tika.decompress;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
@@ -36,13 +48,23 @@ import org.kitesdk.morphline.api.CommandBuilder;
 import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.MorphlineRuntimeException;
 import org.kitesdk.morphline.api.Record;
+import org.kitesdk.morphline.base.Notifications;
+import org.kitesdk.morphline.base.Validator;
 import org.kitesdk.morphline.stdio.AbstractParser;
 
 import org.kitesdk.morphline.shaded.com.google.common.io.Closeables;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.typesafe.config.Config;
 
 /**
  * Command that unpacks the first attachment. Implementation adapted from Tika PackageParser.
+ * 
+ * If <code>parallelism</code> is greater than one, archive entries are spooled (in memory up to
+ * <code>spoolThreshold</code> bytes, otherwise to a temp file) and each entry is then parsed and
+ * passed to the child command on a pool of worker threads. This requires all downstream commands
+ * to be safe for concurrent use. If <code>preserveOrder</code> is true, the child command is
+ * called for one entry at a time, in archive order, so only spooling overlaps with the child.
  */
 public final class UnpackBuilder implements CommandBuilder {
 
@@ -74,6 +96,12 @@ public final class UnpackBuilder implements CommandBuilder {
     private static final Set<MediaType> SUPPORTED_TYPES =
             MediaType.set(ZIP, JAR, AR, CPIO, DUMP, TAR);
     
+    private final int parallelism;
+    private final long spoolThreshold;
+    private final boolean preserveOrder;
+    private final OnEntryFailure onEntryFailure;
+    private final ExecutorService executor;
+    
     public Unpack(CommandBuilder builder, Config config, Command parent, Command child, MorphlineContext context) {
       super(builder, config, parent, child, context);      
       if (!config.hasPath(SUPPORTED_MIME_TYPES)) {
@@ -83,6 +111,20 @@ public final class UnpackBuilder implements CommandBuilder {
         }
         addSupportedMimeType(GTAR); // apparently not already included in PackageParser.getSupportedTypes()
       }
+      this.parallelism = getConfigs().getInt(config, "parallelism", 1);
+      new Validator<Integer>().validateRange(config, parallelism, 1, Integer.MAX_VALUE);
+      this.spoolThreshold = getConfigs().getLong(config, "spoolThreshold", 8 * 1024 * 1024);
+      this.preserveOrder = getConfigs().getBoolean(config, "preserveOrder", false);
+      this.onEntryFailure = new Validator<OnEntryFailure>().validateEnum(
+          config,
+          getConfigs().getString(config, "onEntryFailure", OnEntryFailure.fail.toString()),
+          OnEntryFailure.class);
+      if (parallelism > 1) {
+        this.executor = Executors.newFixedThreadPool(parallelism, 
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("unpack-%d").build());
+      } else {
+        this.executor = null;
+      }
       validateArguments();
     }
 
@@ -107,11 +149,24 @@ public final class UnpackBuilder implements CommandBuilder {
       }
 
       try {
+        if (executor != null) {
+          return processEntriesInParallel(ais, extractor);
+        }
         ArchiveEntry entry = ais.getNextEntry();
         while (entry != null) {
           if (!entry.isDirectory()) {
-            if (!parseEntry(ais, entry, extractor, record)) {
-              return false;
+            if (onEntryFailure == OnEntryFailure.fail) {
+              if (!parseEntry(ais, entry, extractor, record)) {
+                return false;
+              }
+            } else {
+              try {
+                if (!parseEntry(ais, entry, extractor, record)) {
+                  LOG.warn("Skipping archive entry that could not be processed: " + entry.getName());
+                }
+              } catch (RuntimeException e) {
+                LOG.warn("Skipping archive entry that could not be processed: " + entry.getName(), e);
+              }
             }
           }
           entry = ais.getNextEntry();
@@ -124,6 +179,129 @@ public final class UnpackBuilder implements CommandBuilder {
       return true;
     }
 
+    /**
+     * Reads and spools the entries on the calling thread and parses them on the worker pool. At
+     * most twice as many entries as there are workers are spooled at any time. Entries that have
+     * been submitted are always processed to completion, even if another entry has failed.
+     */
+    private boolean processEntriesInParallel(ArchiveInputStream ais, EmbeddedExtractor extractor) 
+        throws IOException {
+      
+      Semaphore permits = new Semaphore(2 * parallelism);
+      Sequencer sequencer = preserveOrder ? new Sequencer() : null;
+      Deque<EntryResult> pending = new ArrayDeque<EntryResult>();
+      EntryResult failure = null;
+      try {
+        long seqNum = 0;
+        ArchiveEntry entry = ais.getNextEntry();
+        while (entry != null && failure == null) {
+          if (!entry.isDirectory()) {
+            if (!ais.canReadEntryData(entry)) {
+              failure = handleFailure(new EntryResult(entry.getName(), null), failure);
+            } else {
+              acquire(permits);
+              SpooledEntry spooledEntry;
+              try {
+                spooledEntry = spool(ais);
+              } catch (IOException e) {
+                permits.release();
+                throw e;
+              }
+              EntryTask task = new EntryTask(
+                  spooledEntry, entry.getName(), seqNum++, sequencer, extractor, permits);
+              pending.add(new EntryResult(entry.getName(), executor.submit(task)));
+            }
+          }
+          while (!pending.isEmpty() && pending.peek().future.isDone()) {
+            failure = handleFailure(pending.poll(), failure);
+          }
+          entry = ais.getNextEntry();
+        }
+      } finally {
+        // don't lose the results of entries that have already been handed to the workers
+        while (!pending.isEmpty()) {
+          failure = handleFailure(pending.poll(), failure);
+        }
+      }
+      if (failure != null) {
+        if (failure.exception instanceof RuntimeException) {
+          throw (RuntimeException) failure.exception;
+        } else if (failure.exception instanceof Error) {
+          throw (Error) failure.exception;
+        } else if (failure.exception != null) {
+          throw new MorphlineRuntimeException(failure.exception);
+        }
+        return false;
+      }
+      return true;
+    }
+    
+    /** Waits for the given entry and returns it if it failed and is the first failure */
+    private EntryResult handleFailure(EntryResult result, EntryResult firstFailure) {
+      if (result.isSuccess()) {
+        return firstFailure;
+      }
+      if (onEntryFailure == OnEntryFailure.skip) {
+        LOG.warn("Skipping archive entry that could not be processed: " + result.name, result.exception);
+        return firstFailure;
+      }
+      return firstFailure != null ? firstFailure : result;
+    }
+    
+    private void acquire(Semaphore permits) {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MorphlineRuntimeException(e);
+      }
+    }
+    
+    /** Copies the current archive entry into memory, or into a temp file if it is large */
+    private SpooledEntry spool(InputStream in) throws IOException {
+      ByteArrayOutputStream memory = new ByteArrayOutputStream(8192);
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) >= 0) {
+        memory.write(buf, 0, n);
+        if (memory.size() > spoolThreshold) {
+          return spoolToFile(memory, buf, in);
+        }
+      }
+      return new SpooledEntry(memory.toByteArray(), null);
+    }
+    
+    private SpooledEntry spoolToFile(ByteArrayOutputStream memory, byte[] buf, InputStream in) throws IOException {
+      File file = File.createTempFile("kite-unpack-", ".tmp");
+      boolean success = false;
+      OutputStream out = new FileOutputStream(file);
+      try {
+        memory.writeTo(out);
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+          out.write(buf, 0, n);
+        }
+        out.close();
+        success = true;
+      } finally {
+        if (!success) {
+          Closeables.closeQuietly(out);
+          file.delete();
+        }
+      }
+      return new SpooledEntry(null, file);
+    }
+
+    @Override
+    protected void doNotify(Record notification) {      
+      for (Object event : Notifications.getLifecycleEvents(notification)) {
+        if (event == Notifications.LifecycleEvent.SHUTDOWN && executor != null) {
+          executor.shutdown();
+        }
+      }
+      super.doNotify(notification);
+    }
+    
     private boolean parseEntry(ArchiveInputStream archive, ArchiveEntry entry, EmbeddedExtractor extractor, Record record) {
       String name = entry.getName();
       if (archive.canReadEntryData(entry)) {
@@ -148,6 +326,156 @@ public final class UnpackBuilder implements CommandBuilder {
       } 
     }
     
+    
+    ///////////////////////////////////////////////////////////////////////////////
+    // Nested classes:
+    ///////////////////////////////////////////////////////////////////////////////
+    /** Parses a spooled archive entry on a worker thread */
+    private final class EntryTask implements Callable<Boolean> {
+      
+      private final SpooledEntry spooledEntry;
+      private final String name;
+      private final long seqNum;
+      private final Sequencer sequencer;
+      private final EmbeddedExtractor extractor;
+      private final Semaphore permits;
+      
+      public EntryTask(SpooledEntry spooledEntry, String name, long seqNum, Sequencer sequencer,
+          EmbeddedExtractor extractor, Semaphore permits) {
+        this.spooledEntry = spooledEntry;
+        this.name = name;
+        this.seqNum = seqNum;
+        this.sequencer = sequencer;
+        this.extractor = extractor;
+        this.permits = permits;
+      }
+
+      @Override
+      public Boolean call() throws IOException {
+        try {
+          if (sequencer != null) {
+            sequencer.awaitTurn(seqNum);
+          }
+          try {
+            TikaInputStream tis = spooledEntry.open();
+            try {
+              return extractor.parseEmbedded(tis, new Record(), name, getChild());
+            } finally {
+              Closeables.closeQuietly(tis);
+            }
+          } finally {
+            // the next entry must wait until the child is done with this one, even if it failed
+            if (sequencer != null) {
+              sequencer.endTurn(seqNum);
+            }
+          }
+        } finally {
+          spooledEntry.delete();
+          permits.release();
+        }
+      }
+    }
+    
+  }
+
+  
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  private static enum OnEntryFailure {
+    fail,
+    skip
+  }     
+
+  
+  /** The contents of an archive entry, held either in memory or in a temp file */
+  private static final class SpooledEntry {
+    
+    private final byte[] bytes;
+    private final File file;
+    
+    public SpooledEntry(byte[] bytes, File file) {
+      this.bytes = bytes;
+      this.file = file;
+    }
+    
+    public TikaInputStream open() throws IOException {
+      return file != null ? TikaInputStream.get(file) : TikaInputStream.get(bytes);
+    }
+    
+    public void delete() {
+      if (file != null) {
+        file.delete();
+      }
+    }
+  }
+  
+  
+  /** The outcome of an archive entry that has been handed to the worker pool */
+  private static final class EntryResult {
+    
+    private final String name;
+    private final Future<Boolean> future;
+    private Throwable exception;
+    
+    public EntryResult(String name, Future<Boolean> future) {
+      this.name = name;
+      this.future = future;
+    }
+    
+    /** Waits for the entry to be processed and returns whether it succeeded */
+    public boolean isSuccess() {
+      if (future == null) {
+        return false; // entry data could not be read
+      }
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        exception = e.getCause();
+        return false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        exception = e;
+        return false;
+      }
+    }
+  }
+  
+  
+  /**
+   * Hands archive entries to the child command one at a time, in the order in which they occur in
+   * the archive. Each entry holds its turn from {@link #awaitTurn(long)} until {@link #endTurn(long)}.
+   */
+  private static final class Sequencer {
+    
+    private long nextSeqNum = 0;
+    
+    /**
+     * Waits until all previous entries have ended their turn. Interrupts are deferred until then,
+     * because giving up the wait would leave the entries after this one waiting forever.
+     */
+    public synchronized void awaitTurn(long seqNum) {
+      boolean interrupted = false;
+      while (seqNum != nextSeqNum) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    
+    /** Lets the next entry proceed; must be called after the entry is done, even if it failed */
+    public synchronized void endTurn(long seqNum) {
+      if (seqNum != nextSeqNum) {
+        throw new IllegalStateException("Entry " + seqNum + " does not hold the turn");
+      }
+      nextSeqNum++;
+      notifyAll();
+    }
   }
 
 }
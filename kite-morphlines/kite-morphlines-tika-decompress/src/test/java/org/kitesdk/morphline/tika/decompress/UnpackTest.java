@@ -0,0 +1,304 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitesdk.morphline.tika.decompress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitesdk.morphline.api.Command;
+import org.kitesdk.morphline.api.MorphlineContext;
+import org.kitesdk.morphline.api.Record;
+import org.kitesdk.morphline.base.Fields;
+import org.kitesdk.morphline.base.Notifications;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.typesafe.config.ConfigFactory;
+
+public class UnpackTest extends Assert {
+
+  private static final int NUM_ENTRIES = 8;
+
+  private Command unpack;
+
+  @After
+  public void tearDown() {
+    if (unpack != null) {
+      Notifications.notifyShutdown(unpack);
+    }
+  }
+
+  @Test
+  public void testSequential() throws Exception {
+    EntryCollector child = new EntryCollector();
+    unpack = build("{}", child);
+
+    assertTrue(unpack.process(archive(NUM_ENTRIES, 10)));
+    assertEquals(names(NUM_ENTRIES), child.names);
+    assertEquals(1, child.maxActive.get());
+    assertContents(child, 10);
+  }
+
+  @Test
+  public void testParallelism() throws Exception {
+    EntryCollector child = new EntryCollector();
+    child.sleepMillis = 50;
+    unpack = build("{ parallelism : 4 }", child);
+
+    assertTrue(unpack.process(archive(NUM_ENTRIES, 10)));
+    assertEquals(NUM_ENTRIES, child.names.size());
+    assertEquals(names(NUM_ENTRIES), sorted(child.names));
+    assertTrue("Should process entries concurrently", child.maxActive.get() > 1);
+    assertContents(child, 10);
+  }
+
+  @Test
+  public void testPreserveOrder() throws Exception {
+    EntryCollector child = new EntryCollector();
+    // earlier entries take longer, so they would finish last without ordering
+    child.sleepMillis = 20;
+    child.slowFirstEntries = true;
+    unpack = build("{ parallelism : 4, preserveOrder : true }", child);
+
+    assertTrue(unpack.process(archive(NUM_ENTRIES, 10)));
+    assertEquals(names(NUM_ENTRIES), child.names);
+    assertEquals("Should pass one entry at a time to the child", 1, child.maxActive.get());
+    assertContents(child, 10);
+  }
+
+  @Test
+  public void testPreserveOrderAfterFailure() throws Exception {
+    EntryCollector child = new EntryCollector();
+    child.sleepMillis = 10;
+    child.slowFirstEntries = true;
+    child.failName = "entry-2.txt";
+    unpack = build("{ parallelism : 4, preserveOrder : true, onEntryFailure : skip }", child);
+
+    // a failed entry must still let the following entries take their turn
+    assertTrue(unpack.process(archive(NUM_ENTRIES, 10)));
+    List<String> expected = names(NUM_ENTRIES);
+    expected.remove("entry-2.txt");
+    assertEquals(expected, child.names);
+    assertEquals(1, child.maxActive.get());
+  }
+
+  @Test
+  public void testSkipFailedEntries() throws Exception {
+    EntryCollector child = new EntryCollector();
+    child.rejectName = "entry-1.txt";
+    child.failName = "entry-5.txt";
+    unpack = build("{ parallelism : 3, onEntryFailure : skip }", child);
+
+    assertTrue(unpack.process(archive(NUM_ENTRIES, 10)));
+    List<String> expected = names(NUM_ENTRIES);
+    expected.remove("entry-1.txt");
+    expected.remove("entry-5.txt");
+    assertEquals(expected, sorted(child.names));
+  }
+
+  @Test
+  public void testFailOnEntryFailure() throws Exception {
+    EntryCollector child = new EntryCollector();
+    child.failName = "entry-2.txt";
+    unpack = build("{ parallelism : 4 }", child);
+
+    try {
+      unpack.process(archive(NUM_ENTRIES, 10));
+      fail("Should rethrow the failure of an entry");
+    } catch (IllegalStateException e) {
+      assertEquals("Failed entry-2.txt", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testRejectedEntryFails() throws Exception {
+    EntryCollector child = new EntryCollector();
+    child.rejectName = "entry-3.txt";
+    unpack = build("{ parallelism : 2 }", child);
+
+    assertFalse(unpack.process(archive(NUM_ENTRIES, 10)));
+  }
+
+  @Test
+  public void testSpoolThreshold() throws Exception {
+    File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+    int numSpoolFiles = spoolFiles(tmpDir);
+
+    EntryCollector child = new EntryCollector();
+    unpack = build("{ parallelism : 4, spoolThreshold : 100 }", child);
+
+    // entries larger than the threshold are spooled to temp files
+    assertTrue(unpack.process(archive(NUM_ENTRIES, 1000)));
+    assertEquals(names(NUM_ENTRIES), sorted(child.names));
+    assertContents(child, 1000);
+    assertEquals("Should delete spooled entries", numSpoolFiles, spoolFiles(tmpDir));
+  }
+
+  private Command build(String config, EntryCollector child) {
+    MorphlineContext context = new MorphlineContext.Builder()
+        .setMetricRegistry(new MetricRegistry())
+        .build();
+    return new UnpackBuilder().build(ConfigFactory.parseString(config), child, child, context);
+  }
+
+  private static Record archive(int numEntries, int entrySize) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ZipOutputStream zip = new ZipOutputStream(bytes);
+    for (int i = 0; i < numEntries; i++) {
+      zip.putNextEntry(new ZipEntry("entry-" + i + ".txt"));
+      zip.write(content(i, entrySize).getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+    }
+    zip.close();
+
+    Record record = new Record();
+    record.put(Fields.ATTACHMENT_BODY, new ByteArrayInputStream(bytes.toByteArray()));
+    record.put(Fields.ATTACHMENT_MIME_TYPE, "application/zip");
+    return record;
+  }
+
+  private static String content(int entry, int size) {
+    StringBuilder buf = new StringBuilder(size);
+    while (buf.length() < size) {
+      buf.append((char) ('a' + (buf.length() + entry) % 26));
+    }
+    return buf.toString();
+  }
+
+  private static void assertContents(EntryCollector child, int entrySize) {
+    for (int i = 0; i < NUM_ENTRIES; i++) {
+      assertEquals(content(i, entrySize), child.contents.get("entry-" + i + ".txt"));
+    }
+  }
+
+  private static List<String> names(int numEntries) {
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < numEntries; i++) {
+      names.add("entry-" + i + ".txt");
+    }
+    return names;
+  }
+
+  private static List<String> sorted(List<String> names) {
+    List<String> copy = new ArrayList<String>(names);
+    Collections.sort(copy);
+    return copy;
+  }
+
+  private static int spoolFiles(File dir) {
+    String[] files = dir.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith("kite-unpack-");
+      }
+    });
+    return files == null ? 0 : files.length;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////
+  // Nested classes:
+  ///////////////////////////////////////////////////////////////////////////////
+  /** A thread-safe child command that reads each entry and records its name and content */
+  private static final class EntryCollector implements Command {
+
+    private final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, String> contents =
+        Collections.synchronizedMap(new HashMap<String, String>());
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private volatile long sleepMillis = 0;
+    private volatile boolean slowFirstEntries = false;
+    private volatile String failName = null;
+    private volatile String rejectName = null;
+
+    @Override
+    public Command getParent() {
+      return null;
+    }
+
+    @Override
+    public void notify(Record notification) {
+    }
+
+    @Override
+    public boolean process(Record record) {
+      int current = active.incrementAndGet();
+      try {
+        synchronized (maxActive) {
+          maxActive.set(Math.max(maxActive.get(), current));
+        }
+        String name = (String) record.getFirstValue(Fields.ATTACHMENT_NAME);
+        String content = read((InputStream) record.getFirstValue(Fields.ATTACHMENT_BODY));
+        sleep(name);
+        if (name.equals(failName)) {
+          throw new IllegalStateException("Failed " + name);
+        }
+        if (name.equals(rejectName)) {
+          return false;
+        }
+        contents.put(name, content);
+        names.add(name);
+        return true;
+      } finally {
+        active.decrementAndGet();
+      }
+    }
+
+    private void sleep(String name) {
+      long millis = sleepMillis;
+      if (slowFirstEntries) {
+        int entry = Integer.parseInt(name.substring("entry-".length(), name.indexOf('.')));
+        millis *= NUM_ENTRIES - entry;
+      }
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private static String read(InputStream in) {
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+          out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), Charsets.UTF_8);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+}
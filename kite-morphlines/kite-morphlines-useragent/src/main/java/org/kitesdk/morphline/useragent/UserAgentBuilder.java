@@ -16,13 +16,13 @@
 package org.kitesdk.morphline.useragent;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,7 +33,10 @@ import org.kitesdk.morphline.api.MorphlineContext;
 import org.kitesdk.morphline.api.Record;
 import org.kitesdk.morphline.base.AbstractCommand;
 import org.kitesdk.morphline.base.Configs;
+import org.kitesdk.morphline.base.LookupCache;
 import org.kitesdk.morphline.base.Metrics;
+import org.kitesdk.morphline.base.Notifications;
+import org.kitesdk.morphline.base.SharedResources;
 import org.kitesdk.morphline.base.Validator;
 
 import ua_parser.Client;
@@ -49,6 +52,9 @@ import com.typesafe.config.ConfigFactory;
  * Command that parses user agent strings and returns structured higher level data like user agent
  * family, operating system, version, and device type, using the underlying API and regexes.yaml
  * BrowserScope database from https://github.com/tobie/ua-parser.
+ * 
+ * The parsed database and a cache of recent parse results are shared by all userAgent commands in
+ * the JVM that refer to the same database.
  */
 public final class UserAgentBuilder implements CommandBuilder {
 
@@ -70,34 +76,36 @@ public final class UserAgentBuilder implements CommandBuilder {
 
     private final String inputFieldName;
     private final List<Mapping> mappings = new ArrayList();
+    private final String databaseKey;
+    private final Database database;
+    private boolean isShutdown = false;
+    private final Meter numCacheHitsMeter;
+    private final Meter numCacheMissesMeter;
     
     public UserAgent(CommandBuilder builder, Config config, Command parent, 
                      Command child, MorphlineContext context) {
       
       super(builder, config, parent, child, context);      
       this.inputFieldName = getConfigs().getString(config, "inputField");
-      String databaseFile = getConfigs().getString(config, "database", null);
-      int cacheCapacity = getConfigs().getInt(config, "cacheCapacity", 1000);
+      final String databaseFile = getConfigs().getString(config, "database", null);
+      final int cacheCapacity = getConfigs().getInt(config, "cacheCapacity", 1000);
       String nullReplacement = getConfigs().getString(config, "nullReplacement", "");
 
-      Parser parser;
       try {
-        if (databaseFile == null) {
-          parser = new Parser(); 
-        } else {
-          InputStream in = new BufferedInputStream(new FileInputStream(databaseFile));
-          try {
-            parser = new Parser(in);
-          } finally {
-            Closeables.closeQuietly(in);
+        this.databaseKey = "userAgent:" 
+            + (databaseFile == null ? "" : new File(databaseFile).getCanonicalPath()) + ":" + cacheCapacity;
+        this.database = SharedResources.acquire(databaseKey, new SharedResources.Factory<Database>() {
+          @Override
+          public Database create() throws IOException {
+            return new Database(parse(databaseFile), cacheCapacity);
           }
-        }        
+        });
       } catch (IOException e) {
         throw new MorphlineCompilationException("Cannot parse UserAgent database: " + databaseFile, config, e);
       }
       
-      Meter numCacheHitsMeter = isMeasuringMetrics() ? getMeter(Metrics.NUM_CACHE_HITS) : null;
-      Meter numCacheMissesMeter = isMeasuringMetrics() ? getMeter(Metrics.NUM_CACHE_MISSES) : null;
+      this.numCacheHitsMeter = isMeasuringMetrics() ? getMeter(Metrics.NUM_CACHE_HITS) : null;
+      this.numCacheMissesMeter = isMeasuringMetrics() ? getMeter(Metrics.NUM_CACHE_MISSES) : null;
       
       Config outputFields = getConfigs().getConfig(config, "outputFields", ConfigFactory.empty());
       for (Map.Entry<String, Object> entry : new Configs().getEntrySet(outputFields)) {
@@ -105,30 +113,68 @@ public final class UserAgentBuilder implements CommandBuilder {
             new Mapping(
                 entry.getKey(), 
                 entry.getValue().toString().trim(), 
-                parser, 
-                new BoundedLRUHashMap(cacheCapacity), 
                 nullReplacement, 
-                config,
-                numCacheHitsMeter,
-                numCacheMissesMeter
+                config
                 ));
       }
       validateArguments();
     }
+    
+    private static Parser parse(String databaseFile) throws IOException {
+      if (databaseFile == null) {
+        return new Parser(); 
+      } else {
+        InputStream in = new BufferedInputStream(new FileInputStream(databaseFile));
+        try {
+          return new Parser(in);
+        } finally {
+          Closeables.closeQuietly(in);
+        }
+      }        
+    }
 
     @Override
     protected boolean doProcess(Record record) {      
       for (Object value : record.get(inputFieldName)) {
         Preconditions.checkNotNull(value);
         String stringValue = value.toString().trim();
+        Client client = lookup(stringValue);
         for (Mapping mapping : mappings) {
-          mapping.apply(record, stringValue);
+          mapping.apply(record, client);
         }
       }
       
       // pass record to next command in chain:
       return super.doProcess(record);
     }
+    
+    private Client lookup(String userAgent) {
+      if (database.cache == null) {
+        return database.parser.parse(userAgent);
+      }
+      Client client = database.cache.get(userAgent);
+      if (client == null) { // cache miss
+        if (numCacheMissesMeter != null) {
+          numCacheMissesMeter.mark();
+        }
+        client = database.parser.parse(userAgent);
+        database.cache.put(userAgent, client);
+      } else if (numCacheHitsMeter != null) {
+        numCacheHitsMeter.mark();
+      }
+      return client;
+    }
+    
+    @Override
+    protected void doNotify(Record notification) {      
+      for (Object event : Notifications.getLifecycleEvents(notification)) {
+        if (event == Notifications.LifecycleEvent.SHUTDOWN && !isShutdown) {
+          isShutdown = true;
+          SharedResources.release(databaseKey);
+        }
+      }
+      super.doNotify(notification);
+    }
 
   }
 
@@ -140,26 +186,15 @@ public final class UserAgentBuilder implements CommandBuilder {
     
     private final String fieldName;
     private final List components = new ArrayList();
-    private final Parser parser;    
-    private final Map<String, String> cache;
     private final String nullReplacement;
     
-    private final Meter numCacheHitsMeter;
-    private final Meter numCacheMissesMeter;
-    
     private static final String START_TOKEN = "@{";
     private static final char END_TOKEN = '}';
     
-    public Mapping(String fieldName, String expression, Parser parser, Map<String, String> cache,
-        String nullReplacement, Config config, Meter numCacheHitsMeter, Meter numCacheMissesMeter) {
-      
+    public Mapping(String fieldName, String expression, String nullReplacement, Config config) {
       this.fieldName = fieldName;
-      this.parser = parser;
-      this.cache = cache;
       Preconditions.checkNotNull(nullReplacement);
       this.nullReplacement = nullReplacement;
-      this.numCacheHitsMeter = numCacheHitsMeter;
-      this.numCacheMissesMeter = numCacheMissesMeter;
       int from = 0;
       
       while (from < expression.length()) {
@@ -185,22 +220,11 @@ public final class UserAgentBuilder implements CommandBuilder {
       }
     }
     
-    public void apply(Record record, String userAgent) {
-      String result = cache.get(userAgent);
-      if (result == null) { // cache miss
-        if (numCacheMissesMeter != null) {
-          numCacheMissesMeter.mark();
-        }
-        result = extract(userAgent);
-        cache.put(userAgent, result);
-      } else if (numCacheHitsMeter != null) {
-        numCacheHitsMeter.mark();
-      }
-      record.put(fieldName, result);
+    public void apply(Record record, Client client) {
+      record.put(fieldName, extract(client));
     }
 
-    private String extract(String userAgent) {
-      Client client = parser.parse(userAgent);        
+    private String extract(Client client) {
       StringBuilder buf = new StringBuilder();
       String lastString = null;
       
@@ -290,20 +314,19 @@ public final class UserAgentBuilder implements CommandBuilder {
   ///////////////////////////////////////////////////////////////////////////////
   // Nested classes:
   ///////////////////////////////////////////////////////////////////////////////
-  private static final class BoundedLRUHashMap<K,V> extends LinkedHashMap<K,V> {
+  /**
+   * A parsed user agent database plus a cache of parse results keyed by user agent string, shared
+   * by all userAgent commands in the JVM that use the same database and cache capacity.
+   */
+  private static final class Database {
     
-    private final int capacity;
-
-    private BoundedLRUHashMap(int capacity) {
-      super(16, 0.5f, true);
-      this.capacity = capacity;
-    }
+    private final Parser parser;
+    private final LookupCache<String, Client> cache;
     
-    @Override
-    protected boolean removeEldestEntry(Map.Entry eldest) {
-      return size() > capacity;
+    public Database(Parser parser, int cacheCapacity) {
+      this.parser = parser;
+      this.cache = cacheCapacity > 0 ? new LookupCache<String, Client>(cacheCapacity) : null;
     }
-      
-  } 
+  }
 
 }
@@ -36,10 +36,13 @@ import org.kitesdk.data.DatasetDescriptor;
 import org.kitesdk.data.DatasetException;
 import org.kitesdk.data.View;
 import org.kitesdk.data.spi.ColumnMappingParser;
+import org.kitesdk.data.spi.DescriptorUtil;
 import org.kitesdk.data.spi.PartitionStrategyParser;
 import org.kitesdk.data.spi.filesystem.CSVProperties;
 import org.kitesdk.data.spi.filesystem.FileSystemDataset;
+import org.kitesdk.data.spi.filesystem.FileSystemProperties;
 import org.kitesdk.data.spi.filesystem.TemporaryFileSystemDatasetRepository;
+import org.kitesdk.tools.CSVImportTask;
 import org.kitesdk.tools.CopyTask;
 import org.kitesdk.tools.TaskUtil;
 import org.kitesdk.tools.TransformTask;
@@ -91,6 +94,10 @@ public class CSVImportCommand extends BaseDatasetCommand {
       description="The number of files per partition to create")
   int filesPerPartition = -1;
 
+  @Parameter(names={"--sample-rate"},
+      description="Sample this fraction of records to size writers for skewed partitions")
+  double sampleRate = -1;
+
   @Parameter(names={"--transform"},
       description="A transform DoFn class name")
   String transform = null;
@@ -99,6 +106,14 @@ public class CSVImportCommand extends BaseDatasetCommand {
       description="Add a jar to the runtime classpath")
   List<String> jars;
 
+  @Parameter(names={"--local"}, arity=1,
+      description="Import from this process (true) or with a MapReduce job (false)")
+  Boolean runLocal = null;
+
+  @Parameter(names={"--threads"},
+      description="The number of threads to use when running in this process")
+  int numThreads = -1;
+
   @Parameter(
       names={"--overwrite"},
       description="Remove any data already in the target view or dataset")
@@ -133,6 +148,11 @@ public class CSVImportCommand extends BaseDatasetCommand {
     String dataset = targets.get(1);
 
     View<Record> target = load(dataset, Record.class);
+
+    if (transform == null && useStreamingImport(sourceFS, source, target)) {
+      return streamingImport(source, props, target, dataset);
+    }
+
     Schema datasetSchema = target.getDataset().getDescriptor().getSchema();
 
     // TODO: replace this with a temporary Dataset from a FS repo
@@ -197,6 +217,18 @@ public class CSVImportCommand extends BaseDatasetCommand {
         task.setFilesPerPartition(filesPerPartition);
       }
 
+      if (sampleRate > 0) {
+        task.setSampleRate(sampleRate);
+      }
+
+      if (runLocal != null) {
+        task.setLocal(runLocal);
+      }
+
+      if (numThreads > 0) {
+        task.setNumThreads(numThreads);
+      }
+
       if (overwrite) {
         task.setWriteMode(Target.WriteMode.OVERWRITE);
       }
@@ -218,6 +250,65 @@ public class CSVImportCommand extends BaseDatasetCommand {
     }
   }
 
+  /**
+   * Whether to import directly from this process. Streaming is used when
+   * requested with --local, or for inputs smaller than
+   * {@link TransformTask#LOCAL_MAX_BYTES_PROP} when no options that need a
+   * MapReduce job are set and the target does not need sorted files.
+   */
+  private boolean useStreamingImport(FileSystem fs, Path source,
+                                     View<Record> target)
+      throws IOException {
+    if (runLocal != null) {
+      return runLocal;
+    }
+
+    if (numWriters >= 0 || filesPerPartition > 0 || sampleRate > 0) {
+      return false;
+    }
+
+    // only the job sorts records by the target's sort fields
+    if (!DescriptorUtil.getList(FileSystemProperties.SORT_FIELDS_PROP,
+        target.getDataset().getDescriptor()).isEmpty()) {
+      return false;
+    }
+
+    long maxBytes = getConf().getLong(TransformTask.LOCAL_MAX_BYTES_PROP,
+        TransformTask.DEFAULT_LOCAL_MAX_BYTES);
+    return fs.getContentSummary(source).getLength() <= maxBytes;
+  }
+
+  private int streamingImport(Path source, CSVProperties props,
+                              View<Record> target, String dataset)
+      throws IOException {
+    Preconditions.checkArgument(
+        !CSVImportTask.dataFiles(source.getFileSystem(getConf()), source).isEmpty(),
+        "CSV path has no data files: " + source);
+
+    CSVImportTask<Record> task = new CSVImportTask<Record>(
+        source, props, target);
+
+    task.setConf(getConf());
+
+    if (numThreads > 0) {
+      task.setNumThreads(numThreads);
+    }
+
+    if (overwrite) {
+      task.setWriteMode(Target.WriteMode.OVERWRITE);
+    }
+
+    if (task.run()) {
+      long count = task.getCount();
+      if (count > 0) {
+        console.info("Added {} records to \"{}\"", count, dataset);
+      }
+      return 0;
+    } else {
+      return 1;
+    }
+  }
+
   @Override
   public List<String> getExamples() {
     return Lists.newArrayList(
@@ -25,6 +25,8 @@ import java.util.List;
 import org.apache.crunch.PipelineResult;
 import org.kitesdk.data.View;
 import org.kitesdk.tools.CompactionTask;
+import org.kitesdk.tools.IncrementalCompactionTask;
+import org.kitesdk.tools.MergeFilesTask;
 import org.slf4j.Logger;
 
 import static org.apache.avro.generic.GenericData.Record;
@@ -47,6 +49,30 @@ public class CompactCommand extends BaseDatasetCommand {
       description="The number of files per partition to create")
   int filesPerPartition = -1;
 
+  @Parameter(names={"--merge-files"},
+      description="Merge the files in each partition locally instead of running a job")
+  boolean mergeFiles = false;
+
+  @Parameter(names={"--incremental"},
+      description="Compact only the partitions with too many or too small files")
+  boolean incremental = false;
+
+  @Parameter(names={"--max-partitions"},
+      description="The maximum number of partitions to compact with --incremental")
+  int maxPartitions = -1;
+
+  @Parameter(names={"--max-bytes"},
+      description="The maximum number of bytes to rewrite with --incremental")
+  long maxBytes = -1;
+
+  @Parameter(names={"--min-age-minutes"},
+      description="Skip partitions modified more recently with --incremental")
+  long minAgeMinutes = -1;
+
+  @Parameter(names={"--concurrency"},
+      description="The number of partitions to compact at once with --incremental")
+  int concurrency = 1;
+
   @Override
   public int run() throws IOException {
     Preconditions.checkArgument(datasets.size() == 1,
@@ -60,6 +86,24 @@ public class CompactCommand extends BaseDatasetCommand {
           "Resolved view does not match requested view: " + view.getUri());
     }
 
+    if (mergeFiles) {
+      Preconditions.checkArgument(numWriters < 0 && filesPerPartition <= 0,
+          "Cannot set --num-writers or --files-per-partition with --merge-files");
+
+      MergeFilesTask<Record> merge = new MergeFilesTask<Record>(view);
+      merge.setConf(getConf());
+      merge.run();
+
+      console.info("Merged {} files in {} partitions of \"{}\"",
+          new Object[] {
+              merge.getFileCount(), merge.getPartitionCount(), uriOrName });
+      return 0;
+    }
+
+    if (incremental) {
+      return runIncremental(view, uriOrName);
+    }
+
     CompactionTask task = new CompactionTask<Record>(view);
 
     task.setConf(getConf());
@@ -83,11 +127,52 @@ public class CompactCommand extends BaseDatasetCommand {
     }
   }
 
+  private int runIncremental(View<Record> view, String uriOrName)
+      throws IOException {
+    IncrementalCompactionTask<Record> task =
+        new IncrementalCompactionTask<Record>(view);
+
+    task.setConf(getConf());
+    task.setNumConcurrent(concurrency);
+
+    if (numWriters >= 0) {
+      task.setNumWriters(numWriters);
+    }
+
+    if (filesPerPartition > 0) {
+      task.setFilesPerPartition(filesPerPartition);
+    }
+
+    if (maxPartitions > 0) {
+      task.getPlanner().setMaxPartitions(maxPartitions);
+    }
+
+    if (maxBytes > 0) {
+      task.getPlanner().setMaxBytes(maxBytes);
+    }
+
+    if (minAgeMinutes > 0) {
+      task.getPlanner().setMinAgeMillis(minAgeMinutes * 60 * 1000);
+    }
+
+    if (task.run()) {
+      console.info("Compacted {} records in {} partitions of \"{}\"",
+          new Object[] { task.getCount(), task.getNumCompacted(), uriOrName });
+      return 0;
+    } else {
+      return 1;
+    }
+  }
+
   @Override
   public List<String> getExamples() {
     return Lists.newArrayList(
         "# Compact the contents of movies",
-        "movies"
+        "movies",
+        "# Merge the files in each partition of movies without a job",
+        "movies --merge-files",
+        "# Compact up to 100 partitions of movies that need it, 4 at a time",
+        "movies --incremental --max-partitions 100 --concurrency 4"
     );
   }
 }
@@ -51,6 +51,18 @@ public class CopyCommand extends BaseDatasetCommand {
       description="The number of files per partition to create")
   int filesPerPartition = -1;
 
+  @Parameter(names={"--sample-rate"},
+      description="Sample this fraction of records to size writers for skewed partitions")
+  double sampleRate = -1;
+
+  @Parameter(names={"--local"}, arity=1,
+      description="Run in this process (true) or as a MapReduce job (false)")
+  Boolean runLocal = null;
+
+  @Parameter(names={"--threads"},
+      description="The number of threads to use when running in this process")
+  int numThreads = -1;
+
   @Parameter(
       names={"--overwrite"},
       description="Remove any data already in the target view or dataset")
@@ -83,6 +95,18 @@ public class CopyCommand extends BaseDatasetCommand {
       task.setFilesPerPartition(filesPerPartition);
     }
 
+    if (sampleRate > 0) {
+      task.setSampleRate(sampleRate);
+    }
+
+    if (runLocal != null) {
+      task.setLocal(runLocal);
+    }
+
+    if (numThreads > 0) {
+      task.setNumThreads(numThreads);
+    }
+
     if (overwrite) {
       task.setWriteMode(Target.WriteMode.OVERWRITE);
     }
@@ -66,6 +66,14 @@ public class TransformCommand extends BaseDatasetCommand {
       description="Add a jar to the runtime classpath")
   List<String> jars;
 
+  @Parameter(names={"--local"}, arity=1,
+      description="Run in this process (true) or as a MapReduce job (false)")
+  Boolean runLocal = null;
+
+  @Parameter(names={"--threads"},
+      description="The number of threads to use when running in this process")
+  int numThreads = -1;
+
   @Parameter(
       names={"--overwrite"},
       description="Remove any data already in the target view or dataset")
@@ -116,6 +124,14 @@ public class TransformCommand extends BaseDatasetCommand {
       task.setFilesPerPartition(filesPerPartition);
     }
 
+    if (runLocal != null) {
+      task.setLocal(runLocal);
+    }
+
+    if (numThreads > 0) {
+      task.setNumThreads(numThreads);
+    }
+
     if (overwrite) {
       task.setWriteMode(Target.WriteMode.OVERWRITE);
     }
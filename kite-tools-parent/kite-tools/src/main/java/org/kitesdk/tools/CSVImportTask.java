@@ -0,0 +1,424 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kitesdk.tools;
+
+import au.com.bytecode.opencsv.CSVReader;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.crunch.Target;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.kitesdk.data.Dataset;
+import org.kitesdk.data.DatasetException;
+import org.kitesdk.data.DatasetIOException;
+import org.kitesdk.data.DatasetRecordException;
+import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.Signalable;
+import org.kitesdk.data.View;
+import org.kitesdk.data.spi.DescriptorUtil;
+import org.kitesdk.data.spi.Mergeable;
+import org.kitesdk.data.spi.Replaceable;
+import org.kitesdk.data.spi.TemporaryDatasetRepository;
+import org.kitesdk.data.spi.filesystem.CSVProperties;
+import org.kitesdk.data.spi.filesystem.CSVRecordBuilder;
+import org.kitesdk.data.spi.filesystem.CSVUtil;
+import org.kitesdk.data.spi.filesystem.FileSystemProperties;
+import org.kitesdk.data.spi.filesystem.PathFilters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports CSV files into a view from this process, without a MapReduce job.
+ * <p>
+ * The calling thread splits the CSV input into rows and passes batches of rows
+ * to a pool of threads that convert them to records and write them to the
+ * view. Each thread reuses its records, which is safe because a batch is
+ * written before its records are filled again.
+ *
+ * @since 1.1.0
+ */
+public class CSVImportTask<E> extends Configured {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CSVImportTask.class);
+
+  private static final int BATCH_SIZE = 1000;
+
+  private static final String TEMP_KEY_PREFIX = "csv-import-";
+
+  private final Path source;
+  private final CSVProperties props;
+  private final View<E> target;
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+  private Target.WriteMode mode = Target.WriteMode.APPEND;
+
+  private long count = 0;
+  private long elapsedMillis = 0;
+
+  public CSVImportTask(Path source, CSVProperties props, View<E> target) {
+    this.source = source;
+    this.props = props;
+    this.target = target;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the time taken by the last run, in milliseconds
+   */
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  /**
+   * @return the number of records imported per second by the last run
+   */
+  public double getRecordsPerSecond() {
+    return elapsedMillis > 0 ? (count * 1000.0) / elapsedMillis : 0.0;
+  }
+
+  /**
+   * Set the number of threads used to convert and write records.
+   *
+   * @param numThreads the number of threads to use
+   * @return this for method chaining
+   */
+  public CSVImportTask setNumThreads(int numThreads) {
+    Preconditions.checkArgument(numThreads > 0,
+        "Invalid number of threads: " + numThreads);
+    this.numThreads = numThreads;
+    return this;
+  }
+
+  /**
+   * Set the output write mode: default, overwrite, or append.
+   *
+   * @param mode the output write mode
+   * @return this for method chaining
+   */
+  public CSVImportTask setWriteMode(Target.WriteMode mode) {
+    Preconditions.checkArgument(mode != Target.WriteMode.CHECKPOINT,
+        "Checkpoint is not an allowed write mode");
+    this.mode = mode;
+    return this;
+  }
+
+  /**
+   * Returns the CSV data files in a path: the path itself if it is a file, or
+   * the non-hidden files in it if it is a directory.
+   *
+   * @param fs the path's FileSystem
+   * @param path a CSV file or directory of CSV files
+   * @return the data files to import
+   * @throws IOException if the path cannot be listed
+   */
+  public static List<Path> dataFiles(FileSystem fs, Path path)
+      throws IOException {
+    List<Path> files = Lists.newArrayList();
+    FileStatus status = fs.getFileStatus(path);
+    if (status.isDir()) {
+      for (FileStatus stat : fs.listStatus(path, PathFilters.notHidden())) {
+        if (!stat.isDir()) {
+          files.add(stat.getPath());
+        }
+      }
+    } else {
+      files.add(status.getPath());
+    }
+    return files;
+  }
+
+  /**
+   * Runs the import.
+   * <p>
+   * If the target dataset can merge or replace data, records are written to a
+   * temporary dataset that is merged into the target, or replaces it, only
+   * after all of the rows are imported. Otherwise, records are written
+   * directly to the target and are not removed if the import fails.
+   * <p>
+   * This does not sort records, so targets that set
+   * {@link FileSystemProperties#SORT_FIELDS_PROP} are rejected.
+   *
+   * @return true if all records were imported, false if a CSV row cannot be
+   *         converted to a record
+   * @throws IOException if the CSV files cannot be read
+   */
+  @SuppressWarnings("unchecked")
+  public boolean run() throws IOException {
+    Dataset<E> dataset = target.getDataset();
+    Preconditions.checkArgument(DescriptorUtil.getList(
+        FileSystemProperties.SORT_FIELDS_PROP, dataset.getDescriptor()).isEmpty(),
+        "Cannot sort records when importing from this process: " + target);
+
+    if (mode == Target.WriteMode.DEFAULT && !target.isEmpty()) {
+      throw new DatasetException("Dataset/view already exists: " + target);
+    }
+
+    long start = System.currentTimeMillis();
+
+    boolean replace = (mode == Target.WriteMode.OVERWRITE &&
+        dataset instanceof Replaceable &&
+        ((Replaceable<View<E>>) dataset).canReplace(target));
+
+    if (!replace && !(dataset instanceof Mergeable)) {
+      if (mode == Target.WriteMode.OVERWRITE) {
+        target.deleteAll();
+      }
+      return importTo(target, start);
+    }
+
+    // write to a temporary dataset so that failures leave the target as it was
+    TemporaryDatasetRepository tempRepo = LocalTransform.temporaryRepository(
+        dataset, TEMP_KEY_PREFIX);
+    try {
+      Dataset<E> temp = tempRepo.create(dataset.getNamespace(),
+          dataset.getName(), LocalTransform.copy(dataset.getDescriptor()),
+          target.getType());
+      if (!importTo(LocalTransform.stagingView(target, temp), start)) {
+        return false;
+      }
+
+      if (replace) {
+        ((Replaceable<View<E>>) dataset).replace(target, temp);
+      } else {
+        if (mode == Target.WriteMode.OVERWRITE) {
+          target.deleteAll();
+        }
+        ((Mergeable<Dataset<E>>) dataset).merge(temp);
+      }
+
+      if (target instanceof Signalable) {
+        ((Signalable) target).signalReady();
+      }
+
+      return true;
+    } finally {
+      tempRepo.delete();
+    }
+  }
+
+  private boolean importTo(View<E> view, long start) throws IOException {
+    FileSystem fs = source.getFileSystem(getConf());
+    List<Path> files = dataFiles(fs, source);
+
+    // a few batches per thread are buffered so that threads do not wait
+    BlockingQueue<Batch<E>> batches =
+        new ArrayBlockingQueue<Batch<E>>(2 * numThreads);
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("csv-import-%d")
+            .build());
+    DatasetWriter<E> writer = null;
+    AtomicLong written = new AtomicLong(0);
+    try {
+      writer = view.newWriter();
+
+      List<Future<Void>> workers = Lists.newArrayList();
+      for (int i = 0; i < numThreads; i += 1) {
+        workers.add(pool.submit(new Worker<E>(batches, writer, written)));
+      }
+
+      for (Path file : files) {
+        readFile(fs, file, batches, workers);
+      }
+
+      for (int i = 0; i < numThreads; i += 1) {
+        put(batches, Batch.<E>end(), workers);
+      }
+
+      for (Future<Void> worker : workers) {
+        get(worker);
+      }
+
+    } catch (DatasetRecordException e) {
+      LOG.error("Failed to import CSV records from " + source, e);
+      return false;
+
+    } finally {
+      pool.shutdownNow();
+      if (writer != null) {
+        writer.close();
+      }
+    }
+
+    this.count = written.get();
+    this.elapsedMillis = System.currentTimeMillis() - start;
+
+    LOG.info("Imported {} records from {} files in {} ms ({} records/sec)",
+        new Object[] { count, files.size(), elapsedMillis,
+            (long) getRecordsPerSecond() });
+
+    return true;
+  }
+
+  private void readFile(FileSystem fs, Path file, BlockingQueue<Batch<E>> batches,
+                        List<Future<Void>> workers) throws IOException {
+    CSVReader reader = CSVUtil.newReader(fs.open(file), props);
+    try {
+      List<String> header = null;
+      if (props.useHeader) {
+        String[] first = reader.readNext();
+        if (first == null) {
+          return; // empty file
+        }
+        header = Lists.newArrayList(first);
+      } else if (props.header != null) {
+        header = Lists.newArrayList(
+            CSVUtil.newParser(props).parseLine(props.header));
+      }
+
+      CSVRecordBuilder<E> builder = new CSVRecordBuilder<E>(
+          target.getSchema(), target.getType(), header);
+
+      List<String[]> rows = Lists.newArrayListWithCapacity(BATCH_SIZE);
+      String[] row;
+      while ((row = reader.readNext()) != null) {
+        rows.add(row);
+        if (rows.size() >= BATCH_SIZE) {
+          put(batches, new Batch<E>(builder, rows), workers);
+          rows = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        }
+      }
+
+      if (!rows.isEmpty()) {
+        put(batches, new Batch<E>(builder, rows), workers);
+      }
+
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Adds a batch to the queue, checking that the workers are still running
+   * while waiting so that a failed worker does not block the reader.
+   */
+  private static <E> void put(BlockingQueue<Batch<E>> batches, Batch<E> batch,
+                              List<Future<Void>> workers) throws IOException {
+    try {
+      while (!batches.offer(batch, 1, TimeUnit.SECONDS)) {
+        for (Future<Void> worker : workers) {
+          if (worker.isDone()) {
+            // throws the worker's exception
+            get(worker);
+            throw new DatasetException("CSV import thread stopped early");
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatasetIOException("Interrupted while importing",
+          new IOException(e));
+    }
+  }
+
+  private static class Batch<E> {
+    private final CSVRecordBuilder<E> builder;
+    private final List<String[]> rows;
+
+    private Batch(CSVRecordBuilder<E> builder, List<String[]> rows) {
+      this.builder = builder;
+      this.rows = rows;
+    }
+
+    /**
+     * Returns a batch that signals a worker to stop.
+     */
+    private static <E> Batch<E> end() {
+      return new Batch<E>(null, null);
+    }
+
+    private boolean isEnd() {
+      return rows == null;
+    }
+  }
+
+  private static class Worker<E> implements Callable<Void> {
+    private final BlockingQueue<Batch<E>> batches;
+    private final DatasetWriter<E> writer;
+    private final AtomicLong count;
+    private final List<E> records = Lists.newArrayList();
+
+    private Worker(BlockingQueue<Batch<E>> batches, DatasetWriter<E> writer,
+                   AtomicLong count) {
+      this.batches = batches;
+      this.writer = writer;
+      this.count = count;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      Batch<E> batch;
+      while (!(batch = batches.take()).isEnd()) {
+        List<String[]> rows = batch.rows;
+        int size = rows.size();
+        for (int i = 0; i < size; i += 1) {
+          if (i < records.size()) {
+            records.set(i, batch.builder.makeRecord(rows.get(i), records.get(i)));
+          } else {
+            records.add(batch.builder.makeRecord(rows.get(i), null));
+          }
+        }
+
+        // records are converted in parallel, but the writer is shared
+        synchronized (writer) {
+          for (int i = 0; i < size; i += 1) {
+            writer.write(records.get(i));
+          }
+        }
+
+        count.addAndGet(size);
+      }
+      return null;
+    }
+  }
+
+  private static <R> R get(Future<R> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while importing", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("CSV import failed", cause);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kitesdk.tools;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.kitesdk.data.Dataset;
+import org.kitesdk.data.View;
+import org.kitesdk.data.spi.Replaceable;
+import org.kitesdk.data.spi.TemporaryDatasetRepository;
+import org.kitesdk.data.spi.filesystem.CompactionPlanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compacts only the partitions of a view that need it, as chosen by a
+ * {@link CompactionPlanner}. Each planned partition is copied by its own
+ * {@link CopyTask} into a temporary dataset that then replaces the partition,
+ * and up to {@code numConcurrent} partitions are compacted at the same time.
+ */
+public class IncrementalCompactionTask<T> extends Configured {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(IncrementalCompactionTask.class);
+
+  private static final String TEMP_KEY_PREFIX = "compaction-";
+
+  private final CompactionPlanner<T> planner;
+  private int numConcurrent = 1;
+  private int numWriters = -1;
+  private int filesPerPartition = -1;
+  private long count = 0;
+  private int numCompacted = 0;
+
+  public IncrementalCompactionTask(View<T> view) {
+    this(new CompactionPlanner<T>(view));
+  }
+
+  public IncrementalCompactionTask(CompactionPlanner<T> planner) {
+    this.planner = planner;
+  }
+
+  public CompactionPlanner<T> getPlanner() {
+    return planner;
+  }
+
+  public IncrementalCompactionTask<T> setNumConcurrent(int numConcurrent) {
+    Preconditions.checkArgument(numConcurrent > 0,
+        "Invalid number of concurrent compactions: " + numConcurrent);
+    this.numConcurrent = numConcurrent;
+    return this;
+  }
+
+  public IncrementalCompactionTask<T> setNumWriters(int numWriters) {
+    this.numWriters = numWriters;
+    return this;
+  }
+
+  public IncrementalCompactionTask<T> setFilesPerPartition(int filesPerPartition) {
+    this.filesPerPartition = filesPerPartition;
+    return this;
+  }
+
+  /**
+   * @return the number of records rewritten by successful compactions
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the number of partitions that were successfully compacted
+   */
+  public int getNumCompacted() {
+    return numCompacted;
+  }
+
+  /**
+   * Plans and runs compaction for the partitions that need it.
+   *
+   * @return true if all planned partitions were compacted
+   * @throws IOException if a compaction fails
+   */
+  public boolean run() throws IOException {
+    List<CompactionPlanner.Candidate<T>> plan = planner.plan();
+    if (plan.isEmpty()) {
+      LOG.info("No partitions need to be compacted");
+      return true;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(
+        Math.min(numConcurrent, plan.size()),
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("compaction-%d")
+            .build());
+
+    try {
+      List<Future<CopyTask<T>>> results = Lists.newArrayList();
+      for (CompactionPlanner.Candidate<T> candidate : plan) {
+        LOG.info("Compacting {}", candidate);
+        results.add(pool.submit(compaction(candidate.getView())));
+      }
+
+      boolean succeeded = true;
+      for (Future<CopyTask<T>> result : results) {
+        CopyTask<T> task = getUnchecked(result);
+        if (task != null) {
+          count += task.getCount();
+          numCompacted += 1;
+        } else {
+          succeeded = false;
+        }
+      }
+
+      return succeeded;
+
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns a compaction of one partition. The partition is copied into its
+   * own temporary dataset, which then replaces the partition's data, so
+   * concurrent compactions never share staging space and a failed copy leaves
+   * the partition unchanged.
+   */
+  private Callable<CopyTask<T>> compaction(final View<T> view) {
+    final Configuration conf = getConf();
+    return new Callable<CopyTask<T>>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public CopyTask<T> call() throws IOException {
+        Dataset<T> dataset = view.getDataset();
+        Preconditions.checkArgument(dataset instanceof Replaceable &&
+            ((Replaceable<View<T>>) dataset).canReplace(view),
+            "Cannot compact view: " + view);
+
+        TemporaryDatasetRepository tempRepo = LocalTransform
+            .temporaryRepository(dataset, TEMP_KEY_PREFIX);
+        try {
+          Dataset<T> staged = tempRepo.create(dataset.getNamespace(),
+              dataset.getName(), LocalTransform.copy(dataset.getDescriptor()),
+              view.getType());
+
+          CopyTask<T> task = new CopyTask<T>(view, staged);
+          // each pipeline gets its own copy of the configuration
+          task.setConf(conf == null ? new Configuration() : new Configuration(conf));
+          if (numWriters >= 0) {
+            task.setNumWriters(numWriters);
+          }
+          if (filesPerPartition > 0) {
+            task.setFilesPerPartition(filesPerPartition);
+          }
+          if (!task.run().succeeded()) {
+            return null;
+          }
+
+          ((Replaceable<View<T>>) dataset).replace(view, staged);
+          return task;
+        } finally {
+          tempRepo.delete();
+        }
+      }
+    };
+  }
+
+  private static <R> R getUnchecked(Future<R> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for compaction", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Compaction failed", cause);
+    }
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kitesdk.tools;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.MapFn;
+import org.apache.crunch.Target;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.kitesdk.data.Dataset;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetException;
+import org.kitesdk.data.DatasetReader;
+import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.Signalable;
+import org.kitesdk.data.View;
+import org.kitesdk.data.spi.AbstractDataset;
+import org.kitesdk.data.spi.AbstractRefinableView;
+import org.kitesdk.data.spi.DatasetRepositories;
+import org.kitesdk.data.spi.DatasetRepository;
+import org.kitesdk.data.spi.Mergeable;
+import org.kitesdk.data.spi.Replaceable;
+import org.kitesdk.data.spi.TemporaryDatasetRepository;
+import org.kitesdk.data.spi.TemporaryDatasetRepositoryAccessor;
+import org.kitesdk.data.spi.filesystem.FileSystemDatasets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a transform in the current process instead of as a MapReduce job.
+ * <p>
+ * Each data file in the source is a unit of work. A pool of threads reads the
+ * files and applies a copy of the {@link DoFn}, then writes the results
+ * directly to one of {@code numWriters} dataset writers; there is no shuffle.
+ * Because each writer handles every partition, the output has
+ * {@code numWriters} files per partition. Writers are shared between threads,
+ * so entities are written before the next one is produced, and DoFns that
+ * reuse output objects are safe. Entities are checked against the target's
+ * entity class before they are written, as in the MapReduce job.
+ * <p>
+ * DoFns are given the job Configuration, but no task context, so they cannot
+ * use counters.
+ */
+class LocalTransform<S, T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalTransform.class);
+
+  private static final String TEMP_KEY_PREFIX = "local-";
+
+  private final View<S> from;
+  private final View<T> to;
+  private final DoFn<S, T> transform;
+  private final MapFn<T, T> validate;
+  private final Configuration conf;
+  private final int numThreads;
+  private final int numWriters;
+
+  LocalTransform(View<S> from, View<T> to, DoFn<S, T> transform,
+                 MapFn<T, T> validate, Configuration conf, int numThreads,
+                 int numWriters) {
+    this.from = from;
+    this.to = to;
+    this.transform = transform;
+    this.validate = validate;
+    this.conf = conf;
+    this.numThreads = numThreads;
+    this.numWriters = Math.max(1, numWriters);
+  }
+
+  /**
+   * Runs the transform.
+   * <p>
+   * If the target dataset can merge or replace data, the output is written to
+   * a temporary dataset that is merged into the target, or replaces it, only
+   * after all of the splits succeed. Otherwise, output is written directly to
+   * the target and is not removed if the transform fails.
+   *
+   * @param mode the write mode for the target view
+   * @return the number of records read
+   * @throws IOException if reading, transforming, or writing fails
+   */
+  @SuppressWarnings("unchecked")
+  public long run(Target.WriteMode mode) throws IOException {
+    if (mode == Target.WriteMode.DEFAULT && !to.isEmpty()) {
+      throw new DatasetException("Dataset/view already exists: " + to);
+    }
+
+    Dataset<T> dataset = to.getDataset();
+    boolean replace = (mode == Target.WriteMode.OVERWRITE &&
+        dataset instanceof Replaceable &&
+        ((Replaceable<View<T>>) dataset).canReplace(to));
+
+    if (!replace && !(dataset instanceof Mergeable)) {
+      if (mode == Target.WriteMode.OVERWRITE) {
+        to.deleteAll();
+      }
+      return transform(to);
+    }
+
+    // write to a temporary dataset so that failures leave the target as it
+    // was, and so that the target can also be the source
+    TemporaryDatasetRepository tempRepo = temporaryRepository(
+        dataset, TEMP_KEY_PREFIX);
+    try {
+      Dataset<T> temp = tempRepo.create(dataset.getNamespace(),
+          dataset.getName(), copy(dataset.getDescriptor()), to.getType());
+      long count = transform(stagingView(to, temp));
+
+      if (replace) {
+        ((Replaceable<View<T>>) dataset).replace(to, temp);
+      } else {
+        if (mode == Target.WriteMode.OVERWRITE) {
+          to.deleteAll();
+        }
+        ((Mergeable<Dataset<T>>) dataset).merge(temp);
+      }
+
+      if (to instanceof Signalable) {
+        ((Signalable) to).signalReady();
+      }
+
+      return count;
+    } finally {
+      tempRepo.delete();
+    }
+  }
+
+
+  private long transform(View<T> target) throws IOException {
+    // each data file is read separately if the source is in a file system
+    final ConcurrentLinkedQueue<Callable<DatasetReader<S>>> splits =
+        new ConcurrentLinkedQueue<Callable<DatasetReader<S>>>();
+    try {
+      for (final Path file : FileSystemDatasets.dataFiles(from)) {
+        splits.add(new Callable<DatasetReader<S>>() {
+          @Override
+          public DatasetReader<S> call() {
+            return FileSystemDatasets.newReader(from, file);
+          }
+        });
+      }
+    } catch (IllegalArgumentException e) {
+      splits.add(new Callable<DatasetReader<S>>() {
+        @Override
+        public DatasetReader<S> call() {
+          return from.newReader();
+        }
+      });
+    }
+
+    int threads = Math.max(1, Math.min(numThreads, splits.size()));
+    LOG.info("Transforming {} splits from {} with {} threads",
+        new Object[] { splits.size(), from, threads });
+
+    List<LockedWriter<T>> writers = Lists.newArrayList();
+    ExecutorService pool = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("local-transform-%d")
+            .build());
+    final AtomicLong count = new AtomicLong(0);
+    try {
+      for (int i = 0; i < Math.min(numWriters, threads); i += 1) {
+        writers.add(new LockedWriter<T>(target.newWriter(), validate));
+      }
+
+      List<Future<Void>> results = Lists.newArrayList();
+      for (int i = 0; i < threads; i += 1) {
+        results.add(pool.submit(new Worker(
+            splits, writers.get(i % writers.size()), count)));
+      }
+
+      for (Future<Void> result : results) {
+        getUnchecked(result);
+      }
+
+    } finally {
+      pool.shutdownNow();
+      for (LockedWriter<T> writer : writers) {
+        writer.close();
+      }
+    }
+
+    return count.get();
+  }
+
+  private class Worker implements Callable<Void> {
+    private final ConcurrentLinkedQueue<Callable<DatasetReader<S>>> splits;
+    private final LockedWriter<T> writer;
+    private final AtomicLong count;
+
+    private Worker(ConcurrentLinkedQueue<Callable<DatasetReader<S>>> splits,
+                   LockedWriter<T> writer, AtomicLong count) {
+      this.splits = splits;
+      this.writer = writer;
+      this.count = count;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      // DoFns are not thread-safe, so each thread uses its own copy
+      DoFn<S, T> fn = copy(transform);
+      fn.setConfiguration(conf);
+      fn.initialize();
+
+      Callable<DatasetReader<S>> split;
+      while ((split = splits.poll()) != null) {
+        DatasetReader<S> reader = split.call();
+        try {
+          long read = 0;
+          for (S entity : reader) {
+            fn.process(entity, writer);
+            read += 1;
+          }
+          count.addAndGet(read);
+        } finally {
+          reader.close();
+        }
+      }
+
+      fn.cleanup(writer);
+      return null;
+    }
+  }
+
+  /**
+   * An {@link Emitter} that validates entities and writes them to a
+   * {@link DatasetWriter} shared by several threads.
+   */
+  private static class LockedWriter<T> implements Emitter<T> {
+    private final DatasetWriter<T> writer;
+    private final MapFn<T, T> validate;
+
+    private LockedWriter(DatasetWriter<T> writer, MapFn<T, T> validate) {
+      this.writer = writer;
+      this.validate = validate;
+    }
+
+    @Override
+    public void emit(T entity) {
+      T valid = validate.map(entity);
+      synchronized (this) {
+        writer.write(valid);
+      }
+    }
+
+    @Override
+    public void flush() {
+      // entities are written when emitted
+    }
+
+    public synchronized void close() {
+      writer.close();
+    }
+  }
+
+  /**
+   * Returns a new temporary repository next to the given dataset, for staging
+   * data that will replace part of it.
+   */
+  static TemporaryDatasetRepository temporaryRepository(
+      Dataset<?> dataset, String keyPrefix) {
+    DatasetRepository repo = DatasetRepositories.repositoryFor(dataset.getUri());
+    if (!(repo instanceof TemporaryDatasetRepositoryAccessor)) {
+      throw new DatasetException(
+          "Cannot create temporary datasets in repository: " + repo);
+    }
+    return ((TemporaryDatasetRepositoryAccessor) repo).getTemporaryRepository(
+        dataset.getNamespace(), keyPrefix + UUID.randomUUID());
+  }
+
+  /**
+   * Returns a view of a temporary dataset with the target view's constraints,
+   * so that entities outside of the target view are rejected.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> View<T> stagingView(View<T> target, Dataset<T> temp) {
+    if (target instanceof AbstractRefinableView &&
+        temp instanceof AbstractDataset) {
+      return ((AbstractDataset<T>) temp).filter(
+          ((AbstractRefinableView<T>) target).getConstraints());
+    }
+    return temp;
+  }
+
+  static DatasetDescriptor copy(DatasetDescriptor descriptor) {
+    // don't reuse the dataset's location
+    return new DatasetDescriptor.Builder(descriptor)
+        .location((URI) null)
+        .build();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <F> F copy(final F fn) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    try {
+      out.writeObject(fn);
+    } finally {
+      out.close();
+    }
+
+    // resolve classes with the function's loader, which may load user jars
+    final ClassLoader loader = fn.getClass().getClassLoader();
+    InputStream in = new ByteArrayInputStream(bytes.toByteArray());
+    ObjectInputStream objects = new ObjectInputStream(in) {
+      @Override
+      protected Class<?> resolveClass(ObjectStreamClass desc)
+          throws IOException, ClassNotFoundException {
+        try {
+          return Class.forName(desc.getName(), false, loader);
+        } catch (ClassNotFoundException e) {
+          return super.resolveClass(desc);
+        }
+      }
+    };
+    try {
+      return (F) objects.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new DatasetException("Cannot copy function: " + fn, e);
+    } finally {
+      objects.close();
+    }
+  }
+
+  private static <R> R getUnchecked(Future<R> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while transforming", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Transform failed", cause);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kitesdk.tools;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.kitesdk.data.CompressionType;
+import org.kitesdk.data.Dataset;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetReader;
+import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.Formats;
+import org.kitesdk.data.PartitionView;
+import org.kitesdk.data.View;
+import org.kitesdk.data.spi.DatasetRepositories;
+import org.kitesdk.data.spi.DatasetRepository;
+import org.kitesdk.data.spi.Replaceable;
+import org.kitesdk.data.spi.TemporaryDatasetRepository;
+import org.kitesdk.data.spi.TemporaryDatasetRepositoryAccessor;
+import org.kitesdk.data.spi.filesystem.FileSystemDataset;
+import org.kitesdk.data.spi.filesystem.FileSystemDatasets;
+import org.kitesdk.data.spi.filesystem.PathFilters;
+
+/**
+ * Compacts a file system dataset by merging the data files in each partition
+ * into one file, in the local process rather than with a MapReduce job.
+ * <p>
+ * Avro data blocks are copied without decoding records when the file schema
+ * matches the dataset schema; blocks are only recompressed when the file's
+ * codec differs from the dataset's compression type. Files in other formats,
+ * and Avro files written with an older schema, are rewritten record by
+ * record. The merged partitions replace the originals using
+ * {@link Replaceable#replace(View, View)}.
+ */
+public class MergeFilesTask<T> extends Configured {
+
+  private static final String TEMP_KEY_PREFIX = "merge-";
+
+  private final View<T> view;
+  private long fileCount = 0;
+  private long partitionCount = 0;
+
+  public MergeFilesTask(View<T> view) {
+    checkMergeable(view);
+    this.view = view;
+  }
+
+  /**
+   * @return the number of data files that were merged
+   */
+  public long getFileCount() {
+    return fileCount;
+  }
+
+  /**
+   * @return the number of partitions that were merged
+   */
+  public long getPartitionCount() {
+    return partitionCount;
+  }
+
+  @SuppressWarnings("unchecked")
+  public void run() throws IOException {
+    Dataset<T> dataset = view.getDataset();
+    DatasetDescriptor descriptor = dataset.getDescriptor();
+    Path root = new Path(descriptor.getLocation());
+    FileSystem fs = root.getFileSystem(getConf());
+
+    DatasetRepository repo = DatasetRepositories.repositoryFor(view.getUri());
+    Preconditions.checkArgument(repo instanceof TemporaryDatasetRepositoryAccessor,
+        "Cannot create temporary datasets in repository: " + repo);
+    TemporaryDatasetRepository tempRepo =
+        ((TemporaryDatasetRepositoryAccessor) repo).getTemporaryRepository(
+            dataset.getNamespace(), TEMP_KEY_PREFIX + UUID.randomUUID());
+
+    try {
+      Dataset<T> merged = tempRepo.create(dataset.getNamespace(),
+          dataset.getName(), copy(descriptor), view.getType());
+      Path mergedRoot = new Path(merged.getDescriptor().getLocation());
+
+      for (PartitionView<T> partition : view.getCoveringPartitions()) {
+        // use new Path(String) because the location URI is not escaped
+        Path location = new Path(partition.getLocation().toString());
+        String relative = relativize(root, location);
+        Path destination = relative.isEmpty() ?
+            mergedRoot : new Path(mergedRoot, relative);
+
+        List<Path> files = dataFiles(fs, location);
+        if (Formats.AVRO.equals(descriptor.getFormat())) {
+          mergeAvro(fs, files, destination, descriptor);
+        } else {
+          rewrite(dataset, location, merged, destination);
+        }
+
+        fileCount += files.size();
+        partitionCount += 1;
+      }
+
+      ((Replaceable<View<T>>) dataset).replace(view, merged);
+
+    } finally {
+      tempRepo.delete();
+    }
+  }
+
+  private static List<Path> dataFiles(FileSystem fs, Path directory)
+      throws IOException {
+    List<Path> files = Lists.newArrayList();
+    for (FileStatus stat : fs.listStatus(directory, PathFilters.notHidden())) {
+      if (!stat.isDir()) {
+        files.add(stat.getPath());
+      }
+    }
+    return files;
+  }
+
+  private static void mergeAvro(FileSystem fs, List<Path> files,
+                                Path destination, DatasetDescriptor descriptor)
+      throws IOException {
+    Schema schema = descriptor.getSchema();
+    CompressionType compression = descriptor.getCompressionType();
+
+    fs.mkdirs(destination);
+    Path mergedFile = new Path(destination,
+        UUID.randomUUID() + "." + Formats.AVRO.getExtension());
+
+    DataFileWriter<Object> writer = new DataFileWriter<Object>(
+        new GenericDatumWriter<Object>(schema));
+    writer.setCodec(codecFactory(compression));
+    writer.create(schema, fs.create(mergedFile, false /* no overwrite */ ));
+    try {
+      for (Path file : files) {
+        DataFileStream<Object> in = new DataFileStream<Object>(fs.open(file),
+            new GenericDatumReader<Object>(null, schema));
+        try {
+          if (schema.equals(in.getSchema())) {
+            // copy whole data blocks. they are decompressed and compressed
+            // again only if the file used a different codec
+            writer.appendAllFrom(in,
+                !codecName(compression).equals(codecName(in)));
+          } else {
+            // records must be resolved to the current schema
+            for (Object record : in) {
+              writer.append(record);
+            }
+          }
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static <T> void rewrite(Dataset<T> dataset, Path location,
+                                  Dataset<T> merged, Path destination) {
+    View<T> source;
+    View<T> target;
+    if (dataset.getDescriptor().isPartitioned()) {
+      source = FileSystemDatasets.viewForPath(dataset, location);
+      target = FileSystemDatasets.viewForPath(merged, destination);
+    } else {
+      source = dataset;
+      target = merged;
+    }
+
+    DatasetReader<T> reader = null;
+    DatasetWriter<T> writer = null;
+    try {
+      reader = source.newReader();
+      writer = target.newWriter();
+      for (T record : reader) {
+        writer.write(record);
+      }
+    } finally {
+      if (reader != null) {
+        reader.close();
+      }
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  private static String relativize(Path root, Path location) {
+    String rootPath = root.toUri().getPath();
+    String path = location.toUri().getPath();
+    Preconditions.checkArgument(path.startsWith(rootPath),
+        "Partition " + location + " is not in dataset location " + root);
+    String relative = path.substring(rootPath.length());
+    return relative.startsWith("/") ? relative.substring(1) : relative;
+  }
+
+  private static DatasetDescriptor copy(DatasetDescriptor descriptor) {
+    // don't reuse the dataset's location
+    return new DatasetDescriptor.Builder(descriptor)
+        .location((URI) null)
+        .build();
+  }
+
+  private static String codecName(DataFileStream<?> stream) {
+    String codec = stream.getMetaString(DataFileConstants.CODEC);
+    return codec == null ? DataFileConstants.NULL_CODEC : codec;
+  }
+
+  private static String codecName(CompressionType compression) {
+    switch (compression) {
+      case Snappy:
+        return DataFileConstants.SNAPPY_CODEC;
+      case Deflate:
+        return DataFileConstants.DEFLATE_CODEC;
+      case Bzip2:
+        return DataFileConstants.BZIP2_CODEC;
+      default:
+        return DataFileConstants.NULL_CODEC;
+    }
+  }
+
+  private static CodecFactory codecFactory(CompressionType compression) {
+    if (compression == CompressionType.Deflate) {
+      // match the level used by the Avro writer
+      return CodecFactory.deflateCodec(9);
+    }
+    return CodecFactory.fromString(codecName(compression));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void checkMergeable(View<T> view) {
+    Dataset<T> dataset = view.getDataset();
+    if (!(dataset instanceof FileSystemDataset)) {
+      throw new IllegalArgumentException(
+          "Cannot merge files in non-filesystem dataset: " + dataset);
+    }
+    Replaceable<View<T>> replaceable = ((Replaceable<View<T>>) dataset);
+    Preconditions.checkArgument(replaceable.canReplace(view),
+        "Cannot compact view: " + view);
+  }
+}
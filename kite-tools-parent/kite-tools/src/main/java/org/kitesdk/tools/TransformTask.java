@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Map;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.crunch.DoFn;
 import org.apache.crunch.MapFn;
@@ -28,12 +29,14 @@ import org.apache.crunch.Pipeline;
 import org.apache.crunch.PipelineResult;
 import org.apache.crunch.PipelineResult.StageResult;
 import org.apache.crunch.Target;
+import org.apache.crunch.fn.IdentityFn;
 import org.apache.crunch.impl.mr.MRPipeline;
 import org.apache.crunch.types.PType;
 import org.apache.crunch.types.avro.AvroType;
 import org.apache.crunch.types.avro.Avros;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
 import org.apache.hadoop.hive.thrift.DelegationTokenIdentifier;
@@ -46,6 +49,9 @@ import org.kitesdk.data.Dataset;
 import org.kitesdk.data.DatasetException;
 import org.kitesdk.data.View;
 import org.kitesdk.data.crunch.CrunchDatasets;
+import org.kitesdk.data.spi.DescriptorUtil;
+import org.kitesdk.data.spi.filesystem.FileSystemDatasets;
+import org.kitesdk.data.spi.filesystem.FileSystemProperties;
 
 /**
  * @since 0.16.0
@@ -63,13 +69,23 @@ public class TransformTask<S, T> extends Configured {
 
   private static final String LOCAL_FS_SCHEME = "file";
 
+  /**
+   * The largest source, in bytes, that is transformed in-process when the
+   * execution mode is not set. Defaults to 1 GB.
+   */
+  public static final String LOCAL_MAX_BYTES_PROP = "kite.tools.local-max-bytes";
+  public static final long DEFAULT_LOCAL_MAX_BYTES = 1024L * 1024 * 1024;
+
   private final View<S> from;
   private final View<T> to;
   private final DoFn<S, T> transform;
   private boolean compact = true;
   private int numWriters = -1;
   private int numPartitionWriters = -1;
+  private double sampleRate = -1;
   private Target.WriteMode mode = Target.WriteMode.APPEND;
+  private Boolean local = null;
+  private int numThreads = Runtime.getRuntime().availableProcessors();
 
   private long count = 0;
 
@@ -130,6 +146,27 @@ public class TransformTask<S, T> extends Configured {
     return this;
   }
 
+  /**
+   * Size the writers for each output partition using a sample of the data.
+   * <p>
+   * Before writing, a job reads this fraction of the transformed records to
+   * estimate the bytes in each output partition. Each partition then gets
+   * enough writers to produce files near the target file size, and writers
+   * are spread across reducers by estimated size, so that skewed partitions
+   * do not create a few long-running reducers. This replaces the fixed number
+   * of files per partition.
+   *
+   * @param sampleRate the fraction of records to sample, between 0 and 1
+   * @return this for method chaining
+   * @since 1.1.0
+   */
+  public TransformTask setSampleRate(double sampleRate) {
+    Preconditions.checkArgument(sampleRate > 0.0 && sampleRate <= 1.0,
+        "Invalid sample rate: " + sampleRate);
+    this.sampleRate = sampleRate;
+    return this;
+  }
+
   /**
    * Set the output write mode: default, overwrite, or append.
    *
@@ -143,7 +180,57 @@ public class TransformTask<S, T> extends Configured {
     return this;
   }
 
+  /**
+   * Run the transform in this process, using a pool of threads, instead of as
+   * a MapReduce job.
+   * <p>
+   * Local mode reads each source file in a separate thread and writes directly
+   * to the target without a shuffle, so the number of writers is the number of
+   * files per output partition. Files per partition and the sample rate are
+   * not supported. DoFns are not given a task context and cannot use counters.
+   * <p>
+   * If not set, local mode is used for identity transforms (copies) between
+   * local datasets when the source is smaller than
+   * {@link #LOCAL_MAX_BYTES_PROP} and the target does not set sort fields.
+   * Local mode does not sort, so it cannot be used for sorted targets.
+   *
+   * @param local whether to run the transform in this process
+   * @return this for method chaining
+   * @since 1.1.0
+   */
+  public TransformTask setLocal(boolean local) {
+    this.local = local;
+    return this;
+  }
+
+  /**
+   * Set the number of threads used to transform records in local mode.
+   * Defaults to the number of available processors.
+   *
+   * @param numThreads the number of threads to use
+   * @return this for method chaining
+   * @since 1.1.0
+   */
+  public TransformTask setNumThreads(int numThreads) {
+    Preconditions.checkArgument(numThreads > 0,
+        "Invalid number of threads: " + numThreads);
+    this.numThreads = numThreads;
+    return this;
+  }
+
   public PipelineResult run() throws IOException {
+    if (runLocally()) {
+      Preconditions.checkArgument(numPartitionWriters <= 0 && sampleRate <= 0,
+          "Files per partition and sample rate are not supported in local mode");
+      Preconditions.checkArgument(!isSorted(to),
+          "Sort fields are not supported in local mode");
+      LocalTransform<S, T> task = new LocalTransform<S, T>(from, to,
+          transform, new CheckEntityClass<T>(to.getType()), getConf(),
+          numThreads, compact ? numWriters : numThreads);
+      this.count = task.run(mode);
+      return PipelineResult.DONE;
+    }
+
     if (isLocal(from.getDataset()) || isLocal(to.getDataset())) {
       // copy to avoid making changes to the caller's configuration
       Configuration conf = new Configuration(getConf());
@@ -166,7 +253,14 @@ public class TransformTask<S, T> extends Configured {
     PCollection<T> collection = pipeline.read(CrunchDatasets.asSource(from))
         .parallelDo(transform, toPType).parallelDo(validate, toPType);
 
-    if (compact) {
+    if (compact && sampleRate > 0 &&
+        to.getDataset().getDescriptor().isPartitioned()) {
+      // the transform must be run before partitioning
+      Map<String, Long> partitionSizes = CrunchDatasets
+          .estimatePartitionSizes(collection, to, sampleRate);
+      collection = CrunchDatasets.partition(
+          collection, to, numWriters, partitionSizes);
+    } else if (compact) {
       // the transform must be run before partitioning
       collection = CrunchDatasets.partition(collection, to, numWriters, numPartitionWriters);
     }
@@ -183,11 +277,49 @@ public class TransformTask<S, T> extends Configured {
     return result;
   }
 
+  private boolean runLocally() {
+    if (local != null) {
+      return local;
+    }
+
+    // only choose local mode for copies of small local datasets, where the
+    // cost of starting a job is larger than the cost of the copy. sorted
+    // targets need the job's shuffle to sort records.
+    if (!(transform instanceof IdentityFn) ||
+        !isLocal(from.getDataset()) || !isLocal(to.getDataset()) ||
+        isSorted(to) ||
+        numWriters > 0 || numPartitionWriters > 0 || sampleRate > 0) {
+      return false;
+    }
+
+    long maxBytes = getConf().getLong(
+        LOCAL_MAX_BYTES_PROP, DEFAULT_LOCAL_MAX_BYTES);
+    try {
+      long bytes = 0;
+      for (Path file : FileSystemDatasets.dataFiles(from)) {
+        bytes += file.getFileSystem(getConf()).getFileStatus(file).getLen();
+        if (bytes > maxBytes) {
+          return false;
+        }
+      }
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false; // not a file system view
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
   private static boolean isLocal(Dataset<?> dataset) {
     URI location = dataset.getDescriptor().getLocation();
     return (location != null) && LOCAL_FS_SCHEME.equals(location.getScheme());
   }
 
+  private static boolean isSorted(View<?> view) {
+    return !DescriptorUtil.getList(FileSystemProperties.SORT_FIELDS_PROP,
+        view.getDataset().getDescriptor()).isEmpty();
+  }
+
   @SuppressWarnings("unchecked")
   private static <T> AvroType<T> ptype(View<T> view) {
     Class<T> recordClass = view.getType();
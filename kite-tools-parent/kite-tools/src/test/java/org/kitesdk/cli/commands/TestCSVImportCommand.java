@@ -35,6 +35,7 @@ import org.junit.Test;
 import org.kitesdk.cli.TestUtil;
 import org.kitesdk.data.Dataset;
 import org.kitesdk.data.DatasetNotFoundException;
+import org.kitesdk.data.DatasetReader;
 import org.kitesdk.data.Datasets;
 import org.kitesdk.data.TestHelpers;
 import org.kitesdk.data.URIBuilder;
@@ -141,6 +142,133 @@ public class TestCSVImportCommand {
     verifyNoMoreInteractions(console);
   }
 
+  @Test
+  public void testMapReduceImport() throws Exception {
+    command.targets = Lists.newArrayList(sample, datasetName);
+    command.runLocal = false;
+    command.run();
+    Assert.assertEquals("Should contain expected records",
+        expected, DatasetTestUtilities.materialize(dataset));
+    verify(console).trace(contains("repo:file:target/data"));
+    verify(console).info("Added {} records to \"{}\"", 2l, datasetName);
+    verifyNoMoreInteractions(console);
+  }
+
+  @Test
+  public void testStreamingImportWithThreads() throws Exception {
+    BufferedWriter writer = Files.newWriter(
+        new File("target/many-users.csv"), CSVSchemaCommand.SCHEMA_CHARSET);
+    writer.append("id,username,email\n");
+    for (int i = 0; i < 2500; i += 1) {
+      writer.append(i + ",user" + i + ",user" + i + "@example.com\n");
+    }
+    writer.close();
+
+    command.targets = Lists.newArrayList("target/many-users.csv", datasetName);
+    command.runLocal = true;
+    command.numThreads = 3;
+    int rc = command.run();
+    Assert.assertEquals("Should return success", 0, rc);
+
+    Set<GenericData.Record> records = DatasetTestUtilities.materialize(dataset);
+    Assert.assertEquals("Should contain all records", 2500, records.size());
+    verify(console).trace(contains("repo:file:target/data"));
+    verify(console).info("Added {} records to \"{}\"", 2500l, datasetName);
+    verifyNoMoreInteractions(console);
+  }
+
+  @Test
+  public void testStreamingOverwrite() throws Exception {
+    command.targets = Lists.newArrayList(sample, datasetName);
+    command.runLocal = true;
+    Assert.assertEquals("Should return success", 0, command.run());
+
+    command.overwrite = true;
+    Assert.assertEquals("Should return success", 0, command.run());
+
+    Assert.assertEquals("Should replace existing records",
+        expected, DatasetTestUtilities.materialize(dataset));
+  }
+
+  @Test
+  public void testFailedStreamingOverwriteKeepsData() throws Exception {
+    command.targets = Lists.newArrayList(sample, datasetName);
+    command.runLocal = true;
+    Assert.assertEquals("Should return success", 0, command.run());
+
+    BufferedWriter writer = Files.newWriter(
+        new File("target/bad-row.csv"), CSVSchemaCommand.SCHEMA_CHARSET);
+    writer.append("id,username,email\n");
+    for (int i = 0; i < 1500; i += 1) {
+      writer.append(i + ",user" + i + ",user" + i + "@example.com\n");
+    }
+    writer.append("NaN,test,test@example.com\n");
+    writer.close();
+
+    command.targets = Lists.newArrayList("target/bad-row.csv", datasetName);
+    command.overwrite = true;
+    Assert.assertEquals("Should fail", 1, command.run());
+
+    Assert.assertEquals("Should not delete or add records",
+        expected, DatasetTestUtilities.materialize(dataset));
+  }
+
+  @Test
+  public void testSortedTargetUsesJob() throws Exception {
+    TestUtil.run("delete", datasetName, "--use-local", "-d", "target/data");
+    TestUtil.run("-v", "create", datasetName,
+        "--use-local", "-d", "target/data", "-s", avsc,
+        "--set", "kite.writer.sort-fields=id");
+
+    BufferedWriter writer = Files.newWriter(
+        new File("target/reversed-users.csv"), CSVSchemaCommand.SCHEMA_CHARSET);
+    writer.append("id,username,email\n");
+    for (int i = 99; i >= 0; i -= 1) {
+      writer.append(i + ",user" + i + ",user" + i + "@example.com\n");
+    }
+    writer.close();
+
+    // small imports are streamed unless the target is sorted
+    command.targets = Lists.newArrayList(
+        "target/reversed-users.csv", datasetName);
+    Assert.assertEquals("Should return success", 0, command.run());
+
+    Dataset<GenericData.Record> sorted = Datasets.load(
+        URIBuilder.build("repo:file:target/data", "default", datasetName),
+        GenericData.Record.class);
+    DatasetReader<GenericData.Record> reader = sorted.newReader();
+    try {
+      long expectedId = 0;
+      for (GenericData.Record record : reader) {
+        Assert.assertEquals("Should be sorted by id",
+            expectedId, record.get("id"));
+        expectedId += 1;
+      }
+      Assert.assertEquals(100, expectedId);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testSortedTargetRejectsStreaming() throws Exception {
+    TestUtil.run("delete", datasetName, "--use-local", "-d", "target/data");
+    TestUtil.run("-v", "create", datasetName,
+        "--use-local", "-d", "target/data", "-s", avsc,
+        "--set", "kite.writer.sort-fields=id");
+
+    command.targets = Lists.newArrayList(sample, datasetName);
+    command.runLocal = true;
+    TestHelpers.assertThrows("Should not stream into a sorted dataset",
+        IllegalArgumentException.class, new Callable() {
+          @Override
+          public Object call() throws Exception {
+            command.run();
+            return null;
+          }
+        });
+  }
+
   @Test
   public void testMissingSamplePath() throws Exception {
     command.targets = Lists.newArrayList("missing.csv", datasetName);
@@ -50,6 +50,8 @@ import java.io.File;
 import java.net.URI;
 import java.util.Map;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -246,6 +248,37 @@ public class TestCompactCommandCluster extends MiniDFSTest {
     verifyNoMoreInteractions(console);
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPartitionedMergeFiles() throws Exception {
+    // import a second time so that each partition has more than one file
+    TestUtil.run("csv-import", temp.getRoot() + "/users.csv", partitioned,
+        "-r", repoUri, "-d", "target/data");
+
+    command.repoURI = repoUri;
+    command.mergeFiles = true;
+    command.datasets = Lists.newArrayList(partitioned);
+
+    int rc = command.run();
+    Assert.assertEquals("Should return success", 0, rc);
+
+    DatasetRepository repo = DatasetRepositories.repositoryFor("repo:" + repoUri);
+    FileSystemDataset<GenericData.Record> ds =
+        (FileSystemDataset<GenericData.Record>) repo.<GenericData.Record>
+            load("default", partitioned);
+    int size = Iterators.size(ds.newReader());
+    Assert.assertEquals("Should contain both imports", numRecords * 2, size);
+
+    Assert.assertEquals("Should produce 2 partitions", 2, Iterators.size(ds.getCoveringPartitions().iterator()));
+    Assert.assertEquals(
+        "Should produce 1 file per partition: " + Iterators.toString(ds.pathIterator()),
+        2, Iterators.size(ds.pathIterator()));
+
+    verify(console).info(eq("Merged {} files in {} partitions of \"{}\""),
+        any(Object[].class));
+    verifyNoMoreInteractions(console);
+  }
+
   private boolean setLocalReducerMax(Configuration conf, int max) {
     try {
       Job job = Hadoop.Job.newInstance.invoke(new Configuration(false));
@@ -116,4 +116,55 @@ public class TestTransformCommandLocal {
           UPPER_CASE.matcher(record.get("username").toString()).matches());
     }
   }
+
+  @Test
+  public void testMapReduceCopy() throws Exception {
+    command.repoURI = "file:target/data";
+    command.runLocal = false;
+    command.datasets = Lists.newArrayList(source, dest);
+
+    int rc = command.run();
+    Assert.assertEquals("Should return success", 0, rc);
+
+    DatasetRepository repo = DatasetRepositories.repositoryFor("repo:file:target/data");
+    int size = DatasetTestUtilities.datasetSize(repo.load("default", dest));
+    Assert.assertEquals("Should contain copied records", 2, size);
+  }
+
+  @Test
+  public void testLocalTransform() throws Exception {
+    command.repoURI = "file:target/data";
+    command.transform = "org.kitesdk.cli.example.ToUpperCase";
+    command.runLocal = true;
+    command.numThreads = 2;
+    command.datasets = Lists.newArrayList(source, dest);
+
+    int rc = command.run();
+    Assert.assertEquals("Should return success", 0, rc);
+
+    DatasetRepository repo = DatasetRepositories.repositoryFor("repo:file:target/data");
+    Set<GenericRecord> records = DatasetTestUtilities.materialize(
+        repo.<GenericRecord>load("default", dest));
+    Assert.assertEquals("Should contain copied records", 2, records.size());
+    for (GenericRecord record : records) {
+      Assert.assertTrue("Username should be upper case",
+          UPPER_CASE.matcher(record.get("username").toString()).matches());
+    }
+  }
+
+  @Test
+  public void testLocalTransformOverwrite() throws Exception {
+    command.repoURI = "file:target/data";
+    command.runLocal = true;
+    command.datasets = Lists.newArrayList(source, dest);
+
+    Assert.assertEquals("Should return success", 0, command.run());
+
+    command.overwrite = true;
+    Assert.assertEquals("Should return success", 0, command.run());
+
+    DatasetRepository repo = DatasetRepositories.repositoryFor("repo:file:target/data");
+    int size = DatasetTestUtilities.datasetSize(repo.load("default", dest));
+    Assert.assertEquals("Should replace existing records", 2, size);
+  }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kitesdk.tools;
+
+import com.google.common.collect.Iterators;
+import java.io.File;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetReader;
+import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.Datasets;
+import org.kitesdk.data.PartitionStrategy;
+import org.kitesdk.data.View;
+import org.kitesdk.data.spi.filesystem.CompactionPlanner;
+import org.kitesdk.data.spi.filesystem.FileSystemDataset;
+
+public class TestIncrementalCompactionTask {
+
+  private static final String URI = "dataset:file:/tmp/datasets/compaction";
+  // temporary repositories are created under the dataset's namespace
+  private static final File TEMP_DIR = new File("/tmp/datasets/.temp");
+
+  private static final Schema SCHEMA = SchemaBuilder.record("TestRecord")
+      .fields()
+      .requiredLong("id")
+      .requiredString("data")
+      .endRecord();
+
+  private FileSystemDataset<GenericRecord> partitioned = null;
+
+  @Before
+  public void createTestDataset() {
+    Datasets.delete(URI);
+    partitioned = Datasets.create(URI, new DatasetDescriptor.Builder()
+        .schema(SCHEMA)
+        .partitionStrategy(new PartitionStrategy.Builder()
+            .hash("id", 4)
+            .build())
+        .build());
+    // each partition gets 3 small files of 5 records
+    writeTestRecords(partitioned, 3);
+  }
+
+  @After
+  public void removeTestDataset() {
+    Datasets.delete(URI);
+  }
+
+  @Test
+  public void testCompactPlannedPartitions() throws Exception {
+    Assert.assertEquals(4, plan().size());
+
+    IncrementalCompactionTask<GenericRecord> task =
+        new IncrementalCompactionTask<GenericRecord>(
+            new CompactionPlanner<GenericRecord>(partitioned)
+                .setMaxPartitions(2));
+    task.setConf(new Configuration());
+
+    Assert.assertTrue("Should succeed", task.run());
+    Assert.assertEquals("Should compact the planned partitions",
+        2, task.getNumCompacted());
+    Assert.assertEquals("Should count the rewritten records",
+        30, task.getCount());
+
+    Assert.assertEquals("Should leave the other partitions alone",
+        2, plan().size());
+    Assert.assertEquals("Should not lose or duplicate records",
+        60, count(partitioned));
+    assertNoStagedData();
+  }
+
+  @Test
+  public void testConcurrentCompactions() throws Exception {
+    IncrementalCompactionTask<GenericRecord> task =
+        new IncrementalCompactionTask<GenericRecord>(partitioned)
+            .setNumConcurrent(4);
+    task.setConf(new Configuration());
+
+    Assert.assertTrue("Should succeed", task.run());
+    Assert.assertEquals(4, task.getNumCompacted());
+    Assert.assertEquals(60, task.getCount());
+
+    Assert.assertTrue("Should compact every partition to one file",
+        plan().isEmpty());
+    Assert.assertEquals("Should not lose or duplicate records",
+        60, count(partitioned));
+    assertNoStagedData();
+  }
+
+  @Test
+  public void testNothingToCompact() throws Exception {
+    IncrementalCompactionTask<GenericRecord> first =
+        new IncrementalCompactionTask<GenericRecord>(partitioned);
+    first.setConf(new Configuration());
+    Assert.assertTrue(first.run());
+
+    IncrementalCompactionTask<GenericRecord> second =
+        new IncrementalCompactionTask<GenericRecord>(partitioned);
+    second.setConf(new Configuration());
+    Assert.assertTrue("Should succeed without work", second.run());
+    Assert.assertEquals(0, second.getNumCompacted());
+    Assert.assertEquals(60, count(partitioned));
+  }
+
+  private List<CompactionPlanner.Candidate<GenericRecord>> plan() {
+    return new CompactionPlanner<GenericRecord>(partitioned).plan();
+  }
+
+  private static void assertNoStagedData() {
+    String[] staged = TEMP_DIR.list();
+    if (staged != null) {
+      for (String name : staged) {
+        Assert.assertFalse("Should remove staged data: " + name,
+            name.startsWith("compaction-"));
+      }
+    }
+  }
+
+  private static long count(View<GenericRecord> view) {
+    DatasetReader<GenericRecord> reader = view.newReader();
+    try {
+      return Iterators.size(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void writeTestRecords(View<GenericRecord> view, int numFiles) {
+    for (int file = 0; file < numFiles; file += 1) {
+      DatasetWriter<GenericRecord> writer = null;
+      try {
+        writer = view.newWriter();
+        for (long i = 0; i < 20; i += 1) {
+          GenericRecord record = new GenericData.Record(SCHEMA);
+          record.put("id", i);
+          record.put("data", "test-" + file + "-" + i);
+          writer.write(record);
+        }
+      } finally {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2015 Cloudera Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kitesdk.tools;
+
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.crunch.DoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Target;
+import org.apache.crunch.fn.IdentityFn;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitesdk.data.Dataset;
+import org.kitesdk.data.DatasetDescriptor;
+import org.kitesdk.data.DatasetException;
+import org.kitesdk.data.DatasetReader;
+import org.kitesdk.data.DatasetWriter;
+import org.kitesdk.data.Datasets;
+import org.kitesdk.data.PartitionStrategy;
+import org.kitesdk.data.View;
+import org.kitesdk.data.spi.PartitionedDataset;
+import org.kitesdk.data.spi.filesystem.FileSystemDataset;
+
+public class TestLocalTransform {
+
+  private static final String SOURCE = "dataset:file:/tmp/datasets/local_source";
+  private static final String TARGET = "dataset:file:/tmp/datasets/local_target";
+  // temporary repositories are created under the dataset's namespace
+  private static final File TEMP_DIR = new File("/tmp/datasets/.temp");
+
+  private static final Schema SCHEMA = SchemaBuilder.record("TestRecord")
+      .fields()
+      .requiredLong("id")
+      .requiredString("data")
+      .endRecord();
+
+  private Dataset<GenericRecord> source = null;
+
+  @Before
+  public void createSource() {
+    Datasets.delete(SOURCE);
+    Datasets.delete(TARGET);
+    source = Datasets.create(SOURCE, new DatasetDescriptor.Builder()
+        .schema(SCHEMA)
+        .build());
+    // 3 files of 20 records
+    writeTestRecords(source, 0, 20);
+    writeTestRecords(source, 20, 20);
+    writeTestRecords(source, 40, 20);
+  }
+
+  @After
+  public void removeDatasets() {
+    Datasets.delete(SOURCE);
+    Datasets.delete(TARGET);
+  }
+
+  @Test
+  public void testMultipleFiles() throws Exception {
+    Dataset<GenericRecord> target = createTarget(null);
+
+    TransformTask<GenericRecord, GenericRecord> task = task(
+        source, target, IdentityFn.<GenericRecord>getInstance());
+    task.setNumThreads(3);
+    task.run();
+
+    Assert.assertEquals("Should read every file", 60, task.getCount());
+    assertIds(0, 60, read(target));
+    assertNoStagedData();
+  }
+
+  @Test
+  public void testPartitionedTarget() throws Exception {
+    FileSystemDataset<GenericRecord> target = (FileSystemDataset<GenericRecord>)
+        createTarget(new PartitionStrategy.Builder().hash("id", 4).build());
+
+    TransformTask<GenericRecord, GenericRecord> task = task(
+        source, target, IdentityFn.<GenericRecord>getInstance());
+    task.setNumThreads(2);
+    task.run();
+
+    assertIds(0, 60, read(target));
+
+    // small longs hash to themselves, so the bucket is the id mod 4
+    int partitions = 0;
+    for (PartitionedDataset<GenericRecord> partition : target.getPartitions()) {
+      partitions += 1;
+      String location = partition.getDescriptor().getLocation().toString();
+      for (GenericRecord record : read(partition)) {
+        Assert.assertTrue("Should be in the partition for its id",
+            location.endsWith("id_hash=" + ((Long) record.get("id") % 4)));
+      }
+    }
+    Assert.assertEquals(4, partitions);
+  }
+
+  @Test
+  public void testOverwrite() throws Exception {
+    Dataset<GenericRecord> target = createTarget(null);
+    writeTestRecords(target, 100, 10);
+
+    TransformTask<GenericRecord, GenericRecord> task = task(
+        source, target, IdentityFn.<GenericRecord>getInstance());
+    task.setWriteMode(Target.WriteMode.OVERWRITE);
+    task.run();
+
+    assertIds(0, 60, read(target));
+    assertNoStagedData();
+  }
+
+  @Test
+  public void testOverwriteSource() throws Exception {
+    TransformTask<GenericRecord, GenericRecord> task = task(
+        source, source, new AddOffset(1000));
+    task.setWriteMode(Target.WriteMode.OVERWRITE);
+    task.run();
+
+    assertIds(1000, 60, read(source));
+    assertNoStagedData();
+  }
+
+  @Test
+  public void testFailureLeavesTarget() throws Exception {
+    Dataset<GenericRecord> target = createTarget(null);
+    writeTestRecords(target, 100, 10);
+
+    TransformTask<GenericRecord, GenericRecord> task = task(
+        source, target, new FailAt(45));
+    task.setNumThreads(3);
+    try {
+      task.run();
+      Assert.fail("Should fail to transform record 45");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    assertIds(100, 10, read(target));
+    assertNoStagedData();
+  }
+
+  @Test
+  public void testFailedOverwriteLeavesTarget() throws Exception {
+    Dataset<GenericRecord> target = createTarget(null);
+    writeTestRecords(target, 100, 10);
+
+    TransformTask<GenericRecord, GenericRecord> task = task(
+        source, target, new FailAt(45));
+    task.setWriteMode(Target.WriteMode.OVERWRITE);
+    try {
+      task.run();
+      Assert.fail("Should fail to transform record 45");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    assertIds(100, 10, read(target));
+    assertNoStagedData();
+  }
+
+  @Test
+  public void testRejectsWrongEntityClass() throws Exception {
+    Dataset<GenericRecord> target = createTarget(null);
+
+    TransformTask<GenericRecord, GenericRecord> task = task(
+        source, target, new EmitString());
+    try {
+      task.run();
+      Assert.fail("Should reject entities that are not records");
+    } catch (DatasetException e) {
+      // expected
+    }
+
+    Assert.assertTrue("Should not write any records", read(target).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsSortedTarget() throws Exception {
+    Dataset<GenericRecord> target = Datasets.create(TARGET,
+        new DatasetDescriptor.Builder()
+            .schema(SCHEMA)
+            .property("kite.writer.sort-fields", "id")
+            .build());
+
+    task(source, target, IdentityFn.<GenericRecord>getInstance()).run();
+  }
+
+  @Test
+  public void testSortedTargetIsNotCopiedLocally() throws Exception {
+    // replace the source with one file in reverse order
+    Datasets.delete(SOURCE);
+    source = Datasets.create(SOURCE, new DatasetDescriptor.Builder()
+        .schema(SCHEMA)
+        .build());
+    DatasetWriter<GenericRecord> writer = source.newWriter();
+    try {
+      for (long i = 59; i >= 0; i -= 1) {
+        GenericRecord record = new GenericData.Record(SCHEMA);
+        record.put("id", i);
+        record.put("data", "test-" + i);
+        writer.write(record);
+      }
+    } finally {
+      writer.close();
+    }
+
+    Dataset<GenericRecord> target = Datasets.create(TARGET,
+        new DatasetDescriptor.Builder()
+            .schema(SCHEMA)
+            .property("kite.writer.sort-fields", "id")
+            .build());
+
+    // a small local copy would run locally, but only the job sorts
+    TransformTask<GenericRecord, GenericRecord> task =
+        new TransformTask<GenericRecord, GenericRecord>(
+            source, target, IdentityFn.<GenericRecord>getInstance());
+    task.setConf(new Configuration());
+    task.run();
+
+    List<GenericRecord> records = read(target);
+    Assert.assertEquals(60, records.size());
+    long last = Long.MIN_VALUE;
+    for (GenericRecord record : records) {
+      long id = (Long) record.get("id");
+      Assert.assertTrue("Should be sorted by the job", last < id);
+      last = id;
+    }
+  }
+
+  private Dataset<GenericRecord> createTarget(PartitionStrategy strategy) {
+    DatasetDescriptor.Builder builder = new DatasetDescriptor.Builder()
+        .schema(SCHEMA);
+    if (strategy != null) {
+      builder.partitionStrategy(strategy);
+    }
+    return Datasets.create(TARGET, builder.build());
+  }
+
+  private static TransformTask<GenericRecord, GenericRecord> task(
+      View<GenericRecord> from, View<GenericRecord> to,
+      DoFn<GenericRecord, GenericRecord> fn) {
+    TransformTask<GenericRecord, GenericRecord> task =
+        new TransformTask<GenericRecord, GenericRecord>(from, to, fn);
+    task.setConf(new Configuration());
+    task.setLocal(true);
+    return task;
+  }
+
+  private static void assertIds(long start, int count,
+                                List<GenericRecord> records) {
+    Assert.assertEquals("Should not lose or duplicate records",
+        count, records.size());
+    boolean[] seen = new boolean[count];
+    for (GenericRecord record : records) {
+      int offset = (int) ((Long) record.get("id") - start);
+      Assert.assertTrue("Unexpected id: " + record.get("id"),
+          offset >= 0 && offset < count && !seen[offset]);
+      seen[offset] = true;
+    }
+  }
+
+  private static void assertNoStagedData() {
+    String[] staged = TEMP_DIR.list();
+    if (staged != null) {
+      for (String name : staged) {
+        Assert.assertFalse("Should remove staged data: " + name,
+            name.startsWith("local-"));
+      }
+    }
+  }
+
+  private static List<GenericRecord> read(View<GenericRecord> view) {
+    List<GenericRecord> records = Lists.newArrayList();
+    DatasetReader<GenericRecord> reader = view.newReader();
+    try {
+      for (GenericRecord record : reader) {
+        records.add(record);
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  private static void writeTestRecords(View<GenericRecord> view,
+                                       long start, int count) {
+    DatasetWriter<GenericRecord> writer = null;
+    try {
+      writer = view.newWriter();
+      for (long i = start; i < start + count; i += 1) {
+        GenericRecord record = new GenericData.Record(SCHEMA);
+        record.put("id", i);
+        record.put("data", "test-" + i);
+        writer.write(record);
+      }
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  private static class AddOffset extends DoFn<GenericRecord, GenericRecord> {
+    private final long offset;
+
+    private AddOffset(long offset) {
+      this.offset = offset;
+    }
+
+    @Override
+    public void process(GenericRecord input, Emitter<GenericRecord> emitter) {
+      long id = (Long) input.get("id");
+      GenericRecord record = new GenericData.Record(SCHEMA);
+      record.put("id", id + offset);
+      record.put("data", input.get("data"));
+      emitter.emit(record);
+    }
+  }
+
+  private static class FailAt extends DoFn<GenericRecord, GenericRecord> {
+    private final long failId;
+
+    private FailAt(long failId) {
+      this.failId = failId;
+    }
+
+    @Override
+    public void process(GenericRecord input, Emitter<GenericRecord> emitter) {
+      if (failId == (Long) input.get("id")) {
+        throw new IllegalStateException("Failed on record " + failId);
+      }
+      emitter.emit(input);
+    }
+  }
+
+  private static class EmitString extends DoFn<GenericRecord, GenericRecord> {
+    @Override
+    @SuppressWarnings("unchecked")
+    public void process(GenericRecord input, Emitter<GenericRecord> emitter) {
+      ((Emitter) emitter).emit(input.get("data").toString());
+    }
+  }
+}